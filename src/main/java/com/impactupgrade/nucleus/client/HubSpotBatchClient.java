@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.util.HttpClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.impactupgrade.nucleus.util.HttpClient.post;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/**
+ * Thin layer over the CRM v3 batch endpoints (/crm/v3/objects/{objectType}/batch/*), which the HubSpot lib doesn't
+ * fully expose. Reads and searches deserialize into the lib's own models (Contact, Company, Deal, etc.), so callers
+ * can keep using the same toCrm* mappers.
+ *
+ * Inserts and updates are queued and sent 100 at a time (HubSpot's per-call max), similar to SFDCPartnerAPIClient's
+ * batchInsert, batchUpdate, and batchFlush. HubSpot applies each batch as a whole, so one bad record fails the batch.
+ * Check the logs! The queues may be shared by concurrent callers (ie, one service instance per env), so they're only
+ * touched while holding their lock, but the HTTP calls are made outside it.
+ */
+public class HubSpotBatchClient {
+
+  private static final String HUBSPOT_API_URL = "https://api.hubapi.com";
+  public static final int BATCH_SIZE = 100;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  protected final Environment env;
+  private final String apiKey;
+  private final String baseUrl;
+
+  // objectType -> inputs, guarded by itself
+  private final Map<String, List<BatchInput>> batchInserts = new LinkedHashMap<>();
+  // objectType -> (id -> properties), guarded by itself
+  private final Map<String, Map<String, Object>> batchUpdates = new LinkedHashMap<>();
+
+  public HubSpotBatchClient(Environment env) {
+    this(env, HUBSPOT_API_URL);
+  }
+
+  public HubSpotBatchClient(Environment env, String baseUrl) {
+    this.env = env;
+    this.apiKey = env.getConfig().hubspot.secretKey;
+    this.baseUrl = baseUrl;
+  }
+
+  public <T> List<T> batchRead(String objectType, Collection<String> ids, Collection<String> properties, Class<T> clazz) {
+    List<T> results = new ArrayList<>();
+    for (List<String> batch : Lists.partition(ids.stream().distinct().toList(), BATCH_SIZE)) {
+      BatchRequest request = new BatchRequest();
+      request.properties = properties;
+      request.inputs = batch.stream().map(id -> new BatchInput(id, null)).toList();
+      results.addAll(batchPost(objectType, "read", request, clazz));
+    }
+    return results;
+  }
+
+  /**
+   * Properties can be either a Map or one of the lib's *Properties models (ContactProperties, etc.). Results are in
+   * the same order as the inputs.
+   */
+  public <T> List<T> batchCreate(String objectType, List<?> propertiesList, Class<T> clazz) {
+    return batchCreateInputs(objectType, propertiesList.stream().map(properties -> new BatchInput(null, properties)).toList(), clazz);
+  }
+
+  // For inputs that also carry associations.
+  public <T> List<T> batchCreateInputs(String objectType, List<BatchInput> inputs, Class<T> clazz) {
+    List<T> results = new ArrayList<>();
+    for (List<BatchInput> batch : Lists.partition(inputs, BATCH_SIZE)) {
+      BatchRequest request = new BatchRequest();
+      request.inputs = batch;
+      results.addAll(batchPost(objectType, "create", request, clazz));
+    }
+    return results;
+  }
+
+  /**
+   * Queued version of batchCreate, for when the caller doesn't need the new IDs. Associations (ie, a deal's contact
+   * and company) are created along with the record.
+   */
+  public void batchInsert(String objectType, Object properties, List<BatchAssociation> associations) {
+    List<BatchInput> toFlush = null;
+    synchronized (batchInserts) {
+      List<BatchInput> inserts = batchInserts.computeIfAbsent(objectType, k -> new ArrayList<>());
+      inserts.add(new BatchInput(null, properties, associations));
+      if (inserts.size() >= BATCH_SIZE) {
+        toFlush = batchInserts.remove(objectType);
+      }
+    }
+    if (toFlush != null) {
+      flushInserts(objectType, toFlush);
+    }
+  }
+
+  public void batchUpdate(String objectType, String id, Object properties) {
+    Map<String, Object> toFlush = null;
+    synchronized (batchUpdates) {
+      Map<String, Object> updates = batchUpdates.computeIfAbsent(objectType, k -> new LinkedHashMap<>());
+      // if the same record is updated twice in one batch, HubSpot rejects the duplicate, so last one wins
+      updates.put(id, properties);
+      if (updates.size() >= BATCH_SIZE) {
+        toFlush = batchUpdates.remove(objectType);
+      }
+    }
+    if (toFlush != null) {
+      flushUpdates(objectType, toFlush);
+    }
+  }
+
+  public void batchFlush() {
+    Map<String, List<BatchInput>> inserts;
+    synchronized (batchInserts) {
+      inserts = new LinkedHashMap<>(batchInserts);
+      batchInserts.clear();
+    }
+    Map<String, Map<String, Object>> updates;
+    synchronized (batchUpdates) {
+      updates = new LinkedHashMap<>(batchUpdates);
+      batchUpdates.clear();
+    }
+
+    // inserts first, in case an update in the same batch depends on them
+    inserts.forEach(this::flushInserts);
+    updates.forEach(this::flushUpdates);
+  }
+
+  private void flushInserts(String objectType, List<BatchInput> inserts) {
+    if (inserts.isEmpty()) {
+      return;
+    }
+
+    BatchRequest request = new BatchRequest();
+    request.inputs = inserts;
+    batchPost(objectType, "create", request, JsonNode.class);
+    env.logJobInfo("flushed {} {} inserts", inserts.size(), objectType);
+  }
+
+  private void flushUpdates(String objectType, Map<String, Object> updates) {
+    if (updates.isEmpty()) {
+      return;
+    }
+
+    BatchRequest request = new BatchRequest();
+    request.inputs = updates.entrySet().stream().map(e -> new BatchInput(e.getKey(), e.getValue())).toList();
+    batchPost(objectType, "update", request, JsonNode.class);
+    env.logJobInfo("flushed {} {} updates", updates.size(), objectType);
+  }
+
+  /**
+   * Search for records where the given property matches any of the values, using IN filters of up to 100 values
+   * at a time. Auto-pages through each chunk's results.
+   */
+  public <T> List<T> searchIn(String objectType, String propertyName, Collection<String> values,
+      Collection<String> properties, Class<T> clazz) {
+    List<T> results = new ArrayList<>();
+    for (List<String> batch : Lists.partition(values.stream().distinct().toList(), BATCH_SIZE)) {
+      SearchFilter filter = new SearchFilter();
+      filter.propertyName = propertyName;
+      filter.operator = "IN";
+      filter.values = batch;
+      SearchFilterGroup filterGroup = new SearchFilterGroup();
+      filterGroup.filters = List.of(filter);
+
+      SearchRequest request = new SearchRequest();
+      request.filterGroups = List.of(filterGroup);
+      request.properties = properties;
+      request.limit = BATCH_SIZE;
+
+      do {
+        JsonNode response = post(baseUrl + "/crm/v3/objects/" + objectType + "/search", request, APPLICATION_JSON, headers(), JsonNode.class);
+        results.addAll(toResults(response, clazz));
+        request.after = nextAfter(response);
+      } while (request.after != null);
+    }
+    return results;
+  }
+
+  private <T> List<T> batchPost(String objectType, String operation, BatchRequest request, Class<T> clazz) {
+    JsonNode response = post(baseUrl + "/crm/v3/objects/" + objectType + "/batch/" + operation, request, APPLICATION_JSON, headers(), JsonNode.class);
+    if (response != null && response.has("errors")) {
+      env.logJobWarn("HubSpot batch {} on {} had errors: {}", operation, objectType, response.get("errors"));
+    }
+    return toResults(response, clazz);
+  }
+
+  private <T> List<T> toResults(JsonNode response, Class<T> clazz) {
+    List<T> results = new ArrayList<>();
+    if (response != null && response.has("results")) {
+      for (JsonNode result : response.get("results")) {
+        results.add(MAPPER.convertValue(result, clazz));
+      }
+    }
+    return results;
+  }
+
+  private String nextAfter(JsonNode response) {
+    if (response == null) {
+      return null;
+    }
+    JsonNode after = response.path("paging").path("next").path("after");
+    return after.isMissingNode() || after.isNull() ? null : after.asText();
+  }
+
+  private HttpClient.HeaderBuilder headers() {
+    return HttpClient.HeaderBuilder.builder().authBearerToken(apiKey);
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class BatchRequest {
+    public Collection<String> properties;
+    public List<BatchInput> inputs;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class BatchInput {
+    public String id;
+    public Object properties;
+    public List<BatchAssociation> associations;
+
+    public BatchInput() {}
+
+    public BatchInput(String id, Object properties) {
+      this.id = id;
+      this.properties = properties;
+    }
+
+    public BatchInput(String id, Object properties, List<BatchAssociation> associations) {
+      this(id, properties);
+      this.associations = associations == null || associations.isEmpty() ? null : associations;
+    }
+  }
+
+  // Ex: a deal's contact is (HUBSPOT_DEFINED, 3) and its company is (HUBSPOT_DEFINED, 5).
+  public static class BatchAssociation {
+    public Map<String, String> to;
+    public List<AssociationType> types;
+
+    public BatchAssociation() {}
+
+    public BatchAssociation(String toId, int associationTypeId) {
+      this.to = Map.of("id", toId);
+      this.types = List.of(new AssociationType("HUBSPOT_DEFINED", associationTypeId));
+    }
+  }
+
+  public static class AssociationType {
+    public String associationCategory;
+    public int associationTypeId;
+
+    public AssociationType() {}
+
+    public AssociationType(String associationCategory, int associationTypeId) {
+      this.associationCategory = associationCategory;
+      this.associationTypeId = associationTypeId;
+    }
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class SearchRequest {
+    public List<SearchFilterGroup> filterGroups;
+    public Collection<String> properties;
+    public Integer limit;
+    public String after;
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class SearchFilterGroup {
+    public List<SearchFilter> filters;
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class SearchFilter {
+    public String propertyName;
+    public String operator;
+    public List<String> values;
+  }
+}
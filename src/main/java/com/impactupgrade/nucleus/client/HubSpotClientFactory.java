@@ -37,4 +37,8 @@ public class HubSpotClientFactory {
     public static PropertiesCrmV3Client propertiesCrmV3Client(Environment env) {
         return new PropertiesCrmV3Client(env.getConfig().hubspot.secretKey);
     }
+
+    public static HubSpotBatchClient batchClient(Environment env) {
+        return new HubSpotBatchClient(env);
+    }
 }
@@ -229,18 +229,30 @@ public class MailchimpClient {
     return sentTos;
   }
 
+  // Single window of campaign recipients, for callers that process large campaigns incrementally.
+  public List<SentToInfo> getCampaignRecipients(String campaignId, int offset, int count) throws IOException, MailchimpException {
+    GetCampaignSentToMethod getCampaignSentToMethod = new GetCampaignSentToMethod(campaignId);
+    getCampaignSentToMethod.fields = "sent_to.email_address,sent_to.status,total_items";
+    getCampaignSentToMethod.offset = offset;
+    getCampaignSentToMethod.count = count;
+    env.logJobInfo("retrieving campaign {} contacts (offset {}, count {})", campaignId, offset, count);
+    return client.execute(getCampaignSentToMethod).sent_to;
+  }
+
   public ContentInfo getCampaignContent(String campaignId) throws IOException, MailchimpException {
     GetCampaignContentMethod getCampaignContentMethod = new GetCampaignContentMethod(campaignId);
     return client.execute(getCampaignContentMethod);
   }
 
-  public void runBatchOperations(EnvironmentConfig.CommunicationPlatform mailchimpConfig, String batchStatusId, int attemptCount) throws Exception {
+  public BatchResult runBatchOperations(EnvironmentConfig.CommunicationPlatform mailchimpConfig, String batchStatusId, int attemptCount) throws Exception {
     if (Strings.isNullOrEmpty(batchStatusId)) {
-      return;
+      // nothing was submitted, so nothing could fail
+      return new BatchResult(true, 0, Collections.emptyList());
     }
 
     if (attemptCount == BATCH_STATUS_MAX_RETRIES) {
       env.logJobError("exhausted retries; returning...");
+      return new BatchResult(false, 0, Collections.emptyList());
     } else {
       GetBatchStatusMethod getBatchStatusMethod = new GetBatchStatusMethod(batchStatusId);
       BatchStatus batchStatus = client.execute(getBatchStatusMethod);
@@ -248,7 +260,7 @@ public class MailchimpClient {
         env.logJobInfo("Batch '{}' is not finished: {}/{} Retrying in {} seconds...", batchStatusId, batchStatus.finished_operations, batchStatus.total_operations, BATCH_STATUS_RETRY_WAIT_IN_SECONDS);
         Thread.sleep(BATCH_STATUS_RETRY_WAIT_IN_SECONDS * 1000);
         int newAttemptCount = attemptCount + 1;
-        runBatchOperations(mailchimpConfig, batchStatusId, newAttemptCount);
+        return runBatchOperations(mailchimpConfig, batchStatusId, newAttemptCount);
       } else {
         env.logJobInfo("Batch '{}' finished! (finished/total) {}/{}", batchStatusId, batchStatus.finished_operations, batchStatus.total_operations);
         if (batchStatus.errored_operations > 0) {
@@ -259,9 +271,10 @@ public class MailchimpClient {
 
         // TODO: Periodically failing, but don't hold up everything else if it does. Or compression in the response
         //  body may be different for large operations -- getting this: java.util.zip.ZipException: ZipFile invalid LOC header (bad signature)
+        List<MailchimpClient.BatchOperation> batchOperations = Collections.emptyList();
         try {
           String batchResponse = getBatchResponseAsString(batchStatus, mailchimpConfig);
-          List<MailchimpClient.BatchOperation> batchOperations = deserializeBatchOperations(batchResponse);
+          batchOperations = deserializeBatchOperations(batchResponse);
 
           // Logging error operations
           batchOperations.stream()
@@ -278,6 +291,7 @@ public class MailchimpClient {
         } catch (Exception e) {
           env.logJobWarn("failed to fetch batch operation results", e);
         }
+        return new BatchResult(true, batchStatus.errored_operations, batchOperations);
       }
     }
   }
@@ -354,6 +368,13 @@ public class MailchimpClient {
 
   public record TaggedContact(String email, Set<String> activeTags, Set<String> inactiveTags) {}
 
+  // operations is empty if the per-operation results couldn't be retrieved
+  public record BatchResult(boolean finished, int erroredOperations, List<BatchOperation> operations) {
+    public boolean isSuccessful() {
+      return finished && erroredOperations == 0;
+    }
+  }
+
   @JsonIgnoreProperties(ignoreUnknown = true)
   public static final class BatchOperation {
     @JsonProperty("status_code")
@@ -19,12 +19,14 @@ import com.sforce.ws.ConnectionException;
 import com.sforce.ws.ConnectorConfig;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -113,6 +115,47 @@ public class SfdcBulkClient {
     }
   }
 
+  /**
+   * Updates existing records, one row per record. Each row needs the Id, plus any of the given fields to set. Use
+   * #N/A to clear a field.
+   */
+  public void updateRecords(String sObjectType, List<String> fields, List<Map<String, String>> rows)
+      throws AsyncApiException, ConnectionException, IOException {
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    List<String> columns = new ArrayList<>();
+    columns.add("Id");
+    columns.addAll(fields);
+    StringBuilder csv = new StringBuilder();
+    csv.append(String.join(",", columns.stream().map(this::csvValue).toList())).append("\n");
+    for (Map<String, String> row : rows) {
+      csv.append(String.join(",", columns.stream().map(column -> csvValue(row.get(column))).toList())).append("\n");
+    }
+
+    try (InputStream csvInputStream = new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8))) {
+      BulkConnection bulkConn = bulkConn();
+
+      JobInfo job = createJob(sObjectType, OperationEnum.update, bulkConn);
+
+      List<BatchInfo> batches = createBatchesFromCSV(job, csvInputStream, bulkConn);
+      closeJob(job.getId(), bulkConn);
+      awaitCompletion(job, batches, bulkConn);
+      checkUploadResults(job, batches, bulkConn);
+    }
+  }
+
+  private String csvValue(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
+
   private void uploadSpec(JobInfo jobInfo, InputStream specFile, BulkConnection bulkConn) throws AsyncApiException {
     env.logJobInfo("uploading the spec file");
     bulkConn.createTransformationSpecFromStream(jobInfo, specFile);
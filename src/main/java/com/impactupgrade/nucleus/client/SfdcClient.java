@@ -9,10 +9,13 @@ import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.impactupgrade.integration.sfdc.SFDCPartnerAPIClient;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.model.AccountSearch;
 import com.impactupgrade.nucleus.model.ContactSearch;
+import com.impactupgrade.nucleus.model.PagedResults;
 import com.impactupgrade.nucleus.util.HttpClient;
 import com.impactupgrade.nucleus.util.Utils;
 import com.sforce.soap.partner.QueryResult;
@@ -35,12 +38,14 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.impactupgrade.nucleus.util.HttpClient.post;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
@@ -52,6 +57,35 @@ public class SfdcClient extends SFDCPartnerAPIClient {
 
   // SOQL has a 100k char limit for queries, so we're arbitrarily defining the page sizes...
   protected static final int MAX_ID_QUERY_LIST_SIZE = 500;
+  // searchContactsPaged's ORDER BY, ending in Id so that it's unique
+  protected static final List<String> CONTACT_SEARCH_KEYSET = List.of("LastName", "FirstName", "Id");
+
+  protected static final SoqlTemplate ACCOUNT_BY_ID = SoqlTemplate.compile("select {fields} from account where id = ?");
+  // Note the formal greeting -- super important, as that's often used in numerous imports/exports
+  protected static final SoqlTemplate ACCOUNTS_BY_NAME = SoqlTemplate.compile("select {fields} from account where name like ? or npo02__Formal_Greeting__c=?");
+  protected static final SoqlTemplate CAMPAIGN_BY_ID = SoqlTemplate.compile("select {fields} from campaign where id = ?");
+  protected static final SoqlTemplate CAMPAIGN_BY_NAME = SoqlTemplate.compile("select {fields} from campaign where name = ?");
+  protected static final SoqlTemplate CONTACT_BY_ID = SoqlTemplate.compile("select {fields} from contact where id = ? ORDER BY name");
+  protected static final SoqlTemplate CONTACTS_BY_ACCOUNT_ID = SoqlTemplate.compile("select {fields} from contact where accountId = ? ORDER BY name");
+  protected static final SoqlTemplate CONTACTS_BY_CAMPAIGN_ID = SoqlTemplate.compile("SELECT {fields} FROM Contact WHERE Id IN (SELECT ContactId FROM CampaignMember WHERE CampaignId=? AND ContactId != NULL)");
+  protected static final SoqlTemplate CONTACTS_BY_OPPORTUNITY_NAME = SoqlTemplate.compile("select {fields} from contact where id in (select contactid from Opportunity where name=? and contactid != null)");
+  protected static final SoqlTemplate DONATION_BY_ID = SoqlTemplate.compile("select {fields} from Opportunity where id = ?");
+  protected static final SoqlTemplate DONATIONS_BY_ACCOUNT_ID = SoqlTemplate.compile("select {fields} from Opportunity where accountid = ? AND StageName != 'Pledged' ORDER BY CloseDate DESC");
+  protected static final SoqlTemplate NEXT_PLEDGED_DONATION = SoqlTemplate.compile("SELECT {fields} FROM Opportunity WHERE npe03__Recurring_Donation__c = ? AND StageName = 'Pledged' AND CloseDate <= TOMORROW ORDER BY CloseDate DESC LIMIT 1");
+  protected static final SoqlTemplate RECORD_TYPE_BY_NAME = SoqlTemplate.compile("select id from recordtype where name = ?");
+  protected static final SoqlTemplate RECURRING_DONATION_BY_ID = SoqlTemplate.compile("select {fields} from npe03__Recurring_Donation__c where id=?");
+  protected static final SoqlTemplate RECURRING_DONATIONS_BY_ACCOUNT_ID = SoqlTemplate.compile("select {fields} from npe03__Recurring_Donation__c where Npe03__Organization__c = ?");
+  protected static final SoqlTemplate USER_BY_ID = SoqlTemplate.compile("select {fields} from user where id = ?");
+  protected static final SoqlTemplate USER_BY_EMAIL = SoqlTemplate.compile("select {fields} from user where isActive = true and email = ?");
+
+  // Digits-only E.164 copies of each contact phone field, created as external IDs so Salesforce indexes them.
+  // Nucleus keeps them populated on insert/update, and SfdcCrmService.backfillNormalizedPhones catches up the rest.
+  public static final Map<String, String> NORMALIZED_PHONE_FIELDS = new LinkedHashMap<>();
+  static {
+    NORMALIZED_PHONE_FIELDS.put("Phone", "Nucleus_Phone_Normalized__c");
+    NORMALIZED_PHONE_FIELDS.put("MobilePhone", "Nucleus_Mobile_Phone_Normalized__c");
+    NORMALIZED_PHONE_FIELDS.put("npe01__WorkPhone__c", "Nucleus_Work_Phone_Normalized__c");
+  }
 
   protected static final String AUTH_URL;
   static {
@@ -65,6 +99,10 @@ public class SfdcClient extends SFDCPartnerAPIClient {
 
   protected final Environment env;
 
+  // (prefix, fields, customFields, extraFields) -> SELECT list. Static, since env.sfdcClient() builds a new client
+  // for nearly every call, so a per-client cache would rarely see a second lookup.
+  private static final Cache<FieldsListKey, String> fieldsListCache = CacheBuilder.newBuilder().maximumSize(1000).build();
+
   protected String ACCOUNT_FIELDS;
   protected String CAMPAIGN_FIELDS;
   protected String CONTACT_FIELDS;
@@ -138,7 +176,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getAccountById(String accountId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(ACCOUNT_FIELDS, env.getConfig().salesforce.customQueryFields.account, extraFields) + " from account where id = '" + accountId + "'";
+    String query = ACCOUNT_BY_ID.bind(getFieldsList(ACCOUNT_FIELDS, env.getConfig().salesforce.customQueryFields.account, extraFields), accountId);
     return querySingle(query);
   }
   public List<SObject> getAccountsByIds(List<String> ids, String... extraFields) throws ConnectionException, InterruptedException {
@@ -149,9 +187,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getAccountsByName(String name, String... extraFields) throws ConnectionException, InterruptedException {
-    String escapedName = name.replaceAll("'", "\\\\'");
-    // Note the formal greeting -- super important, as that's often used in numerous imports/exports
-    String query = "select " + getFieldsList(ACCOUNT_FIELDS, env.getConfig().salesforce.customQueryFields.account, extraFields) + " from account where name like '%" + escapedName + "%' or npo02__Formal_Greeting__c='%" + escapedName + "%'";
+    String query = ACCOUNTS_BY_NAME.bind(getFieldsList(ACCOUNT_FIELDS, env.getConfig().salesforce.customQueryFields.account, extraFields), "%" + name + "%", "%" + name + "%");
     return queryList(query);
   }
   public List<SObject> getAccountsByNames(List<String> names, String... extraFields) throws ConnectionException, InterruptedException {
@@ -213,7 +249,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public Optional<SObject> getCampaignById(String campaignId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CAMPAIGN_FIELDS, env.getConfig().salesforce.customQueryFields.campaign, extraFields) + " from campaign where id = '" + campaignId + "'";
+    String query = CAMPAIGN_BY_ID.bind(getFieldsList(CAMPAIGN_FIELDS, env.getConfig().salesforce.customQueryFields.campaign, extraFields), campaignId);
     return querySingle(query);
   }
   public List<SObject> getCampaignsByIds(List<String> ids, String... extraFields) throws ConnectionException, InterruptedException {
@@ -221,7 +257,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public Optional<SObject> getCampaignByName(String campaignName, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CAMPAIGN_FIELDS, env.getConfig().salesforce.customQueryFields.campaign, extraFields) +  " from campaign where name = '" + campaignName.replaceAll("'", "\\\\'") + "'";
+    String query = CAMPAIGN_BY_NAME.bind(getFieldsList(CAMPAIGN_FIELDS, env.getConfig().salesforce.customQueryFields.campaign, extraFields), campaignName);
     return querySingle(query);
   }
   public List<SObject> getCampaignsByNames(List<String> names, String... extraFields) throws ConnectionException, InterruptedException {
@@ -265,8 +301,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
       more = Collections.emptyList();
     }
 
-    String idsJoin = page.stream().map(id -> "'" + id + "'").collect(Collectors.joining(","));
-    String query = "SELECT " + fieldName + ", CampaignId, Campaign.Id, Campaign.Name FROM CampaignMember WHERE " + fieldName + " IN (" + idsJoin + ")";
+    String query = "SELECT " + fieldName + ", CampaignId, Campaign.Id, Campaign.Name FROM CampaignMember WHERE " + fieldName + " IN (" + SoqlTemplate.literals(page) + ")";
     if (!Strings.isNullOrEmpty(filter)) {
       query += " AND " + filter;
     }
@@ -285,12 +320,12 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getContactById(String contactId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " from contact where id = '" + contactId + "' ORDER BY name";
+    String query = CONTACT_BY_ID.bind(getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields), contactId);
     return querySingle(query);
   }
   // TODO: needs additional filters, like the opt-out fields, from queryEmailContacts -- DRY it up?
   public Optional<SObject> getFilteredContactById(String contactId, String filter, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " from contact where id = '" + contactId + "' and " + filter + " ORDER BY name";
+    String query = "select " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " from contact where id = " + SoqlTemplate.literal(contactId) + " and " + filter + " ORDER BY name";
     return querySingle(query);
   }
   public List<SObject> getContactsByIds(List<String> ids, String... extraFields) throws ConnectionException, InterruptedException {
@@ -302,7 +337,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getContactsByAccountId(String accountId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " from contact where accountId = '" + accountId + "' ORDER BY name";
+    String query = CONTACTS_BY_ACCOUNT_ID.bind(getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields), accountId);
     return queryList(query);
   }
 
@@ -315,7 +350,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getContactsByCampaignId(String campaignId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "SELECT " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " FROM Contact WHERE Id IN (SELECT ContactId FROM CampaignMember WHERE CampaignId='" + campaignId + "' AND ContactId != NULL)";
+    String query = CONTACTS_BY_CAMPAIGN_ID.bind(getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields), campaignId);
     return queryListAutoPaged(query);
   }
 
@@ -370,7 +405,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getContactsByOpportunityName(String opportunityName, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields) +  " from contact where id in (select contactid from Opportunity where name='" + opportunityName.replaceAll("'", "\\\\'") + "' and contactid != null)";
+    String query = CONTACTS_BY_OPPORTUNITY_NAME.bind(getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields), opportunityName);
     return queryListAutoPaged(query);
   }
 
@@ -555,6 +590,85 @@ public class SfdcClient extends SFDCPartnerAPIClient {
 
   public List<SObject> searchContacts(ContactSearch contactSearch, String... extraFields)
       throws ConnectionException, InterruptedException {
+    String query = "select " + getContactSearchSelect(contactSearch, extraFields) + " from contact "
+        + getContactSearchWhere(getContactSearchClauses(contactSearch)) + " ORDER BY LastName, FirstName";
+
+    if (contactSearch.pageSize != null && contactSearch.pageSize > 0) {
+      query += " LIMIT " + contactSearch.pageSize;
+    }
+    Integer offset = contactSearch.getPageOffset();
+    if (offset != null && offset > 0) {
+      query += " OFFSET " + offset;
+    }
+
+    return queryList(query);
+  }
+
+  /**
+   * Same search as searchContacts, but paged by keyset: results are ordered by (LastName, FirstName, Id) and the
+   * nextPageToken (an SfdcPageToken) carries the last of those seen, so each page seeks directly past the previous one
+   * instead of using OFFSET. That keeps deep pages as fast as the first, and past OFFSET's 2000 row cap.
+   *
+   * A legacy numeric pageToken still pages by OFFSET. Without a pageSize, nothing is LIMITed, so large results are
+   * handed back one queryMore batch at a time, with the locator as the nextPageToken. Note that locators expire after
+   * ~15 minutes of inactivity.
+   */
+  public PagedResults.ResultSet<SObject> searchContactsPaged(ContactSearch contactSearch, String... extraFields)
+      throws ConnectionException, InterruptedException {
+    if (SfdcPageToken.isOffset(contactSearch.pageToken)) {
+      List<SObject> results = searchContacts(contactSearch, extraFields);
+      return PagedResults.pagedResultsFromCurrentOffset(results, contactSearch).getResultSets().get(0);
+    }
+
+    SfdcPageToken pageToken = SfdcPageToken.decode(contactSearch.pageToken);
+    if (pageToken != null && pageToken.isQueryLocator()) {
+      QueryResult queryResult = queryMore(pageToken.getQueryLocator());
+      return new PagedResults.ResultSet<>(Arrays.asList(queryResult.getRecords()), nextLocatorToken(queryResult));
+    }
+
+    QueryResult queryResult = query(getContactSearchPagedQuery(contactSearch, pageToken, extraFields));
+    if (contactSearch.pageSize == null || contactSearch.pageSize <= 0) {
+      return new PagedResults.ResultSet<>(Arrays.asList(queryResult.getRecords()), nextLocatorToken(queryResult));
+    }
+
+    // a LIMIT larger than Salesforce's batch size still comes back in batches, so finish the page here
+    List<SObject> results = new ArrayList<>(Arrays.asList(queryResult.getRecords()));
+    while (!queryResult.isDone()) {
+      queryResult = queryMore(queryResult.getQueryLocator());
+      results.addAll(Arrays.asList(queryResult.getRecords()));
+    }
+
+    String nextPageToken = null;
+    // one extra record is queried, only to tell whether there's another page
+    if (results.size() > contactSearch.pageSize) {
+      results = results.subList(0, contactSearch.pageSize);
+      SObject last = results.get(results.size() - 1);
+      nextPageToken = SfdcPageToken.keyset((String) last.getField("LastName"), (String) last.getField("FirstName"),
+          last.getId()).encode();
+    }
+    return new PagedResults.ResultSet<>(results, nextPageToken);
+  }
+
+  protected String getContactSearchPagedQuery(ContactSearch contactSearch, SfdcPageToken after, String... extraFields) {
+    // some clauses are bare ORs, which must not swallow the seek condition
+    List<String> clauses = new ArrayList<>(getContactSearchClauses(contactSearch).stream().map(c -> "(" + c + ")").toList());
+    if (after != null) {
+      clauses.add(after.seekClause(CONTACT_SEARCH_KEYSET));
+    }
+
+    String query = "select " + getContactSearchSelect(contactSearch, extraFields) + " from contact "
+        + getContactSearchWhere(clauses) + " ORDER BY LastName ASC NULLS FIRST, FirstName ASC NULLS FIRST, Id ASC";
+    if (contactSearch.pageSize != null && contactSearch.pageSize > 0) {
+      query += " LIMIT " + (contactSearch.pageSize + 1);
+    }
+    return query;
+  }
+
+  private String nextLocatorToken(QueryResult queryResult) {
+    return queryResult.isDone() ? null : SfdcPageToken.queryLocator(queryResult.getQueryLocator()).encode();
+  }
+
+  protected List<String> getContactSearchClauses(ContactSearch contactSearch) {
     List<String> clauses = new ArrayList<>();
 
     if (contactSearch.hasEmail != null) {
@@ -574,18 +688,9 @@ public class SfdcClient extends SFDCPartnerAPIClient {
     }
 
     if (!Strings.isNullOrEmpty(contactSearch.phone)) {
-      List<String> phoneNumberChunks = Utils.parsePhoneNumber(contactSearch.phone);
-
-      if (CollectionUtils.isNotEmpty(phoneNumberChunks)) {
-        String phonePartsCondition = String.join("%", phoneNumberChunks);
-        // TODO: Finding a few clients with no homephone, so taking that out for now.
-        StringBuilder phoneClause = new StringBuilder()
-            .append("Phone LIKE '%").append(phonePartsCondition).append("%'")
-            .append(" OR MobilePhone LIKE '%").append(phonePartsCondition).append("%'");
-        if (env.getConfig().salesforce.npsp) {
-          phoneClause.append(" OR npe01__WorkPhone__c LIKE '%").append(phonePartsCondition).append("%'");
-        }
-        clauses.add(phoneClause.toString());
+      String phoneClause = getPhoneClause(contactSearch.phone);
+      if (phoneClause != null) {
+        clauses.add(phoneClause);
       }
     }
 
@@ -624,29 +729,23 @@ public class SfdcClient extends SFDCPartnerAPIClient {
       }
     }
 
+    return clauses;
+  }
+
+  protected String getContactSearchWhere(List<String> clauses) {
     String fullClause = String.join( " AND ", clauses);
     if (!Strings.isNullOrEmpty(fullClause)) {
       fullClause = "where " + fullClause;
     }
+    return fullClause;
+  }
 
-    String select;
+  protected String getContactSearchSelect(ContactSearch contactSearch, String... extraFields) {
     if (contactSearch.basicSearch) {
-      select = "Id, FirstName, LastName";
+      return "Id, FirstName, LastName";
     } else {
-      select = getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields);
+      return getFieldsList(CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields);
     }
-
-    String query ="select " + select +  " from contact " + fullClause + " ORDER BY LastName, FirstName";
-
-    if (contactSearch.pageSize != null && contactSearch.pageSize > 0) {
-      query += " LIMIT " + contactSearch.pageSize;
-    }
-    Integer offset = contactSearch.getPageOffset();
-    if (offset != null && offset > 0) {
-      query += " OFFSET " + offset;
-    }
-
-    return queryList(query);
   }
 
   public List<SObject> getContactsByEmails(List<String> emails, String... extraFields) throws ConnectionException, InterruptedException {
@@ -658,11 +757,71 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getContactsByPhones(List<String> phones, String... extraFields) throws ConnectionException, InterruptedException {
-    List<String> chunkedPhones = phones.stream().map(Utils::parsePhoneNumber).filter(CollectionUtils::isNotEmpty)
+    List<String> likePhones = phones;
+    List<SObject> contacts = new ArrayList<>();
+
+    if (env.getConfig().salesforce.normalizedPhoneSearch) {
+      // complete numbers are an indexed IN lookup, and only partial ones still need LIKE
+      List<String> normalizedPhones = new ArrayList<>();
+      likePhones = new ArrayList<>();
+      for (String phone : phones) {
+        String normalizedPhone = Utils.normalizePhoneNumber(phone);
+        if (normalizedPhone != null) {
+          normalizedPhones.add(normalizedPhone);
+        } else {
+          likePhones.add(phone);
+        }
+      }
+      contacts.addAll(getBulkResults(normalizedPhones.stream().distinct().toList(), List.copyOf(getNormalizedPhoneFields().values()), false,
+          "Contact", CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields));
+    }
+
+    List<String> chunkedPhones = likePhones.stream().map(Utils::parsePhoneNumber).filter(CollectionUtils::isNotEmpty)
         .map(c -> String.join("%", c)).toList();
+    // TODO: Finding a few clients with no homephone, so taking that out for now.
+    List<SObject> likeContacts = getBulkResults(chunkedPhones, List.of("Phone", "MobilePhone", "npe01__WorkPhone__c"), true, "Contact", CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields);
+
+    if (contacts.isEmpty()) {
+      return likeContacts;
+    }
+    Set<String> ids = contacts.stream().map(SObject::getId).collect(Collectors.toSet());
+    likeContacts.stream().filter(contact -> ids.add(contact.getId())).forEach(contacts::add);
+    return contacts;
+  }
+
+  // phone field -> normalized shadow field, for whichever phone fields this org has
+  public Map<String, String> getNormalizedPhoneFields() {
+    Map<String, String> normalizedPhoneFields = new LinkedHashMap<>(NORMALIZED_PHONE_FIELDS);
+    if (!env.getConfig().salesforce.npsp) {
+      normalizedPhoneFields.remove("npe01__WorkPhone__c");
+    }
+    return normalizedPhoneFields;
+  }
+
+  protected String getPhoneClause(String phone) {
+    if (env.getConfig().salesforce.normalizedPhoneSearch) {
+      String normalizedPhone = Utils.normalizePhoneNumber(phone);
+      if (normalizedPhone != null) {
+        String value = SoqlTemplate.literal(normalizedPhone);
+        return "(" + getNormalizedPhoneFields().values().stream().map(field -> field + " = " + value)
+            .collect(Collectors.joining(" OR ")) + ")";
+      }
+      // partial numbers fall back to LIKE
+    }
 
+    List<String> phoneNumberChunks = Utils.parsePhoneNumber(phone);
+    if (CollectionUtils.isEmpty(phoneNumberChunks)) {
+      return null;
+    }
+    String phonePartsCondition = String.join("%", phoneNumberChunks);
     // TODO: Finding a few clients with no homephone, so taking that out for now.
-    return getBulkResults(chunkedPhones, List.of("Phone", "MobilePhone", "npe01__WorkPhone__c"), true, "Contact", CONTACT_FIELDS, env.getConfig().salesforce.customQueryFields.contact, extraFields);
+    StringBuilder phoneClause = new StringBuilder()
+        .append("Phone LIKE '%").append(phonePartsCondition).append("%'")
+        .append(" OR MobilePhone LIKE '%").append(phonePartsCondition).append("%'");
+    if (env.getConfig().salesforce.npsp) {
+      phoneClause.append(" OR npe01__WorkPhone__c LIKE '%").append(phonePartsCondition).append("%'");
+    }
+    return phoneClause.toString();
   }
 
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -688,7 +847,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getDonationById(String donationId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields) +  " from Opportunity where id = '" + donationId + "'";
+    String query = DONATION_BY_ID.bind(getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields), donationId);
     return querySingle(query);
   }
 
@@ -702,7 +861,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public Optional<SObject> getDonationByTransactionId(String transactionId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields) +  " from Opportunity where " + env.getConfig().salesforce.fieldDefinitions.paymentGatewayTransactionId + " = '" + transactionId + "'";
+    String query = "select " + getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields) +  " from Opportunity where " + env.getConfig().salesforce.fieldDefinitions.paymentGatewayTransactionId + " = " + SoqlTemplate.literal(transactionId);
     return querySingle(query);
   }
 
@@ -720,7 +879,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
       more = Collections.emptyList();
     }
 
-    String transactionIdsJoin = page.stream().map(transactionId -> "'" + transactionId + "'").collect(Collectors.joining(","));
+    String transactionIdsJoin = SoqlTemplate.literals(page);
     // IMPORTANT: It's ***VITAL*** that this be ordered CloseDate+CreatedDate DESC! Ex: when we're processing a refund in a
     // payout, CrmDonation.getTransactionIds() will include both the refundId and the charge/paymentId. For some/most
     // orgs, refunds are typically reflected on the original Opp. But for others, they leave the original Opp with the
@@ -737,7 +896,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public List<SObject> getDonationsByAccountId(String accountId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields) +  " from Opportunity where accountid = '" + accountId + "' AND StageName != 'Pledged' ORDER BY CloseDate DESC";
+    String query = DONATIONS_BY_ACCOUNT_ID.bind(getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields), accountId);
     return queryListAutoPaged(query);
   }
 
@@ -766,7 +925,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   public Optional<SObject> getNextPledgedDonationByRecurringDonationId(String recurringDonationId, String... extraFields) throws ConnectionException, InterruptedException {
     // TODO: Using TOMORROW to account for timezone issues -- we can typically get away with that approach
     // since most RDs are monthly...
-    String query = "SELECT " + getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields) +  " FROM Opportunity WHERE npe03__Recurring_Donation__c = '" + recurringDonationId + "' AND StageName = 'Pledged' AND CloseDate <= TOMORROW ORDER BY CloseDate DESC LIMIT 1";
+    String query = NEXT_PLEDGED_DONATION.bind(getFieldsList(DONATION_FIELDS, env.getConfig().salesforce.customQueryFields.donation, extraFields), recurringDonationId);
     return querySingle(query);
   }
 
@@ -783,7 +942,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getRecordTypeByName(String recordTypeName) throws ConnectionException, InterruptedException {
-    String query = "select id from recordtype where name = '" + recordTypeName + "'";
+    String query = RECORD_TYPE_BY_NAME.bind(null, recordTypeName);
     return querySingle(query);
   }
 
@@ -792,7 +951,7 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getRecurringDonationById(String id, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields) +  " from npe03__Recurring_Donation__c where id='" + id + "'";
+    String query = RECURRING_DONATION_BY_ID.bind(getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields), id);
     return querySingle(query);
   }
   public List<SObject> getRecurringDonationsByIds(List<String> ids, String... extraFields) throws ConnectionException, InterruptedException {
@@ -800,12 +959,12 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   public Optional<SObject> getRecurringDonationBySubscriptionId(String subscriptionId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields) +  " from npe03__Recurring_Donation__c where " + env.getConfig().salesforce.fieldDefinitions.paymentGatewaySubscriptionId + " = '" + subscriptionId + "'";
+    String query = "select " + getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields) +  " from npe03__Recurring_Donation__c where " + env.getConfig().salesforce.fieldDefinitions.paymentGatewaySubscriptionId + " = " + SoqlTemplate.literal(subscriptionId);
     return querySingle(query);
   }
 
   public List<SObject> getRecurringDonationsByAccountId(String accountId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields) +  " from npe03__Recurring_Donation__c where Npe03__Organization__c = '" + accountId + "'";
+    String query = RECURRING_DONATIONS_BY_ACCOUNT_ID.bind(getFieldsList(RECURRINGDONATION_FIELDS, env.getConfig().salesforce.customQueryFields.recurringDonation, extraFields), accountId);
     return queryList(query);
   }
 
@@ -839,15 +998,30 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public Optional<SObject> getUserById(String userId, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(USER_FIELDS, env.getConfig().salesforce.customQueryFields.user, extraFields) +  " from user where id = '" + userId + "'";
+    String query = USER_BY_ID.bind(getFieldsList(USER_FIELDS, env.getConfig().salesforce.customQueryFields.user, extraFields), userId);
     return querySingle(query);
   }
 
   public Optional<SObject> getUserByEmail(String email, String... extraFields) throws ConnectionException, InterruptedException {
-    String query = "select " + getFieldsList(USER_FIELDS, env.getConfig().salesforce.customQueryFields.user, extraFields) +  " from user where isActive = true and email = '" + email + "'";
+    String query = USER_BY_EMAIL.bind(getFieldsList(USER_FIELDS, env.getConfig().salesforce.customQueryFields.user, extraFields), email);
     return querySingle(query);
   }
 
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // STREAMING
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  // Alternative to queryListAutoPaged for large result sets. Pages are retrieved in the background while the caller
+  // works through the current one, and only a couple are held at a time. Close the stream (try-with-resources)!
+  public Stream<SObject> queryStream(String query) throws ConnectionException, InterruptedException {
+    return queryStream(query, SfdcQueryCursor.DEFAULT_PREFETCH_DEPTH);
+  }
+
+  public Stream<SObject> queryStream(String query, int prefetchDepth) throws ConnectionException, InterruptedException {
+    QueryResult firstPage = query(query);
+    return new SfdcQueryCursor(firstPage, this::queryMore, prefetchDepth).stream();
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // INTERNAL
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -857,6 +1031,40 @@ public class SfdcClient extends SFDCPartnerAPIClient {
   }
 
   protected String getFieldsList(String prefix, String fields, Collection<String> customFields, String[] extraFields) {
+    // the inputs are a handful of constants and config sets, so the same few lists would otherwise be re-split,
+    // re-sorted, and re-joined on every query
+    String fieldsList = fieldsListCache.getIfPresent(new FieldsListKey(prefix, fields, customFields, extraFields));
+    if (fieldsList == null) {
+      fieldsList = buildFieldsList(prefix, fields, customFields, extraFields);
+      // lookups wrap the caller's collections as-is, but the stored key needs its own copies
+      fieldsListCache.put(new FieldsListKey(prefix, fields, Set.copyOf(customFields), extraFields.clone()), fieldsList);
+    }
+    return fieldsList;
+  }
+
+  private record FieldsListKey(String prefix, String fields, Collection<String> customFields, String[] extraFields) {
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof FieldsListKey other)) return false;
+      // the field constants are built once per client, so different clients rarely share the instance
+      return prefix.equals(other.prefix) && fields.equals(other.fields)
+          && customFields.size() == other.customFields.size() && customFields.containsAll(other.customFields)
+          && Arrays.equals(extraFields, other.extraFields);
+    }
+
+    @Override
+    public int hashCode() {
+      // String caches its own hash, so only the (usually empty) custom and extra fields are hashed per lookup
+      int hash = 31 * prefix.hashCode() + fields.hashCode();
+      for (String customField : customFields) {
+        hash += customField.hashCode();
+      }
+      return 31 * hash + Arrays.hashCode(extraFields);
+    }
+  }
+
+  private static String buildFieldsList(String prefix, String fields, Collection<String> customFields, String[] extraFields) {
     // deal with duplicates
     Set<String> fieldsDeduped = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
     fieldsDeduped.addAll(Arrays.stream(fields.split("[,\\s]+")).toList());
@@ -908,11 +1116,11 @@ public class SfdcClient extends SFDCPartnerAPIClient {
     if (useLike) {
       for (String value : page) {
         for (String conditionFieldName : conditionFieldNames) {
-          conditions.add(conditionFieldName + " LIKE '%" + value + "%'");
+          conditions.add(conditionFieldName + " LIKE " + SoqlTemplate.literal("%" + value + "%"));
         }
       }
     } else {
-      String valuesJoin = page.stream().map(condition -> "'" + condition.replaceAll("'", "\\\\'") + "'").collect(Collectors.joining(","));
+      String valuesJoin = SoqlTemplate.literals(page);
       for (String conditionFieldName : conditionFieldNames) {
         conditions.add(conditionFieldName + " IN (" + valuesJoin + ")");
       }
@@ -320,6 +320,28 @@ public class SfdcMetadataClient {
       customField.setValueSet(valueSet);
     }
 
+    saveCustomField(customField, metadataConn);
+  }
+
+  // Text, and marked as an external ID so that Salesforce indexes it, making exact-match lookups selective.
+  public void createExternalIdField(String objectName, String fieldName, String fieldLabel, int fieldLength)
+      throws ConnectionException {
+    MetadataConnection metadataConn = metadataConn();
+
+    CustomField customField = new CustomField();
+    customField.setFullName(objectName + "." + generateApiName(fieldName));
+    customField.setLabel(fieldLabel);
+    customField.setType(FieldType.Text);
+    customField.setLength(fieldLength);
+    customField.setExternalId(true);
+
+    saveCustomField(customField, metadataConn);
+  }
+
+  // creates the field, then grants every profile access to it
+  private void saveCustomField(CustomField customField, MetadataConnection metadataConn) throws ConnectionException {
+    String fullName = customField.getFullName();
+
     Arrays.stream(metadataConn.createMetadata(new Metadata[]{customField})).forEach(result -> env.logJobInfo(result.toString()));
 
     if (profilesMetadata == null) {
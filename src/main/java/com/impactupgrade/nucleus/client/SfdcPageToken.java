@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.google.common.base.Strings;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The nextPageToken for SOQL searches that page by keyset rather than OFFSET (which Salesforce caps at 2000 rows, and
+ * which gets slower the deeper it goes). Holds either the ORDER BY values of the last record seen, so the next page
+ * seeks past them, or a queryMore locator, when Salesforce itself split the results.
+ *
+ * Encoded tokens are opaque to callers. They never parse as a number, so legacy offset tokens (see
+ * AbstractSearch.getPageOffset) can still be told apart.
+ */
+public class SfdcPageToken {
+
+  private static final char KEYSET = 'k';
+  private static final char QUERY_LOCATOR = 'q';
+  private static final char NULL = '~';
+
+  private final List<String> keys;
+  private final String queryLocator;
+
+  private SfdcPageToken(List<String> keys, String queryLocator) {
+    this.keys = keys;
+    this.queryLocator = queryLocator;
+  }
+
+  // values may be null
+  public static SfdcPageToken keyset(String... keys) {
+    return new SfdcPageToken(Collections.unmodifiableList(Arrays.asList(keys)), null);
+  }
+
+  public static SfdcPageToken queryLocator(String queryLocator) {
+    return new SfdcPageToken(null, queryLocator);
+  }
+
+  public static boolean isOffset(String token) {
+    return !Strings.isNullOrEmpty(token) && token.chars().allMatch(Character::isDigit);
+  }
+
+  /**
+   * Returns null for an empty token or a legacy numeric offset.
+   */
+  public static SfdcPageToken decode(String token) {
+    if (Strings.isNullOrEmpty(token) || isOffset(token)) {
+      return null;
+    }
+
+    String s;
+    try {
+      s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("invalid page token: " + token, e);
+    }
+
+    if (!s.isEmpty() && s.charAt(0) == QUERY_LOCATOR) {
+      return queryLocator(s.substring(1));
+    }
+    if (s.isEmpty() || s.charAt(0) != KEYSET) {
+      throw new IllegalArgumentException("invalid page token: " + token);
+    }
+
+    // each key is either ~ (null) or length:value
+    List<String> keys = new ArrayList<>();
+    int i = 1;
+    try {
+      while (i < s.length()) {
+        if (s.charAt(i) == NULL) {
+          keys.add(null);
+          i++;
+        } else {
+          int colon = s.indexOf(':', i);
+          int length = Integer.parseInt(s.substring(i, colon));
+          keys.add(s.substring(colon + 1, colon + 1 + length));
+          i = colon + 1 + length;
+        }
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("invalid page token: " + token, e);
+    }
+    return keyset(keys.toArray(new String[0]));
+  }
+
+  public String encode() {
+    StringBuilder sb = new StringBuilder();
+    if (queryLocator != null) {
+      sb.append(QUERY_LOCATOR).append(queryLocator);
+    } else {
+      sb.append(KEYSET);
+      for (String key : keys) {
+        if (key == null) {
+          sb.append(NULL);
+        } else {
+          sb.append(key.length()).append(':').append(key);
+        }
+      }
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  public boolean isQueryLocator() {
+    return queryLocator != null;
+  }
+
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  public String getQueryLocator() {
+    return queryLocator;
+  }
+
+  /**
+   * The WHERE condition selecting records that sort after this token's keys, given the fields they came from (in ORDER
+   * BY order, ascending, nulls first). The last field must be unique (ie, Id), so ties can't skip or repeat a record.
+   *
+   * Ex: (LastName > 'Smith' OR (LastName = 'Smith' AND (FirstName > 'Jo' OR (FirstName = 'Jo' AND Id > '003...'))))
+   */
+  public String seekClause(List<String> fields) {
+    if (fields.size() != keys.size()) {
+      throw new IllegalArgumentException("page token has " + keys.size() + " keys, but " + fields.size() + " fields were given");
+    }
+    return seekClause(fields, 0);
+  }
+
+  private String seekClause(List<String> fields, int i) {
+    String field = fields.get(i);
+    String key = keys.get(i);
+    if (i == fields.size() - 1) {
+      return field + " > " + SoqlTemplate.literal(key);
+    }
+    String rest = seekClause(fields, i + 1);
+    if (key == null) {
+      // nulls sort first, so everything non-null comes after
+      return "(" + field + " != null OR (" + field + " = null AND " + rest + "))";
+    }
+    String literal = SoqlTemplate.literal(key);
+    return "(" + field + " > " + literal + " OR (" + field + " = " + literal + " AND " + rest + "))";
+  }
+}
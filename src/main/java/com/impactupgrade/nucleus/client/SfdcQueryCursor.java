@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over a SOQL result one queryMore page at a time, rather than accumulating every page into a single list
+ * (see queryListAutoPaged). While the caller works through the current page, a background thread retrieves the next.
+ * At most prefetchDepth pages are buffered, so memory stays bounded by page size, not result size.
+ *
+ * The cursor MUST be closed if the caller stops early, otherwise the fetch thread stays parked on the full buffer.
+ * Simplest is to use the Stream in a try-with-resources.
+ */
+public class SfdcQueryCursor implements Iterator<SObject>, AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger(SfdcQueryCursor.class);
+
+  public static final int DEFAULT_PREFETCH_DEPTH = 2;
+
+  @FunctionalInterface
+  public interface PageFetcher {
+    QueryResult queryMore(String queryLocator) throws Exception;
+  }
+
+  private static class Page {
+    private final SObject[] records;
+    private final Exception error;
+    private final boolean last;
+
+    private Page(SObject[] records, Exception error, boolean last) {
+      this.records = records;
+      this.error = error;
+      this.last = last;
+    }
+  }
+
+  private final BlockingQueue<Page> pages;
+  private final ExecutorService executor;
+
+  private SObject[] current = new SObject[0];
+  private int index = 0;
+  private boolean finished = false;
+  private volatile boolean closed = false;
+
+  public SfdcQueryCursor(QueryResult firstPage, PageFetcher pageFetcher) {
+    this(firstPage, pageFetcher, DEFAULT_PREFETCH_DEPTH);
+  }
+
+  public SfdcQueryCursor(QueryResult firstPage, PageFetcher pageFetcher, int prefetchDepth) {
+    current = records(firstPage);
+
+    if (firstPage.isDone()) {
+      pages = null;
+      executor = null;
+      finished = true;
+    } else {
+      pages = new ArrayBlockingQueue<>(prefetchDepth);
+      executor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("sfdc-query-cursor-%d").setDaemon(true).build());
+      String firstQueryLocator = firstPage.getQueryLocator();
+      executor.submit(() -> fetch(firstQueryLocator, pageFetcher));
+    }
+  }
+
+  private void fetch(String queryLocator, PageFetcher pageFetcher) {
+    try {
+      while (!closed) {
+        QueryResult queryResult = pageFetcher.queryMore(queryLocator);
+        boolean last = queryResult.isDone();
+        // blocks while the buffer is full, which is what bounds memory
+        pages.put(new Page(records(queryResult), null, last));
+        if (last) {
+          return;
+        }
+        queryLocator = queryResult.getQueryLocator();
+      }
+    } catch (InterruptedException e) {
+      // closed early
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      if (!closed) {
+        log.error("queryMore failed", e);
+        // the consumer may be blocked waiting for a page, so hand the error over instead of dropping it
+        try {
+          pages.put(new Page(new SObject[0], e, true));
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (index >= current.length) {
+      if (finished || closed) {
+        return false;
+      }
+
+      Page page;
+      try {
+        page = pages.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new RuntimeException("interrupted while waiting on the next SFDC page", e);
+      }
+
+      if (page.error != null) {
+        close();
+        throw new RuntimeException("failed to retrieve the next SFDC page", page.error);
+      }
+
+      current = page.records;
+      index = 0;
+      if (page.last) {
+        finished = true;
+        shutdown();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public SObject next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SObject sObject = current[index];
+    // release the reference so consumed records can be collected before the page is done
+    current[index] = null;
+    index++;
+    return sObject;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (pages != null) {
+      pages.clear();
+    }
+    shutdown();
+  }
+
+  private void shutdown() {
+    if (executor != null && !executor.isShutdown()) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public Stream<SObject> stream() {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(this::close);
+  }
+
+  private static SObject[] records(QueryResult queryResult) {
+    return queryResult.getRecords() == null ? new SObject[0] : queryResult.getRecords();
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A SOQL query parsed once into its literal segments, then bound per call. "{fields}" marks where the SELECT list goes
+ * and each "?" is a value. Bound values are always quoted and escaped, so callers don't hand-roll
+ * replaceAll("'", ...) (or forget to).
+ *
+ * Ex: SoqlTemplate.compile("SELECT {fields} FROM Contact WHERE AccountId = ? ORDER BY Name").bind(fields, accountId)
+ *
+ * Collections and arrays bind as a comma-separated list of literals, for use within IN (?).
+ */
+public class SoqlTemplate {
+
+  private static final String FIELDS = "{fields}";
+
+  // literal text, interleaved with the slots: null == {fields}, "" == ?
+  private final String[] segments;
+  private final int valueCount;
+  private final int baseLength;
+
+  private SoqlTemplate(String[] segments, int valueCount, int baseLength) {
+    this.segments = segments;
+    this.valueCount = valueCount;
+    this.baseLength = baseLength;
+  }
+
+  public static SoqlTemplate compile(String template) {
+    List<String> segments = new ArrayList<>();
+    int valueCount = 0;
+    int baseLength = 0;
+
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < template.length()) {
+      char c = template.charAt(i);
+      if (c == '?') {
+        segments.add(literal.toString());
+        segments.add("");
+        baseLength += literal.length();
+        literal.setLength(0);
+        valueCount++;
+        i++;
+      } else if (template.startsWith(FIELDS, i)) {
+        segments.add(literal.toString());
+        segments.add(null);
+        baseLength += literal.length();
+        literal.setLength(0);
+        i += FIELDS.length();
+      } else {
+        literal.append(c);
+        i++;
+      }
+    }
+    segments.add(literal.toString());
+    baseLength += literal.length();
+
+    return new SoqlTemplate(segments.toArray(new String[0]), valueCount, baseLength);
+  }
+
+  public String bind(String fields, Object... values) {
+    if (values.length != valueCount) {
+      throw new IllegalArgumentException("expected " + valueCount + " values, but received " + values.length);
+    }
+
+    StringBuilder sb = new StringBuilder(baseLength + (fields == null ? 0 : fields.length()) + 32 * valueCount);
+    int valueIndex = 0;
+    // segments alternate literal, slot, literal, slot, ..., literal
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      if (i % 2 == 0) {
+        sb.append(segment);
+      } else if (segment == null) {
+        sb.append(fields);
+      } else {
+        appendLiteral(sb, values[valueIndex++]);
+      }
+    }
+    return sb.toString();
+  }
+
+  public static String literal(Object value) {
+    StringBuilder sb = new StringBuilder();
+    appendLiteral(sb, value);
+    return sb.toString();
+  }
+
+  public static String literals(Collection<?> values) {
+    return values.stream().map(SoqlTemplate::literal).collect(Collectors.joining(","));
+  }
+
+  // See https://developer.salesforce.com/docs/atlas.en-us.soql_sosl.meta/soql_sosl/sforce_api_calls_soql_select_quotedstringescapes.htm
+  public static String escape(String value) {
+    StringBuilder sb = new StringBuilder(value.length() + 8);
+    appendEscaped(sb, value);
+    return sb.toString();
+  }
+
+  private static void appendLiteral(StringBuilder sb, Object value) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof Number || value instanceof Boolean) {
+      sb.append(value);
+    } else if (value instanceof Collection<?> collection) {
+      appendList(sb, collection);
+    } else if (value instanceof Object[] array) {
+      appendList(sb, Arrays.asList(array));
+    } else {
+      sb.append('\'');
+      appendEscaped(sb, value.toString());
+      sb.append('\'');
+    }
+  }
+
+  private static void appendList(StringBuilder sb, Collection<?> values) {
+    boolean first = true;
+    for (Object value : values) {
+      if (!first) {
+        sb.append(',');
+      }
+      appendLiteral(sb, value);
+      first = false;
+    }
+  }
+
+  private static void appendEscaped(StringBuilder sb, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\' -> sb.append("\\\\");
+        case '\'' -> sb.append("\\'");
+        case '"' -> sb.append("\\\"");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        case '\b' -> sb.append("\\b");
+        case '\f' -> sb.append("\\f");
+        default -> sb.append(c);
+      }
+    }
+  }
+}
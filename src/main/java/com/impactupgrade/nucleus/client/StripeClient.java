@@ -7,6 +7,7 @@ package com.impactupgrade.nucleus.client;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.util.ApiThrottle;
 import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.RateLimitException;
 import com.stripe.exception.StripeException;
@@ -14,8 +15,8 @@ import com.stripe.model.BalanceTransaction;
 import com.stripe.model.BalanceTransactionCollection;
 import com.stripe.model.Card;
 import com.stripe.model.Charge;
-import com.stripe.model.ChargeCollection;
 import com.stripe.model.Customer;
+import com.stripe.model.HasId;
 import com.stripe.model.Invoice;
 import com.stripe.model.InvoiceItem;
 import com.stripe.model.PaymentIntent;
@@ -27,8 +28,8 @@ import com.stripe.model.PriceCollection;
 import com.stripe.model.Product;
 import com.stripe.model.ProductSearchResult;
 import com.stripe.model.Refund;
-import com.stripe.model.RefundCollection;
 import com.stripe.model.Source;
+import com.stripe.model.StripeCollection;
 import com.stripe.model.Subscription;
 import com.stripe.net.RequestOptions;
 import com.stripe.param.BalanceTransactionListParams;
@@ -58,34 +59,72 @@ import com.stripe.param.SubscriptionUpdateParams;
 import com.stripe.param.common.EmptyParam;
 
 import java.text.DecimalFormat;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class StripeClient {
 
+  // Stripe allows 100 reads and 100 writes a second in live mode, and 25 in test mode. Leave some headroom for the
+  // account's other integrations.
+  protected static final double LIVE_REQUESTS_PER_SECOND = 80;
+  protected static final double TEST_REQUESTS_PER_SECOND = 20;
+
+  // Stripe's limits are per account, so clients using the same key share a throttle.
+  private static final Map<String, ApiThrottle> throttles = new ConcurrentHashMap<>();
+
   protected final Environment env;
   protected final RequestOptions requestOptions;
+  protected final ApiThrottle throttle;
 
   public StripeClient(Environment env) {
     this.env = env;
     requestOptions = RequestOptions.builder().setApiKey(env.getConfig().stripe.secretKey).build();
+    throttle = throttle(requestOptions.getApiKey());
   }
 
   public StripeClient(RequestOptions requestOptions, Environment env) {
     this.env = env;
     this.requestOptions = requestOptions;
+    throttle = throttle(requestOptions.getApiKey());
+  }
+
+  public static ApiThrottle throttle(String apiKey) {
+    return throttles.computeIfAbsent(Strings.nullToEmpty(apiKey), key -> {
+      double perSecond = key.startsWith("sk_test_") || key.startsWith("rk_test_")
+          ? TEST_REQUESTS_PER_SECOND : LIVE_REQUESTS_PER_SECOND;
+      return new ApiThrottle(perSecond, perSecond, e -> e instanceof RateLimitException, StripeClient::retryAfter);
+    });
+  }
+
+  protected static Optional<Duration> retryAfter(Exception e) {
+    if (!(e instanceof StripeException stripeException) || stripeException.getStripeError() == null
+        || stripeException.getStripeError().getLastResponse() == null) {
+      return Optional.empty();
+    }
+    // only the delay-seconds form -- Stripe doesn't send dates
+    return stripeException.getStripeError().getLastResponse().headers().firstValue("Retry-After").flatMap(retryAfter -> {
+      try {
+        return Optional.of(Duration.ofSeconds(Long.parseLong(retryAfter.trim())));
+      } catch (NumberFormatException nfe) {
+        return Optional.empty();
+      }
+    });
   }
 
   public Charge getCharge(String id) throws StripeException {
-    return new Retriever<Charge>() {
+    return new Retriever<Charge>("getCharge") {
       @Override
       protected Charge retrieve() throws StripeException {
         Map<String, Object> params = new HashMap<>();
@@ -105,7 +144,7 @@ public class StripeClient {
     expand.add("subscription");
     params.put("expand", expand);
 
-    return new Retriever<Invoice>() {
+    return new Retriever<Invoice>("getInvoice") {
       @Override
       protected Invoice retrieve() throws StripeException {
         return Invoice.retrieve(id, params, requestOptions);
@@ -114,7 +153,7 @@ public class StripeClient {
   }
 
   public BalanceTransaction getBalanceTransaction(String id) throws StripeException {
-    return new Retriever<BalanceTransaction>() {
+    return new Retriever<BalanceTransaction>("getBalanceTransaction") {
       @Override
       protected BalanceTransaction retrieve() throws StripeException {
         return BalanceTransaction.retrieve(id, requestOptions);
@@ -126,7 +165,7 @@ public class StripeClient {
     CustomerRetrieveParams customerParams = CustomerRetrieveParams.builder()
         .addExpand("sources")
         .build();
-    return new Retriever<Customer>() {
+    return new Retriever<Customer>("getCustomer") {
       @Override
       protected Customer retrieve() throws StripeException {
         return Customer.retrieve(id, customerParams, requestOptions);
@@ -143,7 +182,15 @@ public class StripeClient {
         .setEmail(email.toLowerCase(Locale.ROOT)) // Stripe is case-sensitive, oddly
         .addExpand("data.sources")
         .build();
-    return Customer.list(customerParams, requestOptions).getData();
+    return throttle.call("getCustomersByEmail", ApiThrottle.Kind.READ,
+        () -> Customer.list(customerParams, requestOptions).getData());
+  }
+
+  public Iterable<Customer> getAllCustomers() throws StripeException {
+    CustomerListParams.Builder customerParams = CustomerListParams.builder()
+        .setLimit(100L);
+    return throttledPages("getAllCustomers",
+        startingAfter -> Customer.list(customerParams.setStartingAfter(startingAfter).build(), requestOptions));
   }
 
   public Optional<Customer> getCustomerByEmail(String email) throws StripeException {
@@ -152,7 +199,7 @@ public class StripeClient {
   }
 
   public PaymentIntent getPaymentIntent(String id) throws StripeException {
-    return new Retriever<PaymentIntent>() {
+    return new Retriever<PaymentIntent>("getPaymentIntent") {
       @Override
       protected PaymentIntent retrieve() throws StripeException {
         return PaymentIntent.retrieve(id, requestOptions);
@@ -162,11 +209,12 @@ public class StripeClient {
 
   public List<PaymentIntent> getPaymentIntentsFromCustomer(String customerId) throws StripeException {
     PaymentIntentListParams params = PaymentIntentListParams.builder().setCustomer(customerId).build();
-    return PaymentIntent.list(params, requestOptions).getData();
+    return throttle.call("getPaymentIntentsFromCustomer", ApiThrottle.Kind.READ,
+        () -> PaymentIntent.list(params, requestOptions).getData());
   }
 
   public Refund getRefund(String id) throws StripeException {
-    return new Retriever<Refund>() {
+    return new Retriever<Refund>("getRefund") {
       @Override
       protected Refund retrieve() throws StripeException {
         return Refund.retrieve(id, requestOptions);
@@ -175,7 +223,7 @@ public class StripeClient {
   }
 
   public Subscription getSubscription(String id) throws StripeException {
-    return new Retriever<Subscription>() {
+    return new Retriever<Subscription>("getSubscription") {
       @Override
       protected Subscription retrieve() throws StripeException {
         return Subscription.retrieve(id, requestOptions);
@@ -185,14 +233,16 @@ public class StripeClient {
 
   public List<Subscription> getActiveSubscriptionsFromCustomer(String customerId) throws StripeException {
     SubscriptionListParams params = SubscriptionListParams.builder().setCustomer(customerId).build();
-    return Subscription.list(params, requestOptions).getData();
+    return throttle.call("getActiveSubscriptionsFromCustomer", ApiThrottle.Kind.READ,
+        () -> Subscription.list(params, requestOptions).getData());
   }
 
   public void cancelSubscription(String id) throws StripeException {
     env.logJobInfo("cancelling subscription {}...", id);
     // TODO: set prorate/invoice_now params? Is this even needed?
     SubscriptionCancelParams params = SubscriptionCancelParams.builder().build();
-    Subscription.retrieve(id, requestOptions).cancel(params, requestOptions);
+    Subscription subscription = getSubscription(id);
+    throttle.call("cancelSubscription", ApiThrottle.Kind.WRITE, () -> subscription.cancel(params, requestOptions));
     env.logJobInfo("cancelled subscription {}", id);
   }
 
@@ -210,8 +260,7 @@ public class StripeClient {
     expandList.add("data.balance_transaction");
     params.put("expand", expandList);
 
-    ChargeCollection chargeCollection = Charge.list(params, requestOptions);
-    return chargeCollection.autoPagingIterable();
+    return throttledPages("getAllCharges", startingAfter -> Charge.list(page(params, startingAfter), requestOptions));
   }
 
   public Iterable<Refund> getAllRefunds(Date startDate, Date endDate) throws StripeException {
@@ -229,8 +278,7 @@ public class StripeClient {
     expandList.add("data.balance_transaction");
     params.put("expand", expandList);
 
-    RefundCollection refundCollection = Refund.list(params, requestOptions);
-    return refundCollection.autoPagingIterable();
+    return throttledPages("getAllRefunds", startingAfter -> Refund.list(page(params, startingAfter), requestOptions));
   }
 
   public List<Payout> getAllPayouts(Date startDate, Date endDate, int payoutLimit) throws StripeException {
@@ -243,7 +291,7 @@ public class StripeClient {
         .setArrivalDate(arrivalDate)
         .build();
 
-    return Payout.list(params, requestOptions).getData();
+    return throttle.call("getAllPayouts", ApiThrottle.Kind.READ, () -> Payout.list(params, requestOptions).getData());
   }
 
   public Iterable<Payout> getAllPayouts(Date startDate, Date endDate) throws StripeException {
@@ -251,16 +299,16 @@ public class StripeClient {
         .setGte(startDate.getTime() / 1000)
         .setLte(endDate.getTime() / 1000)
         .build();
-    PayoutListParams params = PayoutListParams.builder()
+    PayoutListParams.Builder params = PayoutListParams.builder()
         .setLimit(100L)
-        .setArrivalDate(arrivalDate)
-        .build();
+        .setArrivalDate(arrivalDate);
 
-    return Payout.list(params, requestOptions).autoPagingIterable();
+    return throttledPages("getAllPayouts",
+        startingAfter -> Payout.list(params.setStartingAfter(startingAfter).build(), requestOptions));
   }
 
   public Payout getPayout(String id) throws StripeException {
-    return new Retriever<Payout>() {
+    return new Retriever<Payout>("getPayout") {
       @Override
       protected Payout retrieve() throws StripeException {
         return Payout.retrieve(id, requestOptions);
@@ -282,15 +330,15 @@ public class StripeClient {
         .setGte(startDate.getTime() / 1000)
         .setLte(endDate.getTime() / 1000)
         .build();
-    BalanceTransactionListParams params = BalanceTransactionListParams.builder()
+    BalanceTransactionListParams.Builder params = BalanceTransactionListParams.builder()
         .setLimit(100L)
         .setCreated(created)
         .setType("charge")
         .addExpand("data.source")
         .addExpand("data.source.customer")
-        .addExpand("data.source.payment_intent")
-        .build();
-    return BalanceTransaction.list(params, requestOptions).autoPagingIterable();
+        .addExpand("data.source.payment_intent");
+    return throttledPages("getBalanceTransactions",
+        startingAfter -> BalanceTransaction.list(params.setStartingAfter(startingAfter).build(), requestOptions));
   }
 
   /**
@@ -317,7 +365,8 @@ public class StripeClient {
     // and the payment intent
     transactionExpand.add("data.source.payment_intent");
     transactionParams.put("expand", transactionExpand);
-    BalanceTransactionCollection balanceTransactionsPage = BalanceTransaction.list(transactionParams, requestOptions);
+    BalanceTransactionCollection balanceTransactionsPage = throttle.call("getBalanceTransactions", ApiThrottle.Kind.READ,
+        () -> BalanceTransaction.list(transactionParams, requestOptions));
     int size = balanceTransactionsPage.getData().size();
     env.logJobInfo("found {} transactions in payout page", size);
 
@@ -342,17 +391,22 @@ public class StripeClient {
   }
 
   public Customer createCustomer(CustomerCreateParams.Builder customerBuilder) throws StripeException {
-    return Customer.create(customerBuilder.build(), requestOptions);
+    return throttle.call("createCustomer", ApiThrottle.Kind.WRITE,
+        () -> Customer.create(customerBuilder.build(), requestOptions));
   }
 
   public PaymentSource addCustomerSource(Customer customer, String sourceToken) throws StripeException {
     PaymentSourceCollectionCreateParams params = PaymentSourceCollectionCreateParams.builder()
         .setSource(sourceToken)
         .build();
-    PaymentSource newSource = customer.getSources().create(params, requestOptions);
+    PaymentSource newSource = throttle.call("addCustomerSource", ApiThrottle.Kind.WRITE,
+        () -> customer.getSources().create(params, requestOptions));
 
     // de-duplicate
-    Iterable<PaymentSource> existingSources = customer.getSources().autoPagingIterable();
+    Map<String, Object> sourcesParams = new HashMap<>();
+    sourcesParams.put("limit", 100);
+    Iterable<PaymentSource> existingSources = throttledPages("getCustomerSources",
+        startingAfter -> customer.getSources().list(page(sourcesParams, startingAfter), requestOptions));
     for (PaymentSource existingSource : existingSources) {
       // TODO: Assumes new donations are card only -- will break for Plaid!
       if (existingSource instanceof Card existingCard) {
@@ -369,7 +423,7 @@ public class StripeClient {
           } else {
             // keep existing one
             env.logJobInfo("card duplicated an existing source; removing it and reusing the existing one");
-            newCard.delete(requestOptions);
+            throttle.call("removeCustomerSource", ApiThrottle.Kind.WRITE, () -> newCard.delete(requestOptions));
             return existingCard;
           }
         }
@@ -381,10 +435,11 @@ public class StripeClient {
 
   public void removeCustomerSource(Customer customer, String paymentSourceId) throws StripeException {
     try {
-      PaymentSource paymentSource = customer.getSources().retrieve(paymentSourceId, requestOptions);
-      if (paymentSource instanceof Card) {
+      PaymentSource paymentSource = throttle.call("getCustomerSource", ApiThrottle.Kind.READ,
+          () -> customer.getSources().retrieve(paymentSourceId, requestOptions));
+      if (paymentSource instanceof Card card) {
         // TODO: Assumes cards only (same as for add customer source)
-        ((Card) paymentSource).delete(requestOptions);
+        throttle.call("removeCustomerSource", ApiThrottle.Kind.WRITE, () -> card.delete(requestOptions));
       }
     } catch (InvalidRequestException e) {
       // fall-through -- SDK currently throws this if the plan does *not* exist
@@ -392,7 +447,7 @@ public class StripeClient {
   }
 
   public void setCustomerDefaultSource(Customer customer, PaymentSource source) throws StripeException {
-    customer.update(CustomerUpdateParams.builder().setDefaultSource(source.getId()).build(), requestOptions);
+    updateCustomer(customer, CustomerUpdateParams.builder().setDefaultSource(source.getId()).build());
   }
 
   public PaymentSource createReusableCustomerSource(Customer customer, String originalSource) throws StripeException {
@@ -401,13 +456,14 @@ public class StripeClient {
         .setOriginalSource(originalSource)
         .setUsage(SourceCreateParams.Usage.REUSABLE)
         .build();
-    return Source.create(sourceCreateParams, requestOptions);
+    return throttle.call("createReusableCustomerSource", ApiThrottle.Kind.WRITE,
+        () -> Source.create(sourceCreateParams, requestOptions));
   }
 
   public void updateSubscriptionAmount(String subscriptionId, double dollarAmount) throws StripeException {
     env.logJobInfo("updating subscription amount to {} for subscription {}", dollarAmount, subscriptionId);
 
-    Subscription subscription = Subscription.retrieve(subscriptionId, requestOptions);
+    Subscription subscription = getSubscription(subscriptionId);
     Plan existingPlan = subscription.getItems().getData().get(0).getPlan();
 
     Plan plan = createPlan(dollarAmount, existingPlan.getCurrency(), existingPlan.getInterval());
@@ -424,7 +480,7 @@ public class StripeClient {
                 .build())
         .build();
 
-    subscription.update(subscriptionUpdateParams, requestOptions);
+    updateSubscription(subscription, subscriptionUpdateParams);
 
     env.logJobInfo("updated subscription amount to {} for subscription {}", dollarAmount, subscriptionId);
   }
@@ -436,15 +492,15 @@ public class StripeClient {
             .setTrialEnd(nextPaymentDate.getTimeInMillis() / 1000)
             .setProrationBehavior(SubscriptionUpdateParams.ProrationBehavior.NONE)
             .build();
-    Subscription subscription = Subscription.retrieve(subscriptionId, requestOptions);
-    subscription.update(params, requestOptions);
+    Subscription subscription = getSubscription(subscriptionId);
+    updateSubscription(subscription, params);
     env.logJobInfo("updated subscription {} date to {}...", subscriptionId, nextPaymentDate.getTime());
   }
 
   public void pauseSubscription(String subscriptionId, Calendar pauseUntilDate) throws StripeException {
     env.logJobInfo("pausing subscription {}...", subscriptionId);
 
-    Subscription subscription = Subscription.retrieve(subscriptionId, requestOptions);
+    Subscription subscription = getSubscription(subscriptionId);
 
     SubscriptionUpdateParams.PauseCollection.Builder pauseBuilder = SubscriptionUpdateParams.PauseCollection.builder();
     pauseBuilder.setBehavior(SubscriptionUpdateParams.PauseCollection.Behavior.MARK_UNCOLLECTIBLE);
@@ -453,7 +509,7 @@ public class StripeClient {
     }
 
     SubscriptionUpdateParams params = SubscriptionUpdateParams.builder().setPauseCollection(pauseBuilder.build()).build();
-    subscription.update(params, requestOptions);
+    updateSubscription(subscription, params);
 
     if (pauseUntilDate != null) {
       env.logJobInfo("paused subscription {} until {}", subscription.getId(), pauseUntilDate.getTime());
@@ -463,7 +519,7 @@ public class StripeClient {
   }
 
   public void resumeSubscription(String subscriptionId, Calendar resumeOnDate) throws StripeException {
-    Subscription subscription = Subscription.retrieve(subscriptionId, requestOptions);
+    Subscription subscription = getSubscription(subscriptionId);
 
     if ("canceled".equalsIgnoreCase(subscription.getStatus())) {
       // TODO: can't reopen a canceled subscription, so need to open a new one
@@ -477,13 +533,13 @@ public class StripeClient {
         pauseBuilder.setResumesAt(resumeOnDate.getTimeInMillis() / 1000);
 
         SubscriptionUpdateParams params = SubscriptionUpdateParams.builder().setPauseCollection(pauseBuilder.build()).build();
-        subscription.update(params, requestOptions);
-        subscription.update(params, requestOptions);
+        updateSubscription(subscription, params);
+        updateSubscription(subscription, params);
       } else {
         env.logJobInfo("resuming subscription {} immediately...", subscription.getId());
 
         SubscriptionUpdateParams params = SubscriptionUpdateParams.builder().setPauseCollection(EmptyParam.EMPTY).build();
-        subscription.update(params, requestOptions);
+        updateSubscription(subscription, params);
       }
     }
   }
@@ -506,13 +562,13 @@ public class StripeClient {
   public void disableSubscriptionProration(String subscriptionId) throws StripeException {
     env.logJobInfo("updating subscription proration behaviour to {} for subscription {}", SubscriptionUpdateParams.ProrationBehavior.NONE, subscriptionId);
 
-    Subscription subscription = Subscription.retrieve(subscriptionId, requestOptions);
+    Subscription subscription = getSubscription(subscriptionId);
 
     SubscriptionUpdateParams subscriptionUpdateParams = SubscriptionUpdateParams.builder()
         .setProrationBehavior(SubscriptionUpdateParams.ProrationBehavior.NONE)
         .build();
 
-    subscription.update(subscriptionUpdateParams, requestOptions);
+    updateSubscription(subscription, subscriptionUpdateParams);
 
     env.logJobInfo("updated subscription proration behaviour to {} for subscription {}", SubscriptionUpdateParams.ProrationBehavior.NONE, subscriptionId);
   }
@@ -521,7 +577,7 @@ public class StripeClient {
     SubscriptionUpdateParams subscriptionParams = SubscriptionUpdateParams.builder()
         .setDefaultSource(newSource.getId())
         .build();
-    subscription.update(subscriptionParams, requestOptions);
+    updateSubscription(subscription, subscriptionParams);
   }
 
   public Customer updateCustomer(Customer customer, Map<String, String> customerMetadata) throws StripeException {
@@ -529,11 +585,18 @@ public class StripeClient {
         .setMetadata(customerMetadata)
         .addExpand("sources")
         .build();
-    return customer.update(customerParams, requestOptions);
+    return updateCustomer(customer, customerParams);
   }
 
   public Customer updateCustomer(Customer customer, CustomerUpdateParams customerUpdateParams) throws StripeException {
-    return customer.update(customerUpdateParams, requestOptions);
+    return throttle.call("updateCustomer", ApiThrottle.Kind.WRITE,
+        () -> customer.update(customerUpdateParams, requestOptions));
+  }
+
+  public Subscription updateSubscription(Subscription subscription, SubscriptionUpdateParams subscriptionUpdateParams)
+      throws StripeException {
+    return throttle.call("updateSubscription", ApiThrottle.Kind.WRITE,
+        () -> subscription.update(subscriptionUpdateParams, requestOptions));
   }
 
   public ChargeCreateParams.Builder defaultChargeBuilder(Customer customer, PaymentSource source, long amountInCents,
@@ -555,15 +618,17 @@ public class StripeClient {
   }
 
   public Charge createCharge(ChargeCreateParams.Builder chargeBuilder) throws StripeException {
-    return Charge.create(chargeBuilder.build(), requestOptions);
+    return throttle.call("createCharge", ApiThrottle.Kind.WRITE, () -> Charge.create(chargeBuilder.build(), requestOptions));
   }
 
   public PaymentIntent createPaymentIntent(PaymentIntentCreateParams.Builder paymentIntentBuilder) throws StripeException {
-    return PaymentIntent.create(paymentIntentBuilder.build(), requestOptions);
+    return throttle.call("createPaymentIntent", ApiThrottle.Kind.WRITE,
+        () -> PaymentIntent.create(paymentIntentBuilder.build(), requestOptions));
   }
 
   public PaymentIntent updatePaymentIntent(PaymentIntent paymentIntent, PaymentIntentUpdateParams.Builder paymentIntentUpdateBuilder) throws StripeException {
-    return paymentIntent.update(paymentIntentUpdateBuilder.build(), requestOptions);
+    return throttle.call("updatePaymentIntent", ApiThrottle.Kind.WRITE,
+        () -> paymentIntent.update(paymentIntentUpdateBuilder.build(), requestOptions));
   }
 
   public ProductCreateParams.Builder defaultProductBuilder(Customer customer, long amountInCents, String currency) {
@@ -621,16 +686,18 @@ public class StripeClient {
 
   public Subscription createSubscription(ProductCreateParams.Builder productBuilder,
       PlanCreateParams.Builder planBuilder, SubscriptionCreateParams.Builder subscriptionBuilder) throws StripeException {
-    Product product = Product.create(productBuilder.build(), requestOptions);
+    Product product = throttle.call("createProduct", ApiThrottle.Kind.WRITE,
+        () -> Product.create(productBuilder.build(), requestOptions));
 
     PlanCreateParams planParams = planBuilder.setProduct(product.getId()).build();
-    Plan plan = Plan.create(planParams, requestOptions);
+    Plan plan = throttle.call("createPlan", ApiThrottle.Kind.WRITE, () -> Plan.create(planParams, requestOptions));
 
     SubscriptionCreateParams.Item item = SubscriptionCreateParams.Item.builder().setPlan(plan.getId()).build();
     SubscriptionCreateParams subscriptionParams = subscriptionBuilder
         .addItem(item)
         .build();
-    return Subscription.create(subscriptionParams, requestOptions);
+    return throttle.call("createSubscription", ApiThrottle.Kind.WRITE,
+        () -> Subscription.create(subscriptionParams, requestOptions));
   }
 
   // TODO: merge this with the other plan creation, but it needs tested since it will affect at least LJI DP.
@@ -649,7 +716,7 @@ public class StripeClient {
     String planId = "plan_" + wholeDollarAmount + "_" + currencyCode + "_" + frequency;
 
     try {
-      Plan plan = Plan.retrieve(planId, requestOptions);
+      Plan plan = throttle.call("getPlan", ApiThrottle.Kind.READ, () -> Plan.retrieve(planId, requestOptions));
       if (plan != null) {
         env.logJobInfo("plan {} already exists", planId);
         return plan;
@@ -679,7 +746,7 @@ public class StripeClient {
         .setCurrency(currencyCode)
         .setInterval(interval)
         .build();
-    Plan plan = Plan.create(planCreateParams, requestOptions);
+    Plan plan = throttle.call("createPlan", ApiThrottle.Kind.WRITE, () -> Plan.create(planCreateParams, requestOptions));
 
     env.logJobInfo("created plan {}", planId);
 
@@ -690,7 +757,8 @@ public class StripeClient {
     ProductSearchParams productSearchParams = ProductSearchParams.builder()
         .setQuery("name:'" + productName + "'")
         .build();
-    ProductSearchResult productSearchResult = Product.search(productSearchParams, requestOptions);
+    ProductSearchResult productSearchResult = throttle.call("searchProducts", ApiThrottle.Kind.READ,
+        () -> Product.search(productSearchParams, requestOptions));
     if (!productSearchResult.getData().isEmpty()) {
       return productSearchResult.getData().get(0);
     }
@@ -698,14 +766,15 @@ public class StripeClient {
     ProductCreateParams productCreateParams = ProductCreateParams.builder()
         .setName(productName)
         .build();
-    return Product.create(productCreateParams, requestOptions);
+    return throttle.call("createProduct", ApiThrottle.Kind.WRITE, () -> Product.create(productCreateParams, requestOptions));
   }
 
   public Price getOrCreatePrice(Product product, long amount, String currency) throws StripeException {
     PriceListParams priceListParams = PriceListParams.builder()
         .setProduct(product.getId())
         .build();
-    PriceCollection priceCollection = Price.list(priceListParams, requestOptions);
+    PriceCollection priceCollection = throttle.call("getPrices", ApiThrottle.Kind.READ,
+        () -> Price.list(priceListParams, requestOptions));
     Optional<Price> price = priceCollection.getData().stream()
         .filter(p -> p.getUnitAmount() == amount && p.getCurrency().equalsIgnoreCase(currency)).findFirst();
     if (price.isPresent()) {
@@ -717,7 +786,7 @@ public class StripeClient {
         .setUnitAmount(amount)
         .setCurrency(currency)
         .build();
-    return Price.create(priceCreateParams, requestOptions);
+    return throttle.call("createPrice", ApiThrottle.Kind.WRITE, () -> Price.create(priceCreateParams, requestOptions));
   }
 
   public InvoiceCreateParams.Builder defaultInvoiceBuilder(Customer customer) {
@@ -743,41 +812,81 @@ public class StripeClient {
     InvoiceItemCreateParams invoiceItemParams = invoiceItemBuilder
 //        .setInvoice(invoice.getId())
         .build();
-    InvoiceItem.create(invoiceItemParams, requestOptions);
+    throttle.call("createInvoiceItem", ApiThrottle.Kind.WRITE, () -> InvoiceItem.create(invoiceItemParams, requestOptions));
 
-    Invoice invoice = Invoice.create(invoiceBuilder.build(), requestOptions);
+    Invoice invoice = throttle.call("createInvoice", ApiThrottle.Kind.WRITE,
+        () -> Invoice.create(invoiceBuilder.build(), requestOptions));
 
     InvoiceSendInvoiceParams params = InvoiceSendInvoiceParams.builder().build();
-    invoice = invoice.sendInvoice(params, requestOptions);
+    return throttle.call("sendInvoice", ApiThrottle.Kind.WRITE, () -> invoice.sendInvoice(params, requestOptions));
+  }
+
+  @FunctionalInterface
+  protected interface PageFetcher<T extends HasId> {
+    StripeCollection<T> fetch(String startingAfter) throws StripeException;
+  }
 
-    return invoice;
+  // Like autoPagingIterable, but every page (not just the first) is fetched through the throttle, so that bulk exports
+  // pace themselves too. Like the SDK's, a failure after the first page is thrown unchecked by the iterator.
+  protected <T extends HasId> Iterable<T> throttledPages(String operation, PageFetcher<T> fetcher)
+      throws StripeException {
+    StripeCollection<T> firstPage = throttle.call(operation, ApiThrottle.Kind.READ, () -> fetcher.fetch(null));
+    return () -> new Iterator<>() {
+      private StripeCollection<T> page = firstPage;
+      private Iterator<T> items = firstPage.getData().iterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!items.hasNext()) {
+          if (!Boolean.TRUE.equals(page.getHasMore()) || page.getData().isEmpty()) {
+            return false;
+          }
+          String startingAfter = Iterables.getLast(page.getData()).getId();
+          try {
+            page = throttle.call(operation, ApiThrottle.Kind.READ, () -> fetcher.fetch(startingAfter));
+          } catch (StripeException e) {
+            throw new RuntimeException("unable to fetch the next page of " + operation, e);
+          }
+          items = page.getData().iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return items.next();
+      }
+    };
+  }
+
+  private static Map<String, Object> page(Map<String, Object> params, String startingAfter) {
+    if (startingAfter == null) {
+      return params;
+    }
+    Map<String, Object> pageParams = new HashMap<>(params);
+    pageParams.put("starting_after", startingAfter);
+    return pageParams;
   }
 
   private abstract class Retriever<T> {
-    protected abstract T retrieve() throws StripeException;
+    private final String operation;
 
-    public T result() throws StripeException {
-      return result(0);
+    protected Retriever(String operation) {
+      this.operation = operation;
     }
 
-    private T result(int count) throws StripeException {
+    protected abstract T retrieve() throws StripeException;
+
+    public T result() throws StripeException {
       try {
-        return retrieve();
+        return throttle.call(operation, ApiThrottle.Kind.READ, this::retrieve);
       } catch (RateLimitException e) {
-        env.logJobInfo("Stripe API attempt {} failed due to rate limit or lock; retrying in 3s", count, e);
-        try {
-          Thread.sleep(3000);
-        } catch (InterruptedException e1) {
-          env.logJobError("sleep failed", e1);
-        }
-
-        if (count == 4) {
-          env.logJobError("unable to call Stripe API by attempt {}", count);
-          // rethrow exception, since the whole flow simply needs to halt at this point
-          throw e;
-        }
-
-        return result(count + 1);
+        env.logJobError("unable to call Stripe API {} within its retry budget: {}", operation, throttle.metrics(operation));
+        // rethrow exception, since the whole flow simply needs to halt at this point
+        throw e;
       } catch (Exception e) {
         env.logJobError("Stripe API failed", e);
         throw e;
@@ -788,4 +897,8 @@ public class StripeClient {
   public RequestOptions getRequestOptions() {
     return requestOptions;
   }
+
+  public ApiThrottle getThrottle() {
+    return throttle;
+  }
 }
@@ -238,6 +238,39 @@ public class VirtuousClient extends OAuthClient {
     return getGift(giftUrl);
   }
 
+  /***
+   * Virtuous ORs query groups together and ANDs the conditions within each group, so every transaction ID gets its
+   * own (source AND id) group. Keep the list reasonably small (see VirtuousCrmService) -- Virtuous will reject
+   * overly large queries.
+   *
+   * @return the matching gifts, or null if Virtuous rejected the query (callers can fall back to per-ID lookups)
+   */
+  public List<Gift> queryGiftsByTransactionSourceAndIds(String transactionSource, List<String> transactionIds) {
+    Query query = new Query();
+    for (String transactionId : transactionIds) {
+      QueryCondition sourceCondition = new QueryCondition();
+      sourceCondition.parameter = "Transaction Source";
+      sourceCondition.operator = "Is";
+      sourceCondition.value = transactionSource;
+      QueryCondition idCondition = new QueryCondition();
+      idCondition.parameter = "Transaction Id";
+      idCondition.operator = "Is";
+      idCondition.value = transactionId;
+
+      QueryConditionGroup group = new QueryConditionGroup();
+      group.conditions = List.of(sourceCondition, idCondition);
+      query.groups.add(group);
+    }
+
+    GiftQueryResponse response = post(VIRTUOUS_API_URL + "/Gift/Query/FullGift?skip=" + DEFAULT_OFFSET + "&take=" + MAXIMUM_LIMIT,
+        query, APPLICATION_JSON, headers(), GiftQueryResponse.class);
+    // HttpClient maps error bodies onto the response class as well, so a missing total means the query didn't run.
+    if (response == null || response.gifts == null || response.total == null) {
+      return null;
+    }
+    return response.gifts;
+  }
+
   private Gift getGift(String giftUrl) {
     return get(giftUrl, headers(), Gift.class);
   }
@@ -67,7 +67,8 @@ public class CrmController {
 
   private static final String DATE_FORMAT = "yyyy-MM-dd";
 
-  protected final static Cache<String, Double> filterToDonationsTotalCache = CacheUtil.buildManualCache();
+  protected final static CacheUtil.Deferred<Cache<String, Double>> filterToDonationsTotalCache =
+      CacheUtil.builder("crm-donation-totals").buildOnFirstUse(CacheUtil.Builder::buildManual);
 
   protected final EnvironmentFactory envFactory;
 
@@ -392,7 +393,7 @@ public class CrmController {
     if (disableCache != null && disableCache) {
       donationsTotal = env.donationsCrmService().getDonationsTotal(filter);
     } else {
-      donationsTotal = filterToDonationsTotalCache.get(filter, () -> {
+      donationsTotal = filterToDonationsTotalCache.get(env.getConfig()).get(filter, () -> {
         try {
           return env.donationsCrmService().getDonationsTotal(filter);
         } catch (Exception e) {
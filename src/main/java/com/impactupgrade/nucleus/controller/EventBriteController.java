@@ -17,8 +17,9 @@ import com.impactupgrade.nucleus.model.CrmAddress;
 import com.impactupgrade.nucleus.model.CrmCampaign;
 import com.impactupgrade.nucleus.model.CrmContact;
 import com.impactupgrade.nucleus.model.CrmDonation;
+import com.impactupgrade.nucleus.service.logic.EventBriteService;
 import com.impactupgrade.nucleus.service.segment.CrmService;
-import com.impactupgrade.nucleus.util.Utils;
+import com.impactupgrade.nucleus.util.DelayedTaskScheduler;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
@@ -27,19 +28,39 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
-import java.time.ZonedDateTime;
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 
 @Path("/eventbrite")
 public class EventBriteController {
 
+  // order.placed typically arrives before attendee.updated has created the contact. Rather than sleeping on a thread per
+  // order, the order is handed to the scheduler, which runs it after ORDER_DELAY or as soon as the contact is created.
+  // Pending orders are also saved as jobs, so that one lost to a restart is still processed (see EventBriteService).
+  protected static final Duration ORDER_DELAY = Duration.ofSeconds(10);
+  protected static final int MAX_ORDER_ATTEMPTS = 3;
+
   protected final EnvironmentFactory envFactory;
+  protected final DelayedTaskScheduler orderScheduler;
 
   public EventBriteController(EnvironmentFactory envFactory) {
+    this(envFactory, DefaultOrderScheduler.INSTANCE);
+  }
+
+  public EventBriteController(EnvironmentFactory envFactory, DelayedTaskScheduler orderScheduler) {
     this.envFactory = envFactory;
+    this.orderScheduler = orderScheduler;
+  }
+
+  // lazy, so the threads only start if Eventbrite is actually used
+  private static class DefaultOrderScheduler {
+    private static final DelayedTaskScheduler INSTANCE = DelayedTaskScheduler.start("eventbrite-orders", 2);
   }
 
   @Path("/webhook")
@@ -74,6 +95,7 @@ public class EventBriteController {
   protected void processEvent(String eventType, WebhookPayload webhookPayload, Environment env) throws Exception {
     CrmService crmService = env.primaryCrmService();
     EventBriteClient eventBriteClient = env.eventBriteClient();
+    EventBriteService eventBriteService = env.eventBriteService();
 
     switch (eventType) {
       case "attendee.updated" -> {
@@ -97,18 +119,21 @@ public class EventBriteController {
         CrmCampaign campaign = null;
         if (campaigns.isEmpty()) {
           EventBriteClient.Event event = eventBriteClient.getEvent("https://www.eventbriteapi.com/v3/events/" + attendee.eventId + "/");
-          campaign = upsertCrmCampaign(event, crmService, env);
+          campaign = eventBriteService.upsertCrmCampaign(event, crmService);
         } else {
           campaign = campaigns.get(0);
         }
 
         addContactToCampaign(contact, campaign, crmService, env);
+
+        // release any orders that were waiting on this contact
+        orderScheduler.signal(orderWaitingOn(contact.email, env));
       }
 
       // Skipping event.created entirely, since it's immediately followed up with an event.updated.
       case "event.updated", "event.published" -> {
         EventBriteClient.Event event = eventBriteClient.getEvent(webhookPayload.apiUrl);
-        upsertCrmCampaign(event, crmService, env);
+        eventBriteService.upsertCrmCampaign(event, crmService);
       }
       case "event.unpublished" -> {
         EventBriteClient.Event event = eventBriteClient.getEvent(webhookPayload.apiUrl);
@@ -120,11 +145,15 @@ public class EventBriteController {
       }
 
       case "order.placed" -> {
-        env.logJobInfo("waiting 10 sec to process order.placed, giving attendee.updated time to create the contact...");
-        Thread.sleep(10000);
-
         EventBriteClient.Order order = eventBriteClient.getOrder(webhookPayload.apiUrl, "attendees");
-        processNewOrder(order, crmService, env);
+        String email = getOrderEmail(order);
+        if (email == null || !crmService.getContactsByEmails(Set.of(email)).isEmpty()) {
+          eventBriteService.processNewOrder(order, crmService);
+        } else {
+          env.logJobInfo("contact {} does not exist yet; delaying order {} until attendee.updated creates it...", email, order.id);
+          Long pendingJobId = eventBriteService.savePendingOrder(webhookPayload.apiUrl, email, ORDER_DELAY);
+          scheduleOrder(webhookPayload.apiUrl, email, pendingJobId, 1, ORDER_DELAY, env);
+        }
       }
 
       case "order.refunded" -> {
@@ -144,12 +173,12 @@ public class EventBriteController {
         Optional<CrmDonation> existingCrmDonation = crmService.getDonationByTransactionId(order.id);
 
         if (existingCrmDonation.isPresent()) {
-          CrmDonation crmDonation = toCrmDonation(order);
+          CrmDonation crmDonation = eventBriteService.toCrmDonation(order);
           // TODO: update only specific fields to avoid "overwrite"?
           crmDonation.id = existingCrmDonation.get().id;
           crmService.updateDonation(crmDonation);
         } else {
-          processNewOrder(order, crmService, env);
+          eventBriteService.processNewOrder(order, crmService);
         }
       }
 
@@ -159,43 +188,53 @@ public class EventBriteController {
     }
   }
 
-  protected void processNewOrder(EventBriteClient.Order order, CrmService crmService, Environment env) throws Exception {
-    // make sure it's not an event that existed prior to our integration
-    List<CrmCampaign> campaigns = crmService.getCampaignsByExternalReference(order.eventId);
-    if (campaigns.isEmpty()) {
-      EventBriteClient.Event event = env.eventBriteClient().getEvent("https://www.eventbriteapi.com/v3/events/" + order.eventId + "/");
-      upsertCrmCampaign(event, crmService, env);
-    }
+  protected void scheduleOrder(String apiUrl, String email, Long pendingJobId, int attempt, Duration delay, Environment env) {
+    orderScheduler.schedule(
+        env.getConfig().apiKey + "::" + apiUrl,
+        orderWaitingOn(email, env),
+        delay,
+        () -> processDelayedOrder(apiUrl, email, pendingJobId, attempt, env)
+    );
+  }
 
-    // attendee can have a partial profile, which could have "Info Requested" as the email/name
-    List<EventBriteClient.Attendee> attendees = order.attendees.stream()
-        .filter(attendee -> !Strings.isNullOrEmpty(attendee.profile.email) && attendee.profile.email.contains("@"))
-        .toList();
-    if (attendees.isEmpty()) {
-      env.logJobInfo("skipping order with invalid email address(es)");
+  protected void processDelayedOrder(String apiUrl, String email, Long pendingJobId, int attempt, Environment env) throws Exception {
+    if (env.primaryCrmService().getContactsByEmails(Set.of(email)).isEmpty() && attempt < MAX_ORDER_ATTEMPTS) {
+      scheduleOrder(apiUrl, email, pendingJobId, attempt + 1, ORDER_DELAY, env);
       return;
     }
 
-    // TODO: which attendee/contact to use for donation?
-    // TODO: 1 donation per 1 attendee?
-    // LIFO
-    Optional<CrmContact> crmContact = crmService.getContactsByEmails(Set.of(attendees.get(0).profile.email))
-        .stream().reduce((first, second) -> second);
-    if (crmContact.isEmpty()) {
-      env.logJobInfo("skipping order with missing CRM contact");
-      return;
+    // The webhook's job log ended long ago, so this gets its own (and its own Environment, since that's what
+    // identifies the job).
+    Environment orderEnv = newEnv(env);
+    orderEnv.startJobLog(JobType.EVENT, "webhook", "Eventbrite Delayed Order", "Eventbrite");
+    orderEnv.logJobInfo("processing delayed order {} (attempt {})", apiUrl, attempt);
+    try {
+      orderEnv.eventBriteService().processPendingOrder(apiUrl, pendingJobId);
+      orderEnv.endJobLog(JobStatus.DONE);
+    } catch (Exception e) {
+      orderEnv.logJobError("failed to process the delayed Eventbrite order", e);
+      orderEnv.endJobLog(JobStatus.FAILED);
+      orderEnv.eventBriteService().completePendingOrder(pendingJobId, JobStatus.FAILED);
     }
+  }
 
-    // Use instead the display_price field (if the Ticket Class include_fee field is used) // ?
-    if (order.costs.gross.value > 0.0) {
-      CrmDonation crmDonation = toCrmDonation(order);
-      crmDonation.contact = crmContact.get();
-      crmDonation.account = crmContact.get().account;
+  // Same org and context as the given one, but a new job trace.
+  protected Environment newEnv(Environment env) {
+    MultivaluedMap<String, String> otherContext = new MultivaluedHashMap<>();
+    env.getOtherContext().forEach(otherContext::putSingle);
+    return envFactory.init(otherContext);
+  }
 
-      crmDonation.campaignId = campaigns.get(0).id;
+  protected String getOrderEmail(EventBriteClient.Order order) {
+    // same selection as EventBriteService.processNewOrder
+    return order.attendees.stream()
+        .map(attendee -> attendee.profile.email)
+        .filter(email -> !Strings.isNullOrEmpty(email) && email.contains("@"))
+        .findFirst().orElse(null);
+  }
 
-      crmService.insertDonation(crmDonation);
-    }
+  protected String orderWaitingOn(String email, Environment env) {
+    return env.getConfig().apiKey + "::" + (email == null ? "" : email.toLowerCase(Locale.ROOT));
   }
 
   protected void upsertCrmContact(CrmContact contact, Optional<CrmContact> existingContact, CrmService crmService) throws Exception {
@@ -207,41 +246,6 @@ public class EventBriteController {
     }
   }
 
-  protected CrmCampaign upsertCrmCampaign(EventBriteClient.Event event, CrmService crmService, Environment env) throws Exception {
-    CrmCampaign campaign = buildCrmCampaign(event);
-    List<CrmCampaign> existingCampaigns = crmService.getCampaignsByExternalReference(event.id);
-
-    if (existingCampaigns.isEmpty()) {
-      try {
-        campaign.id = crmService.insertCampaign(campaign);
-      } catch (Exception e) {
-        env.logJobInfo("unable to create new campaign: {}", e.getMessage());
-      }
-    } else {
-      campaign.id = existingCampaigns.get(0).id;
-      crmService.updateCampaign(campaign);
-    }
-
-    return campaign;
-  }
-
-  protected CrmCampaign buildCrmCampaign(EventBriteClient.Event event) {
-    ZonedDateTime startDate = Utils.getZonedDateTimeFromDateTimeString(event.start.utc);
-    ZonedDateTime endDate = Utils.getZonedDateTimeFromDateTimeString(event.end.utc);
-
-    return new CrmCampaign(
-        null,
-        event.name.text,
-        event.id,
-        startDate,
-        endDate,
-        null,
-        null,
-        event,
-        null
-    );
-  }
-
   // allows organizations to override this and add custom logic
   protected void addContactToCampaign(CrmContact contact, CrmCampaign campaign, CrmService crmService, Environment env)
       throws Exception {
@@ -271,26 +275,6 @@ public class EventBriteController {
     return crmAddress;
   }
 
-  protected CrmDonation toCrmDonation(EventBriteClient.Order order) {
-    CrmDonation crmDonation = new CrmDonation();
-    crmDonation.transactionId = order.id;
-    crmDonation.description = order.name + " / " + order.email;
-    crmDonation.gatewayName = "EventBrite";
-    crmDonation.closeDate = ZonedDateTime.parse(order.created);
-    if ("placed".equalsIgnoreCase(order.status)) {
-      crmDonation.status = CrmDonation.Status.SUCCESSFUL;
-    } else if ("refunded".equalsIgnoreCase(order.status)) {
-      crmDonation.status = CrmDonation.Status.FAILED;
-    }
-    crmDonation.url = order.resourceUri;
-    crmDonation.amount = order.costs.gross.value / 100.0;
-    crmDonation.feeInDollars = (order.costs.eventbriteFee.value + order.costs.paymentFee.value) / 100.0;
-    crmDonation.netAmountInDollars = crmDonation.amount - crmDonation.feeInDollars;
-    //TODO: taxes?
-
-    return crmDonation;
-  }
-
   //{
   //  "api_url": "https://www.eventbriteapi.com/v3/events/794181005767/",
   //  "config": {
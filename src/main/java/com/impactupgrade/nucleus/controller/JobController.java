@@ -4,8 +4,11 @@
 
 package com.impactupgrade.nucleus.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobLog;
 import com.impactupgrade.nucleus.entity.JobType;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentFactory;
@@ -23,10 +26,13 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -37,6 +43,9 @@ public class JobController {
   private static final String DATE_FORMAT = "MM-dd-yyyy";
   private static final String TIME_FORMAT = "HH:mm";
 
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+  private static final int MAX_PAGE_SIZE = 10000;
+
   protected final EnvironmentFactory envFactory;
 
   public JobController(EnvironmentFactory envFactory) {
@@ -47,10 +56,45 @@ public class JobController {
   @Produces(MediaType.APPLICATION_JSON)
   public Response getJobs(
       @QueryParam("jobType") JobType jobType,
+      @QueryParam("limit") Integer limit,
+      @QueryParam("cursor") String cursor,
       @Context HttpServletRequest request) throws Exception {
     Environment env = envFactory.init(request);
     SecurityUtil.verifyApiKey(env);
 
+    // paginated -- opt-in, so existing callers still receive the full list
+    if (limit != null || !Strings.isNullOrEmpty(cursor)) {
+      JobsPageDto jobsPageDto = new JobsPageDto();
+
+      JobLoggingService jobLoggingService = env.jobLoggingService("db");
+      List<Job> jobs = null;
+      if (jobLoggingService != null) {
+        Instant startedBefore = null;
+        Long beforeId = null;
+        if (!Strings.isNullOrEmpty(cursor)) {
+          // startedAt_id of the last job on the previous page, with an empty startedAt if that job never recorded one
+          int split = cursor.lastIndexOf("_");
+          if (split < 0) {
+            return Response.status(400).entity("Invalid cursor!").build();
+          }
+          try {
+            startedBefore = split > 0 ? Instant.parse(cursor.substring(0, split)) : null;
+            beforeId = Long.parseLong(cursor.substring(split + 1));
+          } catch (DateTimeParseException | NumberFormatException e) {
+            return Response.status(400).entity("Invalid cursor!").build();
+          }
+        }
+        jobs = jobLoggingService.getJobs(jobType, startedBefore, beforeId, pageSize(limit));
+      }
+
+      jobsPageDto.jobs = toJobDtos(jobs, env.getConfig().timezoneId);
+      if (!CollectionUtils.isEmpty(jobs)) {
+        Job last = jobs.get(jobs.size() - 1);
+        jobsPageDto.nextCursor = (last.startedAt != null ? last.startedAt : "") + "_" + last.id;
+      }
+      return Response.ok(jobsPageDto).build();
+    }
+
     List<JobDto> jobDtos;
 
     JobLoggingService jobLoggingService = env.jobLoggingService("db");
@@ -69,6 +113,9 @@ public class JobController {
   @Produces(MediaType.APPLICATION_JSON)
   public Response getJobLogs(
       @PathParam("trace-id") String traceId,
+      @QueryParam("after") Long after,
+      @QueryParam("limit") Integer limit,
+      @QueryParam("tail") boolean tail,
       @Context HttpServletRequest request) throws Exception {
     Environment env = envFactory.init(request);
     SecurityUtil.verifyApiKey(env);
@@ -78,12 +125,57 @@ public class JobController {
       return Response.status(404).entity("Failed to find job!").build();
     }
 
-    Job job = env.jobLoggingService("db").getJob(traceId);
-    if (job == null) {
+    // unpaginated -- retained for existing callers, but the full log can be enormous, so it's streamed out a page at a
+    // time rather than loaded all at once
+    if (after == null && limit == null && !tail) {
+      List<JobLog> firstPage = jobLoggingService.getJobLogs(traceId, null, MAX_PAGE_SIZE);
+      if (firstPage == null) {
+        return Response.status(404).entity("Failed to find job!").build();
+      }
+      StreamingOutput output = outputStream -> {
+        try (JsonGenerator jsonGenerator = new ObjectMapper().getFactory().createGenerator(outputStream)) {
+          jsonGenerator.writeStartArray();
+          List<JobLog> jobLogs = firstPage;
+          while (!CollectionUtils.isEmpty(jobLogs)) {
+            for (JobLog jobLog : jobLogs) {
+              jsonGenerator.writeString(jobLog.log);
+            }
+            if (jobLogs.size() < MAX_PAGE_SIZE) {
+              break;
+            }
+            jobLogs = jobLoggingService.getJobLogs(traceId, jobLogs.get(jobLogs.size() - 1).id, MAX_PAGE_SIZE);
+          }
+          jsonGenerator.writeEndArray();
+        }
+      };
+      return Response.ok(output, MediaType.APPLICATION_JSON).build();
+    }
+
+    // Tail returns the latest lines. Either way, nextCursor is the id of the last line returned: pass it back as
+    // "after" to continue paging, or to poll a running job for new lines.
+    List<JobLog> jobLogs = tail
+        ? jobLoggingService.getJobLogsTail(traceId, pageSize(limit))
+        : jobLoggingService.getJobLogs(traceId, after, pageSize(limit));
+    if (jobLogs == null) {
       return Response.status(404).entity("Failed to find job!").build();
     }
 
-    return Response.ok(job.logs).build();
+    JobLogsPageDto jobLogsPageDto = new JobLogsPageDto();
+    jobLogsPageDto.logs = jobLogs.stream().map(jobLog -> {
+      JobLogDto jobLogDto = new JobLogDto();
+      jobLogDto.id = jobLog.id;
+      jobLogDto.log = jobLog.log;
+      return jobLogDto;
+    }).toList();
+    jobLogsPageDto.nextCursor = jobLogs.isEmpty() ? after : jobLogs.get(jobLogs.size() - 1).id;
+    return Response.ok(jobLogsPageDto).build();
+  }
+
+  private int pageSize(Integer limit) {
+    if (limit == null || limit <= 0) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    return Math.min(limit, MAX_PAGE_SIZE);
   }
 
   private List<JobDto> toJobDtos(List<Job> jobs, String timezoneId) {
@@ -101,14 +193,17 @@ public class JobController {
   private JobDto toJobDto(Job job, String timezoneId, DateTimeFormatter dateFormatter, DateTimeFormatter timeFormatter) {
     JobDto jobDto = new JobDto();
     jobDto.traceId = job.traceId;
-    ZoneId zoneId = ZoneId.of(timezoneId);
-    LocalDateTime started = LocalDateTime.ofInstant(job.startedAt, zoneId);
-    jobDto.date = dateFormatter.format(started.toLocalDate()) + " " + timezoneId;
-    jobDto.time = timeFormatter.format(started.toLocalTime()) + " " + timezoneId;
     jobDto.platform = job.originatingPlatform;
     jobDto.task = job.jobName;
     jobDto.status = job.status.name();
     jobDto.user = job.startedBy;
+    if (job.startedAt == null) {
+      return jobDto;
+    }
+    ZoneId zoneId = ZoneId.of(timezoneId);
+    LocalDateTime started = LocalDateTime.ofInstant(job.startedAt, zoneId);
+    jobDto.date = dateFormatter.format(started.toLocalDate()) + " " + timezoneId;
+    jobDto.time = timeFormatter.format(started.toLocalTime()) + " " + timezoneId;
     jobDto.started = timeFormatter.format(started) + " " + timezoneId;
     if (job.endedAt != null) {
       LocalDateTime ended = LocalDateTime.ofInstant(job.endedAt, zoneId);
@@ -131,4 +226,19 @@ public class JobController {
     public String ended;
     public String runtime;
   }
+
+  private static final class JobsPageDto {
+    public List<JobDto> jobs;
+    public String nextCursor;
+  }
+
+  private static final class JobLogDto {
+    public Long id;
+    public String log;
+  }
+
+  private static final class JobLogsPageDto {
+    public List<JobLogDto> logs;
+    public Long nextCursor;
+  }
 }
\ No newline at end of file
@@ -4,15 +4,14 @@
 
 package com.impactupgrade.nucleus.controller;
 
-import com.ecwid.maleorang.method.v3_0.campaigns.content.ContentInfo;
-import com.ecwid.maleorang.method.v3_0.reports.sent_to.SentToInfo;
 import com.impactupgrade.nucleus.client.MailchimpClient;
 import com.impactupgrade.nucleus.entity.JobStatus;
 import com.impactupgrade.nucleus.entity.JobType;
 import com.impactupgrade.nucleus.environment.Environment;
-import com.impactupgrade.nucleus.environment.EnvironmentConfig;
 import com.impactupgrade.nucleus.environment.EnvironmentFactory;
-import com.impactupgrade.nucleus.model.CrmActivity;
+import com.impactupgrade.nucleus.security.SecurityUtil;
+import com.impactupgrade.nucleus.service.segment.MailchimpCommunicationService;
+import com.impactupgrade.nucleus.util.TestUtil;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.BeanParam;
@@ -27,10 +26,7 @@ import javax.ws.rs.core.Response;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
-import java.util.Set;
 import java.util.TimeZone;
-import java.util.stream.Collectors;
 
 @Path("/mailchimp")
 public class MailchimpController {
@@ -50,28 +46,38 @@ public class MailchimpController {
   ) throws Exception {
     Environment env = envFactory.init(request);
 
-    String jobName = "Mailchimp audience event webhook";
-    env.startJobLog(JobType.EVENT, null, jobName, "Mailchimp");
-    env.logJobInfo("Mailchimp audience event received: {}", audienceEvent);
-    JobStatus jobStatus = JobStatus.DONE;
-
-    try {
-      if ("subscribe".equalsIgnoreCase(audienceEvent.type)) {
-        //TODO:
-      } else if ("unsubscribe".equalsIgnoreCase(audienceEvent.type)) {
-        //TODO:
-      } else if ("campaign".equalsIgnoreCase(audienceEvent.type)) {
-        processCampaignEvent(audienceEvent, env);
-      } else {
-        env.logJobInfo("skipping event type {}...", audienceEvent.type);
+    // Campaign events can fan out to 100k+ recipients, so acknowledge Mailchimp immediately and do the work in the
+    // background. Otherwise, Mailchimp times out the webhook.
+    Runnable thread = () -> {
+      String jobName = "Mailchimp audience event webhook";
+      env.startJobLog(JobType.EVENT, null, jobName, "Mailchimp");
+      env.logJobInfo("Mailchimp audience event received: {}", audienceEvent);
+      JobStatus jobStatus = JobStatus.DONE;
+
+      try {
+        if ("subscribe".equalsIgnoreCase(audienceEvent.type)) {
+          //TODO:
+        } else if ("unsubscribe".equalsIgnoreCase(audienceEvent.type)) {
+          //TODO:
+        } else if ("campaign".equalsIgnoreCase(audienceEvent.type)) {
+          processCampaignEvent(audienceEvent, env);
+        } else {
+          env.logJobInfo("skipping event type {}...", audienceEvent.type);
+        }
+
+      } catch (Exception e) {
+        env.logJobError("Failed to process audience event!", e);
+        jobStatus = JobStatus.FAILED;
       }
 
-    } catch (Exception e) {
-      env.logJobError("Failed to process audience event!", e);
-      jobStatus = JobStatus.FAILED;
-    }
+      env.endJobLog(jobStatus);
+    };
 
-    env.endJobLog(jobStatus);
+    if (TestUtil.SKIP_NEW_THREADS) {
+      thread.run();
+    } else {
+      new Thread(thread).start();
+    }
 
     return Response.status(200).build();
   }
@@ -82,48 +88,35 @@ public class MailchimpController {
   public Response messageEvent() throws Exception {
     return Response.status(200).build();
   }
+
+  // The next sync downloads every audience in full, rather than only what changed since the last sync.
+  @Path("/audience-snapshot/rebuild")
+  @POST
+  public Response rebuildAudienceSnapshots(@Context HttpServletRequest request) throws Exception {
+    Environment env = envFactory.init(request);
+    SecurityUtil.verifyApiKey(env);
+
+    ((MailchimpCommunicationService) env.communicationService("mailchimp")).rebuildAudienceSnapshots();
+
+    return Response.status(200).build();
+  }
   
   private void processCampaignEvent(AudienceEvent event, Environment env) throws Exception {
     if (!"sent".equalsIgnoreCase(event.status)) {
       return;
     }
 
-    // TODO: Clunky way to retrieve the specific account keys, when all we have is the List ID..
-    EnvironmentConfig.CommunicationPlatform mailchimpConfig = null;
-    for (EnvironmentConfig.CommunicationPlatform _mailchimpConfig : env.getConfig().mailchimp) {
-      for (EnvironmentConfig.CommunicationList communicationList : _mailchimpConfig.lists) {
-        if (event.listId.equalsIgnoreCase(communicationList.id)) {
-          mailchimpConfig = _mailchimpConfig;
-          break;
-        }
-      }
-    }
-    if (mailchimpConfig == null) {
+    MailchimpClient mailchimpClient = env.campaignActivityService().mailchimpClient(event.listId);
+    if (mailchimpClient == null) {
       env.logJobError("unable to find ListID={}", event.listId);
       return;
     }
-    MailchimpClient mailchimpClient = env.mailchimpClient(mailchimpConfig);
-
-    List<SentToInfo> sentTos = mailchimpClient.getCampaignRecipients(event.id);
-    Set<String> emails = sentTos.stream()
-        .filter(member -> member.status == SentToInfo.Status.SEND)
-        .map(member -> member.email_address)
-        .collect(Collectors.toSet());
-
-    ContentInfo contentInfo = mailchimpClient.getCampaignContent(event.id);
 
     Date d = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(event.firedAt);
     Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
     c.setTime(d);
 
-    env.activityService().upsertActivityFromEmails(
-        emails,
-        CrmActivity.Type.EMAIL,
-        event.id,
-        c,
-        event.subject,
-        contentInfo.plain_text
-    );
+    env.campaignActivityService().upsertMailchimpCampaignActivities(mailchimpClient, event.listId, event.id, c, event.subject);
   }
 
   public static final class AudienceEvent {
@@ -4,6 +4,8 @@
 
 package com.impactupgrade.nucleus.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -13,7 +15,6 @@ import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentFactory;
 import com.impactupgrade.nucleus.model.ManageDonationEvent;
 import com.impactupgrade.nucleus.model.ManageDonationFormData;
-import com.impactupgrade.nucleus.model.PaymentGatewayDeposit;
 import com.impactupgrade.nucleus.model.PaymentGatewayTransaction;
 import com.impactupgrade.nucleus.security.SecurityUtil;
 import com.impactupgrade.nucleus.service.segment.PaymentGatewayService;
@@ -27,10 +28,14 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -104,16 +109,35 @@ public class PaymentGatewayController {
     Date endDate = new SimpleDateFormat("yyyy-MM-dd").parse(end);
 
     List<PaymentGatewayService> paymentGatewayServices = env.allPaymentGatewayServices();
-    List<PaymentGatewayDeposit> deposits = new ArrayList<>();
 
-    for (PaymentGatewayService paymentGatewayService : paymentGatewayServices) {
-      // TODO: This will be in date order, but grouped by payment gateway. Likely ok, but maybe needs grouped by date?
-      deposits.addAll(paymentGatewayService.getDeposits(startDate, endDate));
-      // TODO: At this point, all we have is what was stored in Stripe. SOME clients will have their funds/campaigns
-      //  there. Others will need that backfilled from the CRM. Loop through them all and do so?
-    }
+    // Each deposit carries all of its transactions, so a long range can be large. Write each one out as the gateway
+    // builds it, rather than holding the whole range in memory first.
+    StreamingOutput output = outputStream -> {
+      try (JsonGenerator jsonGenerator = new ObjectMapper().getFactory().createGenerator(outputStream)) {
+        jsonGenerator.writeStartArray();
+        for (PaymentGatewayService paymentGatewayService : paymentGatewayServices) {
+          // TODO: This will be in date order, but grouped by payment gateway. Likely ok, but maybe needs grouped by date?
+          paymentGatewayService.forEachDeposit(startDate, endDate, deposit -> {
+            try {
+              jsonGenerator.writeObject(deposit);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+          // TODO: At this point, all we have is what was stored in Stripe. SOME clients will have their funds/campaigns
+          //  there. Others will need that backfilled from the CRM. Loop through them all and do so?
+        }
+        jsonGenerator.writeEndArray();
+      } catch (IOException | WebApplicationException e) {
+        throw e;
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } catch (Exception e) {
+        throw new WebApplicationException(e);
+      }
+    };
 
-    return Response.status(200).entity(deposits).build();
+    return Response.status(200).entity(output).type(MediaType.APPLICATION_JSON).build();
   }
 
   @Path("/update-recurring-donation")
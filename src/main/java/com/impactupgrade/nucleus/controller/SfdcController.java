@@ -12,6 +12,7 @@ import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentFactory;
 import com.impactupgrade.nucleus.model.ContactSearch;
 import com.impactupgrade.nucleus.security.SecurityUtil;
+import com.impactupgrade.nucleus.service.segment.SfdcCrmService;
 import com.impactupgrade.nucleus.util.GoogleSheetsUtil;
 import com.impactupgrade.nucleus.util.Utils;
 import com.sforce.soap.partner.sobject.SObject;
@@ -330,4 +331,43 @@ public class SfdcController {
 
     return Response.status(200).build();
   }
+
+  /**
+   * Creates the normalized phone shadow fields on Contact, then fills them in for every existing contact. Run before
+   * turning on salesforce.normalizedPhoneSearch, and again whenever phones may have been changed outside of Nucleus.
+   */
+  @Path("/normalized-phones")
+  @POST
+  @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response normalizedPhones(
+      @FormParam("provision") boolean provision,
+      @FormParam("nucleus-username") String nucleusUsername,
+      @Context HttpServletRequest request
+  ) {
+    Environment env = envFactory.init(request);
+    SecurityUtil.verifyApiKey(env);
+
+    // takes a while, so spin it off as a new thread
+    Runnable thread = () -> {
+      try {
+        String jobName = "SFDC: Normalized Phones";
+        env.startJobLog(JobType.PORTAL_TASK, nucleusUsername, jobName, "Sfdc");
+        SfdcCrmService sfdcCrmService = (SfdcCrmService) env.crmService("salesforce");
+        if (provision) {
+          sfdcCrmService.provisionNormalizedPhoneFields();
+        }
+        int count = sfdcCrmService.backfillNormalizedPhones();
+        env.logJobInfo("FINISHED: updated {} contacts", count);
+        env.endJobLog(JobStatus.DONE);
+      } catch (Exception e) {
+        env.logJobError("Normalized phone backfill failed", e);
+        env.logJobError(e.getMessage());
+        env.endJobLog(JobStatus.FAILED);
+      }
+    };
+    new Thread(thread).start();
+
+    return Response.status(200).build();
+  }
 }
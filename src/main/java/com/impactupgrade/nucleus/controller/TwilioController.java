@@ -5,15 +5,17 @@
 package com.impactupgrade.nucleus.controller;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.impactupgrade.nucleus.entity.JobType;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentFactory;
-import com.impactupgrade.nucleus.model.ContactSearch;
 import com.impactupgrade.nucleus.model.CrmActivity;
 import com.impactupgrade.nucleus.model.CrmContact;
 import com.impactupgrade.nucleus.model.CrmOpportunity;
 import com.impactupgrade.nucleus.security.SecurityUtil;
+import com.impactupgrade.nucleus.service.logic.InboundSmsRouter;
 import com.impactupgrade.nucleus.service.logic.NotificationService;
+import com.impactupgrade.nucleus.util.TestUtil;
 import com.impactupgrade.nucleus.util.Utils;
 import com.twilio.twiml.MessagingResponse;
 import com.twilio.twiml.VoiceResponse;
@@ -39,9 +41,9 @@ import javax.ws.rs.core.Response;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.impactupgrade.nucleus.entity.JobStatus.DONE;
@@ -157,7 +159,14 @@ public class TwilioController {
     return Response.ok().entity(response.toXml()).build();
   }
 
-  private static final List<String> STOP_WORDS = List.of("STOP", "STOPALL", "UNSUBSCRIBE", "CANCEL", "END", "QUIT");
+  // Inbound messages are acknowledged immediately, and the CRM work happens here instead, outside of Twilio's request
+  // window. Bounded: if a burst ever fills the queue, the webhook does the work itself rather than dropping a message.
+  private static final ThreadPoolExecutor inboundExecutor = new ThreadPoolExecutor(
+      4, 4, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(1_000),
+      new ThreadFactoryBuilder().setNameFormat("twilio-inbound-%d").setDaemon(true).build(),
+      new ThreadPoolExecutor.CallerRunsPolicy()
+  );
 
   /**
    * This webhook serves as a more generic catch-all endpoint for inbound messages from Twilio.
@@ -172,61 +181,65 @@ public class TwilioController {
   ) throws Exception {
     Environment env = envFactory.init(request);
 
-    env.startJobLog(JobType.EVENT, null, "SMS Inbound", "Twilio");
     MultivaluedMap<String, String> smsData = rawFormData.asMap();
-    env.logJobInfo(smsData.entrySet().stream().map(e -> e.getKey() + "=" + String.join(",", e.getValue())).collect(Collectors.joining(" ")));
-
-    Body responseBody = null;
-
-    String from = smsData.get("From").get(0);
-    if (smsData.containsKey("Body")) {
-      String body = smsData.get("Body").get(0).trim();
-      // prevent opt-out messages, like "STOP", from polluting the notifications
-      if (!STOP_WORDS.contains(body.toUpperCase(Locale.ROOT))) {
-        // https://www.baeldung.com/java-regex-validate-phone-numbers
-        String pnPatterns
-            = "(\\+\\d{1,3}( )?)?((\\(\\d{3}\\))|\\d{3})[- .]?\\d{3}[- .]?\\d{4}"
-            + "|(\\+\\d{1,3}( )?)?(\\d{3}[ ]?){2}\\d{3}"
-            + "|(\\+\\d{1,3}( )?)?(\\d{3}[ ]?)(\\d{2}[ ]?){2}\\d{2}";
-        Pattern r = Pattern.compile("reply\s+(" + pnPatterns + ")\s+(.*)");
-        Matcher m = r.matcher(body.toLowerCase(Locale.ROOT));
-
-        if (m.find()) {
-          String mobilePhone = m.group(1);
-          // PN matching contains multiple, inner groups, so the message is the very last one.
-          String message = m.group(m.groupCount());
-
-          String twilioNumber = smsData.get("To").get(0);
-
-          CrmContact crmContact = new CrmContact();
-          crmContact.mobilePhone = mobilePhone;
-          env.messagingService().sendMessage(message, null, crmContact, twilioNumber);
-        } else if (env.notificationService().notificationConfigured("sms:inbound-default")) {
-          String subject = "Text Message Received";
-          String message = "Text message received from " + from + " :: " + body;
-          NotificationService.Notification notification = new NotificationService.Notification(subject, message);
-          notification.smsBody = message + " // To respond: type 'reply', then their phone number, and then your message. Ex: reploy 260-123-4567 Thanks, I got your message!";
-
-          String targetId = env.messagingCrmService().searchContacts(ContactSearch.byPhone(from)).getSingleResult().map(c -> c.id).orElse(null);
-
-          env.notificationService().sendNotification(notification, targetId, "sms:inbound-default");
-        } else if (!Strings.isNullOrEmpty(env.getConfig().twilio.defaultResponse)) {
-          env.logJobInfo("responding with: {}", env.getConfig().twilio.defaultResponse);
-
-          responseBody = new Body.Builder(env.getConfig().twilio.defaultResponse).build();
-        }
+    String from = smsData.getFirst("From");
+    String twilioNumber = smsData.getFirst("To");
+    String body = smsData.getFirst("Body");
+
+    InboundSmsRouter.Route route = InboundSmsRouter.route(
+        body,
+        env.notificationService().notificationConfigured("sms:inbound-default"),
+        env.getConfig().twilio.defaultResponse
+    );
+
+    Runnable thread = () -> {
+      try {
+        env.startJobLog(JobType.EVENT, null, "SMS Inbound", "Twilio");
+        env.logJobInfo(smsData.entrySet().stream().map(e -> e.getKey() + "=" + String.join(",", e.getValue())).collect(Collectors.joining(" ")));
+        processInboundSms(route, from, twilioNumber, env);
+        env.endJobLog(DONE);
+      } catch (Exception e) {
+        env.logJobError("inbound SMS failed", e);
+        env.endJobLog(FAILED);
       }
+    };
+    if (TestUtil.SKIP_NEW_THREADS) {
+      thread.run();
+    } else {
+      inboundExecutor.execute(thread);
     }
 
-    env.endJobLog(DONE);
-
     MessagingResponse.Builder responseBuilder = new MessagingResponse.Builder();
-    if (responseBody != null) {
-      responseBuilder.message(new Message.Builder().body(responseBody).build());
+    if (route.action == InboundSmsRouter.Action.DEFAULT_RESPONSE) {
+      responseBuilder.message(new Message.Builder().body(new Body.Builder(route.message).build()).build());
     }
     return Response.ok().entity(responseBuilder.build().toXml()).build();
   }
 
+  protected void processInboundSms(InboundSmsRouter.Route route, String from, String twilioNumber, Environment env) throws Exception {
+    switch (route.action) {
+      case RELAY -> {
+        CrmContact crmContact = new CrmContact();
+        crmContact.mobilePhone = route.phoneNumber;
+        env.messagingService().sendMessage(route.message, null, crmContact, twilioNumber);
+      }
+      case NOTIFY -> {
+        String subject = "Text Message Received";
+        String message = "Text message received from " + from + " :: " + route.message;
+        NotificationService.Notification notification = new NotificationService.Notification(subject, message);
+        notification.smsBody = message + " // To respond: type 'reply', then their phone number, and then your message. Ex: reploy 260-123-4567 Thanks, I got your message!";
+
+        String targetId = env.phoneContactCache().getContactByPhone(from, env.messagingCrmService()).map(c -> c.id).orElse(null);
+
+        env.notificationService().sendNotification(notification, targetId, "sms:inbound-default");
+      }
+      case DEFAULT_RESPONSE -> env.logJobInfo("responding with: {}", route.message);
+      default -> {
+        // nothing to do
+      }
+    }
+  }
+
   /**
    * Positioned as a webhook on fundraiser proxy phone numbers, allowing outbound masked calls and inbound call forwarding.
    *
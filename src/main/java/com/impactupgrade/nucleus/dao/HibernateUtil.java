@@ -4,22 +4,48 @@
 
 package com.impactupgrade.nucleus.dao;
 
+import com.impactupgrade.nucleus.entity.AudienceMember;
+import com.impactupgrade.nucleus.entity.AudienceSnapshot;
+import com.impactupgrade.nucleus.entity.ContactFingerprint;
 import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobLog;
 import com.impactupgrade.nucleus.entity.JobProgress;
 import com.impactupgrade.nucleus.entity.Organization;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 public class HibernateUtil {
 
   private static final Logger log = LoggerFactory.getLogger(HibernateUtil.class);
 
+  // the increment_size of the pooled id generators on Job and JobProgress
+  public static final int ID_BLOCK_SIZE = 50;
+  public static final int JDBC_BATCH_SIZE = ID_BLOCK_SIZE;
+
+  private static final List<String> POOLED_SEQUENCES = List.of("core_job_id_seq", "core_jobprogress_id_seq");
+  // columns mapped here ahead of the portal migrations that add them
+  private static final List<MigratedColumn> MIGRATED_COLUMNS = List.of(
+      new MigratedColumn("core_jobprogress", "last_message", "core_jobprogress_last_message.sql"),
+      new MigratedColumn("job_logs", "id", "job_logs_pagination.sql")
+  );
+
+  private record MigratedColumn(String table, String column, String script) {}
+
   private static SessionFactory sessionFactory;
 
   private static SessionFactory createSessionFactory() {
+    SessionFactory sessionFactory;
     try {
       log.info("building the default SessionFactory");
 
@@ -27,14 +53,92 @@ public class HibernateUtil {
 
       // core
       configuration.addAnnotatedClass(Job.class);
+      configuration.addAnnotatedClass(JobLog.class);
       configuration.addAnnotatedClass(JobProgress.class);
       configuration.addAnnotatedClass(Organization.class);
+      configuration.addAnnotatedClass(AudienceSnapshot.class);
+      configuration.addAnnotatedClass(AudienceMember.class);
+      configuration.addAnnotatedClass(ContactFingerprint.class);
+
+      // Batch inserts/updates by default (ex: job progress), grouping statements by entity so batches aren't broken up by
+      // interleaving. JobLog ids are DB-assigned (IDENTITY), which Hibernate never batches, so this doesn't apply to log
+      // lines. hibernate.properties can override any of these.
+      setDefaultProperty(configuration, "hibernate.jdbc.batch_size", JDBC_BATCH_SIZE + "");
+      setDefaultProperty(configuration, "hibernate.order_inserts", "true");
+      setDefaultProperty(configuration, "hibernate.order_updates", "true");
+      setDefaultProperty(configuration, "hibernate.jdbc.batch_versioned_data", "true");
 
-      return configuration.buildSessionFactory(new StandardServiceRegistryBuilder().build());
+      sessionFactory = configuration.buildSessionFactory(new StandardServiceRegistryBuilder().build());
     } catch (Throwable e) {
       log.error("failed to create the default SessionFactory: {}", e.getMessage());
       return null;
     }
+
+    // Unlike a missing DB, a DB that's behind on its migrations must not be treated as optional -- throw, rather than
+    // carry on without a SessionFactory, so nothing runs against it (and the next attempt checks again).
+    try {
+      verifyPooledSequences(sessionFactory);
+      verifyMigratedColumns(sessionFactory);
+    } catch (RuntimeException e) {
+      sessionFactory.close();
+      log.error("refusing to use the default SessionFactory: {}", e.getMessage());
+      throw e;
+    }
+    return sessionFactory;
+  }
+
+  // Pooled ids are only unique if the DB sequences increment by the same block size. Until the portal migration
+  // (sql/core_job_pooled_sequences.sql) has run, they still increment by 1 and every instance would hand out
+  // overlapping blocks -- refuse to run rather than write duplicate keys.
+  private static void verifyPooledSequences(SessionFactory sessionFactory) {
+    try (Session session = sessionFactory.openSession()) {
+      session.doWork(connection -> {
+        for (String sequence : POOLED_SEQUENCES) {
+          try (PreparedStatement statement = connection.prepareStatement(
+              "SELECT increment FROM information_schema.sequences WHERE LOWER(sequence_name) = ?")) {
+            statement.setString(1, sequence);
+            try (ResultSet resultSet = statement.executeQuery()) {
+              if (resultSet.next() && Long.parseLong(resultSet.getString(1).trim()) != ID_BLOCK_SIZE) {
+                throw new IllegalStateException(sequence + " increments by " + resultSet.getString(1).trim()
+                    + ", but ids are allocated in blocks of " + ID_BLOCK_SIZE + "; apply sql/core_job_pooled_sequences.sql");
+              }
+            }
+          }
+        }
+      });
+    }
+  }
+
+  // Every query against an entity selects all of its mapped columns, so a column that the portal migration hasn't added
+  // yet (ex: sql/core_jobprogress_last_message.sql) would fail each one at runtime. Fail once, up front, instead.
+  private static void verifyMigratedColumns(SessionFactory sessionFactory) {
+    try (Session session = sessionFactory.openSession()) {
+      session.doWork(connection -> {
+        for (MigratedColumn migratedColumn : MIGRATED_COLUMNS) {
+          Set<String> columns = new HashSet<>();
+          try (PreparedStatement statement = connection.prepareStatement(
+              "SELECT column_name FROM information_schema.columns WHERE LOWER(table_name) = ?")) {
+            statement.setString(1, migratedColumn.table());
+            try (ResultSet resultSet = statement.executeQuery()) {
+              while (resultSet.next()) {
+                columns.add(resultSet.getString(1).toLowerCase(Locale.ROOT));
+              }
+            }
+          }
+          // an empty set means the table itself doesn't exist yet, which isn't ours to judge
+          if (!columns.isEmpty() && !columns.contains(migratedColumn.column())) {
+            throw new IllegalStateException(migratedColumn.table() + "." + migratedColumn.column()
+                + " does not exist; apply sql/" + migratedColumn.script());
+          }
+        }
+      });
+    }
+  }
+
+  private static void setDefaultProperty(Configuration configuration, String key, String value) {
+    if (configuration.getProperty(key) == null) {
+      configuration.setProperty(key, value);
+    }
   }
 
   // allow custom impls to provide their own, if needed
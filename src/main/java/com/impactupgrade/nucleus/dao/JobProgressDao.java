@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.dao;
+
+import com.impactupgrade.nucleus.entity.JobProgress;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Progress queries that stay scoped to a single job and only load the rows that still need work, backed by the
+ * (job_id, target_id) index. Use these instead of Job.jobProgresses, which loads a job's entire history.
+ */
+public class JobProgressDao extends HibernateDao<Long, JobProgress> {
+
+  // keeps flushes well within DB and driver limits
+  protected static final int BATCH_SIZE = 500;
+
+  public JobProgressDao() {
+    super(JobProgress.class);
+  }
+
+  public JobProgressDao(SessionFactory sessionFactory) {
+    super(JobProgress.class, sessionFactory);
+  }
+
+  // Targets that have already received the given message number. Ids only, so finished recipients can be skipped
+  // without loading their payloads.
+  public List<String> getCompletedTargetIds(Long jobId, int messageNumber) {
+    try (Session session = openSession()) {
+      return session.createQuery(
+              "SELECT targetId FROM JobProgress WHERE job.id = :jobId AND lastMessage >= :messageNumber", String.class)
+          .setParameter("jobId", jobId)
+          .setParameter("messageNumber", messageNumber)
+          .getResultList();
+    }
+  }
+
+  // Recipients that have not yet received the given message number.
+  public List<JobProgress> getDueForMessage(Long jobId, int messageNumber) {
+    return getQueryResultList(
+        "FROM JobProgress WHERE job.id = :jobId AND (lastMessage IS NULL OR lastMessage < :messageNumber) ORDER BY id",
+        query -> {
+          query.setParameter("jobId", jobId);
+          query.setParameter("messageNumber", messageNumber);
+        }
+    );
+  }
+
+  // Inserts new progresses and updates existing ones, in one transaction and in JDBC batches.
+  public void upsert(Collection<JobProgress> jobProgresses) {
+    if (jobProgresses.isEmpty()) {
+      return;
+    }
+
+    try (Session session = openSession()) {
+      session.setJdbcBatchSize(HibernateUtil.JDBC_BATCH_SIZE);
+      Transaction transaction = session.beginTransaction();
+      int count = 0;
+      for (JobProgress jobProgress : jobProgresses) {
+        session.saveOrUpdate(jobProgress);
+        if (++count % BATCH_SIZE == 0) {
+          session.flush();
+          session.clear();
+        }
+      }
+      transaction.commit();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.entity;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+// One member of an AudienceSnapshot, keyed by the MD5 of the lowercased email (Mailchimp's own subscriber hash).
+@Entity
+@Table(name = "core_audiencemember", indexes = {
+    @Index(name = "core_audiencemember_snapshot_hash_idx", columnList = "snapshot_id, email_hash", unique = true)
+})
+public class AudienceMember {
+
+  @Id
+  @GeneratedValue(generator = "audiencemember_id_generator")
+  @GenericGenerator(
+      name = "audiencemember_id_generator",
+      strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+      parameters = {
+          @Parameter(name = "sequence_name", value = "core_audiencemember_id_seq"),
+          @Parameter(name = "initial_value", value = "1"),
+          // rebuilds insert entire audiences, so ids are reserved in blocks, as with Job
+          @Parameter(name = "increment_size", value = "50"),
+          @Parameter(name = "optimizer", value = "pooled-lo")
+      }
+  )
+  public Long id;
+
+  @Column(name = "snapshot_id", nullable = false)
+  public Long snapshotId;
+
+  @Column(name = "email_hash", nullable = false, length = 32)
+  public String emailHash;
+
+  @Column(name = "email", nullable = false)
+  public String email;
+
+  @Column(name = "status")
+  public String status;
+
+  // newline separated, since tag names may contain commas
+  @Column(name = "tags", length = 10_000)
+  public String tags;
+
+  @Column(name = "updated_at")
+  public Instant updatedAt;
+}
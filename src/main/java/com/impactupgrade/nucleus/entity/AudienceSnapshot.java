@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+// Local copy of a communication platform's audience (list), refreshed incrementally. See AudienceSnapshotService.
+@Entity
+@Table(name = "core_audiencesnapshot", indexes = {
+    @Index(name = "core_audiencesnapshot_org_platform_list_idx", columnList = "organization_id, platform, list_id", unique = true)
+})
+public class AudienceSnapshot {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  public Long id;
+
+  // list ids are only unique within a platform account
+  @Column(name = "organization_id", nullable = false)
+  public Long orgId;
+
+  @Column(name = "platform", nullable = false)
+  public String platform;
+
+  @Column(name = "list_id", nullable = false)
+  public String listId;
+
+  // Members changed on the platform after this point are not yet reflected. Null until the first full download, or
+  // after a rebuild is requested.
+  @Column(name = "refreshed_at")
+  public Instant refreshedAt;
+
+  @Column(name = "rebuilt_at")
+  public Instant rebuiltAt;
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.entity;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+// Hash of what was last pushed for a contact to a communication list. See ContactFingerprintService.
+@Entity
+@Table(name = "core_contactfingerprint", indexes = {
+    @Index(name = "core_contactfingerprint_org_list_hash_idx", columnList = "organization_id, platform, list_id, email_hash", unique = true)
+})
+public class ContactFingerprint {
+
+  @Id
+  @GeneratedValue(generator = "contactfingerprint_id_generator")
+  @GenericGenerator(
+      name = "contactfingerprint_id_generator",
+      strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+      parameters = {
+          @Parameter(name = "sequence_name", value = "core_contactfingerprint_id_seq"),
+          @Parameter(name = "initial_value", value = "1"),
+          // written a batch of contacts at a time, so ids are reserved in blocks, as with Job
+          @Parameter(name = "increment_size", value = "50"),
+          @Parameter(name = "optimizer", value = "pooled-lo")
+      }
+  )
+  public Long id;
+
+  // list ids are only unique within a platform account
+  @Column(name = "organization_id", nullable = false)
+  public Long orgId;
+
+  @Column(name = "platform", nullable = false)
+  public String platform;
+
+  @Column(name = "list_id", nullable = false)
+  public String listId;
+
+  @Column(name = "email_hash", nullable = false, length = 32)
+  public String emailHash;
+
+  @Column(name = "fingerprint", nullable = false, length = 64)
+  public String fingerprint;
+
+  @Column(name = "updated_at")
+  public Instant updatedAt;
+}
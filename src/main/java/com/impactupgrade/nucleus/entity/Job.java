@@ -5,6 +5,7 @@
 package com.impactupgrade.nucleus.entity;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.impactupgrade.nucleus.dao.HibernateUtil;
 import com.vladmihalcea.hibernate.type.json.JsonType;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
@@ -14,25 +15,26 @@ import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 
 import javax.persistence.CascadeType;
-import javax.persistence.CollectionTable;
 import javax.persistence.Column;
-import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import java.time.Instant;
-import java.util.LinkedList;
 import java.util.List;
 
 @Entity
-@Table(name = "core_job")
+@Table(name = "core_job", indexes = {
+    // backs the keyset pagination in DBJobLoggingService.getJobs
+    @Index(name = "core_job_org_type_started_idx", columnList = "organization_id, job_type, started_at")
+})
 @TypeDef(name = "json", typeClass = JsonType.class)
 public class Job {
 
@@ -44,7 +46,10 @@ public class Job {
       parameters = {
           @Parameter(name = "sequence_name", value = "core_job_id_seq"),
           @Parameter(name = "initial_value", value = "1"),
-          @Parameter(name = "increment_size", value = "1")
+          // one nextval reserves a block of ids, rather than one per insert -- the DB sequence must increment by the
+          // same amount (see sql/core_job_pooled_sequences.sql), which HibernateUtil verifies on startup
+          @Parameter(name = "increment_size", value = "" + HibernateUtil.ID_BLOCK_SIZE),
+          @Parameter(name = "optimizer", value = "pooled-lo")
       }
   )
   public Long id;
@@ -108,9 +113,6 @@ public class Job {
   @Column(name = "schedule_tz")
   public String scheduleTz;
 
-  @ElementCollection
-  @CollectionTable(name = "job_logs", joinColumns = @JoinColumn(name = "job_id", referencedColumnName = "id"))
-  @Column(name = "log")
-  public List<String> logs = new LinkedList<>();
-
+  // NOTE: Logs are intentionally not mapped here. A single job can have hundreds of thousands of lines -- page through
+  //  them with JobLoggingService.getJobLogs instead (see JobLog).
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+// One line of a Job's log. The id is assigned by the DB in insert order, so it doubles as the pagination cursor.
+@Entity
+@Table(name = "job_logs", indexes = {
+    @Index(name = "job_logs_job_id_id_idx", columnList = "job_id, id")
+})
+public class JobLog {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  public Long id;
+
+  @Column(name = "job_id", nullable = false)
+  public Long jobId;
+
+  @Column(name = "log")
+  public String log;
+}
@@ -5,6 +5,7 @@
 package com.impactupgrade.nucleus.entity;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.impactupgrade.nucleus.dao.HibernateUtil;
 import com.vladmihalcea.hibernate.type.json.JsonType;
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.Parameter;
@@ -16,12 +17,16 @@ import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 
 @Entity
-@Table(name = "core_jobprogress")
+@Table(name = "core_jobprogress", indexes = {
+    // every lookup is scoped to a job, then by target -- see JobProgressDao
+    @Index(name = "core_jobprogress_job_id_target_id_idx", columnList = "job_id, target_id")
+})
 @TypeDef(name = "json", typeClass = JsonType.class)
 public class JobProgress {
 
@@ -33,7 +38,10 @@ public class JobProgress {
       parameters = {
           @Parameter(name = "sequence_name", value = "core_jobprogress_id_seq"),
           @Parameter(name = "initial_value", value = "1"),
-          @Parameter(name = "increment_size", value = "1")
+          // one nextval reserves a block of ids, rather than one per insert -- the DB sequence must increment by the
+          // same amount (see sql/core_job_pooled_sequences.sql), which HibernateUtil verifies on startup
+          @Parameter(name = "increment_size", value = "" + HibernateUtil.ID_BLOCK_SIZE),
+          @Parameter(name = "optimizer", value = "pooled-lo")
       }
   )
   public Long id;
@@ -42,6 +50,11 @@ public class JobProgress {
   @Column(name = "target_id", nullable = true)
   public String targetId;
 
+  // Mirrors payload.lastMessage as a real column, so "who still needs message N" can be answered by the DB rather than
+  // by loading and parsing every payload. Null for rows written before the column existed, until they're next updated.
+  @Column(name = "last_message", nullable = true)
+  public Integer lastMessage;
+
   @Type(type = "json")
   // TODO: jsonb, but won't work in H2
   @Column(name = "payload", columnDefinition = "json", nullable = false)
@@ -19,10 +19,16 @@ import com.impactupgrade.nucleus.client.VirtuousClient;
 import com.impactupgrade.nucleus.entity.JobStatus;
 import com.impactupgrade.nucleus.entity.JobType;
 import com.impactupgrade.nucleus.service.logic.ActivityService;
+import com.impactupgrade.nucleus.service.logic.AudienceSnapshotService;
+import com.impactupgrade.nucleus.service.logic.CampaignActivityService;
+import com.impactupgrade.nucleus.service.logic.ContactFingerprintService;
 import com.impactupgrade.nucleus.service.logic.ContactService;
+import com.impactupgrade.nucleus.service.logic.CrmLookupCache;
 import com.impactupgrade.nucleus.service.logic.DonationService;
+import com.impactupgrade.nucleus.service.logic.EventBriteService;
 import com.impactupgrade.nucleus.service.logic.MessagingService;
 import com.impactupgrade.nucleus.service.logic.NotificationService;
+import com.impactupgrade.nucleus.service.logic.PhoneContactCache;
 import com.impactupgrade.nucleus.service.logic.ScheduledJobService;
 import com.impactupgrade.nucleus.service.segment.AccountingPlatformService;
 import com.impactupgrade.nucleus.service.segment.BareCrmService;
@@ -38,6 +44,7 @@ import org.apache.commons.collections4.map.CaseInsensitiveMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +53,7 @@ import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -71,6 +79,11 @@ public class Environment {
   // Additional context, if available.
   protected CaseInsensitiveMap<String, String> otherContext = new CaseInsensitiveMap<>();
 
+  // Request-scoped, so it lives as long as this Environment. See phoneContactCache().
+  private PhoneContactCache phoneContactCache;
+  // Same, see crmLookupCache().
+  private CrmLookupCache crmLookupCache;
+
   public Environment() {
     config = EnvironmentConfig.init();
   }
@@ -107,12 +120,31 @@ public class Environment {
   // logic services
 
   public ActivityService activityService() { return new ActivityService(this); }
+  public AudienceSnapshotService audienceSnapshotService() { return new AudienceSnapshotService(this); }
+  public CampaignActivityService campaignActivityService() { return new CampaignActivityService(this); }
   public DonationService donationService() { return new DonationService(this); }
+  public EventBriteService eventBriteService() { return new EventBriteService(this); }
   public ContactService contactService() { return new ContactService(this); }
+  public ContactFingerprintService contactFingerprintService() { return new ContactFingerprintService(this); }
   public MessagingService messagingService() { return new MessagingService(this); }
   public NotificationService notificationService() { return new NotificationService(this); }
   public ScheduledJobService scheduledJobService() { return new ScheduledJobService(this); }
 
+  // unlike the above, one instance per Environment, since it holds the request's lookups
+  public synchronized PhoneContactCache phoneContactCache() {
+    if (phoneContactCache == null) {
+      phoneContactCache = new PhoneContactCache(this);
+    }
+    return phoneContactCache;
+  }
+
+  public synchronized CrmLookupCache crmLookupCache() {
+    if (crmLookupCache == null) {
+      crmLookupCache = new CrmLookupCache(this);
+    }
+    return crmLookupCache;
+  }
+
   // segment services
 
   public CrmService crmService(final String name) {
@@ -275,15 +307,46 @@ public class Environment {
   }
 
   public void logJobInfo(String message, Object... params) {
-    jobLoggingServices().forEach(logger -> logger.info(message, params));
+    logJob(logger -> logger.info(message, params));
   }
 
   public void logJobWarn(String message, Object... params) {
-    jobLoggingServices().forEach(logger -> logger.warn(message, params));
+    logJob(logger -> logger.warn(message, params));
   }
 
   public void logJobError(String message, Object... params) {
-    jobLoggingServices().forEach(logger -> logger.error(message, params));
+    logJob(logger -> logger.error(message, params));
+  }
+
+  // When a job fans out across threads, each thread can hold its log entries and hand them back, so that the job log
+  // is written in a fixed order rather than interleaved however the threads happened to run.
+  private final ThreadLocal<List<Consumer<JobLoggingService>>> bufferedJobLogs = new ThreadLocal<>();
+
+  public void bufferJobLogs() {
+    bufferedJobLogs.set(new ArrayList<>());
+  }
+
+  public List<Consumer<JobLoggingService>> drainBufferedJobLogs() {
+    List<Consumer<JobLoggingService>> entries = bufferedJobLogs.get();
+    bufferedJobLogs.remove();
+    return entries == null ? List.of() : entries;
+  }
+
+  public void writeJobLogs(List<Consumer<JobLoggingService>> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    Set<JobLoggingService> loggers = jobLoggingServices();
+    entries.forEach(loggers::forEach);
+  }
+
+  private void logJob(Consumer<JobLoggingService> entry) {
+    List<Consumer<JobLoggingService>> entries = bufferedJobLogs.get();
+    if (entries != null) {
+      entries.add(entry);
+    } else {
+      jobLoggingServices().forEach(entry);
+    }
   }
 
   public void endJobLog(JobStatus jobStatus) {
@@ -217,6 +217,9 @@ public class EnvironmentConfig implements Serializable {
     public boolean campaignHasRecordTypes = false;
     public boolean donationHasRecordTypes = true;
     public boolean accountCampaignMembers = false;
+    // Search contacts by exact match on digits-only E.164 copies of their phones (see SfdcClient.NORMALIZED_PHONE_FIELDS),
+    // rather than LIKE scans. Provision the fields and run the backfill before turning this on!
+    public boolean normalizedPhoneSearch = false;
 
     public boolean sandbox = false;
     public String url = "";
@@ -267,6 +270,8 @@ public class EnvironmentConfig implements Serializable {
   public static class Stripe extends Platform {
     public List<Expression> filteringExpressions = new ArrayList<>();
     public boolean enableContactSync = false;
+    // list all customers once per contact sync, rather than searching by email per contact (see StripeDataSyncService)
+    public boolean bulkContactSync = false;
   }
 
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -442,6 +447,18 @@ public class EnvironmentConfig implements Serializable {
     public String v3SiteSecret = "";
   }
 
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // CACHING
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  // Overrides for caches built by CacheUtil, keyed by cache name. Unset values keep the cache's own defaults.
+  public Map<String, CacheSettings> caches = new HashMap<>();
+  public static class CacheSettings implements Serializable {
+    public Long maximumSize;
+    public Long expireAfterWriteSeconds;
+    public Long refreshAfterWriteSeconds;
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // INSTRUMENTATION/MONITORING/LOGGING
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -84,4 +84,12 @@ public class CrmAccount extends CrmRecord {
     }
     return true;
   }
+
+  // See CrmRecord.copyRecord.
+  public CrmAccount copy() {
+    CrmAccount copy = (CrmAccount) copyRecord();
+    if (billingAddress != null) copy.billingAddress = billingAddress.copy();
+    if (mailingAddress != null) copy.mailingAddress = mailingAddress.copy();
+    return copy;
+  }
 }
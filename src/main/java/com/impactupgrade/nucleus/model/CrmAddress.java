@@ -28,6 +28,10 @@ public class CrmAddress implements Serializable {
     this.country = country;
   }
 
+  public CrmAddress copy() {
+    return new CrmAddress(street, city, state, postalCode, country);
+  }
+
   public String stateAndCountry() {
     String stateAndCountry = "";
     if (!Strings.isNullOrEmpty(state)) {
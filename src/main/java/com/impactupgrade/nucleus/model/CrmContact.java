@@ -182,6 +182,15 @@ public class CrmContact extends CrmRecord {
     return true;
   }
 
+  // See CrmRecord.copyRecord. The fieldFetcher reads the shared crmRawObject, so it's shared as well.
+  public CrmContact copy() {
+    CrmContact copy = (CrmContact) copyRecord();
+    if (account != null) copy.account = account.copy();
+    if (emailGroups != null) copy.emailGroups = new ArrayList<>(emailGroups);
+    if (mailingAddress != null) copy.mailingAddress = mailingAddress.copy();
+    return copy;
+  }
+
   public void setFullNameOverride(String fullNameOverride) {
     this.fullNameOverride = fullNameOverride;
   }
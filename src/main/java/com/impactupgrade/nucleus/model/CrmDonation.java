@@ -134,4 +134,14 @@ public class CrmDonation extends CrmOpportunity {
 
     return transactionIds;
   }
+
+  // See CrmRecord.copyRecord.
+  public CrmDonation copy() {
+    CrmDonation copy = (CrmDonation) copyRecord();
+    if (account != null) copy.account = account.copy();
+    if (contact != null) copy.contact = contact.copy();
+    if (recurringDonation != null) copy.recurringDonation = recurringDonation.copy();
+    if (products != null) copy.products = new ArrayList<>(products);
+    return copy;
+  }
 }
@@ -14,7 +14,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-public abstract class CrmRecord implements Serializable {
+public abstract class CrmRecord implements Serializable, Cloneable {
 
   public String id;
 
@@ -43,6 +43,20 @@ public abstract class CrmRecord implements Serializable {
     this.crmUrl = crmUrl;
   }
 
+  // For caches that hand the same record to several callers, each of which may modify its own. Subclasses copy their
+  // own mutable fields. crmRawObject is shared, not copied, so treat it as read-only.
+  protected CrmRecord copyRecord() {
+    try {
+      CrmRecord copy = (CrmRecord) super.clone();
+      copy.metadata = new CaseInsensitiveMap<>(metadata);
+      copy.crmRawFieldsToSet = new HashMap<>(crmRawFieldsToSet);
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      // unreachable, since this is Cloneable
+      throw new IllegalStateException(e);
+    }
+  }
+
   public void addMetadata(String key, String value) {
     metadata.put(key, value);
   }
@@ -123,4 +123,12 @@ public class CrmRecurringDonation extends CrmRecord {
     if (subscriptionNextDate != null) subscriptionNextDateString = DateTimeFormatter.ofPattern("yyyy-MM-dd").format(subscriptionNextDate);
     if (subscriptionStartDate != null) subscriptionStartDateString = DateTimeFormatter.ofPattern("yyyy-MM-dd").format(subscriptionStartDate);
   }
+
+  // See CrmRecord.copyRecord.
+  public CrmRecurringDonation copy() {
+    CrmRecurringDonation copy = (CrmRecurringDonation) copyRecord();
+    if (account != null) copy.account = account.copy();
+    if (contact != null) copy.contact = contact.copy();
+    return copy;
+  }
 }
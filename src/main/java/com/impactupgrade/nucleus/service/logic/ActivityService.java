@@ -26,6 +26,21 @@ public class ActivityService {
 
   public void upsertActivities(List<String> targetIds, CrmActivity.Type type, String activityId, Calendar date,
       String subject, String messageBody) throws Exception {
+    upsertActivities(targetIds, type, activityId, date, subject, messageBody, false);
+  }
+
+  // For one-off sends (ie, a Mailchimp campaign), where each target gets exactly one message per activityId. The
+  // activity's external ref is then a per-message key: if it already exists, the message was already recorded (ie, a
+  // retried webhook or a replayed window), so it's skipped rather than appended again.
+  public void insertActivityFromEmails(Set<String> emails, CrmActivity.Type type, String activityId,
+      Calendar date, String subject, String messageBody) throws Exception {
+    List<CrmContact> crmContacts = crmService.getContactsByEmails(emails);
+    List<String> targetIds = crmContacts.stream().map(c -> c.id).toList();
+    upsertActivities(targetIds, type, activityId, date, subject, messageBody, true);
+  }
+
+  protected void upsertActivities(List<String> targetIds, CrmActivity.Type type, String activityId, Calendar date,
+      String subject, String messageBody, boolean skipExisting) throws Exception {
     List<String> extRefs = targetIds.stream().map(targetId -> targetId + "::" + activityId).toList();
     Map<String, CrmActivity> existingCrmActivities = crmService.getActivitiesByExternalRefs(extRefs).stream()
         .collect(Collectors.toMap(a -> a.externalReference, a -> a));
@@ -36,6 +51,9 @@ public class ActivityService {
       CrmActivity crmActivity;
 
       if (existingCrmActivities.containsKey(extRef)) {
+        if (skipExisting) {
+          continue;
+        }
         crmActivity = existingCrmActivities.get(extRef);
       } else {
         crmActivity = new CrmActivity();
@@ -7,24 +7,40 @@ package com.impactupgrade.nucleus.service.logic;
 import com.google.common.base.Strings;
 import com.impactupgrade.nucleus.environment.Environment;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 public class AntiFraudService {
 
   protected static final String RECAPTCHA_SITE_VERIFY_URL = "https://www.google.com/recaptcha/api/siteverify";
   protected static final double MIN_SCORE = 0.3;
 
+  private static final RecaptchaVerifier DEFAULT_VERIFIER = new HttpRecaptchaVerifier(RECAPTCHA_SITE_VERIFY_URL);
+
+  // secret::token -> the siteverify call currently running for it
+  private static final Map<String, CompletableFuture<JSONObject>> inFlight = new ConcurrentHashMap<>();
+
   protected final Environment env;
+  protected final RecaptchaVerifier recaptchaVerifier;
 
   public AntiFraudService(Environment env) {
+    this(env, DEFAULT_VERIFIER);
+  }
+
+  public AntiFraudService(Environment env, RecaptchaVerifier recaptchaVerifier) {
     this.env = env;
+    this.recaptchaVerifier = recaptchaVerifier;
   }
 
   public boolean isRecaptchaTokenV2Valid(String recaptchaToken) throws IOException {
@@ -106,39 +122,75 @@ public class AntiFraudService {
     }
   }
 
+  // Concurrent verifications of one token (ie, a double-clicked submit) share a single call, rather than all but one
+  // getting Google's "timeout-or-duplicate" error. Results are deliberately not kept once the call finishes: a token is
+  // single-use, so a later replay of it must go back to Google and fail.
   protected JSONObject getRecaptchaResponse(String recaptchaToken, String siteSecret) throws IOException {
-    URL url = new URL(RECAPTCHA_SITE_VERIFY_URL);
-    StringBuilder postData = new StringBuilder();
-    addParam(postData, "secret", siteSecret);
-    addParam(postData, "response", recaptchaToken);
-
-    // TODO: Taken from https://github.com/googlecodelabs/recaptcha-codelab/blob/master/final/src/main/java/com/example/feedback/FeedbackServlet.java, but this could be cleaned up...
-
-    HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-    urlConnection.setDoOutput(true);
-    urlConnection.setRequestMethod("POST");
-    urlConnection.setRequestProperty(
-        "Content-Type", "application/x-www-form-urlencoded");
-    urlConnection.setRequestProperty(
-        "charset", StandardCharsets.UTF_8.displayName());
-    urlConnection.setRequestProperty(
-        "Content-Length", Integer.toString(postData.length()));
-    urlConnection.setUseCaches(false);
-    urlConnection.getOutputStream()
-        .write(postData.toString().getBytes(StandardCharsets.UTF_8));
-    JSONTokener jsonTokener = new JSONTokener(urlConnection.getInputStream());
-    return new JSONObject(jsonTokener);
+    String key = siteSecret + "::" + recaptchaToken;
+    CompletableFuture<JSONObject> future = new CompletableFuture<>();
+    CompletableFuture<JSONObject> running = inFlight.putIfAbsent(key, future);
+    if (running == null) {
+      try {
+        JSONObject response = recaptchaVerifier.verify(recaptchaToken, siteSecret);
+        future.complete(response);
+        return response;
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+        throw t;
+      } finally {
+        inFlight.remove(key, future);
+      }
+    }
+
+    try {
+      return running.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  @FunctionalInterface
+  public interface RecaptchaVerifier {
+    JSONObject verify(String recaptchaToken, String siteSecret) throws IOException;
   }
 
-  private StringBuilder addParam(
-      StringBuilder postData, String param, String value)
-      throws UnsupportedEncodingException {
-    if (!postData.isEmpty()) {
-      postData.append("&");
+  public static class HttpRecaptchaVerifier implements RecaptchaVerifier {
+
+    // shared, so connections are reused across verifications
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(3))
+        .build();
+
+    private final URI uri;
+
+    public HttpRecaptchaVerifier(String url) {
+      this.uri = URI.create(url);
+    }
+
+    @Override
+    public JSONObject verify(String recaptchaToken, String siteSecret) throws IOException {
+      String postData = "secret=" + URLEncoder.encode(siteSecret, StandardCharsets.UTF_8)
+          + "&response=" + URLEncoder.encode(recaptchaToken, StandardCharsets.UTF_8);
+      HttpRequest request = HttpRequest.newBuilder(uri)
+          .timeout(Duration.ofSeconds(5))
+          .header("Content-Type", "application/x-www-form-urlencoded")
+          .POST(HttpRequest.BodyPublishers.ofString(postData))
+          .build();
+
+      try {
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return new JSONObject(response.body());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
     }
-    return postData.append(
-        String.format("%s=%s",
-            URLEncoder.encode(param, StandardCharsets.UTF_8.displayName()),
-            URLEncoder.encode(value, StandardCharsets.UTF_8.displayName())));
   }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.dao.HibernateUtil;
+import com.impactupgrade.nucleus.entity.AudienceMember;
+import com.impactupgrade.nucleus.entity.AudienceSnapshot;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Locally persisted copies of communication platform audiences. Syncs diff the CRM against the snapshot, rather than
+ * downloading the entire audience every time. Each refresh asks the platform only for members changed since the last
+ * one. A full download happens on the first refresh, and afterwards only when a rebuild is requested (ex: members were
+ * permanently deleted on the platform side, which incremental refreshes can't see).
+ *
+ * Snapshots belong to the env's organization, since list ids are only unique within a platform account. Without one,
+ * there's nowhere to keep a snapshot, so refreshes simply download the entire audience every time.
+ */
+public class AudienceSnapshotService {
+
+  // re-fetch a little before the last refresh, covering clock skew between us and the platform
+  protected static final Duration CHANGED_SINCE_OVERLAP = Duration.ofMinutes(5);
+  // emails per IN clause when matching changed members to existing rows, and rows per batch when streaming members
+  private static final int LOOKUP_CHUNK_SIZE = 1_000;
+
+  public interface ChangedMembersFetcher {
+    // changedSince is null when the entire audience is needed
+    List<AudienceMember> fetch(Instant changedSince) throws Exception;
+  }
+
+  private final Environment env;
+  private final HibernateDao<Long, AudienceSnapshot> snapshotDao;
+  private final HibernateDao<Long, AudienceMember> memberDao;
+  private Optional<Long> orgId;
+
+  public AudienceSnapshotService(Environment env) {
+    this.env = env;
+    this.snapshotDao = new HibernateDao<>(AudienceSnapshot.class);
+    this.memberDao = new HibernateDao<>(AudienceMember.class);
+  }
+
+  /**
+   * Brings the list's snapshot up to date, using the fetcher to pull changes from the platform, then streams every
+   * member to the consumer. See forEachMember.
+   */
+  public void refresh(String platform, String listId, ChangedMembersFetcher fetcher,
+      Consumer<AudienceMember> memberConsumer) throws Exception {
+    if (orgId().isEmpty()) {
+      env.logJobWarn("no organization for this environment; downloading the entire {} audience for list {}", platform, listId);
+      distinct(fetcher.fetch(null)).forEach(memberConsumer);
+      return;
+    }
+
+    AudienceSnapshot snapshot = getSnapshot(platform, listId).orElseGet(() -> {
+      AudienceSnapshot newSnapshot = new AudienceSnapshot();
+      newSnapshot.orgId = orgId().get();
+      newSnapshot.platform = platform;
+      newSnapshot.listId = listId;
+      return snapshotDao.insert(newSnapshot);
+    });
+
+    // Anything that changes while we're fetching will be picked up again next time.
+    Instant startedAt = Instant.now();
+    if (snapshot.refreshedAt == null) {
+      env.logJobInfo("rebuilding {} audience snapshot for list {}", platform, listId);
+      replaceMembers(snapshot, fetcher.fetch(null), startedAt);
+      snapshot.rebuiltAt = startedAt;
+    } else {
+      List<AudienceMember> changedMembers = fetcher.fetch(snapshot.refreshedAt.minus(CHANGED_SINCE_OVERLAP));
+      env.logJobInfo("refreshing {} audience snapshot for list {}: {} changed members", platform, listId, changedMembers.size());
+      upsertMembers(snapshot, changedMembers, startedAt);
+    }
+    snapshot.refreshedAt = startedAt;
+    snapshotDao.update(snapshot);
+
+    forEachMember(snapshot, memberConsumer);
+  }
+
+  /**
+   * Records changes Nucleus itself just made on the platform (ex: tags it pushed), keeping the snapshot accurate for
+   * the rest of the sync. Null status or tags on a member leave the existing values alone.
+   */
+  public void recordChanges(String platform, String listId, Collection<AudienceMember> members) {
+    Optional<AudienceSnapshot> snapshot = getSnapshot(platform, listId);
+    if (snapshot.isEmpty() || snapshot.get().refreshedAt == null || members.isEmpty()) {
+      // nothing to keep in sync (yet)
+      return;
+    }
+    upsertMembers(snapshot.get(), members, Instant.now());
+  }
+
+  /**
+   * The next refresh downloads the entire audience and replaces the snapshot.
+   */
+  public void requestRebuild(String platform, String listId) {
+    getSnapshot(platform, listId).ifPresent(snapshot -> {
+      snapshot.refreshedAt = null;
+      snapshotDao.update(snapshot);
+    });
+  }
+
+  // Scrolls through the members a batch at a time, read-only, so the entire audience is never held as entities at once.
+  public void forEachMember(AudienceSnapshot snapshot, Consumer<AudienceMember> memberConsumer) {
+    try (Session session = memberDao.openSession()) {
+      Query<AudienceMember> query = session.createQuery("FROM AudienceMember WHERE snapshotId = :snapshotId", AudienceMember.class)
+          .setParameter("snapshotId", snapshot.id)
+          .setReadOnly(true)
+          .setFetchSize(LOOKUP_CHUNK_SIZE);
+      try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+        int count = 0;
+        while (results.next()) {
+          memberConsumer.accept((AudienceMember) results.get(0));
+          if (++count % LOOKUP_CHUNK_SIZE == 0) {
+            session.clear();
+          }
+        }
+      }
+    }
+  }
+
+  // only the given emails, for those that are in the snapshot
+  public List<AudienceMember> getMembers(String platform, String listId, Collection<String> emails) {
+    Optional<AudienceSnapshot> snapshot = getSnapshot(platform, listId);
+    if (snapshot.isEmpty() || emails.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<String> emailHashes = emails.stream().map(AudienceSnapshotService::emailHash).distinct().toList();
+    List<AudienceMember> members = new ArrayList<>();
+    try (Session session = memberDao.openSession()) {
+      for (List<String> chunk : Lists.partition(emailHashes, LOOKUP_CHUNK_SIZE)) {
+        members.addAll(getMembers(snapshot.get(), chunk, session));
+      }
+    }
+    return members;
+  }
+
+  public Optional<AudienceSnapshot> getSnapshot(String platform, String listId) {
+    if (orgId().isEmpty()) {
+      return Optional.empty();
+    }
+    return snapshotDao.getQueryResult(
+        "FROM AudienceSnapshot WHERE orgId = :orgId AND platform = :platform AND listId = :listId",
+        query -> {
+          query.setParameter("orgId", orgId().get());
+          query.setParameter("platform", platform);
+          query.setParameter("listId", listId);
+        }
+    );
+  }
+
+  protected Optional<Long> orgId() {
+    if (orgId == null) {
+      orgId = new HibernateDao<Long, Organization>(Organization.class).getQueryResult(
+          "FROM Organization WHERE nucleusApiKey = :nucleusApiKey",
+          query -> query.setParameter("nucleusApiKey", env.getConfig().apiKey)
+      ).map(Organization::getId);
+    }
+    return orgId;
+  }
+
+  public static AudienceMember toAudienceMember(String email, String status, Set<String> tags) {
+    AudienceMember member = new AudienceMember();
+    member.email = email.toLowerCase(Locale.ROOT);
+    member.emailHash = emailHash(email);
+    member.status = status;
+    member.tags = tags == null ? null : String.join("\n", tags);
+    return member;
+  }
+
+  public static Set<String> getTags(AudienceMember member) {
+    if (Strings.isNullOrEmpty(member.tags)) {
+      return new LinkedHashSet<>();
+    }
+    return new LinkedHashSet<>(List.of(member.tags.split("\n")));
+  }
+
+  // same as Mailchimp's subscriber hash
+  public static String emailHash(String email) {
+    return DigestUtils.md5Hex(email.toLowerCase(Locale.ROOT));
+  }
+
+  protected void replaceMembers(AudienceSnapshot snapshot, List<AudienceMember> members, Instant updatedAt) {
+    try (Session session = memberDao.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session.createQuery("DELETE FROM AudienceMember WHERE snapshotId = :snapshotId")
+          .setParameter("snapshotId", snapshot.id)
+          .executeUpdate();
+
+      int count = 0;
+      for (AudienceMember member : distinct(members)) {
+        member.snapshotId = snapshot.id;
+        member.updatedAt = updatedAt;
+        memberDao.insert(member, session);
+        if (++count % HibernateUtil.JDBC_BATCH_SIZE == 0) {
+          session.flush();
+          session.clear();
+        }
+      }
+      transaction.commit();
+    }
+  }
+
+  protected void upsertMembers(AudienceSnapshot snapshot, List<AudienceMember> members, Instant updatedAt) {
+    if (members.isEmpty()) {
+      return;
+    }
+
+    try (Session session = memberDao.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (List<AudienceMember> chunk : Lists.partition(distinct(members), LOOKUP_CHUNK_SIZE)) {
+        Map<String, AudienceMember> existingMembers = getMembers(snapshot, chunk.stream().map(member -> member.emailHash).toList(), session)
+            .stream().collect(Collectors.toMap(member -> member.emailHash, Function.identity()));
+
+        for (AudienceMember member : chunk) {
+          AudienceMember existingMember = existingMembers.get(member.emailHash);
+          if (existingMember == null) {
+            member.snapshotId = snapshot.id;
+            member.updatedAt = updatedAt;
+            memberDao.insert(member, session);
+          } else {
+            // managed, so the changes are flushed below
+            existingMember.email = member.email;
+            if (member.status != null) {
+              existingMember.status = member.status;
+            }
+            if (member.tags != null) {
+              existingMember.tags = member.tags;
+            }
+            existingMember.updatedAt = updatedAt;
+          }
+        }
+        session.flush();
+        session.clear();
+      }
+      transaction.commit();
+    }
+  }
+
+  private List<AudienceMember> getMembers(AudienceSnapshot snapshot, List<String> emailHashes, Session session) {
+    return memberDao.getQueryResultList(
+        "FROM AudienceMember WHERE snapshotId = :snapshotId AND emailHash IN (:emailHashes)",
+        query -> {
+          query.setParameter("snapshotId", snapshot.id);
+          query.setParameterList("emailHashes", emailHashes);
+        },
+        session
+    );
+  }
+
+  // the last entry for an email wins
+  private List<AudienceMember> distinct(List<AudienceMember> members) {
+    if (members.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<String, AudienceMember> byHash = new LinkedHashMap<>();
+    members.forEach(member -> byHash.put(member.emailHash, member));
+    return new ArrayList<>(byHash.values());
+  }
+}
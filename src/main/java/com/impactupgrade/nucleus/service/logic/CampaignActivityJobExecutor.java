@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.client.MailchimpClient;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.environment.Environment;
+
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+// Mailchimp campaigns whose activities failed partway through, or were abandoned. See CampaignActivityService.
+public class CampaignActivityJobExecutor implements JobExecutor {
+
+  private final Environment env;
+  private final CampaignActivityService campaignActivityService;
+
+  public CampaignActivityJobExecutor(Environment env) {
+    this.env = env;
+    this.campaignActivityService = env.campaignActivityService();
+  }
+
+  @Override
+  public void execute(Job job, Instant now) throws Exception {
+    String listId = getJsonText(job.payload, "listId");
+    String campaignId = getJsonText(job.payload, "campaignId");
+    Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    date.setTimeInMillis(getJsonLong(job.payload, "date"));
+
+    env.startJobLog(JobType.EVENT, null, "Mailchimp Resumed Campaign", "Mailchimp");
+    env.logJobInfo("resuming activities for campaign {}", campaignId);
+    try {
+      MailchimpClient mailchimpClient = campaignActivityService.mailchimpClient(listId);
+      if (mailchimpClient == null) {
+        env.logJobError("unable to find ListID={}", listId);
+        campaignActivityService.complete(job, JobStatus.FAILED);
+        env.endJobLog(JobStatus.FAILED);
+        return;
+      }
+
+      campaignActivityService.resumeMailchimpCampaignActivities(mailchimpClient, job, date);
+      env.endJobLog(JobStatus.DONE);
+    } catch (Exception e) {
+      env.logJobError("failed to resume the Mailchimp campaign", e);
+      env.endJobLog(JobStatus.FAILED);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.ecwid.maleorang.method.v3_0.campaigns.content.ContentInfo;
+import com.ecwid.maleorang.method.v3_0.reports.sent_to.SentToInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.impactupgrade.nucleus.client.MailchimpClient;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobFrequency;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmActivity;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a sent Mailchimp campaign into CRM activities, one window of recipients at a time. Each window resolves its
+ * emails to CRM contacts and flushes its activities before the next is retrieved, so memory and CRM batch sizes stay
+ * flat regardless of audience size.
+ *
+ * When the DB is available, each campaign is tracked as a core_job (excluded from job listings, see
+ * DBJobLoggingService), with the offset of the next window checkpointed in its payload after every window. While a run
+ * is making progress, it keeps pushing the job's scheduleStart out by LEASE. If a run fails, the job is due right away:
+ * a Mailchimp webhook retry, or the next scheduled job run for the org (CampaignActivityJobExecutor), resumes at the
+ * first unfinished window. If the process goes away instead, the same happens once the lease runs out. Upserts are
+ * idempotent, so a window that's replayed is harmless.
+ */
+public class CampaignActivityService {
+
+  public static final String JOB_NAME = "Mailchimp Campaign Activities";
+  protected static final int WINDOW_SIZE = 1000;
+  // comfortably longer than any one window takes
+  protected static final Duration LEASE = Duration.ofMinutes(10);
+  protected static final int MAX_ATTEMPTS = 5;
+
+  // duplicate deliveries within this process, while the first is still running
+  private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+  private final Environment env;
+  private final ActivityService activityService;
+
+  public CampaignActivityService(Environment env) {
+    this.env = env;
+    activityService = env.activityService();
+  }
+
+  // TODO: Clunky way to retrieve the specific account keys, when all we have is the List ID..
+  public MailchimpClient mailchimpClient(String listId) {
+    for (EnvironmentConfig.CommunicationPlatform mailchimpConfig : env.getConfig().mailchimp) {
+      for (EnvironmentConfig.CommunicationList communicationList : mailchimpConfig.lists) {
+        if (listId.equalsIgnoreCase(communicationList.id)) {
+          return env.mailchimpClient(mailchimpConfig);
+        }
+      }
+    }
+    return null;
+  }
+
+  // From the campaign webhook, including Mailchimp's retries.
+  public void upsertMailchimpCampaignActivities(MailchimpClient mailchimpClient, String listId, String campaignId,
+      Calendar date, String subject) throws Exception {
+    Job job = null;
+    if (env.getConfig().isDatabaseConnected()) {
+      Optional<Job> existingJob = getJob(listId, campaignId);
+      if (existingJob.isEmpty()) {
+        job = insertJob(listId, campaignId, date, subject);
+      } else if (existingJob.get().status != JobStatus.ACTIVE) {
+        env.logJobInfo("campaign {} was already processed; skipping", campaignId);
+        return;
+      } else if (existingJob.get().scheduleStart.isAfter(Instant.now())) {
+        env.logJobInfo("campaign {} is already being processed; skipping", campaignId);
+        return;
+      } else {
+        job = existingJob.get();
+      }
+    }
+
+    processCampaign(mailchimpClient, job, listId, campaignId, date, subject);
+  }
+
+  // From the scheduled job run, once a failed or abandoned job's lease has run out.
+  public void resumeMailchimpCampaignActivities(MailchimpClient mailchimpClient, Job job, Calendar date)
+      throws Exception {
+    String listId = job.payload.get("listId").asText();
+    String campaignId = job.payload.get("campaignId").asText();
+    String subject = job.payload.hasNonNull("subject") ? job.payload.get("subject").asText() : null;
+    processCampaign(mailchimpClient, job, listId, campaignId, date, subject);
+  }
+
+  protected void processCampaign(MailchimpClient mailchimpClient, Job job, String listId, String campaignId,
+      Calendar date, String subject) throws Exception {
+    String key = env.getConfig().apiKey + "::" + listId + "::" + campaignId;
+    if (!inFlight.add(key)) {
+      env.logJobInfo("campaign {} is already being processed; skipping", campaignId);
+      return;
+    }
+
+    int offset = job == null ? 0 : job.payload.path("offset").asInt(0);
+    int attempts = job == null ? 1 : job.payload.path("attempts").asInt(0) + 1;
+    try {
+      if (offset > 0) {
+        env.logJobInfo("resuming campaign {} at offset {}", campaignId, offset);
+      }
+      checkpoint(job, offset, attempts);
+
+      ContentInfo contentInfo = mailchimpClient.getCampaignContent(campaignId);
+
+      while (true) {
+        List<SentToInfo> sentTos = mailchimpClient.getCampaignRecipients(campaignId, offset, WINDOW_SIZE);
+        if (sentTos == null || sentTos.isEmpty()) {
+          break;
+        }
+
+        Set<String> emails = sentTos.stream()
+            .filter(member -> member.status == SentToInfo.Status.SEND)
+            .map(member -> member.email_address)
+            .collect(Collectors.toSet());
+        if (!emails.isEmpty()) {
+          activityService.insertActivityFromEmails(
+              emails,
+              CrmActivity.Type.EMAIL,
+              campaignId,
+              date,
+              subject,
+              contentInfo.plain_text
+          );
+        }
+
+        offset += sentTos.size();
+        checkpoint(job, offset, attempts);
+
+        if (sentTos.size() < WINDOW_SIZE) {
+          break;
+        }
+      }
+
+      complete(job, JobStatus.DONE);
+      env.logJobInfo("processed {} recipients for campaign {}", offset, campaignId);
+    } catch (Exception e) {
+      if (attempts >= MAX_ATTEMPTS) {
+        env.logJobInfo("giving up on campaign {} after {} attempts", campaignId, attempts);
+        complete(job, JobStatus.FAILED);
+      } else {
+        release(job);
+      }
+      throw e;
+    } finally {
+      inFlight.remove(key);
+    }
+  }
+
+  protected Optional<Job> getJob(String listId, String campaignId) {
+    return new HibernateDao<Long, Job>(Job.class).getQueryResult(
+        "FROM Job WHERE traceId = :traceId AND org.nucleusApiKey = :nucleusApiKey",
+        query -> {
+          query.setParameter("traceId", traceId(listId, campaignId));
+          query.setParameter("nucleusApiKey", env.getConfig().apiKey);
+        }
+    );
+  }
+
+  // Saved as a core_job, rather than a new table, since the schema is owned by the portal.
+  protected Job insertJob(String listId, String campaignId, Calendar date, String subject) {
+    Optional<Organization> org = new HibernateDao<Long, Organization>(Organization.class).getQueryResult(
+        "FROM Organization WHERE nucleusApiKey = :nucleusApiKey",
+        query -> query.setParameter("nucleusApiKey", env.getConfig().apiKey)
+    );
+    if (org.isEmpty()) {
+      return null;
+    }
+
+    Instant now = Instant.now();
+    Job job = new Job();
+    // one job per campaign, so retries find it
+    job.traceId = traceId(listId, campaignId);
+    job.jobType = JobType.EVENT;
+    job.jobName = JOB_NAME;
+    job.startedBy = "webhook";
+    job.originatingPlatform = "Mailchimp";
+    job.org = org.get();
+    job.status = JobStatus.ACTIVE;
+    job.scheduleFrequency = JobFrequency.ONETIME;
+    job.scheduleStart = now.plus(LEASE);
+    job.startedAt = now;
+    job.scheduleTz = "UTC";
+    ObjectNode payload = new ObjectMapper().createObjectNode();
+    payload.put("listId", listId);
+    payload.put("campaignId", campaignId);
+    payload.put("subject", subject);
+    payload.put("date", date.getTimeInMillis());
+    payload.put("offset", 0);
+    payload.put("attempts", 0);
+    job.payload = payload;
+    return new HibernateDao<Long, Job>(Job.class).insert(job);
+  }
+
+  protected void checkpoint(Job job, int offset, int attempts) {
+    if (job == null) {
+      return;
+    }
+    ((ObjectNode) job.payload).put("offset", offset);
+    ((ObjectNode) job.payload).put("attempts", attempts);
+    job.scheduleStart = Instant.now().plus(LEASE);
+    new HibernateDao<Long, Job>(Job.class).update(job);
+  }
+
+  // Due right away, for the next retry or scheduled run.
+  protected void release(Job job) {
+    if (job == null) {
+      return;
+    }
+    job.scheduleStart = Instant.now();
+    new HibernateDao<Long, Job>(Job.class).update(job);
+  }
+
+  protected void complete(Job job, JobStatus jobStatus) {
+    if (job == null) {
+      return;
+    }
+    job.status = jobStatus;
+    job.endedAt = Instant.now();
+    new HibernateDao<Long, Job>(Job.class).update(job);
+  }
+
+  protected String traceId(String listId, String campaignId) {
+    return "mailchimp-campaign::" + listId + "::" + campaignId;
+  }
+}
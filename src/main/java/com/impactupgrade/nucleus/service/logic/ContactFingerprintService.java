@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.google.common.collect.Lists;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.ContactFingerprint;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers, per communication list and contact, a hash of what was last successfully pushed (merge fields, tags,
+ * etc). Syncs compare against it and skip the contacts that haven't changed, rather than resending the whole audience.
+ * Anything that makes the platform's copy diverge from what we pushed (archives, platform-side edits, single upserts)
+ * must clear the fingerprint, so the contact is sent again.
+ *
+ * Fingerprints belong to the env's organization, since list ids are only unique within a platform account. Without
+ * one, nothing is remembered, and every contact is sent.
+ */
+public class ContactFingerprintService {
+
+  // emails per IN clause
+  private static final int LOOKUP_CHUNK_SIZE = 1_000;
+
+  private final Environment env;
+  private final HibernateDao<Long, ContactFingerprint> fingerprintDao;
+  private Optional<Long> orgId;
+
+  public ContactFingerprintService(Environment env) {
+    this.env = env;
+    this.fingerprintDao = new HibernateDao<>(ContactFingerprint.class);
+  }
+
+  // email -> fingerprint, for those emails that have one
+  public Map<String, String> getFingerprints(String platform, String listId, Collection<String> emails) {
+    if (orgId().isEmpty()) {
+      return new HashMap<>();
+    }
+
+    Map<String, String> emailsByHash = emails.stream().distinct()
+        .collect(Collectors.toMap(AudienceSnapshotService::emailHash, Function.identity(), (a, b) -> a));
+    Map<String, String> fingerprints = new HashMap<>();
+    try (Session session = fingerprintDao.openSession()) {
+      for (List<String> emailHashes : Lists.partition(List.copyOf(emailsByHash.keySet()), LOOKUP_CHUNK_SIZE)) {
+        for (ContactFingerprint fingerprint : getFingerprintEntities(platform, listId, emailHashes, session)) {
+          fingerprints.put(emailsByHash.get(fingerprint.emailHash), fingerprint.fingerprint);
+        }
+      }
+    }
+    return fingerprints;
+  }
+
+  // email -> fingerprint
+  public void saveFingerprints(String platform, String listId, Map<String, String> fingerprints) {
+    if (fingerprints.isEmpty() || orgId().isEmpty()) {
+      return;
+    }
+
+    Instant now = Instant.now();
+    Map<String, String> fingerprintsByHash = new HashMap<>();
+    fingerprints.forEach((email, fingerprint) -> fingerprintsByHash.put(AudienceSnapshotService.emailHash(email), fingerprint));
+
+    try (Session session = fingerprintDao.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (List<String> emailHashes : Lists.partition(List.copyOf(fingerprintsByHash.keySet()), LOOKUP_CHUNK_SIZE)) {
+        Map<String, ContactFingerprint> existingFingerprints = getFingerprintEntities(platform, listId, emailHashes, session)
+            .stream().collect(Collectors.toMap(fingerprint -> fingerprint.emailHash, Function.identity()));
+        for (String emailHash : emailHashes) {
+          ContactFingerprint fingerprint = existingFingerprints.get(emailHash);
+          if (fingerprint == null) {
+            fingerprint = new ContactFingerprint();
+            fingerprint.orgId = orgId().get();
+            fingerprint.platform = platform;
+            fingerprint.listId = listId;
+            fingerprint.emailHash = emailHash;
+            fingerprint.fingerprint = fingerprintsByHash.get(emailHash);
+            fingerprint.updatedAt = now;
+            fingerprintDao.insert(fingerprint, session);
+          } else {
+            // managed, so the change is flushed below
+            fingerprint.fingerprint = fingerprintsByHash.get(emailHash);
+            fingerprint.updatedAt = now;
+          }
+        }
+        session.flush();
+        session.clear();
+      }
+      transaction.commit();
+    }
+  }
+
+  public void clearFingerprints(String platform, String listId, Collection<String> emails) {
+    if (emails.isEmpty() || orgId().isEmpty()) {
+      return;
+    }
+
+    List<String> emailHashes = emails.stream().map(AudienceSnapshotService::emailHash).distinct().toList();
+    try (Session session = fingerprintDao.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (List<String> emailHashChunk : Lists.partition(emailHashes, LOOKUP_CHUNK_SIZE)) {
+        session.createQuery("DELETE FROM ContactFingerprint WHERE orgId = :orgId AND platform = :platform AND listId = :listId AND emailHash IN (:emailHashes)")
+            .setParameter("orgId", orgId().get())
+            .setParameter("platform", platform)
+            .setParameter("listId", listId)
+            .setParameterList("emailHashes", emailHashChunk)
+            .executeUpdate();
+      }
+      transaction.commit();
+    }
+  }
+
+  public void clearFingerprints(String platform, String listId) {
+    if (orgId().isEmpty()) {
+      return;
+    }
+
+    try (Session session = fingerprintDao.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session.createQuery("DELETE FROM ContactFingerprint WHERE orgId = :orgId AND platform = :platform AND listId = :listId")
+          .setParameter("orgId", orgId().get())
+          .setParameter("platform", platform)
+          .setParameter("listId", listId)
+          .executeUpdate();
+      transaction.commit();
+    }
+  }
+
+  private List<ContactFingerprint> getFingerprintEntities(String platform, String listId, List<String> emailHashes,
+      Session session) {
+    return fingerprintDao.getQueryResultList(
+        "FROM ContactFingerprint WHERE orgId = :orgId AND platform = :platform AND listId = :listId AND emailHash IN (:emailHashes)",
+        query -> {
+          query.setParameter("orgId", orgId().get());
+          query.setParameter("platform", platform);
+          query.setParameter("listId", listId);
+          query.setParameterList("emailHashes", emailHashes);
+        },
+        session
+    );
+  }
+
+  protected Optional<Long> orgId() {
+    if (orgId == null) {
+      orgId = new HibernateDao<Long, Organization>(Organization.class).getQueryResult(
+          "FROM Organization WHERE nucleusApiKey = :nucleusApiKey",
+          query -> query.setParameter("nucleusApiKey", env.getConfig().apiKey)
+      ).map(Organization::getId);
+    }
+    return orgId;
+  }
+}
@@ -5,6 +5,7 @@
 package com.impactupgrade.nucleus.service.logic;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.model.ContactFormData;
 import com.impactupgrade.nucleus.model.ContactSearch;
@@ -14,14 +15,45 @@ import com.impactupgrade.nucleus.model.CrmDonation;
 import com.impactupgrade.nucleus.model.CrmRecurringDonation;
 import com.impactupgrade.nucleus.model.PaymentGatewayEvent;
 import com.impactupgrade.nucleus.service.segment.CrmService;
+import com.impactupgrade.nucleus.service.segment.JobLoggingService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ContactService {
 
+  protected static final int LOOKUP_THREADS = 8;
+  protected static final int LOOKUP_QUEUE_SIZE = 1_000;
+
+  // Shared by every ContactService, for the donor lookups that don't depend on one another. If the queue ever fills,
+  // the lookup simply runs on the calling thread.
+  private static final ThreadPoolExecutor lookupExecutor = new ThreadPoolExecutor(
+      LOOKUP_THREADS,
+      LOOKUP_THREADS,
+      60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(LOOKUP_QUEUE_SIZE),
+      new ThreadFactoryBuilder().setNameFormat("donor-lookup-%d").setDaemon(true).build(),
+      new ThreadPoolExecutor.CallerRunsPolicy()
+  );
+  static {
+    lookupExecutor.allowCoreThreadTimeOut(true);
+  }
+
   protected final Environment env;
   protected final CrmService crmService;
 
@@ -43,34 +75,105 @@ public class ContactService {
     }
   }
 
+  /**
+   * processDonor for a batch of events, ie replaying a window of payments. The accounts and contacts the events point
+   * to, plus the contacts matching their emails, are first fetched in bulk (one lookup each per batch). processDonor
+   * then only goes back to the CRM for the fallback searches and for donors that don't exist yet. A failure is logged
+   * and leaves that event without a donor, which DonationService skips.
+   */
+  public void processDonors(List<PaymentGatewayEvent> paymentGatewayEvents) throws Exception {
+    CrmLookupCache lookups = env.crmLookupCache();
+
+    Set<String> accountIds = new HashSet<>();
+    Set<String> contactIds = new HashSet<>();
+    Set<String> emails = new HashSet<>();
+    for (PaymentGatewayEvent paymentGatewayEvent : paymentGatewayEvents) {
+      if (!Strings.isNullOrEmpty(paymentGatewayEvent.getCrmAccount().id)) {
+        accountIds.add(paymentGatewayEvent.getCrmAccount().id);
+      }
+      if (!Strings.isNullOrEmpty(paymentGatewayEvent.getCrmContact().id)) {
+        contactIds.add(paymentGatewayEvent.getCrmContact().id);
+      } else if (!Strings.isNullOrEmpty(paymentGatewayEvent.getCrmContact().email)) {
+        emails.add(paymentGatewayEvent.getCrmContact().email);
+      }
+    }
+
+    List<CrmContact> contacts = new ArrayList<>();
+    if (!contactIds.isEmpty()) {
+      contacts.addAll(crmService.getContactsByIds(new ArrayList<>(contactIds)));
+    }
+    // Only matches on the contact's primary email are kept. Anything else (ie, NPSP's alternate emails) is left to
+    // the regular search.
+    Map<String, List<CrmContact>> contactsByEmail = new HashMap<>();
+    if (!emails.isEmpty()) {
+      for (CrmContact contact : crmService.getContactsByEmails(emails)) {
+        contacts.add(contact);
+        if (!Strings.isNullOrEmpty(contact.email)) {
+          contactsByEmail.computeIfAbsent(contact.email.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(contact);
+        }
+      }
+    }
+    for (CrmContact contact : contacts) {
+      lookups.putContact(contact, crmService);
+      if (!Strings.isNullOrEmpty(contact.account.id)) {
+        accountIds.add(contact.account.id);
+      }
+    }
+    for (String email : emails) {
+      lookups.putContactsByEmail(email, contactsByEmail.getOrDefault(email.toLowerCase(Locale.ROOT), List.of()), crmService);
+    }
+    if (!accountIds.isEmpty()) {
+      for (CrmAccount account : crmService.getAccountsByIds(new ArrayList<>(accountIds))) {
+        lookups.putAccount(account, crmService);
+      }
+    }
+
+    for (PaymentGatewayEvent paymentGatewayEvent : paymentGatewayEvents) {
+      try {
+        processDonor(paymentGatewayEvent);
+      } catch (Exception e) {
+        env.logJobError("donor processing failed for transaction {}", paymentGatewayEvent.getCrmDonation().transactionId, e);
+      }
+    }
+  }
+
   protected void fetchAndSetDonorData(PaymentGatewayEvent paymentGatewayEvent) throws Exception  {
+    CrmLookupCache lookups = env.crmLookupCache();
     Optional<CrmAccount> existingAccount = Optional.empty();
     Optional<CrmContact> existingContact = Optional.empty();
 
-    if (!Strings.isNullOrEmpty(paymentGatewayEvent.getCrmAccount().id)) {
-      existingAccount = crmService.getAccountById(paymentGatewayEvent.getCrmAccount().id);
+    // The event's account and contact don't depend on each other, so look them up side by side.
+    String eventAccountId = paymentGatewayEvent.getCrmAccount().id;
+    String eventContactId = paymentGatewayEvent.getCrmContact().id;
+    AsyncLookup<Optional<CrmAccount>> accountLookup = Strings.isNullOrEmpty(eventAccountId) ? null
+        : new AsyncLookup<>(() -> lookups.getAccountById(eventAccountId, crmService));
+    Optional<CrmContact> eventContact = Strings.isNullOrEmpty(eventContactId) ? Optional.empty()
+        : lookups.getContactById(eventContactId, crmService);
+
+    if (accountLookup != null) {
+      existingAccount = accountLookup.join();
       if (existingAccount.isPresent()) {
         env.logJobInfo("found CRM account {}", existingAccount.get().id);
       } else {
         env.logJobInfo("event included CRM account {}, but the account didn't exist; trying through the contact...",
-            paymentGatewayEvent.getCrmAccount().id);
+            eventAccountId);
       }
     }
 
-    if (!Strings.isNullOrEmpty(paymentGatewayEvent.getCrmContact().id)) {
-      existingContact = crmService.getContactById(paymentGatewayEvent.getCrmContact().id);
+    if (!Strings.isNullOrEmpty(eventContactId)) {
+      existingContact = eventContact;
       if (existingContact.isPresent()) {
         env.logJobInfo("found CRM contact {}", existingContact.get().id);
 
         if (existingAccount.isEmpty() && !Strings.isNullOrEmpty(existingContact.get().account.id)) {
-          existingAccount = crmService.getAccountById(existingContact.get().account.id);
+          existingAccount = lookups.getAccountById(existingContact.get().account.id, crmService);
           if (existingAccount.isPresent()) {
             env.logJobInfo("found CRM account {}", existingContact.get().account.id);
           }
         }
       } else {
         env.logJobInfo("event included CRM contact {}, but the contact didn't exist; trying to find the contact by other means...",
-            paymentGatewayEvent.getCrmContact().id);
+            eventContactId);
         // IMPORTANT: If this was the case, clear out the existingAccount and use the one discovered by the proceeding contact search!
         existingAccount = Optional.empty();
       }
@@ -80,36 +183,53 @@ public class ContactService {
     // sf_contact, the email address might still be a match here. We assume that sf_account without the presence of
     // sf_contact is a business gift!
     if (existingAccount.isEmpty() && existingContact.isEmpty()) {
-      existingContact = findExistingContacts(paymentGatewayEvent.getCrmContact()).stream().findFirst();
-
-      // As a last resort, attempt to look up existing donations using the donor's customer or subscription. If
-      // donations are found, retrieve the contact/account from the latest. This prevents duplicate contacts
-      // when donations come in with nothing more than a first/last name.
-      if (existingContact.isEmpty() && !Strings.isNullOrEmpty(paymentGatewayEvent.getCrmRecurringDonation().subscriptionId)) {
-        Optional<CrmRecurringDonation> crmRecurringDonation = crmService.getRecurringDonationBySubscriptionId(
-            paymentGatewayEvent.getCrmRecurringDonation().subscriptionId);
-        // Recurring Donations are typically assigned to an Account OR a Contact (and Enhanced Recurring Donations
-        // requires one or the other, but disallows both). Typically, for a household gift, you'd see the Contact used,
-        // but some orgs instead use the Account.
-        if (crmRecurringDonation.isPresent()) {
-          if (!Strings.isNullOrEmpty(crmRecurringDonation.get().contact.id)) {
-            existingContact = crmService.getContactById(crmRecurringDonation.get().contact.id);
-          } else if (!Strings.isNullOrEmpty(crmRecurringDonation.get().account.id)) {
-            existingAccount = crmService.getAccountById(crmRecurringDonation.get().account.id);
+      // The donation lookups below are only needed if the contact searches come up empty, but they don't depend on
+      // them, so start them now rather than waiting.
+      String subscriptionId = paymentGatewayEvent.getCrmRecurringDonation().subscriptionId;
+      String customerId = paymentGatewayEvent.getCrmDonation().customerId;
+      AsyncLookup<Optional<CrmRecurringDonation>> recurringDonationLookup = Strings.isNullOrEmpty(subscriptionId) ? null
+          : new AsyncLookup<>(() -> lookups.getRecurringDonationBySubscriptionId(subscriptionId, crmService));
+      AsyncLookup<List<CrmDonation>> donationsLookup = Strings.isNullOrEmpty(customerId) ? null
+          : new AsyncLookup<>(() -> lookups.getDonationsByCustomerId(customerId, crmService));
+
+      try {
+        existingContact = findExistingContacts(paymentGatewayEvent.getCrmContact()).stream().findFirst();
+
+        // As a last resort, attempt to look up existing donations using the donor's customer or subscription. If
+        // donations are found, retrieve the contact/account from the latest. This prevents duplicate contacts
+        // when donations come in with nothing more than a first/last name.
+        if (existingContact.isEmpty() && recurringDonationLookup != null) {
+          Optional<CrmRecurringDonation> crmRecurringDonation = recurringDonationLookup.join();
+          // Recurring Donations are typically assigned to an Account OR a Contact (and Enhanced Recurring Donations
+          // requires one or the other, but disallows both). Typically, for a household gift, you'd see the Contact used,
+          // but some orgs instead use the Account.
+          if (crmRecurringDonation.isPresent()) {
+            if (!Strings.isNullOrEmpty(crmRecurringDonation.get().contact.id)) {
+              existingContact = lookups.getContactById(crmRecurringDonation.get().contact.id, crmService);
+            } else if (!Strings.isNullOrEmpty(crmRecurringDonation.get().account.id)) {
+              existingAccount = lookups.getAccountById(crmRecurringDonation.get().account.id, crmService);
+            }
           }
         }
-      }
 
-      if (existingContact.isEmpty() && !Strings.isNullOrEmpty(paymentGatewayEvent.getCrmDonation().customerId)) {
-        List<CrmDonation> crmDonations = crmService.getDonationsByCustomerId(
-            paymentGatewayEvent.getCrmDonation().customerId);
-        if (!crmDonations.isEmpty()) {
-          existingContact = crmService.getContactById(crmDonations.get(0).contact.id);
+        if (existingContact.isEmpty() && donationsLookup != null) {
+          List<CrmDonation> crmDonations = donationsLookup.join();
+          if (!crmDonations.isEmpty()) {
+            existingContact = lookups.getContactById(crmDonations.get(0).contact.id, crmService);
+          }
+        }
+      } finally {
+        // not needed if the contact searches found a match
+        if (recurringDonationLookup != null) {
+          recurringDonationLookup.discard();
+        }
+        if (donationsLookup != null) {
+          donationsLookup.discard();
         }
       }
 
       if (existingContact.isPresent() && !Strings.isNullOrEmpty(existingContact.get().account.id)) {
-        existingAccount = crmService.getAccountById(existingContact.get().account.id);
+        existingAccount = lookups.getAccountById(existingContact.get().account.id, crmService);
         if (existingAccount.isPresent()) {
           env.logJobInfo("found CRM account {}", existingContact.get().account.id);
         }
@@ -124,19 +244,84 @@ public class ContactService {
     }
   }
 
+  // A lookup running on lookupExecutor. Its job log entries are held until join(), so they land in the caller's order.
+  private class AsyncLookup<T> {
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    // set by whichever comes first: the lookup starting, or discard() while it's still queued
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private volatile List<Consumer<JobLoggingService>> jobLogs = List.of();
+    private boolean joined;
+
+    private AsyncLookup(Callable<T> lookup) {
+      Thread caller = Thread.currentThread();
+      lookupExecutor.execute(() -> {
+        if (!claimed.compareAndSet(false, true)) {
+          // discarded before it started
+          return;
+        }
+        // if the queue was full, this is the calling thread, which logs as usual
+        boolean buffer = Thread.currentThread() != caller;
+        if (buffer) {
+          env.bufferJobLogs();
+        }
+        T result = null;
+        Throwable failure = null;
+        try {
+          result = lookup.call();
+        } catch (Throwable t) {
+          failure = t;
+        }
+        if (buffer) {
+          jobLogs = env.drainBufferedJobLogs();
+        }
+        if (failure == null) {
+          future.complete(result);
+        } else {
+          future.completeExceptionally(failure);
+        }
+      });
+    }
+
+    private T join() throws Exception {
+      joined = true;
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception exception) {
+          throw exception;
+        }
+        throw e;
+      } finally {
+        env.writeJobLogs(jobLogs);
+      }
+    }
+
+    // For a lookup whose result turned out not to be needed. If it hasn't started, it never will. Otherwise, it's
+    // waited on, so that its job logs and any failure still land in the caller's log, rather than being dropped.
+    private void discard() {
+      if (joined || claimed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        join();
+      } catch (Exception e) {
+        env.logJobWarn("unused CRM lookup failed", e);
+      }
+    }
+  }
+
   public List<CrmContact> findExistingContacts(CrmContact crmContact) throws Exception {
     List<CrmContact> existingContacts = List.of();
 
     if (!Strings.isNullOrEmpty(crmContact.id)) {
-      existingContacts = crmService.getContactById(crmContact.id).map(List::of).orElse(List.of());
+      existingContacts = env.crmLookupCache().getContactById(crmContact.id, crmService).map(List::of).orElse(List.of());
     }
     if (existingContacts.isEmpty() && !Strings.isNullOrEmpty(crmContact.email)) {
-      existingContacts = crmService.searchContacts(ContactSearch.byEmail(crmContact.email))
-          .getResultsFromAllFirstPages();
+      existingContacts = env.crmLookupCache().getContactsByEmail(crmContact.email, crmService);
     }
     if (existingContacts.isEmpty() && !Strings.isNullOrEmpty(crmContact.phoneNumberForSMS())) {
-      existingContacts = crmService.searchContacts(ContactSearch.byPhone(crmContact.phoneNumberForSMS()))
-          .getResultsFromAllFirstPages();
+      existingContacts = env.phoneContactCache().getContactsByPhone(crmContact.phoneNumberForSMS(), crmService);
     }
     if (existingContacts.isEmpty()
         && !Strings.isNullOrEmpty(crmContact.firstName) && !Strings.isNullOrEmpty(crmContact.lastName)) {
@@ -176,6 +361,7 @@ public class ContactService {
     try {
       // create new Contact
       String contactId = crmService.insertContact(paymentGatewayEvent.getCrmContact());
+      env.phoneContactCache().invalidate(paymentGatewayEvent.getCrmContact(), crmService);
       // Don't need to set the full Contact here, since the event already has all the details.
       paymentGatewayEvent.setCrmContactId(contactId);
     } catch (Exception e) {
@@ -223,6 +409,8 @@ public class ContactService {
         existingContact.get().mobilePhone = paymentGatewayEvent.getCrmContact().mobilePhone;
         crmService.updateContact(existingContact.get());
       }
+
+      env.phoneContactCache().invalidate(existingContact.get(), crmService);
     }
   }
 
@@ -235,6 +423,7 @@ public class ContactService {
       // create new contact
       env.logJobInfo("inserting contact {}", formCrmContact.toString());
       crmService.insertContact(formCrmContact);
+      env.phoneContactCache().invalidate(formCrmContact, crmService);
     } else {
       env.logJobInfo("found existing CRM account {} and contact {} using email {}", crmContact.get().account.id, crmContact.get().id, formCrmContact.email);
     }
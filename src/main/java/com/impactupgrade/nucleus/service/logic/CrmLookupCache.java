@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.model.ContactSearch;
+import com.impactupgrade.nucleus.model.CrmAccount;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.CrmDonation;
+import com.impactupgrade.nucleus.model.CrmRecurringDonation;
+import com.impactupgrade.nucleus.service.segment.CrmService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * The CRM lookups behind donor matching. Payment gateways tend to send several events for one donation at once
+ * (charge, payment intent, invoice, etc), and each one looks up the same donor. With this, they share the lookup.
+ *
+ * Two layers: a lookup already running for the same query, in any request, is joined rather than repeated. And
+ * records that were found are kept for the rest of the Environment (ie, the request). Misses are never kept, since
+ * the donor is typically created right after one. Callers joining another request's lookup get their own copies of
+ * its records, so neither request sees the other's changes. Within a request, the same instance is returned.
+ */
+public class CrmLookupCache {
+
+  // apiKey::crm::lookup::arg -> the lookup currently running for it
+  private static final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  private final Environment env;
+  // found records only
+  private final Map<String, Object> requestCache = new ConcurrentHashMap<>();
+
+  public CrmLookupCache(Environment env) {
+    this.env = env;
+  }
+
+  public Optional<CrmAccount> getAccountById(String id, CrmService crmService) throws Exception {
+    return Optional.ofNullable(lookup("account", id, crmService, () -> crmService.getAccountById(id).orElse(null)));
+  }
+
+  public Optional<CrmContact> getContactById(String id, CrmService crmService) throws Exception {
+    return Optional.ofNullable(lookup("contact", id, crmService, () -> crmService.getContactById(id).orElse(null)));
+  }
+
+  public List<CrmContact> getContactsByEmail(String email, CrmService crmService) throws Exception {
+    List<CrmContact> contacts = lookup("contacts-by-email", email, crmService, () -> nullIfEmpty(
+        crmService.searchContacts(ContactSearch.byEmail(email)).getResultsFromAllFirstPages()));
+    return contacts == null ? List.of() : contacts;
+  }
+
+  public Optional<CrmRecurringDonation> getRecurringDonationBySubscriptionId(String subscriptionId,
+      CrmService crmService) throws Exception {
+    return Optional.ofNullable(lookup("recurring-donation-by-subscription", subscriptionId, crmService,
+        () -> crmService.getRecurringDonationBySubscriptionId(subscriptionId).orElse(null)));
+  }
+
+  public List<CrmDonation> getDonationsByCustomerId(String customerId, CrmService crmService) throws Exception {
+    List<CrmDonation> donations = lookup("donations-by-customer", customerId, crmService,
+        () -> nullIfEmpty(crmService.getDonationsByCustomerId(customerId)));
+    return donations == null ? List.of() : donations;
+  }
+
+  // For callers that already fetched the records in bulk (see ContactService.processDonors).
+
+  public void putAccount(CrmAccount crmAccount, CrmService crmService) {
+    requestCache.put(key("account", crmAccount.id, crmService), crmAccount);
+  }
+
+  public void putContact(CrmContact crmContact, CrmService crmService) {
+    requestCache.put(key("contact", crmContact.id, crmService), crmContact);
+  }
+
+  public void putContactsByEmail(String email, List<CrmContact> contacts, CrmService crmService) {
+    if (!contacts.isEmpty()) {
+      requestCache.put(key("contacts-by-email", email, crmService), contacts);
+    }
+  }
+
+  // The loader returns null for a miss.
+  @SuppressWarnings("unchecked")
+  protected <T> T lookup(String lookup, String arg, CrmService crmService, Callable<T> loader) throws Exception {
+    String key = key(lookup, arg, crmService);
+
+    Object cached = requestCache.get(key);
+    if (cached != null) {
+      return (T) cached;
+    }
+
+    T result;
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+    if (running == null) {
+      try {
+        result = loader.call();
+        // joiners copy from a pristine snapshot, since this request may already be changing its own result by then
+        future.complete(copyOf(result));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+        throw t;
+      } finally {
+        inFlight.remove(key, future);
+      }
+    } else {
+      try {
+        result = (T) copyOf(running.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception exception) {
+          throw exception;
+        }
+        throw e;
+      }
+    }
+
+    if (result != null) {
+      requestCache.put(key, result);
+    }
+    return result;
+  }
+
+  protected String key(String lookup, String arg, CrmService crmService) {
+    return env.getConfig().apiKey + "::" + crmService.name() + "::" + lookup + "::" + arg;
+  }
+
+  protected Object copyOf(Object result) {
+    if (result instanceof List<?> list) {
+      return list.stream().map(this::copyOf).collect(Collectors.toList());
+    } else if (result instanceof CrmContact crmContact) {
+      return crmContact.copy();
+    } else if (result instanceof CrmAccount crmAccount) {
+      return crmAccount.copy();
+    } else if (result instanceof CrmDonation crmDonation) {
+      return crmDonation.copy();
+    } else if (result instanceof CrmRecurringDonation crmRecurringDonation) {
+      return crmRecurringDonation.copy();
+    }
+    return result;
+  }
+
+  private static <T> List<T> nullIfEmpty(List<T> list) {
+    return list == null || list.isEmpty() ? null : list;
+  }
+}
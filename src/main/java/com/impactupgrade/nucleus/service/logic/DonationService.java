@@ -14,8 +14,13 @@ import com.impactupgrade.nucleus.service.segment.CrmService;
 import com.impactupgrade.nucleus.service.segment.PaymentGatewayService;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 public class DonationService {
 
@@ -84,26 +89,30 @@ public class DonationService {
         paymentGatewayEvent.getCrmDonation().contact.id
     );
     if (existingDonation.isPresent()) {
-      env.logJobInfo("found existing, posted CRM donation {} using transaction {}",
-          existingDonation.get().id, paymentGatewayEvent.getCrmDonation().transactionId);
-      paymentGatewayEvent.getCrmDonation().id = existingDonation.get().id;
-      // TODO: Ugh, I don't like this precedent. We need a better way to merge together the 1) CRM data we already have
-      //  with 2) data that only Stripe has. As an example, if this donation already exists in the CRM but not in
-      //  Accounting, the AccountingService needs to know what type of transaction this was. But since that's CRM
-      //  vendor specific, it needs to come from the CrmService.
-      //  We can't simply swap the paymentGatewayEvent's CrmDonation for the existingDonation, since PaymentGatewayEvent
-      //  has other Stripe data that we do not currently store in the CRM.
-      //  Maybe the answer is we first need Contact/Donation Service to look for existing records and set them on
-      //  the event, and AFTER that happens, then call paymentGatewayEvent.initStripe to fill in the rest.
-      paymentGatewayEvent.getCrmDonation().transactionType = existingDonation.get().transactionType;
-      if (existingDonation.get().recurringDonation != null) {
-        paymentGatewayEvent.getCrmRecurringDonation().id = existingDonation.get().recurringDonation.id;
-      }
+      setExistingDonation(paymentGatewayEvent, existingDonation.get());
+    }
+  }
 
-      if (paymentGatewayEvent.getCrmDonation().status != CrmDonation.Status.FAILED
-          && existingDonation.get().status != CrmDonation.Status.SUCCESSFUL && existingDonation.get().status != CrmDonation.Status.REFUNDED) {
-        updateFailedDonationReattempt(paymentGatewayEvent, existingDonation.get());
-      }
+  protected void setExistingDonation(PaymentGatewayEvent paymentGatewayEvent, CrmDonation existingDonation) throws Exception {
+    env.logJobInfo("found existing, posted CRM donation {} using transaction {}",
+        existingDonation.id, paymentGatewayEvent.getCrmDonation().transactionId);
+    paymentGatewayEvent.getCrmDonation().id = existingDonation.id;
+    // TODO: Ugh, I don't like this precedent. We need a better way to merge together the 1) CRM data we already have
+    //  with 2) data that only Stripe has. As an example, if this donation already exists in the CRM but not in
+    //  Accounting, the AccountingService needs to know what type of transaction this was. But since that's CRM
+    //  vendor specific, it needs to come from the CrmService.
+    //  We can't simply swap the paymentGatewayEvent's CrmDonation for the existingDonation, since PaymentGatewayEvent
+    //  has other Stripe data that we do not currently store in the CRM.
+    //  Maybe the answer is we first need Contact/Donation Service to look for existing records and set them on
+    //  the event, and AFTER that happens, then call paymentGatewayEvent.initStripe to fill in the rest.
+    paymentGatewayEvent.getCrmDonation().transactionType = existingDonation.transactionType;
+    if (existingDonation.recurringDonation != null) {
+      paymentGatewayEvent.getCrmRecurringDonation().id = existingDonation.recurringDonation.id;
+    }
+
+    if (paymentGatewayEvent.getCrmDonation().status != CrmDonation.Status.FAILED
+        && existingDonation.status != CrmDonation.Status.SUCCESSFUL && existingDonation.status != CrmDonation.Status.REFUNDED) {
+      updateFailedDonationReattempt(paymentGatewayEvent, existingDonation);
     }
   }
 
@@ -232,14 +241,100 @@ public class DonationService {
     }
   }
 
+  /**
+   * processDonation for a batch of events whose donors were already processed (see ContactService.processDonors).
+   * Existing donations are found with one lookup for the whole batch, and new one-time donations go through the CRM's
+   * batch inserts (so, unlike processDonation, their IDs aren't set on the events). Recurring and failed donations are
+   * still inserted one at a time, since the recurring donation may need to be found or created first and the failure
+   * notification needs the ID. A failure is logged and skips that one event.
+   */
+  public void processDonations(List<PaymentGatewayEvent> paymentGatewayEvents) throws Exception {
+    Map<String, CrmDonation> existingDonations = getDonationsByTransactionIds(paymentGatewayEvents);
+    // in case the batch has the same transaction more than once
+    Set<String> insertedTransactionIds = new HashSet<>();
+
+    for (PaymentGatewayEvent paymentGatewayEvent : paymentGatewayEvents) {
+      try {
+        if (existingDonations == null) {
+          processDonation(paymentGatewayEvent);
+          continue;
+        }
+
+        if (Strings.isNullOrEmpty(paymentGatewayEvent.getCrmAccount().id)
+            && Strings.isNullOrEmpty(paymentGatewayEvent.getCrmContact().id)) {
+          env.logJobWarn("payment gateway event {} failed to process the donor; skipping donation processing", paymentGatewayEvent.getCrmDonation().transactionId);
+          continue;
+        }
+
+        Optional<CrmDonation> existingDonation = paymentGatewayEvent.getCrmDonation().getTransactionIds().stream()
+            .map(existingDonations::get).filter(Objects::nonNull).findFirst();
+        if (existingDonation.isPresent()) {
+          setExistingDonation(paymentGatewayEvent, existingDonation.get());
+        } else if (!insertedTransactionIds.add(paymentGatewayEvent.getCrmDonation().transactionId)) {
+          env.logJobInfo("transaction {} already created earlier in the batch; skipping", paymentGatewayEvent.getCrmDonation().transactionId);
+        } else if (paymentGatewayEvent.getCrmDonation().isRecurring()) {
+          fetchAndSetRecurringDonation(paymentGatewayEvent);
+          if (Strings.isNullOrEmpty(paymentGatewayEvent.getCrmDonation().recurringDonation.id)) {
+            createRecurringDonation(paymentGatewayEvent);
+          }
+          createDonation(paymentGatewayEvent);
+        } else if (paymentGatewayEvent.getCrmDonation().status == CrmDonation.Status.FAILED) {
+          // needs the new donation's ID for the failure notification
+          createDonation(paymentGatewayEvent);
+        } else {
+          env.logJobInfo("unable to find CRM donation using transaction {}; creating it...",
+              paymentGatewayEvent.getCrmDonation().transactionId);
+          crmService.batchInsertDonation(paymentGatewayEvent.getCrmDonation());
+        }
+      } catch (Exception e) {
+        env.logJobError("donation processing failed for transaction {}", paymentGatewayEvent.getCrmDonation().transactionId, e);
+      }
+    }
+
+    crmService.batchFlush();
+  }
+
+  // transaction ID -> donation, for every transaction ID the events have. Null if the CRM can't look donations up
+  // that way (see CrmService.isDonationLookupBatchable), in which case each event needs its own lookup.
+  protected Map<String, CrmDonation> getDonationsByTransactionIds(List<PaymentGatewayEvent> paymentGatewayEvents) throws Exception {
+    if (!crmService.isDonationLookupBatchable()) {
+      return null;
+    }
+
+    List<String> transactionIds = paymentGatewayEvents.stream()
+        .flatMap(e -> e.getCrmDonation().getTransactionIds().stream())
+        .distinct()
+        .toList();
+    Map<String, CrmDonation> donations = new HashMap<>();
+    if (transactionIds.isEmpty()) {
+      return donations;
+    }
+    List<CrmDonation> crmDonations = crmService.getDonationsByTransactionIds(transactionIds);
+    if (crmDonations != null) {
+      for (CrmDonation crmDonation : crmDonations) {
+        crmDonation.getTransactionIds().forEach(transactionId -> donations.putIfAbsent(transactionId, crmDonation));
+      }
+    }
+    return donations;
+  }
+
+  // One lookup per payout, where the CRM allows it.
   public void processDeposit(List<PaymentGatewayEvent> paymentGatewayEvents) throws Exception {
+    Map<String, CrmDonation> existingDonations = getDonationsByTransactionIds(paymentGatewayEvents);
+
     List<CrmDonation> crmDonations = new ArrayList<>();
     for (PaymentGatewayEvent e : paymentGatewayEvents) {
-      Optional<CrmDonation> donation = crmService.getDonationByTransactionIds(
-          e.getCrmDonation().getTransactionIds(),
-          e.getCrmAccount().id,
-          e.getCrmContact().id
-      );
+      Optional<CrmDonation> donation;
+      if (existingDonations == null) {
+        donation = crmService.getDonationByTransactionIds(
+            e.getCrmDonation().getTransactionIds(),
+            e.getCrmAccount().id,
+            e.getCrmContact().id
+        );
+      } else {
+        donation = e.getCrmDonation().getTransactionIds().stream()
+            .map(existingDonations::get).filter(Objects::nonNull).findFirst();
+      }
       if (donation.isPresent()) {
         e.getCrmDonation().id = donation.get().id;
         e.getCrmDonation().crmRawObject = donation.get().crmRawObject;
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.environment.Environment;
+
+import java.time.Instant;
+
+// Eventbrite orders that were waiting on their contact when the process went away. See EventBriteService.
+public class EventBritePendingOrderJobExecutor implements JobExecutor {
+
+  private final Environment env;
+  private final EventBriteService eventBriteService;
+
+  public EventBritePendingOrderJobExecutor(Environment env) {
+    this.env = env;
+    this.eventBriteService = env.eventBriteService();
+  }
+
+  @Override
+  public void execute(Job job, Instant now) throws Exception {
+    if (!eventBriteService.isLostPendingOrder(job, now)) {
+      // not ours, or still waiting in memory
+      return;
+    }
+
+    String apiUrl = getJsonText(job.payload, "apiUrl");
+    env.startJobLog(JobType.EVENT, null, "Eventbrite Recovered Order", "Eventbrite");
+    env.logJobInfo("recovering pending order {}", apiUrl);
+    try {
+      eventBriteService.processPendingOrder(apiUrl, job.id);
+      env.endJobLog(JobStatus.DONE);
+    } catch (Exception e) {
+      env.logJobError("failed to process the recovered Eventbrite order", e);
+      env.endJobLog(JobStatus.FAILED);
+      eventBriteService.completePendingOrder(job.id, JobStatus.FAILED);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
+import com.impactupgrade.nucleus.client.EventBriteClient;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobFrequency;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.model.CrmCampaign;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.CrmDonation;
+import com.impactupgrade.nucleus.service.segment.CrmService;
+import com.impactupgrade.nucleus.util.Utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Eventbrite orders and events, as CRM donations and campaigns. Shared by the webhook (EventBriteController) and the
+ * scheduled recovery of pending orders (EventBritePendingOrderJobExecutor).
+ *
+ * An order can arrive before the attendee's contact exists. The controller then delays it in memory, and also saves it
+ * here as a pending order job (when the DB is available). If the process goes away first, the order is still ACTIVE
+ * once PENDING_ORDER_RECOVERY_AGE has passed. The next scheduled job run for the org then processes it.
+ */
+public class EventBriteService {
+
+  public static final String PENDING_ORDER_JOB_NAME = "Eventbrite Pending Order";
+  // comfortably longer than the controller's in-memory retries, so recovery never races them
+  protected static final Duration PENDING_ORDER_RECOVERY_AGE = Duration.ofMinutes(1);
+
+  private final Environment env;
+
+  public EventBriteService(Environment env) {
+    this.env = env;
+  }
+
+  // An order whose contact may or may not exist by now. A recovered order may also have been finished by another
+  // instance in the meantime.
+  public void processPendingOrder(String apiUrl, Long pendingJobId) throws Exception {
+    CrmService crmService = env.primaryCrmService();
+
+    EventBriteClient.Order order = env.eventBriteClient().getOrder(apiUrl, "attendees");
+    if (crmService.getDonationByTransactionId(order.id).isPresent()) {
+      env.logJobInfo("order {} was already processed", order.id);
+    } else {
+      processNewOrder(order, crmService);
+    }
+    completePendingOrder(pendingJobId, JobStatus.DONE);
+  }
+
+  public void processNewOrder(EventBriteClient.Order order, CrmService crmService) throws Exception {
+    // make sure it's not an event that existed prior to our integration
+    List<CrmCampaign> campaigns = crmService.getCampaignsByExternalReference(order.eventId);
+    if (campaigns.isEmpty()) {
+      EventBriteClient.Event event = env.eventBriteClient().getEvent("https://www.eventbriteapi.com/v3/events/" + order.eventId + "/");
+      upsertCrmCampaign(event, crmService);
+    }
+
+    // attendee can have a partial profile, which could have "Info Requested" as the email/name
+    List<EventBriteClient.Attendee> attendees = order.attendees.stream()
+        .filter(attendee -> !Strings.isNullOrEmpty(attendee.profile.email) && attendee.profile.email.contains("@"))
+        .toList();
+    if (attendees.isEmpty()) {
+      env.logJobInfo("skipping order with invalid email address(es)");
+      return;
+    }
+
+    // TODO: which attendee/contact to use for donation?
+    // TODO: 1 donation per 1 attendee?
+    // LIFO
+    Optional<CrmContact> crmContact = crmService.getContactsByEmails(Set.of(attendees.get(0).profile.email))
+        .stream().reduce((first, second) -> second);
+    if (crmContact.isEmpty()) {
+      env.logJobInfo("skipping order with missing CRM contact");
+      return;
+    }
+
+    // Use instead the display_price field (if the Ticket Class include_fee field is used) // ?
+    if (order.costs.gross.value > 0.0) {
+      CrmDonation crmDonation = toCrmDonation(order);
+      crmDonation.contact = crmContact.get();
+      crmDonation.account = crmContact.get().account;
+
+      crmDonation.campaignId = campaigns.get(0).id;
+
+      crmService.insertDonation(crmDonation);
+    }
+  }
+
+  public CrmCampaign upsertCrmCampaign(EventBriteClient.Event event, CrmService crmService) throws Exception {
+    CrmCampaign campaign = buildCrmCampaign(event);
+    List<CrmCampaign> existingCampaigns = crmService.getCampaignsByExternalReference(event.id);
+
+    if (existingCampaigns.isEmpty()) {
+      try {
+        campaign.id = crmService.insertCampaign(campaign);
+      } catch (Exception e) {
+        env.logJobInfo("unable to create new campaign: {}", e.getMessage());
+      }
+    } else {
+      campaign.id = existingCampaigns.get(0).id;
+      crmService.updateCampaign(campaign);
+    }
+
+    return campaign;
+  }
+
+  // Saved as a core_job, rather than a new table, since the schema is owned by the portal. Excluded from job listings
+  // by name (see DBJobLoggingService).
+  public Long savePendingOrder(String apiUrl, String email, Duration delay) {
+    if (!env.getConfig().isDatabaseConnected()) {
+      return null;
+    }
+
+    Optional<Organization> org = new HibernateDao<Long, Organization>(Organization.class).getQueryResult(
+        "FROM Organization WHERE nucleusApiKey = :nucleusApiKey",
+        query -> query.setParameter("nucleusApiKey", env.getConfig().apiKey)
+    );
+    if (org.isEmpty()) {
+      return null;
+    }
+
+    Instant now = Instant.now();
+    Job job = new Job();
+    job.traceId = UUID.randomUUID().toString();
+    job.jobType = JobType.EVENT;
+    job.jobName = PENDING_ORDER_JOB_NAME;
+    job.startedBy = "webhook";
+    job.originatingPlatform = "Eventbrite";
+    job.org = org.get();
+    job.status = JobStatus.ACTIVE;
+    job.scheduleFrequency = JobFrequency.ONETIME;
+    job.scheduleStart = now.plus(delay);
+    job.startedAt = now;
+    job.scheduleTz = "UTC";
+    ObjectNode payload = new ObjectMapper().createObjectNode();
+    payload.put("apiUrl", apiUrl);
+    payload.put("email", email);
+    job.payload = payload;
+    return new HibernateDao<Long, Job>(Job.class).insert(job).id;
+  }
+
+  public void completePendingOrder(Long pendingJobId, JobStatus jobStatus) {
+    if (pendingJobId == null) {
+      return;
+    }
+
+    HibernateDao<Long, Job> jobDao = new HibernateDao<>(Job.class);
+    jobDao.getById(pendingJobId).ifPresent(job -> {
+      job.status = jobStatus;
+      job.endedAt = Instant.now();
+      jobDao.update(job);
+    });
+  }
+
+  // Still ACTIVE this long after it was due, so no longer waiting in any process's memory.
+  public boolean isLostPendingOrder(Job job, Instant now) {
+    return PENDING_ORDER_JOB_NAME.equals(job.jobName) && job.scheduleStart != null
+        && !job.scheduleStart.isAfter(now.minus(PENDING_ORDER_RECOVERY_AGE));
+  }
+
+  protected CrmCampaign buildCrmCampaign(EventBriteClient.Event event) {
+    ZonedDateTime startDate = Utils.getZonedDateTimeFromDateTimeString(event.start.utc);
+    ZonedDateTime endDate = Utils.getZonedDateTimeFromDateTimeString(event.end.utc);
+
+    return new CrmCampaign(
+        null,
+        event.name.text,
+        event.id,
+        startDate,
+        endDate,
+        null,
+        null,
+        event,
+        null
+    );
+  }
+
+  public CrmDonation toCrmDonation(EventBriteClient.Order order) {
+    CrmDonation crmDonation = new CrmDonation();
+    crmDonation.transactionId = order.id;
+    crmDonation.description = order.name + " / " + order.email;
+    crmDonation.gatewayName = "EventBrite";
+    crmDonation.closeDate = ZonedDateTime.parse(order.created);
+    if ("placed".equalsIgnoreCase(order.status)) {
+      crmDonation.status = CrmDonation.Status.SUCCESSFUL;
+    } else if ("refunded".equalsIgnoreCase(order.status)) {
+      crmDonation.status = CrmDonation.Status.FAILED;
+    }
+    crmDonation.url = order.resourceUri;
+    crmDonation.amount = order.costs.gross.value / 100.0;
+    crmDonation.feeInDollars = (order.costs.eventbriteFee.value + order.costs.paymentFee.value) / 100.0;
+    crmDonation.netAmountInDollars = crmDonation.amount - crmDonation.feeInDollars;
+    //TODO: taxes?
+
+    return crmDonation;
+  }
+}
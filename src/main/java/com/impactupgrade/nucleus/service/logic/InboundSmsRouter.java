@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.google.common.base.Strings;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides what to do with an inbound SMS, using only the message and config. Everything here is cheap and side-effect
+ * free, so the webhook can answer Twilio right away and leave the actual work (CRM lookups, relays, notifications) to
+ * a background thread.
+ */
+public class InboundSmsRouter {
+
+  public enum Action {
+    // no body, or an opt-out keyword (Twilio handles those itself)
+    IGNORE,
+    // staff replying to a notification: "reply <phone number> <message>"
+    RELAY,
+    NOTIFY,
+    DEFAULT_RESPONSE,
+    NONE
+  }
+
+  public static class Route {
+    public final Action action;
+    public final String phoneNumber;
+    public final String message;
+
+    private Route(Action action, String phoneNumber, String message) {
+      this.action = action;
+      this.phoneNumber = phoneNumber;
+      this.message = message;
+    }
+  }
+
+  // exact matches only, so a hash lookup is all that's needed
+  private static final Set<String> STOP_WORDS = Set.of("STOP", "STOPALL", "UNSUBSCRIBE", "CANCEL", "END", "QUIT");
+
+  private static final String REPLY_KEYWORD = "reply";
+  // https://www.baeldung.com/java-regex-validate-phone-numbers
+  private static final String PHONE_NUMBER_PATTERNS
+      = "(\\+\\d{1,3}( )?)?((\\(\\d{3}\\))|\\d{3})[- .]?\\d{3}[- .]?\\d{4}"
+      + "|(\\+\\d{1,3}( )?)?(\\d{3}[ ]?){2}\\d{3}"
+      + "|(\\+\\d{1,3}( )?)?(\\d{3}[ ]?)(\\d{2}[ ]?){2}\\d{2}";
+  // Compiled once, rather than per message. Case-insensitive, so the relayed message keeps its original case.
+  private static final Pattern REPLY_PATTERN = Pattern.compile(
+      REPLY_KEYWORD + "\\s+(" + PHONE_NUMBER_PATTERNS + ")\\s+(.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  public static Route route(String body, boolean notificationConfigured, String defaultResponse) {
+    if (body == null) {
+      return new Route(Action.IGNORE, null, null);
+    }
+
+    body = body.trim();
+    // prevent opt-out messages, like "STOP", from polluting the notifications
+    if (STOP_WORDS.contains(body.toUpperCase(Locale.ROOT))) {
+      return new Route(Action.IGNORE, null, null);
+    }
+
+    // the regex only runs if the message could possibly be a reply
+    if (body.toLowerCase(Locale.ROOT).contains(REPLY_KEYWORD)) {
+      Matcher m = REPLY_PATTERN.matcher(body);
+      if (m.find()) {
+        // PN matching contains multiple, inner groups, so the message is the very last one.
+        return new Route(Action.RELAY, m.group(1), m.group(m.groupCount()));
+      }
+    }
+
+    if (notificationConfigured) {
+      return new Route(Action.NOTIFY, null, body);
+    } else if (!Strings.isNullOrEmpty(defaultResponse)) {
+      return new Route(Action.DEFAULT_RESPONSE, null, defaultResponse);
+    } else {
+      return new Route(Action.NONE, null, null);
+    }
+  }
+}
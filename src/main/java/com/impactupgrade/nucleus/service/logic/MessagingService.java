@@ -123,7 +123,7 @@ public class MessagingService {
       crmContact = crmService.searchContacts(ContactSearch.byEmail(email)).getSingleResult().orElse(null);
     }
     if (crmContact == null) {
-      crmContact = crmService.searchContacts(ContactSearch.byPhone(phone)).getSingleResult().orElse(null);
+      crmContact = env.phoneContactCache().getContactByPhone(phone, crmService).orElse(null);
     }
 
     // if the flow didn't include an explicit email opt-in process, safe to assume it's fine if email is present
@@ -158,6 +158,7 @@ public class MessagingService {
       crmContact.language = language;
       crmContact.crmRawFieldsToSet = customResponses;
       crmContact.id = crmService.insertContact(crmContact);
+      env.phoneContactCache().invalidate(crmContact, crmService);
     } else {
       // Existed, so use it
       env.logJobInfo("contact already existed in CRM: {}", crmContact.id);
@@ -196,6 +197,7 @@ public class MessagingService {
 
       if (update) {
         crmService.updateContact(crmContact);
+        env.phoneContactCache().invalidate(crmContact, crmService);
       }
     }
 
@@ -212,12 +214,13 @@ public class MessagingService {
 
   public void optIn(String phone) throws Exception {
     // First, look for an existing contact with the PN
-    CrmContact crmContact = crmService.searchContacts(ContactSearch.byPhone(phone)).getSingleResult().orElse(null);
+    CrmContact crmContact = env.phoneContactCache().getContactByPhone(phone, crmService).orElse(null);
     if (crmContact != null) {
       env.logJobInfo("opting {} ({}) into sms...", crmContact.id, phone);
       crmContact.smsOptIn = true;
       crmContact.smsOptOut = false;
       crmService.updateContact(crmContact);
+      env.phoneContactCache().invalidate(crmContact, crmService);
     } else {
       // TODO: There MIGHT be value in processing this as a signup and inserting the Contact...
       env.logJobInfo("unable to find a CRM contact with phone number {}", phone);
@@ -226,7 +229,7 @@ public class MessagingService {
 
   public void optOut(String phone) throws Exception {
     // First, look for an existing contact with the PN
-    CrmContact crmContact = crmService.searchContacts(ContactSearch.byPhone(phone)).getSingleResult().orElse(null);
+    CrmContact crmContact = env.phoneContactCache().getContactByPhone(phone, crmService).orElse(null);
     if (crmContact != null) {
       optOut(crmContact);
     } else {
@@ -239,5 +242,6 @@ public class MessagingService {
     crmContact.smsOptIn = false;
     crmContact.smsOptOut = true;
     crmService.updateContact(crmContact);
+    env.phoneContactCache().invalidate(crmContact, crmService);
   }
 }
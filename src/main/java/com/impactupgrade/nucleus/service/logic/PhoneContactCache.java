@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.model.ContactSearch;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.service.segment.CrmService;
+import com.impactupgrade.nucleus.util.CacheUtil;
+import com.impactupgrade.nucleus.util.Utils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Phone number -> CRM contacts. A single inbound SMS can pass through signup, opt-in/out, and donor matching, each of
+ * which searches the CRM by the same number. With this, the number is searched once.
+ *
+ * Two layers: one scoped to the Environment (ie, the request), and a short-lived one shared across the process (ie, a
+ * burst of keyword replies from the same number). Keys are the number as normalized by Utils.parsePhoneNumber, so
+ * "+1 (260) 123-4567" and "260.123.4567" are the same entry. Misses are never kept. Each request gets its own copies of
+ * the contacts, shared only within that request. Anything that inserts or updates a contact must call invalidate(),
+ * since the cached contacts would otherwise be stale.
+ */
+public class PhoneContactCache {
+
+  protected static final Duration PROCESS_TTL = Duration.ofSeconds(30);
+
+  // apiKey::crm::phone -> contacts
+  private static final CacheUtil.Deferred<Cache<String, List<CrmContact>>> processCache = CacheUtil.builder("phone-contacts")
+      .expireAfterWrite(PROCESS_TTL)
+      .maximumSize(10_000)
+      .buildOnFirstUse(CacheUtil.Builder::buildManual);
+
+  private final Environment env;
+  private final Map<String, List<CrmContact>> requestCache = new ConcurrentHashMap<>();
+
+  public PhoneContactCache(Environment env) {
+    this.env = env;
+  }
+
+  public Optional<CrmContact> getContactByPhone(String phone, CrmService crmService) throws Exception {
+    return getContactsByPhone(phone, crmService).stream().findFirst();
+  }
+
+  public List<CrmContact> getContactsByPhone(String phone, CrmService crmService) throws Exception {
+    String key = key(phone, crmService);
+    if (key == null) {
+      // not a number we can normalize, so leave it entirely up to the CRM
+      return crmService.searchContacts(ContactSearch.byPhone(phone)).getResultsFromAllFirstPages();
+    }
+
+    List<CrmContact> contacts = requestCache.get(key);
+    if (contacts != null) {
+      return contacts;
+    }
+
+    List<CrmContact> shared = processCache.get(env.getConfig()).getIfPresent(key);
+    if (shared == null) {
+      contacts = crmService.searchContacts(ContactSearch.byPhone(phone)).getResultsFromAllFirstPages();
+      if (contacts.isEmpty()) {
+        // a miss is typically followed by an insert (ie, a signup), so never keep one
+        return contacts;
+      }
+      processCache.get(env.getConfig()).put(key, copies(contacts));
+    } else {
+      contacts = copies(shared);
+    }
+    requestCache.put(key, contacts);
+    return contacts;
+  }
+
+  // The process-wide layer is read by concurrent requests, and callers modify the contacts they get (ex: opt-in). So it
+  // keeps its own copies and hands out fresh ones, never the instances a request is working with.
+  private static List<CrmContact> copies(List<CrmContact> contacts) {
+    return contacts.stream().map(CrmContact::copy).toList();
+  }
+
+  // Drops every number the contact has, in both layers. Callers typically update the contact in place, so by now its
+  // previous number (ex: a replaced mobilePhone) is gone. Any entry still holding the contact's id is dropped as well.
+  public void invalidate(CrmContact crmContact, CrmService crmService) {
+    if (crmContact == null) {
+      return;
+    }
+
+    Cache<String, List<CrmContact>> shared = processCache.get(env.getConfig());
+    Stream.of(crmContact.mobilePhone, crmContact.homePhone, crmContact.workPhone, crmContact.phoneNumberForSMS())
+        .map(phone -> key(phone, crmService))
+        .filter(Objects::nonNull)
+        .distinct()
+        .forEach(key -> {
+          requestCache.remove(key);
+          shared.invalidate(key);
+        });
+
+    if (!Strings.isNullOrEmpty(crmContact.id)) {
+      requestCache.values().removeIf(contacts -> containsId(contacts, crmContact.id));
+      String prefix = env.getConfig().apiKey + "::" + crmService.name() + "::";
+      shared.asMap().entrySet().removeIf(e -> e.getKey().startsWith(prefix) && containsId(e.getValue(), crmContact.id));
+    }
+  }
+
+  private static boolean containsId(List<CrmContact> contacts, String id) {
+    return contacts.stream().anyMatch(c -> id.equals(c.id));
+  }
+
+  protected String key(String phone, CrmService crmService) {
+    // parsePhoneNumber assumes at least a few digits
+    if (Strings.isNullOrEmpty(phone) || phone.replaceAll("\\D", "").length() < 7) {
+      return null;
+    }
+    List<String> phoneParts = Utils.parsePhoneNumber(phone);
+    if (phoneParts.isEmpty()) {
+      return null;
+    }
+    return env.getConfig().apiKey + "::" + crmService.name() + "::" + String.join("", phoneParts);
+  }
+}
@@ -42,14 +42,10 @@ public class ScheduledJobService {
         query -> {
           query.setParameter("now", now, TemporalType.TIMESTAMP);
           query.setParameter("nucleusApiKey", env.getConfig().apiKey);
-        },
-        entities -> {
-          if (!entities.isEmpty()) {
-            // initialize the jobProgresses subselect
-            entities.get(0).jobProgresses.size();
-          }
         }
     );
+    // NOTE: jobProgresses is intentionally left uninitialized. Executors look up only the progress they need through
+    //  JobProgressDao, rather than pulling every job's full history on each run.
 
     // NOTE: No JobLog here! Don't pollute the dashboard with "jobs" every 10 min when cron fires off. Isolate
     //  it to the executors to control when something is actually happening.
@@ -62,6 +58,14 @@ public class ScheduledJobService {
       try {
         switch (job.jobType) {
           case SMS_CAMPAIGN -> new SmsCampaignJobExecutor(env).execute(job, now);
+          // internal bookkeeping jobs, told apart by name
+          case EVENT -> {
+            if (CampaignActivityService.JOB_NAME.equals(job.jobName)) {
+              new CampaignActivityJobExecutor(env).execute(job, now);
+            } else {
+              new EventBritePendingOrderJobExecutor(env).execute(job, now);
+            }
+          }
         }
       } catch (Exception e) {
         log.error("scheduled job {} failed", job.id, e);
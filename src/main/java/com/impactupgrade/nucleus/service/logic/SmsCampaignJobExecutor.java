@@ -14,6 +14,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.dao.HibernateUtil;
+import com.impactupgrade.nucleus.dao.JobProgressDao;
 import com.impactupgrade.nucleus.entity.Job;
 import com.impactupgrade.nucleus.entity.JobFrequency;
 import com.impactupgrade.nucleus.entity.JobProgress;
@@ -30,25 +32,34 @@ import org.apache.commons.lang3.StringUtils;
 import java.io.BufferedInputStream;
 import java.net.URL;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class SmsCampaignJobExecutor implements JobExecutor {
 
   private static final ObjectMapper objectMapper = new ObjectMapper();
 
+  // Progress is written in batches of this many sends, or this often, whichever comes first. A crash mid-run can
+  // re-send at most one unwritten batch on the next tick.
+  protected static final int PROGRESS_FLUSH_SIZE = HibernateUtil.JDBC_BATCH_SIZE;
+  protected static final long PROGRESS_FLUSH_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
   private final Environment env;
 
   private final HibernateDao<Long, Job> jobDao;
-  private final HibernateDao<Long, JobProgress> jobProgressDao;
+  private final JobProgressDao jobProgressDao;
   private final CrmService crmService;
   private final MessagingService messagingService;
 
@@ -56,7 +67,7 @@ public class SmsCampaignJobExecutor implements JobExecutor {
     this.env = env;
 
     this.jobDao = new HibernateDao<>(Job.class);
-    this.jobProgressDao = new HibernateDao<>(JobProgress.class);
+    this.jobProgressDao = new JobProgressDao();
     this.crmService = env.messagingCrmService();
     this.messagingService = env.messagingService();
   }
@@ -133,7 +144,11 @@ public class SmsCampaignJobExecutor implements JobExecutor {
         .filter(c -> !Strings.isNullOrEmpty(c.phoneNumberForSMS()))
         .collect(Collectors.toMap(CrmContact::phoneNumberForSMS, c -> c, (c1, c2) -> c1, LinkedHashMap::new));
 
-    Map<String, JobProgress> progressesByContacts = job.jobProgresses.stream()
+    // Only load the progress that still needs work: rows due for the final message. Recipients that already received
+    // it come back as bare target ids, so they can be skipped without loading their payloads.
+    int messageCount = jobPayload.sequenceMessages == null ? 0 : jobPayload.sequenceMessages.size();
+    Set<String> completedTargetIds = new HashSet<>(jobProgressDao.getCompletedTargetIds(job.id, messageCount));
+    Map<String, JobProgress> progressesByContacts = jobProgressDao.getDueForMessage(job.id, messageCount).stream()
         .filter(jp -> !Strings.isNullOrEmpty(jp.targetId))
         .collect(Collectors.toMap(
             jp -> jp.targetId,
@@ -144,10 +159,20 @@ public class SmsCampaignJobExecutor implements JobExecutor {
             }
         ));
 
+    int completed = 0;
+    List<JobProgress> pendingProgresses = new ArrayList<>();
+    long lastFlush = System.currentTimeMillis();
     for (Map.Entry<String, CrmContact> entry : crmContactsMap.entrySet()) {
       String targetId = entry.getKey();
       CrmContact crmContact = entry.getValue();
 
+      // includes legacy rows keyed by contact id (see the fallback below)
+      if (completedTargetIds.contains(targetId)
+          || (!Strings.isNullOrEmpty(crmContact.id) && completedTargetIds.contains(crmContact.id))) {
+        completed++;
+        continue;
+      }
+
       try {
         int nextMessage;
 
@@ -167,7 +192,6 @@ public class SmsCampaignJobExecutor implements JobExecutor {
           jobProgress.targetId = targetId;
           jobProgress.payload = objectMapper.createObjectNode();
           jobProgress.job = job;
-          jobProgressDao.insert(jobProgress);
 
           if (job.sequenceOrder == JobSequenceOrder.BEGINNING) {
             nextMessage = 1;
@@ -180,7 +204,11 @@ public class SmsCampaignJobExecutor implements JobExecutor {
             }
           }
         } else {
-          Integer lastMessage = getJsonInt(jobProgress.payload, "lastMessage");
+          Integer lastMessage = jobProgress.lastMessage;
+          if (lastMessage == null) {
+            // row written before the last_message column existed
+            lastMessage = getJsonInt(jobProgress.payload, "lastMessage");
+          }
           env.logJobInfo("Last sent message id for contact {} is {}", targetId, lastMessage);
           if (lastMessage == null) {
             nextMessage = 1;
@@ -190,7 +218,7 @@ public class SmsCampaignJobExecutor implements JobExecutor {
           env.logJobInfo("Next message id to send: {}", nextMessage);
         }
 
-        if (jobPayload.sequenceMessages != null && nextMessage > jobPayload.sequenceMessages.size()) {
+        if (nextMessage > messageCount) {
           env.logJobInfo("All messages sent for contact {}!", targetId);
           continue;
         }
@@ -217,7 +245,7 @@ public class SmsCampaignJobExecutor implements JobExecutor {
           messagingService.sendMessage(message.messageBody, message.attachmentUrl, crmContact, sender);
         }
 
-        updateJobProgress(jobProgress.payload, nextMessage);
+        updateJobProgress(jobProgress, nextMessage);
 
         // Switch to new target id (phone number) instead of contact id
         if (!StringUtils.equalsIgnoreCase(jobProgress.targetId, targetId)) {
@@ -225,11 +253,17 @@ public class SmsCampaignJobExecutor implements JobExecutor {
           jobProgress.targetId = targetId;
         }
 
-        jobProgressDao.update(jobProgress);
+        pendingProgresses.add(jobProgress);
+        if (pendingProgresses.size() >= PROGRESS_FLUSH_SIZE || System.currentTimeMillis() - lastFlush >= PROGRESS_FLUSH_MILLIS) {
+          flushJobProgresses(pendingProgresses);
+          lastFlush = System.currentTimeMillis();
+        }
       } catch (Exception e) {
         env.logJobError("scheduled job failed for contact {}", targetId, e);
       }
     }
+    flushJobProgresses(pendingProgresses);
+    env.logJobInfo("{} contacts already received all messages", completed);
 
     if (job.scheduleFrequency == JobFrequency.ONETIME) {
       job.status = JobStatus.DONE;
@@ -241,6 +275,15 @@ public class SmsCampaignJobExecutor implements JobExecutor {
     env.endJobLog(JobStatus.DONE);
   }
 
+  private void flushJobProgresses(List<JobProgress> pendingProgresses) {
+    try {
+      jobProgressDao.upsert(pendingProgresses);
+    } catch (Exception e) {
+      env.logJobError("failed to save progress for {} contacts", pendingProgresses.size(), e);
+    }
+    pendingProgresses.clear();
+  }
+
   private JobPayload getJobPayload(Job job) {
     if (job == null || job.payload == null) {
       return null;
@@ -316,7 +359,9 @@ public class SmsCampaignJobExecutor implements JobExecutor {
     }
   }
 
-  private void updateJobProgress(JsonNode jobProgressNode, Integer lastMessage) {
+  private void updateJobProgress(JobProgress jobProgress, Integer lastMessage) {
+    jobProgress.lastMessage = lastMessage;
+    JsonNode jobProgressNode = jobProgress.payload;
     ((ObjectNode) jobProgressNode).put("lastMessage", lastMessage);
     if (Objects.isNull(jobProgressNode.findValue("sentMessages"))) {
       ((ObjectNode) jobProgressNode).putArray("sentMessages");
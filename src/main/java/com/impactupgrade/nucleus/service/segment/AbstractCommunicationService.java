@@ -5,25 +5,38 @@
 package com.impactupgrade.nucleus.service.segment;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentConfig;
 import com.impactupgrade.nucleus.model.CrmAccount;
+import com.impactupgrade.nucleus.model.CrmAddress;
 import com.impactupgrade.nucleus.model.CrmContact;
 import com.impactupgrade.nucleus.model.PagedResults;
-import com.impactupgrade.nucleus.util.Utils;
+import org.apache.commons.codec.digest.DigestUtils;
 
+import java.lang.reflect.Method;
 import java.time.temporal.Temporal;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -31,6 +44,12 @@ public abstract class AbstractCommunicationService implements CommunicationServi
 
   protected Environment env;
 
+  private static final Set<String> RULE_HOOKS = Set.of("getCustomField", "getTagName", "evaluate");
+  private static final Map<Class<?>, Boolean> RULE_HOOK_OVERRIDES = new ConcurrentHashMap<>();
+
+  // compiled tag and field mappings, per platform config
+  private final Map<EnvironmentConfig.CommunicationPlatform, CommunicationRules> compiledRules = new ConcurrentHashMap<>();
+
   @Override
   public void init(Environment env) {
     this.env = env;
@@ -93,14 +112,23 @@ public abstract class AbstractCommunicationService implements CommunicationServi
       customFields.add(new CustomField("number_of_donations_ly", CustomFieldType.NUMBER, crmContact.numDonationsLy));
     }
 
-    customFields.addAll(communicationPlatform.crmFieldToCommunicationFields.stream()
-            .map(mapping -> getCustomField(crmContact, mapping))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toSet()));
+    if (overridesRuleHooks()) {
+      for (EnvironmentConfig.CrmFieldToCommunicationField mapping : communicationPlatform.crmFieldToCommunicationFields) {
+        CustomField customField = getCustomField(crmContact, mapping);
+        if (customField != null) {
+          customFields.add(customField);
+        }
+      }
+    } else {
+      getRules(communicationPlatform).forEachField(crmContact,
+          (name, value) -> customFields.add(new CustomField(name, getCustomFieldType(value), value)));
+    }
 
     return customFields;
   }
 
+  // Single-mapping forms of what the compiled CommunicationRules do for the whole config at once. An org's service
+  // that overrides any of these is still honored, one mapping at a time (see overridesRuleHooks).
   protected CustomField getCustomField(CrmContact crmContact, EnvironmentConfig.CrmFieldToCommunicationField mapping) {
     Object value = crmContact.fieldFetcher != null ? crmContact.fieldFetcher.apply(mapping.crmFieldName) : null;
     if (value != null) {
@@ -172,6 +200,7 @@ public abstract class AbstractCommunicationService implements CommunicationServi
       EnvironmentConfig.CommunicationPlatform communicationPlatform,
       EnvironmentConfig.CommunicationList communicationList) throws Exception {
     Set<String> tags = new HashSet<>();
+    CommunicationRules rules = getRules(communicationPlatform);
 
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // DONATION METRICS
@@ -186,24 +215,30 @@ public abstract class AbstractCommunicationService implements CommunicationServi
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     if (crmContact.ownerName != null) {
-      tags.add("owner_" + Utils.toSlug(crmContact.ownerName));
+      tags.add("owner_" + rules.slug(crmContact.ownerName));
     }
 
     if (contactCampaignNames != null) {
       for (String c : contactCampaignNames) {
-        tags.add("campaign_" + Utils.toSlug(c));
+        tags.add("campaign_" + rules.slug(c));
       }
     }
 
     // TODO: This should be a field. And maybe call it account_recordtype, to not confuse it with the Account.Type field.
     if (!Strings.isNullOrEmpty(crmContact.account.recordTypeName)) {
-      tags.add("account_type_" + Utils.toSlug(crmContact.account.recordTypeName));
+      tags.add("account_type_" + rules.slug(crmContact.account.recordTypeName));
     }
 
-    tags.addAll(communicationPlatform.crmFieldToCommunicationTags.stream()
-            .map(mapping -> getTagName(crmContact, mapping))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toSet()));
+    if (overridesRuleHooks()) {
+      for (EnvironmentConfig.CrmFieldToCommunicationTag mapping : communicationPlatform.crmFieldToCommunicationTags) {
+        String tagName = getTagName(crmContact, mapping);
+        if (tagName != null) {
+          tags.add(tagName);
+        }
+      }
+    } else {
+      rules.addTags(crmContact, tags);
+    }
 
     return tags;
   }
@@ -219,14 +254,27 @@ public abstract class AbstractCommunicationService implements CommunicationServi
   }
 
   protected boolean evaluate(String crmFieldValueString, EnvironmentConfig.Operator operator, String value) {
-    if (Strings.isNullOrEmpty(crmFieldValueString) || operator == null) {
+    return CommunicationRules.matches(crmFieldValueString, operator, value);
+  }
+
+  // Whether this service (ie, an org's subclass) overrides getCustomField, getTagName, or evaluate. If so, the mappings
+  // are evaluated through them, rather than through the compiled rules.
+  private boolean overridesRuleHooks() {
+    return RULE_HOOK_OVERRIDES.computeIfAbsent(getClass(), clazz -> {
+      for (Class<?> c = clazz; c != AbstractCommunicationService.class; c = c.getSuperclass()) {
+        for (Method method : c.getDeclaredMethods()) {
+          if (RULE_HOOKS.contains(method.getName()) && !method.isSynthetic() && !method.isBridge()) {
+            return true;
+          }
+        }
+      }
       return false;
-    }
-    return switch(operator) {
-      case NOT_EMPTY -> Strings.isNullOrEmpty(crmFieldValueString);
-      case EQUAL_TO ->  crmFieldValueString.equalsIgnoreCase(value);
-      case NOT_EQUAL_TO -> !crmFieldValueString.equalsIgnoreCase(value);
-    };
+    });
+  }
+
+  // Compiled on first use. Syncs reuse the same config objects throughout, so this is once per platform, per sync.
+  private CommunicationRules getRules(EnvironmentConfig.CommunicationPlatform communicationPlatform) {
+    return compiledRules.computeIfAbsent(communicationPlatform, CommunicationRules::compile);
   }
 
   /**
@@ -240,45 +288,224 @@ public abstract class AbstractCommunicationService implements CommunicationServi
         .orElseThrow(() -> new RuntimeException("group " + groupName + " not configured in environment.json"));
   }
 
+  // Upper bound on lists synced at once, across all of this platform's accounts.
+  protected static final int LIST_SYNC_THREADS = 4;
+
+  /**
+   * Whether this service can sync more than one list at a time. Off by default, since several platforms keep per-list
+   * state (field and tag caches) on the service itself.
+   */
+  protected boolean isListSyncThreadSafe() {
+    return false;
+  }
+
+  /**
+   * How many lists within a single platform account may sync at once, keeping us within the platform's own limits.
+   */
+  protected int maxConcurrentListsPerAccount() {
+    return 2;
+  }
+
+  protected String getAccountKey(EnvironmentConfig.CommunicationPlatform config) {
+    return config.secretKey + "::" + config.clientId + "::" + config.username;
+  }
+
   @Override
   public void syncContacts(Calendar lastSync) throws Exception {
-    List<EnvironmentConfig.CommunicationPlatform> configs = getPlatformConfigs();
-    for (EnvironmentConfig.CommunicationPlatform config : configs) {
+    List<EnvironmentConfig.CommunicationPlatform> listConfigs = new ArrayList<>();
+    List<EnvironmentConfig.CommunicationList> lists = new ArrayList<>();
+    for (EnvironmentConfig.CommunicationPlatform config : getPlatformConfigs()) {
       for (EnvironmentConfig.CommunicationList communicationList : config.lists) {
-        // platform-specific preparation (e.g., cache clearing) once per communication list
-        prepareBatchProcessing(config, communicationList);
+        listConfigs.add(config);
+        lists.add(communicationList);
+      }
+    }
 
-        ExistingContacts existingContacts = getExistingContacts(config, communicationList);
+    CrmPageCache crmPageCache = new CrmPageCache(lastSync, lists);
 
-        // Process CRM contacts
-        PagedResults<CrmContact> contactPagedResults = env.primaryCrmService().getEmailContacts(lastSync, communicationList);
-        for (PagedResults.ResultSet<CrmContact> resultSet : contactPagedResults.getResultSets()) {
-          do {
-            syncContactsBatch(resultSet, config, communicationList, existingContacts);
-            if (!Strings.isNullOrEmpty(resultSet.getNextPageToken())) {
-              resultSet = env.primaryCrmService().queryMoreContacts(resultSet.getNextPageToken());
-            } else {
-              resultSet = null;
+    if (!isListSyncThreadSafe() || lists.size() < 2) {
+      for (int i = 0; i < lists.size(); i++) {
+        syncList(listConfigs.get(i), lists.get(i), crmPageCache);
+      }
+      return;
+    }
+
+    // One queue of lists per platform account, each drained by a capped number of lanes. A lane syncs its lists one
+    // after another, so no pool thread ever sits blocked waiting on another account's lists.
+    List<CompletableFuture<ListSyncResult>> results = new ArrayList<>();
+    Map<String, Queue<Integer>> accountQueues = new LinkedHashMap<>();
+    for (int i = 0; i < lists.size(); i++) {
+      results.add(new CompletableFuture<>());
+      accountQueues.computeIfAbsent(getAccountKey(listConfigs.get(i)), k -> new ConcurrentLinkedQueue<>()).add(i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(LIST_SYNC_THREADS, lists.size()),
+        new ThreadFactoryBuilder().setNameFormat(name() + "-list-sync-%d").setDaemon(true).build());
+    try {
+      for (Queue<Integer> accountQueue : accountQueues.values()) {
+        int lanes = Math.max(1, Math.min(maxConcurrentListsPerAccount(), accountQueue.size()));
+        for (int lane = 0; lane < lanes; lane++) {
+          executor.execute(() -> {
+            for (Integer i = accountQueue.poll(); i != null; i = accountQueue.poll()) {
+              env.bufferJobLogs();
+              Throwable failure = null;
+              try {
+                syncList(listConfigs.get(i), lists.get(i), crmPageCache);
+              } catch (Throwable t) {
+                failure = t;
+              }
+              results.get(i).complete(new ListSyncResult(env.drainBufferedJobLogs(), failure));
             }
-          } while (resultSet != null);
+          });
         }
+      }
 
-        // Process CRM accounts as faux contacts
-        PagedResults<CrmAccount> accountPagedResults = env.primaryCrmService().getEmailAccounts(lastSync, communicationList);
-        for (PagedResults.ResultSet<CrmAccount> resultSet : accountPagedResults.getResultSets()) {
-          do {
-            PagedResults.ResultSet<CrmContact> fauxContacts = new PagedResults.ResultSet<>();
-            fauxContacts.getRecords().addAll(resultSet.getRecords().stream().map(this::asCrmContact).toList());
-            syncContactsBatch(fauxContacts, config, communicationList, existingContacts);
-            if (!Strings.isNullOrEmpty(resultSet.getNextPageToken())) {
-              resultSet = env.primaryCrmService().queryMoreAccounts(resultSet.getNextPageToken());
-            } else {
-              resultSet = null;
-            }
-          } while (resultSet != null);
+      // Logs are written list by list, in config order, regardless of which list finished first. Likewise, the
+      // failure surfaced is that of the first failing list.
+      Throwable failure = null;
+      for (CompletableFuture<ListSyncResult> result : results) {
+        ListSyncResult listSyncResult = result.join();
+        env.writeJobLogs(listSyncResult.jobLogs);
+        if (failure == null) {
+          failure = listSyncResult.failure;
+        }
+      }
+      if (failure instanceof Error error) {
+        throw error;
+      } else if (failure != null) {
+        throw (Exception) failure;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void syncList(EnvironmentConfig.CommunicationPlatform config,
+      EnvironmentConfig.CommunicationList communicationList, CrmPageCache crmPageCache) throws Exception {
+    // platform-specific preparation (e.g., cache clearing) once per communication list
+    prepareBatchProcessing(config, communicationList);
+
+    ExistingContacts existingContacts = getExistingContacts(config, communicationList);
+
+    // Process CRM contacts
+    crmPageCache.forEachContactPage(communicationList,
+        resultSet -> syncContactsBatch(resultSet, config, communicationList, existingContacts));
+
+    // Process CRM accounts as faux contacts
+    crmPageCache.forEachAccountPage(communicationList, resultSet -> {
+      PagedResults.ResultSet<CrmContact> fauxContacts = new PagedResults.ResultSet<>();
+      fauxContacts.getRecords().addAll(resultSet.getRecords().stream().map(this::asCrmContact).toList());
+      syncContactsBatch(fauxContacts, config, communicationList, existingContacts);
+    });
+  }
+
+  private record ListSyncResult(List<Consumer<JobLoggingService>> jobLogs, Throwable failure) {}
+
+  /**
+   * CRM pages for one syncContacts run. Lists often share a CRM filter (ie, the same contacts pushed to several
+   * audiences). When they do, the CRM is queried once and every list replays the same pages, which are released as soon
+   * as the last of those lists is done with them. Filters used by a single list are streamed page by page, as before,
+   * so nothing extra is held in memory.
+   */
+  protected class CrmPageCache {
+
+    private final Calendar lastSync;
+    // shared filter -> how many lists have yet to read its pages
+    private final Map<String, AtomicInteger> contactFilterReaders = new HashMap<>();
+    private final Map<String, AtomicInteger> accountFilterReaders = new HashMap<>();
+    private final Map<String, CompletableFuture<List<PagedResults.ResultSet<CrmContact>>>> contactPages = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<List<PagedResults.ResultSet<CrmAccount>>>> accountPages = new ConcurrentHashMap<>();
+
+    protected CrmPageCache(Calendar lastSync, List<EnvironmentConfig.CommunicationList> lists) {
+      this.lastSync = lastSync;
+
+      for (EnvironmentConfig.CommunicationList communicationList : lists) {
+        contactFilterReaders.computeIfAbsent(contactFilterKey(communicationList), k -> new AtomicInteger()).incrementAndGet();
+        accountFilterReaders.computeIfAbsent(communicationList.crmAccountFilter, k -> new AtomicInteger()).incrementAndGet();
+      }
+      // only shared filters are cached
+      contactFilterReaders.values().removeIf(readers -> readers.get() < 2);
+      accountFilterReaders.values().removeIf(readers -> readers.get() < 2);
+    }
+
+    protected void forEachContactPage(EnvironmentConfig.CommunicationList communicationList,
+        Consumer<PagedResults.ResultSet<CrmContact>> consumer) throws Exception {
+      CrmService crmService = env.primaryCrmService();
+      forEachPage(contactFilterKey(communicationList), contactFilterReaders, contactPages,
+          () -> crmService.getEmailContacts(lastSync, communicationList), crmService::queryMoreContacts, consumer);
+    }
+
+    protected void forEachAccountPage(EnvironmentConfig.CommunicationList communicationList,
+        Consumer<PagedResults.ResultSet<CrmAccount>> consumer) throws Exception {
+      CrmService crmService = env.primaryCrmService();
+      forEachPage(communicationList.crmAccountFilter, accountFilterReaders, accountPages,
+          () -> crmService.getEmailAccounts(lastSync, communicationList), crmService::queryMoreAccounts, consumer);
+    }
+
+    private <T> void forEachPage(String filterKey, Map<String, AtomicInteger> filterReaders,
+        Map<String, CompletableFuture<List<PagedResults.ResultSet<T>>>> cachedPages, PageQuery<T> query,
+        NextPageQuery<T> nextPageQuery, Consumer<PagedResults.ResultSet<T>> consumer) throws Exception {
+      AtomicInteger readers = filterReaders.get(filterKey);
+      if (readers == null) {
+        queryPages(query, nextPageQuery, consumer);
+        return;
+      }
+
+      // The first list to get here queries the CRM. Any others sharing the filter wait on it, rather than repeating it.
+      CompletableFuture<List<PagedResults.ResultSet<T>>> pages = new CompletableFuture<>();
+      CompletableFuture<List<PagedResults.ResultSet<T>>> existingPages = cachedPages.putIfAbsent(filterKey, pages);
+      if (existingPages == null) {
+        try {
+          List<PagedResults.ResultSet<T>> resultSets = new ArrayList<>();
+          queryPages(query, nextPageQuery, resultSets::add);
+          pages.complete(resultSets);
+        } catch (Exception e) {
+          pages.completeExceptionally(e);
         }
+      } else {
+        pages = existingPages;
+      }
+
+      try {
+        pages.get().forEach(consumer);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception cause) {
+          throw cause;
+        }
+        throw e;
+      } finally {
+        // the last list sharing the filter is done, so let its pages go rather than holding them for the whole run
+        if (readers.decrementAndGet() == 0) {
+          cachedPages.remove(filterKey);
+        }
+      }
+    }
+
+    private <T> void queryPages(PageQuery<T> query, NextPageQuery<T> nextPageQuery,
+        Consumer<PagedResults.ResultSet<T>> consumer) throws Exception {
+      for (PagedResults.ResultSet<T> resultSet : query.query().getResultSets()) {
+        do {
+          consumer.accept(resultSet);
+          if (!Strings.isNullOrEmpty(resultSet.getNextPageToken())) {
+            resultSet = nextPageQuery.queryMore(resultSet.getNextPageToken());
+          } else {
+            resultSet = null;
+          }
+        } while (resultSet != null);
       }
     }
+
+    private String contactFilterKey(EnvironmentConfig.CommunicationList communicationList) {
+      return communicationList.crmFilter + "::" + communicationList.crmLeadFilter;
+    }
+  }
+
+  private interface PageQuery<T> {
+    PagedResults<T> query() throws Exception;
+  }
+
+  private interface NextPageQuery<T> {
+    PagedResults.ResultSet<T> queryMore(String nextPageToken) throws Exception;
   }
 
   protected void syncContactsBatch(PagedResults.ResultSet<CrmContact> resultSet,
@@ -314,8 +541,34 @@ public abstract class AbstractCommunicationService implements CommunicationServi
         activeTags.put(crmContact.email, tagsCleaned);
       }
 
+      // Skip contacts already on the platform that haven't changed since we last pushed them
+      Map<String, String> fingerprints = new HashMap<>();
+      if (env.getConfig().isDatabaseConnected()) {
+        for (CrmContact crmContact : contactsToUpsert) {
+          fingerprints.put(crmContact.email.toLowerCase(Locale.ROOT), buildFingerprint(crmContact,
+              contactsCustomFields.get(crmContact.email), activeTags.get(crmContact.email), config, communicationList));
+        }
+        Map<String, String> existingFingerprints = env.contactFingerprintService()
+            .getFingerprints(name(), communicationList.id, existingContacts.emailsToIds.keySet().stream()
+                .filter(fingerprints::containsKey).toList());
+        int total = contactsToUpsert.size();
+        contactsToUpsert.removeIf(crmContact -> {
+          String email = crmContact.email.toLowerCase(Locale.ROOT);
+          return fingerprints.get(email).equals(existingFingerprints.get(email));
+        });
+        env.logJobInfo("{} of {} contacts changed since the last sync to list {}", contactsToUpsert.size(), total, communicationList.id);
+      }
+
       // Execute batch upsert
-      executeBatchUpsert(contactsToUpsert, contactsCustomFields, activeTags, existingContacts, config, communicationList);
+      if (!contactsToUpsert.isEmpty()) {
+        Set<String> upsertedEmails = executeConfirmedBatchUpsert(contactsToUpsert, contactsCustomFields, activeTags,
+            existingContacts, config, communicationList);
+        if (env.getConfig().isDatabaseConnected()) {
+          Map<String, String> upsertedFingerprints = new HashMap<>(fingerprints);
+          upsertedFingerprints.keySet().retainAll(upsertedEmails);
+          env.contactFingerprintService().saveFingerprints(name(), communicationList.id, upsertedFingerprints);
+        }
+      }
 
       // Archive contacts that should be unsubscribed
       Set<String> emailsToArchive = contactsToArchive.stream()
@@ -323,6 +576,7 @@ public abstract class AbstractCommunicationService implements CommunicationServi
           .collect(Collectors.toSet());
       emailsToArchive.retainAll(existingContacts.emailsToIds.keySet());
       executeBatchArchive(emailsToArchive, existingContacts, config, communicationList);
+      clearFingerprints(communicationList, emailsToArchive);
 
     } catch (Exception e) {
       env.logJobWarn("{} syncContacts failed", name(), e);
@@ -354,6 +608,8 @@ public abstract class AbstractCommunicationService implements CommunicationServi
             Set<String> tags = getContactTagsCleaned(crmContact, crmContactCampaignNames.get(crmContact.id), config, communicationList);
 
             executeUpsert(crmContact, customFields, tags, config, communicationList);
+            // single upserts don't confirm what landed, so the next sync sends the contact again
+            clearFingerprints(communicationList, Set.of(crmContact.email.toLowerCase(Locale.ROOT)));
           } catch (Exception e) {
             env.logJobWarn("{} upsertContact failed", name(), e);
           }
@@ -406,6 +662,7 @@ public abstract class AbstractCommunicationService implements CommunicationServi
 
         env.logJobInfo("massArchiving {} contacts in {}: {}", emailsToArchive.size(), name(), String.join(", ", emailsToArchive));
         executeBatchArchive(emailsToArchive, existingContacts, config, communicationList);
+        clearFingerprints(communicationList, emailsToArchive);
       }
     }
   }
@@ -466,6 +723,74 @@ public abstract class AbstractCommunicationService implements CommunicationServi
     crmService.batchFlush();
   }
 
+  /**
+   * A stable hash of everything a sync sends for the contact. If it matches the one stored after the last confirmed
+   * upsert, the platform already has all of it. Covers what all platforms send. Platforms that send more fields add
+   * them in addFingerprintParts.
+   */
+  protected String buildFingerprint(CrmContact crmContact, Map<String, Object> customFields, Set<String> tags,
+      EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+    List<Object> parts = new ArrayList<>();
+    parts.add(list.type);
+    parts.add(crmContact.email.toLowerCase(Locale.ROOT));
+    parts.add(crmContact.firstName);
+    parts.add(crmContact.lastName);
+    parts.add(crmContact.mobilePhone);
+    parts.add(crmContact.phoneNumberForSMS());
+    parts.add(crmContact.smsOptIn);
+    parts.add(crmContact.smsOptOut);
+    parts.add(config.enableSms);
+    parts.add(config.countryCode);
+    parts.add(config.country);
+    // SMS eligibility can hinge on any of the addresses' countries
+    for (CrmAddress crmAddress : new CrmAddress[]{crmContact.mailingAddress, crmContact.account.mailingAddress, crmContact.account.billingAddress}) {
+      parts.add(crmAddress == null ? null : crmAddress.country);
+    }
+    parts.add(new TreeSet<>(crmContact.emailGroups));
+    parts.add(new TreeMap<>(list.groups));
+    Map<String, Object> sortedCustomFields = new TreeMap<>();
+    if (customFields != null) {
+      customFields.forEach((key, value) -> sortedCustomFields.put(key, fingerprintValue(value)));
+    }
+    parts.add(sortedCustomFields);
+    parts.add(tags == null ? null : new TreeSet<>(tags));
+    addFingerprintParts(parts, crmContact, config, list);
+
+    // length-prefixed, so values can't run into each other
+    StringBuilder sb = new StringBuilder();
+    for (Object part : parts) {
+      String value = String.valueOf(part);
+      sb.append(value.length()).append(':').append(value);
+    }
+    return DigestUtils.sha256Hex(sb.toString());
+  }
+
+  // Any other contact fields the platform's own mapping sends (ex: addresses), so that changes to them are pushed.
+  protected void addFingerprintParts(List<Object> parts, CrmContact crmContact,
+      EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+  }
+
+  private Object fingerprintValue(Object value) {
+    if (value instanceof Calendar c) {
+      return c.getTimeInMillis();
+    } else if (value instanceof Date d) {
+      return d.getTime();
+    }
+    return value;
+  }
+
+  // Best effort. At worst, the contact is skipped until its CRM data changes again.
+  protected void clearFingerprints(EnvironmentConfig.CommunicationList list, Set<String> emails) {
+    if (!env.getConfig().isDatabaseConnected() || emails.isEmpty()) {
+      return;
+    }
+    try {
+      env.contactFingerprintService().clearFingerprints(name(), list.id, emails);
+    } catch (Exception e) {
+      env.logJobWarn("failed to clear contact fingerprints for list {}", list.id, e);
+    }
+  }
+
   protected CrmContact asCrmContact(CrmAccount crmAccount) {
     CrmContact crmContact = new CrmContact();
     crmContact.account = crmAccount;
@@ -492,6 +817,15 @@ public abstract class AbstractCommunicationService implements CommunicationServi
       Map<String, Map<String, Object>> customFields, Map<String, Set<String>> tags,
       ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
       EnvironmentConfig.CommunicationList list) throws Exception;
+  // Returns the (lowercased) emails the platform confirmed it accepted. By default, a batch that doesn't throw is
+  // assumed to have landed in full. Platforms that report per-contact results should override.
+  protected Set<String> executeConfirmedBatchUpsert(List<CrmContact> contacts,
+      Map<String, Map<String, Object>> customFields, Map<String, Set<String>> tags,
+      ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
+      EnvironmentConfig.CommunicationList list) throws Exception {
+    executeBatchUpsert(contacts, customFields, tags, existingContacts, config, list);
+    return contacts.stream().map(crmContact -> crmContact.email.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+  }
   protected void executeUpsert(CrmContact contact, Map<String, Object> customFields, Set<String> tags,
       EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) throws Exception {
     // for single contact upsert, we don't have existing contacts, so pass empty instance
@@ -181,6 +181,11 @@ public class BloomerangCrmService implements CrmService {
     return Collections.emptyList();
   }
 
+  @Override
+  public boolean isDonationLookupBatchable() {
+    return false;
+  }
+
   // Not able to retrieve donations purely by customerId -- must have the Constituent.
   @Override
   public List<CrmDonation> getDonationsByCustomerId(String customerId) throws Exception {
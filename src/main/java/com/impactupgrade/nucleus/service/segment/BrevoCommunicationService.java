@@ -186,6 +186,13 @@ public class BrevoCommunicationService extends AbstractCommunicationService {
         .collect(Collectors.toList());
   }
 
+  @Override
+  protected void addFingerprintParts(List<Object> parts, CrmContact crmContact,
+      EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+    // sent as emailBlacklisted, see toCreateContact
+    parts.add(crmContact.canReceiveEmail());
+  }
+
   protected CreateContact toCreateContact(EnvironmentConfig.CommunicationPlatform brevoConfig,
       CrmContact crmContact, Map<String, Object> customFields, Set<String> tags) {
     if (crmContact == null) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.google.common.base.Strings;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.util.Utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * A communication platform's crmFieldToCommunicationFields and crmFieldToCommunicationTags, compiled once rather than
+ * re-walked for every contact. Each CRM field the mappings reference is fetched once per contact, tag conditions are
+ * resolved up front, and tag slugs are memoized.
+ */
+class CommunicationRules {
+
+  // campaign/owner/record type names repeat across contacts, but don't let an unusual CRM grow this without bound
+  private static final int MAX_SLUGS = 10_000;
+
+  private record FieldRule(int field, String communicationFieldName) {}
+  private record TagRule(int field, Predicate<String> condition, String communicationTagName) {}
+
+  // distinct CRM field names, which the rules refer to by index
+  private final String[] fieldRuleCrmFields;
+  private final FieldRule[] fieldRules;
+  private final String[] tagRuleCrmFields;
+  private final TagRule[] tagRules;
+  private final Map<String, String> slugs = new ConcurrentHashMap<>();
+
+  private CommunicationRules(String[] fieldRuleCrmFields, FieldRule[] fieldRules, String[] tagRuleCrmFields,
+      TagRule[] tagRules) {
+    this.fieldRuleCrmFields = fieldRuleCrmFields;
+    this.fieldRules = fieldRules;
+    this.tagRuleCrmFields = tagRuleCrmFields;
+    this.tagRules = tagRules;
+  }
+
+  static CommunicationRules compile(EnvironmentConfig.CommunicationPlatform communicationPlatform) {
+    Map<String, Integer> fieldRuleIndexes = new LinkedHashMap<>();
+    List<FieldRule> fieldRules = new ArrayList<>();
+    for (EnvironmentConfig.CrmFieldToCommunicationField mapping : communicationPlatform.crmFieldToCommunicationFields) {
+      int field = fieldRuleIndexes.computeIfAbsent(mapping.crmFieldName, k -> fieldRuleIndexes.size());
+      fieldRules.add(new FieldRule(field, mapping.communicationFieldName));
+    }
+
+    Map<String, Integer> tagRuleIndexes = new LinkedHashMap<>();
+    List<TagRule> tagRules = new ArrayList<>();
+    for (EnvironmentConfig.CrmFieldToCommunicationTag mapping : communicationPlatform.crmFieldToCommunicationTags) {
+      // a mapping without an operator can never match
+      if (mapping.operator == null) {
+        continue;
+      }
+      int field = tagRuleIndexes.computeIfAbsent(mapping.crmFieldName, k -> tagRuleIndexes.size());
+      tagRules.add(new TagRule(field, condition(mapping.operator, mapping.value), mapping.communicationTagName));
+    }
+
+    return new CommunicationRules(
+        fieldRuleIndexes.keySet().toArray(new String[0]),
+        fieldRules.toArray(new FieldRule[0]),
+        tagRuleIndexes.keySet().toArray(new String[0]),
+        tagRules.toArray(new TagRule[0])
+    );
+  }
+
+  /**
+   * Passes each mapped field's communication name and CRM value to the consumer, skipping empty values.
+   */
+  void forEachField(CrmContact crmContact, BiConsumer<String, Object> consumer) {
+    if (fieldRules.length == 0 || crmContact.fieldFetcher == null) {
+      return;
+    }
+    Object[] values = fetch(crmContact, fieldRuleCrmFields);
+    for (FieldRule fieldRule : fieldRules) {
+      Object value = values[fieldRule.field];
+      if (value != null) {
+        consumer.accept(fieldRule.communicationFieldName, value);
+      }
+    }
+  }
+
+  /**
+   * Adds the communication tag of each mapping whose condition the contact meets.
+   */
+  void addTags(CrmContact crmContact, Set<String> tags) {
+    if (tagRules.length == 0 || crmContact.fieldFetcher == null) {
+      return;
+    }
+    Object[] values = fetch(crmContact, tagRuleCrmFields);
+    String[] valueStrings = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      valueStrings[i] = values[i] == null ? "" : values[i].toString();
+    }
+    for (TagRule tagRule : tagRules) {
+      if (tagRule.condition.test(valueStrings[tagRule.field])) {
+        tags.add(tagRule.communicationTagName);
+      }
+    }
+  }
+
+  String slug(String s) {
+    if (s == null) {
+      return null;
+    }
+    String slug = slugs.get(s);
+    if (slug == null) {
+      slug = Utils.toSlug(s);
+      if (slugs.size() < MAX_SLUGS) {
+        slugs.put(s, slug);
+      }
+    }
+    return slug;
+  }
+
+  /**
+   * An empty CRM value only ever fails: it isn't NOT_EMPTY, and it's unknown rather than EQUAL_TO or NOT_EQUAL_TO
+   * anything. Comparisons ignore case.
+   */
+  static boolean matches(String crmFieldValueString, EnvironmentConfig.Operator operator, String value) {
+    if (operator == null) {
+      return false;
+    }
+    return condition(operator, value).test(Strings.nullToEmpty(crmFieldValueString));
+  }
+
+  private static Predicate<String> condition(EnvironmentConfig.Operator operator, String value) {
+    return switch (operator) {
+      case NOT_EMPTY -> s -> !s.isEmpty();
+      case EQUAL_TO -> s -> !s.isEmpty() && s.equalsIgnoreCase(value);
+      case NOT_EQUAL_TO -> s -> !s.isEmpty() && !s.equalsIgnoreCase(value);
+    };
+  }
+
+  private Object[] fetch(CrmContact crmContact, String[] crmFieldNames) {
+    Object[] values = new Object[crmFieldNames.length];
+    for (int i = 0; i < crmFieldNames.length; i++) {
+      values[i] = crmContact.fieldFetcher.apply(crmFieldNames[i]);
+    }
+    return values;
+  }
+}
@@ -118,6 +118,12 @@ public interface CrmService extends SegmentService {
   // Others, like SFDC's SOQL, may allow clauses like "WHERE IN (<list>)" in queries, allowing us to retrieve large
   // batches all at once. This is SUPER important, especially for SFDC, where monthly API limits are in play...
   List<CrmDonation> getDonationsByTransactionIds(List<String> transactionIds) throws Exception;
+  // Whether getDonationsByTransactionIds finds everything getDonationByTransactionIds would. Batch processing relies on
+  // that to treat a donation missing from the bulk lookup as new. CRMs that can only find donations through the donor
+  // must return false, and each donation is then looked up on its own.
+  default boolean isDonationLookupBatchable() {
+    return true;
+  }
   List<CrmDonation> getDonationsByCustomerId(String customerId) throws Exception;
   String insertDonation(CrmDonation crmDonation) throws Exception;
   boolean updateDonation(CrmDonation crmDonation) throws Exception;
@@ -172,6 +178,10 @@ public interface CrmService extends SegmentService {
     // default to simply updating one-by-one for CRMs that don't support batching
     updateContact(crmContact);
   }
+  default void batchInsertDonation(CrmDonation crmDonation) throws Exception {
+    // default to simply inserting one-by-one for CRMs that don't support batching
+    insertDonation(crmDonation);
+  }
   default void batchFlush() throws Exception {
     // default to no-op
   }
@@ -8,10 +8,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.impactupgrade.nucleus.dao.HibernateUtil;
 import com.impactupgrade.nucleus.entity.Job;
 import com.impactupgrade.nucleus.entity.JobFrequency;
+import com.impactupgrade.nucleus.entity.JobLog;
 import com.impactupgrade.nucleus.entity.JobStatus;
 import com.impactupgrade.nucleus.entity.JobType;
 import com.impactupgrade.nucleus.entity.Organization;
 import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.service.logic.CampaignActivityService;
+import com.impactupgrade.nucleus.service.logic.EventBriteService;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -19,11 +22,17 @@ import org.hibernate.query.Query;
 
 import javax.persistence.NoResultException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
 
 public class DBJobLoggingService implements JobLoggingService {
 
+  // jobs that only track pending work (see EventBriteService and CampaignActivityService), left out of job listings
+  protected static final List<String> INTERNAL_JOB_NAMES = List.of(EventBriteService.PENDING_ORDER_JOB_NAME,
+      CampaignActivityService.JOB_NAME);
+
   protected Environment env;
   protected SessionFactory sessionFactory;
 
@@ -79,7 +88,7 @@ public class DBJobLoggingService implements JobLoggingService {
 
   @Override
   public void endLog(JobStatus jobStatus) {
-    Job job = getJob(jobTraceId, false);
+    Job job = getJob(jobTraceId);
     if (job != null) {
       job.status = jobStatus;
       job.endedAt = Instant.now();
@@ -133,15 +142,24 @@ public class DBJobLoggingService implements JobLoggingService {
 
   @Override
   public Job getJob(String jobTraceId) {
-    return getJob(jobTraceId, true);
-  }
-
-  private Job getJob(String jobTraceId, boolean fetchLogs) {
     try (Session session = openSession()) {
       String queryString = "select j from Job j " +
-          (fetchLogs ? "left join fetch j.logs l " : "") +
-          "where j.traceId like '%" + jobTraceId + "%'";
+          "where j.traceId like :jobTraceId";
       Query<Job> query = session.createQuery(queryString);
+      query.setParameter("jobTraceId", "%" + jobTraceId + "%");
+      return query.getSingleResult();
+    } catch (NoResultException e) {
+      return null;
+    }
+  }
+
+  // Same lookup as getJob, but only the id. Called for every log line, so skip hydrating the Job (and its Organization).
+  private Long getJobId(String jobTraceId) {
+    try (Session session = openSession()) {
+      String queryString = "select j.id from Job j " +
+          "where j.traceId like :jobTraceId";
+      Query<Long> query = session.createQuery(queryString);
+      query.setParameter("jobTraceId", "%" + jobTraceId + "%");
       return query.getSingleResult();
     } catch (NoResultException e) {
       return null;
@@ -149,15 +167,15 @@ public class DBJobLoggingService implements JobLoggingService {
   }
 
   private void insertLog(String logMessage, Object... params) {
-    Job job = getJob(jobTraceId, false);
-    if (job == null) return;
+    Long jobId = getJobId(jobTraceId);
+    if (jobId == null) return;
 
     logMessage = format(logMessage, params);
 
     try (Session session = openSession()) {
       String queryString = "INSERT INTO job_logs(job_id, log) VALUES (:jobId, :logMessage)";
       Query query = session.createNativeQuery(queryString);
-      query.setParameter("jobId", job.id);
+      query.setParameter("jobId", jobId);
       query.setParameter("logMessage", logMessage);
       Transaction transaction = session.beginTransaction();
       query.executeUpdate();
@@ -172,24 +190,112 @@ public class DBJobLoggingService implements JobLoggingService {
       env.jobLoggingService("console").warn("Can not get org for nucleus api key '{}'!", env.getConfig().apiKey);
       return null;
     }
-    return getJobs(org, jobType);
+    return getJobs(org, jobType, null, null, null);
+  }
+
+  @Override
+  public List<Job> getJobs(JobType jobType, Instant startedBefore, Long beforeId, int limit) {
+    Organization org = getOrg(env.getConfig().apiKey);
+    if (org == null) {
+      env.jobLoggingService("console").warn("Can not get org for nucleus api key '{}'!", env.getConfig().apiKey);
+      return null;
+    }
+    return getJobs(org, jobType, startedBefore, beforeId, limit);
   }
 
-  private List<Job> getJobs(Organization org, JobType jobType) {
+  private List<Job> getJobs(Organization org, JobType jobType, Instant startedBefore, Long beforeId, Integer limit) {
     try (Session session = openSession()) {
-      String queryString = "select j from Job j " +
+      // Select only the summary columns, rather than the entities, so listing jobs never pulls in each job's
+      // Organization, payload, etc.
+      String queryString = "select j.id, j.traceId, j.jobType, j.jobName, j.originatingPlatform, j.status, j.startedBy, j.startedAt, j.endedAt " +
+          "from Job j " +
           "where j.org.id = :orgId " +
           "and j.jobType = :jobType " +
-          "order by j.id desc";
-      Query<Job> query = session.createQuery(queryString);
+          // bookkeeping for work Nucleus resumes on its own, not something anyone started
+          "and (j.jobName is null or j.jobName not in (:internalJobNames)) " +
+          // a job that never recorded a startedAt sorts after all the others, so it can't break the cursor
+          (startedBefore != null ? "and (j.startedAt < :startedBefore or (j.startedAt = :startedBefore and j.id < :beforeId) or j.startedAt is null) " : "") +
+          (startedBefore == null && beforeId != null ? "and j.startedAt is null and j.id < :beforeId " : "") +
+          "order by j.startedAt desc nulls last, j.id desc";
+      Query<Object[]> query = session.createQuery(queryString);
       query.setParameter("orgId", org.getId());
       query.setParameter("jobType", jobType);
-      return query.getResultList();
+      query.setParameterList("internalJobNames", INTERNAL_JOB_NAMES);
+      if (startedBefore != null) {
+        query.setParameter("startedBefore", startedBefore);
+        query.setParameter("beforeId", beforeId == null ? Long.MAX_VALUE : beforeId);
+      } else if (beforeId != null) {
+        query.setParameter("beforeId", beforeId);
+      }
+      if (limit != null) {
+        query.setMaxResults(limit);
+      }
+      return query.getResultList().stream().map(row -> {
+        Job job = new Job();
+        job.id = (Long) row[0];
+        job.traceId = (String) row[1];
+        job.jobType = (JobType) row[2];
+        job.jobName = (String) row[3];
+        job.originatingPlatform = (String) row[4];
+        job.status = (JobStatus) row[5];
+        job.startedBy = (String) row[6];
+        job.startedAt = (Instant) row[7];
+        job.endedAt = (Instant) row[8];
+        return job;
+      }).toList();
     } catch (NoResultException e) {
       return null;
     }
   }
 
+  @Override
+  public List<JobLog> getJobLogs(String jobTraceId, Long afterId, int limit) {
+    Long jobId = getJobId(jobTraceId);
+    if (jobId == null) {
+      return null;
+    }
+
+    try (Session session = openSession()) {
+      Query<JobLog> query = session.createQuery("from JobLog l where l.jobId = :jobId and l.id > :afterId order by l.id asc", JobLog.class);
+      query.setParameter("jobId", jobId);
+      query.setParameter("afterId", afterId == null ? 0L : afterId);
+      query.setMaxResults(limit);
+      return query.getResultList();
+    }
+  }
+
+  @Override
+  public List<JobLog> getJobLogsTail(String jobTraceId, int limit) {
+    Long jobId = getJobId(jobTraceId);
+    if (jobId == null) {
+      return null;
+    }
+
+    try (Session session = openSession()) {
+      Query<JobLog> query = session.createQuery("from JobLog l where l.jobId = :jobId order by l.id desc", JobLog.class);
+      query.setParameter("jobId", jobId);
+      query.setMaxResults(limit);
+      List<JobLog> jobLogs = new ArrayList<>(query.getResultList());
+      Collections.reverse(jobLogs);
+      return jobLogs;
+    }
+  }
+
+  @Override
+  @Deprecated
+  public List<String> getAllJobLogs(String jobTraceId) {
+    Long jobId = getJobId(jobTraceId);
+    if (jobId == null) {
+      return null;
+    }
+
+    try (Session session = openSession()) {
+      Query<String> query = session.createQuery("select l.log from JobLog l where l.jobId = :jobId order by l.id asc", String.class);
+      query.setParameter("jobId", jobId);
+      return query.getResultList();
+    }
+  }
+
   private Session openSession() {
     return sessionFactory.withOptions()
         .jdbcTimeZone(TimeZone.getTimeZone(defaultTimezoneId))
@@ -38,6 +38,7 @@ import com.impactupgrade.integration.hubspot.v1.model.EngagementAssociations;
 import com.impactupgrade.integration.hubspot.v1.model.EngagementRequest;
 import com.impactupgrade.integration.hubspot.v1.model.EngagementTaskMetadata;
 import com.impactupgrade.integration.hubspot.v1.model.HasValue;
+import com.impactupgrade.nucleus.client.HubSpotBatchClient;
 import com.impactupgrade.nucleus.client.HubSpotClientFactory;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentConfig;
@@ -91,11 +92,16 @@ import static com.impactupgrade.nucleus.model.CrmContact.PreferredPhone.WORK;
 
 public class HubSpotCrmService implements CrmService {
 
+  // HubSpot-defined association type IDs, for the batch endpoints
+  protected static final int DEAL_TO_CONTACT = 3;
+  protected static final int DEAL_TO_COMPANY = 5;
+
   protected Environment env;
   protected HubSpotCrmV3Client hsClient;
   protected EngagementV1Client engagementClient;
   protected ImportsCrmV3Client importsClient;
   protected PropertiesCrmV3Client propertiesClient;
+  protected HubSpotBatchClient batchClient;
 
   protected Set<String> companyFields;
   protected Set<String> contactFields;
@@ -116,6 +122,7 @@ public class HubSpotCrmService implements CrmService {
     engagementClient = HubSpotClientFactory.engagementV1Client(env);
     importsClient = HubSpotClientFactory.importsCrmV3Client(env);
     propertiesClient = HubSpotClientFactory.propertiesCrmV3Client(env);
+    batchClient = HubSpotClientFactory.batchClient(env);
 
     companyFields = getCustomFieldNames();
     companyFields.addAll(env.getConfig().hubspot.customQueryFields.company.stream().toList());
@@ -185,15 +192,54 @@ public class HubSpotCrmService implements CrmService {
 
   @Override
   public List<CrmDonation> getDonationsByTransactionIds(List<String> transactionIds) throws Exception {
-    List<FilterGroup> filterGroups = new ArrayList<>();
+    // HubSpot caps search at 5 filter groups, so rather than a group per ID, use IN filters of up to 100 IDs each.
+    List<Deal> deals = batchClient.searchIn("deals", env.getConfig().hubspot.fieldDefinitions.paymentGatewayTransactionId,
+        transactionIds, dealFields, Deal.class);
+    return toCrmDonation(deals);
+  }
+
+  @Override
+  public List<CrmContact> getContactsByIds(List<String> ids) throws Exception {
+    return toCrmContact(batchClient.batchRead("contacts", ids, contactFields, Contact.class));
+  }
 
-    for (String transactionId : transactionIds) {
-      Filter filter = new Filter(env.getConfig().hubspot.fieldDefinitions.paymentGatewayTransactionId, "EQ", transactionId);
-      filterGroups.add(new FilterGroup(List.of(filter)));
+  @Override
+  public List<CrmAccount> getAccountsByIds(List<String> ids) throws Exception {
+    return batchClient.batchRead("companies", ids, companyFields, Company.class).stream().map(this::toCrmAccount).toList();
+  }
+
+  public List<CrmDonation> getDonationsByIds(List<String> ids) throws Exception {
+    return toCrmDonation(batchClient.batchRead("deals", ids, dealFields, Deal.class));
+  }
+
+  public List<String> batchInsertContacts(List<CrmContact> crmContacts) throws Exception {
+    List<ContactProperties> contacts = new ArrayList<>();
+    for (CrmContact crmContact : crmContacts) {
+      ContactProperties contact = new ContactProperties();
+      setContactFields(contact, crmContact);
+      contacts.add(contact);
     }
+    return batchClient.batchCreate("contacts", contacts, Contact.class).stream().map(Contact::getId).toList();
+  }
 
-    DealResults results = hsClient.deal().search(filterGroups, dealFields);
-    return toCrmDonation(results.getResults());
+  public List<String> batchInsertAccounts(List<CrmAccount> crmAccounts) throws Exception {
+    List<CompanyProperties> accounts = new ArrayList<>();
+    for (CrmAccount crmAccount : crmAccounts) {
+      CompanyProperties account = new CompanyProperties();
+      setAccountFields(account, crmAccount);
+      accounts.add(account);
+    }
+    return batchClient.batchCreate("companies", accounts, Company.class).stream().map(Company::getId).toList();
+  }
+
+  public List<String> batchInsertDonations(List<CrmDonation> crmDonations) throws Exception {
+    List<HubSpotBatchClient.BatchInput> deals = new ArrayList<>();
+    for (CrmDonation crmDonation : crmDonations) {
+      DealProperties deal = new DealProperties();
+      setDonationFields(deal, crmDonation);
+      deals.add(new HubSpotBatchClient.BatchInput(null, deal, dealAssociations(crmDonation)));
+    }
+    return batchClient.batchCreateInputs("deals", deals, Deal.class).stream().map(Deal::getId).toList();
   }
 
   @Override
@@ -367,6 +413,13 @@ public class HubSpotCrmService implements CrmService {
     account.setCountry(crmAccount.billingAddress.country);
   }
 
+  @Override
+  public void batchUpdateAccount(CrmAccount crmAccount) throws Exception {
+    CompanyProperties account = new CompanyProperties();
+    setAccountFields(account, crmAccount);
+    batchClient.batchUpdate("companies", crmAccount.id, account);
+  }
+
   @Override
   public void deleteAccount(String accountId) throws Exception {
     hsClient.company().delete(accountId);
@@ -387,6 +440,43 @@ public class HubSpotCrmService implements CrmService {
     return hsClient.contact().update(crmContact.id, contact) != null;
   }
 
+  @Override
+  public void batchUpdateContact(CrmContact crmContact) throws Exception {
+    ContactProperties contact = new ContactProperties();
+    setContactFields(contact, crmContact);
+    batchClient.batchUpdate("contacts", crmContact.id, contact);
+  }
+
+  @Override
+  public void batchInsertDonation(CrmDonation crmDonation) throws Exception {
+    DealProperties deal = new DealProperties();
+    setDonationFields(deal, crmDonation);
+    batchClient.batchInsert("deals", deal, dealAssociations(crmDonation));
+  }
+
+  public void batchUpdateDonation(CrmDonation crmDonation) throws Exception {
+    DealProperties deal = new DealProperties();
+    setDonationFields(deal, crmDonation);
+    batchClient.batchUpdate("deals", crmDonation.id, deal);
+  }
+
+  // Same associations insertDonation makes one at a time.
+  protected List<HubSpotBatchClient.BatchAssociation> dealAssociations(CrmDonation crmDonation) {
+    List<HubSpotBatchClient.BatchAssociation> associations = new ArrayList<>();
+    if (!Strings.isNullOrEmpty(crmDonation.account.id)) {
+      associations.add(new HubSpotBatchClient.BatchAssociation(crmDonation.account.id, DEAL_TO_COMPANY));
+    }
+    if (!Strings.isNullOrEmpty(crmDonation.contact.id)) {
+      associations.add(new HubSpotBatchClient.BatchAssociation(crmDonation.contact.id, DEAL_TO_CONTACT));
+    }
+    return associations;
+  }
+
+  @Override
+  public void batchFlush() throws Exception {
+    batchClient.batchFlush();
+  }
+
   @Override
   public void addAccountToCampaign(CrmAccount crmAccount, String campaignId, String status) throws Exception {
     // TODO
@@ -5,9 +5,11 @@
 package com.impactupgrade.nucleus.service.segment;
 
 import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobLog;
 import com.impactupgrade.nucleus.entity.JobStatus;
 import com.impactupgrade.nucleus.entity.JobType;
 
+import java.time.Instant;
 import java.util.List;
 
 public interface JobLoggingService extends SegmentService {
@@ -22,9 +24,33 @@ public interface JobLoggingService extends SegmentService {
   default Job getJob(String jobTraceId) {
     return null;
   }
+  // Every job of the type, newest first. Like the paginated version below, the Jobs are summaries only: id, traceId,
+  // jobType, jobName, originatingPlatform, status, startedBy, startedAt, and endedAt. Use getJob for the full entity.
   default List<Job> getJobs(JobType jobType) {
     return null;
   }
+  // Keyset pagination, newest first, with jobs that never recorded a startedAt last. Pass the startedAt/id of the last
+  // job on the previous page (startedAt may be null), or nulls for both to start. Summaries only, as above.
+  default List<Job> getJobs(JobType jobType, Instant startedBefore, Long beforeId, int limit) {
+    return null;
+  }
+
+  // Log lines in the order they were written, starting after the given JobLog id (null to start at the beginning).
+  default List<JobLog> getJobLogs(String jobTraceId, Long afterId, int limit) {
+    return null;
+  }
+  // The most recent log lines, still in the order they were written.
+  default List<JobLog> getJobLogsTail(String jobTraceId, int limit) {
+    return null;
+  }
+  /**
+   * @deprecated Loads every line of the log at once, in the order they were written. Page through them with
+   * getJobLogs instead.
+   */
+  @Deprecated
+  default List<String> getAllJobLogs(String jobTraceId) {
+    return null;
+  }
 
   default String format(String message, Object... params) {
     // Keeping the {} placeholder format, so we're compatible with log4j.
@@ -10,13 +10,16 @@ import com.ecwid.maleorang.method.v3_0.lists.members.MemberInfo;
 import com.ecwid.maleorang.method.v3_0.lists.merge_fields.MergeFieldInfo;
 import com.google.common.base.Strings;
 import com.impactupgrade.nucleus.client.MailchimpClient;
+import com.impactupgrade.nucleus.entity.AudienceMember;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentConfig;
 import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.service.logic.AudienceSnapshotService;
 import org.apache.commons.collections.CollectionUtils;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -24,6 +27,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -35,13 +40,23 @@ import static com.impactupgrade.nucleus.client.MailchimpClient.SUBSCRIBED;
 
 public class MailchimpCommunicationService extends AbstractCommunicationService {
 
-  private final Map<String, String> mergeFieldsNameToTag = new HashMap<>();
+  protected static final String ARCHIVED = "archived";
+  // everything the audience snapshot keeps
+  protected static final String SNAPSHOT_FIELDS = "members.email_address,members.status,members.tags,total_items";
+
+  // list ID -> merge field name -> tag, since fields differ between audiences (and audiences may sync in parallel)
+  private final Map<String, Map<String, String>> mergeFieldsNameToTagByList = new ConcurrentHashMap<>();
 
   @Override
   public String name() {
     return "mailchimp";
   }
 
+  @Override
+  protected boolean isListSyncThreadSafe() {
+    return true;
+  }
+
   @Override
   public boolean isConfigured(Environment env) {
     return env.getConfig().mailchimp != null && !env.getConfig().mailchimp.isEmpty();
@@ -59,13 +74,38 @@ public class MailchimpCommunicationService extends AbstractCommunicationService
     ExistingContacts existingContacts = new ExistingContacts();
 
     try {
-      List<MemberInfo> listMembers = mailchimpClient.getListMembers(list.id);
-      Map<String, Set<String>> contactsTags = mailchimpClient.getContactsTags(listMembers);
-
-      for (MemberInfo memberInfo : listMembers) {
-        String email = memberInfo.email_address.toLowerCase(Locale.ROOT);
-        existingContacts.emailsToIds.put(email, email);
-        existingContacts.emailsToTags.put(email, contactsTags.getOrDefault(email, new HashSet<>()));
+      if (env.getConfig().isDatabaseConnected()) {
+        // diff against the local snapshot, pulling only what changed in the audience since the last sync
+        env.audienceSnapshotService().refresh(name(), list.id, changedSince -> {
+          Calendar sinceLastChanged = null;
+          if (changedSince != null) {
+            sinceLastChanged = Calendar.getInstance();
+            sinceLastChanged.setTime(Date.from(changedSince));
+          }
+          List<MemberInfo> changedMembers = mailchimpClient.getListMembers(list.id, null, SNAPSHOT_FIELDS, sinceLastChanged);
+          Map<String, Set<String>> contactsTags = mailchimpClient.getContactsTags(changedMembers);
+          List<AudienceMember> changedAudienceMembers = changedMembers.stream()
+              .map(memberInfo -> AudienceSnapshotService.toAudienceMember(memberInfo.email_address, memberInfo.status,
+                  contactsTags.get(memberInfo.email_address.toLowerCase(Locale.ROOT))))
+              .toList();
+          clearEditedFingerprints(list, changedSince == null, changedAudienceMembers);
+          return changedAudienceMembers;
+        }, member -> {
+          // archived members aren't part of the audience, as far as a full download is concerned
+          if (!ARCHIVED.equalsIgnoreCase(member.status)) {
+            existingContacts.emailsToIds.put(member.email, member.email);
+            existingContacts.emailsToTags.put(member.email, AudienceSnapshotService.getTags(member));
+          }
+        });
+      } else {
+        List<MemberInfo> listMembers = mailchimpClient.getListMembers(list.id);
+        Map<String, Set<String>> contactsTags = mailchimpClient.getContactsTags(listMembers);
+
+        for (MemberInfo memberInfo : listMembers) {
+          String email = memberInfo.email_address.toLowerCase(Locale.ROOT);
+          existingContacts.emailsToIds.put(email, email);
+          existingContacts.emailsToTags.put(email, contactsTags.getOrDefault(email, new HashSet<>()));
+        }
       }
     } catch (Exception e) {
       env.logJobError("Failed to get existing contacts from Mailchimp: {}", e.getMessage());
@@ -74,36 +114,121 @@ public class MailchimpCommunicationService extends AbstractCommunicationService
     return existingContacts;
   }
 
+  // Members edited within Mailchimp may no longer match what we last pushed, so they need to be sent again. Our own
+  // upserts also show up as changed, so only members whose status or tags differ from the snapshot count. Merge
+  // fields edited within Mailchimp aren't tracked, and are overwritten the next time the CRM side changes.
+  protected void clearEditedFingerprints(EnvironmentConfig.CommunicationList list, boolean rebuild,
+      List<AudienceMember> changedMembers) {
+    if (rebuild) {
+      env.contactFingerprintService().clearFingerprints(name(), list.id);
+      return;
+    }
+
+    Map<String, AudienceMember> snapshotMembers = env.audienceSnapshotService()
+        .getMembers(name(), list.id, changedMembers.stream().map(member -> member.email).toList())
+        .stream().collect(Collectors.toMap(member -> member.email, Function.identity(), (a, b) -> a));
+    Set<String> editedEmails = changedMembers.stream()
+        .filter(member -> {
+          AudienceMember snapshotMember = snapshotMembers.get(member.email);
+          return snapshotMember == null || !Objects.equals(snapshotMember.status, member.status)
+              || !AudienceSnapshotService.getTags(snapshotMember).equals(AudienceSnapshotService.getTags(member));
+        })
+        .map(member -> member.email)
+        .collect(Collectors.toSet());
+    env.contactFingerprintService().clearFingerprints(name(), list.id, editedEmails);
+  }
+
+  /**
+   * The next sync downloads each list's entire audience again, replacing the local snapshot. Needed only if the snapshot
+   * has drifted, since incremental refreshes can't see members permanently deleted within Mailchimp.
+   */
+  public void rebuildAudienceSnapshots() {
+    for (EnvironmentConfig.CommunicationPlatform config : getPlatformConfigs()) {
+      for (EnvironmentConfig.CommunicationList list : config.lists) {
+        env.audienceSnapshotService().requestRebuild(name(), list.id);
+      }
+    }
+  }
+
   @Override
   protected void executeBatchUpsert(List<CrmContact> contacts,
       Map<String, Map<String, Object>> customFields, Map<String, Set<String>> tags,
       ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
       EnvironmentConfig.CommunicationList list) throws Exception {
+    executeConfirmedBatchUpsert(contacts, customFields, tags, existingContacts, config, list);
+  }
+
+  @Override
+  protected Set<String> executeConfirmedBatchUpsert(List<CrmContact> contacts,
+      Map<String, Map<String, Object>> customFields, Map<String, Set<String>> tags,
+      ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
+      EnvironmentConfig.CommunicationList list) throws Exception {
     MailchimpClient mailchimpClient = env.mailchimpClient(config);
 
     try {
       // Run the actual contact upserts
       List<MemberInfo> upsertMemberInfos = toMcMemberInfos(list, config, contacts, customFields);
       String upsertBatchId = mailchimpClient.upsertContactsBatch(list.id, upsertMemberInfos);
-      mailchimpClient.runBatchOperations(config, upsertBatchId, 0);
+      MailchimpClient.BatchResult upsertResult = mailchimpClient.runBatchOperations(config, upsertBatchId, 0);
 
-      // Update all contacts' tags
+      // Update all contacts' tags, tracking what each contact's tags will be once the batch runs (for the audience snapshot)
+      Map<String, Set<String>> resultingTags = new HashMap<>();
       List<MailchimpClient.TaggedContact> taggedContacts = contacts.stream()
           .map(crmContact -> {
             String email = crmContact.email.toLowerCase(Locale.ROOT);
             Set<String> activeTags = tags.get(email);
             Set<String> existingTags = existingContacts.emailsToTags.getOrDefault(email, new HashSet<>());
+            Set<String> contactTags = new HashSet<>(existingTags);
+            if (activeTags != null) {
+              contactTags.addAll(activeTags);
+            }
+            resultingTags.put(email, contactTags);
             return new MailchimpClient.TaggedContact(crmContact.email, activeTags, existingTags);
           })
           .collect(Collectors.toList());
       String tagsBatchId = updateTagsBatch(list.id, taggedContacts, mailchimpClient, config);
-      mailchimpClient.runBatchOperations(config, tagsBatchId, 0);
+      MailchimpClient.BatchResult tagsResult = mailchimpClient.runBatchOperations(config, tagsBatchId, 0);
+
+      Set<String> confirmedEmails = getConfirmedEmails(contacts, upsertResult, tagsResult);
+
+      // updateTagsBatch narrowed each contact's inactive tags down to the ones actually removed
+      recordSnapshotChanges(list, taggedContacts.stream()
+          .filter(taggedContact -> confirmedEmails.contains(taggedContact.email().toLowerCase(Locale.ROOT)))
+          .map(taggedContact -> {
+            String email = taggedContact.email().toLowerCase(Locale.ROOT);
+            Set<String> contactTags = resultingTags.get(email);
+            if (taggedContact.inactiveTags() != null) {
+              contactTags.removeAll(taggedContact.inactiveTags());
+            }
+            // existing members keep their status (ie, unsubscribed), new ones are subscribed
+            String status = existingContacts.emailsToIds.containsKey(email) ? null : SUBSCRIBED;
+            return AudienceSnapshotService.toAudienceMember(email, status, contactTags);
+          })
+          .toList());
+
+      return confirmedEmails;
     } catch (MailchimpException e) {
       env.logJobWarn("Mailchimp executeBatchUpsert failed: {}", mailchimpClient.exceptionToString(e));
       throw e;
     }
   }
 
+  // Tag operations don't identify their contacts in the batch results, so any tag failure leaves the whole batch
+  // unconfirmed. Failed upserts are narrowed down to the contacts they belong to.
+  protected Set<String> getConfirmedEmails(List<CrmContact> contacts, MailchimpClient.BatchResult upsertResult,
+      MailchimpClient.BatchResult tagsResult) {
+    if (!upsertResult.finished() || !tagsResult.isSuccessful()) {
+      return Set.of();
+    }
+    if (upsertResult.isSuccessful()) {
+      return contacts.stream().map(crmContact -> crmContact.email.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+    }
+    return upsertResult.operations().stream()
+        .filter(operation -> operation.status != null && operation.status < 300 && operation.response != null && operation.response.email != null)
+        .map(operation -> operation.response.email.toLowerCase(Locale.ROOT))
+        .collect(Collectors.toSet());
+  }
+
   // Originally, we simply called syncContacts/executeBatchUpsert and made use of existing functions. But that unfortunately
   //  does things like download ALL contacts from the audiences. Instead, we copy and paste the process here,
   //  stripping out the full sync and only pushing in the contact's new tags. We skip removing old tags --
@@ -136,6 +261,22 @@ public class MailchimpCommunicationService extends AbstractCommunicationService
     MailchimpClient mailchimpClient = env.mailchimpClient(config);
     String archiveBatchId = mailchimpClient.archiveContactsBatch(list.id, emails);
     mailchimpClient.runBatchOperations(config, archiveBatchId, 0);
+
+    recordSnapshotChanges(list, emails.stream()
+        .map(email -> AudienceSnapshotService.toAudienceMember(email, ARCHIVED, null))
+        .toList());
+  }
+
+  // Keeps the audience snapshot in step with what we just pushed. Best effort: at worst, the next refresh catches it.
+  protected void recordSnapshotChanges(EnvironmentConfig.CommunicationList list, List<AudienceMember> members) {
+    if (!env.getConfig().isDatabaseConnected()) {
+      return;
+    }
+    try {
+      env.audienceSnapshotService().recordChanges(name(), list.id, members);
+    } catch (Exception e) {
+      env.logJobWarn("failed to update the audience snapshot for list {}", list.id, e);
+    }
   }
 
   @Override
@@ -162,11 +303,14 @@ public class MailchimpCommunicationService extends AbstractCommunicationService
     Map<String, Object> customFieldMap = new HashMap<>();
 
     List<CustomField> customFields = buildContactCustomFields(crmContact, config, list);
-    if (mergeFieldsNameToTag.isEmpty()) {
+    Map<String, String> mergeFieldsNameToTag = mergeFieldsNameToTagByList.get(list.id);
+    if (mergeFieldsNameToTag == null) {
+      mergeFieldsNameToTag = new ConcurrentHashMap<>();
       List<MergeFieldInfo> mergeFields = mailchimpClient.getMergeFields(list.id);
       for (MergeFieldInfo mergeField : mergeFields) {
         mergeFieldsNameToTag.put(mergeField.name, mergeField.tag);
       }
+      mergeFieldsNameToTagByList.put(list.id, mergeFieldsNameToTag);
     }
     for (CustomField customField : customFields) {
       if (customField.value == null) {
@@ -204,8 +348,8 @@ public class MailchimpCommunicationService extends AbstractCommunicationService
 
   @Override
   protected void prepareBatchProcessing(EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
-    // Clear the cache since fields differ between audiences - done once per communication list
-    mergeFieldsNameToTag.clear();
+    // Refresh the audience's fields - done once per communication list
+    mergeFieldsNameToTagByList.remove(list.id);
   }
 
   protected Set<String> getEmails(List<MemberInfo> memberInfos) {
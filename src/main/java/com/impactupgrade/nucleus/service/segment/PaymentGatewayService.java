@@ -11,12 +11,19 @@ import com.impactupgrade.nucleus.model.PaymentGatewayTransaction;
 
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface PaymentGatewayService extends SegmentService {
 
   List<PaymentGatewayTransaction> getTransactions(Date startDate, Date endDate) throws Exception;
   List<PaymentGatewayDeposit> getDeposits(Date startDate, Date endDate) throws Exception;
 
+  // Same as getDeposits, but hands each one (oldest first) to the consumer as it's built, rather than holding the whole
+  // range in memory. By default, simply walks the list.
+  default void forEachDeposit(Date startDate, Date endDate, Consumer<PaymentGatewayDeposit> consumer) throws Exception {
+    getDeposits(startDate, endDate).forEach(consumer);
+  }
+
   List<PaymentGatewayEvent> verifyCharges(Date startDate, Date endDate);
 //  void verifyCharge(String id) throws Exception;
   void verifyAndReplayCharge(String id) throws Exception;
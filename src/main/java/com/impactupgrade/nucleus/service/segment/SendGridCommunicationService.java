@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmAddress;
 import com.impactupgrade.nucleus.model.CrmContact;
 import com.sendgrid.Method;
 import com.sendgrid.Request;
@@ -120,6 +121,18 @@ public class SendGridCommunicationService extends AbstractCommunicationService {
     return new HashMap<>();
   }
 
+  @Override
+  protected void addFingerprintParts(List<Object> parts, CrmContact crmContact,
+      EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+    // see toSendGridContact
+    CrmAddress mailingAddress = crmContact.mailingAddress;
+    parts.add(mailingAddress == null ? null : mailingAddress.street);
+    parts.add(mailingAddress == null ? null : mailingAddress.city);
+    parts.add(mailingAddress == null ? null : mailingAddress.state);
+    parts.add(mailingAddress == null ? null : mailingAddress.postalCode);
+    parts.add(mailingAddress == null ? null : mailingAddress.country);
+  }
+
   protected Contact toSendGridContact(CrmContact crmContact, List<String> campaignNames,
       Map<String, String> customFieldsByName, SendGrid sendgridClient,
       EnvironmentConfig.CommunicationPlatform communicationPlatform,
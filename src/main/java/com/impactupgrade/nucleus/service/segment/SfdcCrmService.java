@@ -6,7 +6,6 @@ package com.impactupgrade.nucleus.service.segment;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.impactupgrade.nucleus.client.SfdcClient;
@@ -75,10 +74,13 @@ public class SfdcCrmService implements CrmService {
   protected SfdcMetadataClient sfdcMetadataClient;
 
   // Globally scoped, since these are expensive calls that we want to minimize overall.
-  protected static Cache<String, Map<String, String>> objectFieldsCache = CacheUtil.buildManualCache();
+  protected static final CacheUtil.Deferred<Cache<String, Map<String, String>>> objectFieldsCache =
+      CacheUtil.builder("sfdc-object-fields").buildOnFirstUse(CacheUtil.Builder::buildManual);
 
-  // Simply scoped to the service/environment/request, since it's more of a per-flow optimization (primarily for Bulk Upsert).
-  protected LoadingCache<String, String> recordTypeNameToIdCache;
+  // Also global, keyed by apiKey like the above. A cache per service instance (ie, per request) would be rebuilt, and
+  // replace the last one in CacheUtil's registry, on every request.
+  protected static final CacheUtil.Deferred<Cache<String, String>> recordTypeNameToIdCache =
+      CacheUtil.builder("sfdc-record-types").maximumSize(1_000).buildOnFirstUse(CacheUtil.Builder::buildManual);
 
   @Override
   public String name() { return "salesforce"; }
@@ -93,15 +95,6 @@ public class SfdcCrmService implements CrmService {
     this.env = env;
     this.sfdcClient = env.sfdcClient();
     this.sfdcMetadataClient = env.sfdcMetadataClient();
-
-    recordTypeNameToIdCache = CacheUtil.buildLoadingCache(recordTypeName -> {
-      try {
-        return sfdcClient.getRecordTypeByName(recordTypeName).map(SObject::getId).orElse(null);
-      } catch (Exception e) {
-        env.logJobError("unable to fetch record type {}", recordTypeName, e);
-        return null;
-      }
-    });
   }
 
   @Override
@@ -145,11 +138,10 @@ public class SfdcCrmService implements CrmService {
   }
 
   @Override
-  // currentPageToken assumed to be the offset index
+  // currentPageToken is an SfdcPageToken, or a legacy offset index
   public PagedResults<CrmContact> searchContacts(ContactSearch contactSearch) throws InterruptedException, ConnectionException {
-    List<SObject> results = sfdcClient.searchContacts(contactSearch);
-    PagedResults<SObject> pagedResults = PagedResults.pagedResultsFromCurrentOffset(results, contactSearch);
-    return toCrmContact(pagedResults);
+    PagedResults.ResultSet<SObject> resultSet = sfdcClient.searchContactsPaged(contactSearch);
+    return toCrmContact(new PagedResults<>(resultSet));
   }
 
   @Override
@@ -590,6 +582,73 @@ public class SfdcCrmService implements CrmService {
     for (String fieldName : crmContact.crmRawFieldsToSet.keySet()) {
       contact.setField(fieldName, crmContact.crmRawFieldsToSet.get(fieldName));
     }
+
+    setNormalizedPhoneFields(contact);
+  }
+
+  // Keeps the searchable shadow copies in step with whichever phone fields this update is setting.
+  protected void setNormalizedPhoneFields(SObject contact) {
+    if (!env.getConfig().salesforce.normalizedPhoneSearch) {
+      return;
+    }
+    List<String> fieldsToNull = contact.getFieldsToNull() == null ? List.of() : Arrays.asList(contact.getFieldsToNull());
+    for (Map.Entry<String, String> phoneField : sfdcClient.getNormalizedPhoneFields().entrySet()) {
+      Object phone = contact.getField(phoneField.getKey());
+      String normalizedPhone = phone == null ? null : Utils.normalizePhoneNumber(phone.toString());
+      if (normalizedPhone != null) {
+        contact.setField(phoneField.getValue(), normalizedPhone);
+      } else if (phone != null || fieldsToNull.contains(phoneField.getKey())) {
+        // replaced by something we can't normalize, or cleared -- either way, the old shadow copy is stale
+        addFieldToNull(contact, phoneField.getValue());
+      }
+    }
+  }
+
+  /**
+   * Creates the indexed shadow fields behind salesforce.normalizedPhoneSearch.
+   */
+  public void provisionNormalizedPhoneFields() throws Exception {
+    for (Map.Entry<String, String> phoneField : sfdcClient.getNormalizedPhoneFields().entrySet()) {
+      sfdcMetadataClient.createExternalIdField("Contact", phoneField.getValue(), phoneField.getKey() + " (Normalized)", 16);
+    }
+  }
+
+  /**
+   * Brings every contact's normalized phones up to date through the Bulk API, including those set outside of Nucleus.
+   * Returns the number of contacts updated.
+   */
+  public int backfillNormalizedPhones() throws Exception {
+    List<String> phoneFields = List.copyOf(sfdcClient.getNormalizedPhoneFields().keySet());
+    List<String> normalizedFields = List.copyOf(sfdcClient.getNormalizedPhoneFields().values());
+
+    List<String> fields = new ArrayList<>(phoneFields);
+    fields.addAll(normalizedFields);
+    String query = "SELECT Id, " + String.join(", ", fields) + " FROM Contact WHERE "
+        + fields.stream().map(field -> field + " != NULL").collect(Collectors.joining(" OR "));
+
+    List<Map<String, String>> rows = new ArrayList<>();
+    try (Stream<SObject> contacts = sfdcClient.queryStream(query)) {
+      contacts.forEach(contact -> {
+        Map<String, String> row = new HashMap<>();
+        for (int i = 0; i < phoneFields.size(); i++) {
+          Object phone = contact.getField(phoneFields.get(i));
+          String normalizedPhone = phone == null ? null : Utils.normalizePhoneNumber(phone.toString());
+          String existingNormalizedPhone = (String) contact.getField(normalizedFields.get(i));
+          if (!Objects.equals(Strings.emptyToNull(existingNormalizedPhone), normalizedPhone)) {
+            // #N/A clears the field in the Bulk API
+            row.put(normalizedFields.get(i), normalizedPhone == null ? "#N/A" : normalizedPhone);
+          }
+        }
+        if (!row.isEmpty()) {
+          row.put("Id", contact.getId());
+          rows.add(row);
+        }
+      });
+    }
+
+    env.logJobInfo("updating normalized phones on {} contacts", rows.size());
+    env.sfdcBulkClient().updateRecords("Contact", normalizedFields, rows);
+    return rows.size();
   }
 
   @Override
@@ -643,6 +702,23 @@ public class SfdcCrmService implements CrmService {
 
   protected String processNewDonation(Optional<SObject> campaign, String recurringDonationId,
       CrmDonation crmDonation) throws Exception {
+    return sfdcClient.insert(toNewOpportunity(campaign, recurringDonationId, crmDonation)).getId();
+  }
+
+  // The Opportunity's ID isn't known until batchFlush, so donations to a recurring donation (which may instead need to
+  // close out its pledged Opportunity) still go through insertDonation.
+  @Override
+  public void batchInsertDonation(CrmDonation crmDonation) throws Exception {
+    if (!Strings.isNullOrEmpty(crmDonation.recurringDonation.id)) {
+      insertDonation(crmDonation);
+      return;
+    }
+
+    sfdcClient.batchInsert(toNewOpportunity(getCampaignOrDefault(crmDonation), null, crmDonation));
+  }
+
+  protected SObject toNewOpportunity(Optional<SObject> campaign, String recurringDonationId,
+      CrmDonation crmDonation) throws Exception {
     SObject opportunity = new SObject("Opportunity");
 
     opportunity.setField("AccountId", crmDonation.account.id);
@@ -651,7 +727,7 @@ public class SfdcCrmService implements CrmService {
 
     setOpportunityFields(opportunity, campaign, crmDonation);
 
-    return sfdcClient.insert(opportunity).getId();
+    return opportunity;
   }
 
   protected void setOpportunityFields(SObject opportunity, Optional<SObject> campaign, CrmDonation crmDonation) throws Exception {
@@ -904,7 +980,7 @@ public class SfdcCrmService implements CrmService {
     if (!Strings.isNullOrEmpty(crmCampaign.recordTypeId)) {
       campaign.setField("RecordTypeId", crmCampaign.recordTypeId);
     } else if (!Strings.isNullOrEmpty(crmCampaign.recordTypeName)) {
-      campaign.setField("RecordTypeId", recordTypeNameToIdCache.get(crmCampaign.recordTypeName));
+      campaign.setField("RecordTypeId", getRecordTypeId(crmCampaign.recordTypeName));
     }
 
     for (String fieldName : crmCampaign.crmRawFieldsToSet.keySet()) {
@@ -1141,7 +1217,7 @@ public class SfdcCrmService implements CrmService {
   public Map<String, String> getFieldOptions(String object) throws Exception {
     // include the apiKey for multitenant arenas, like nucleus-core
     String cacheKey = env.getConfig().apiKey + "_" + object;
-    return objectFieldsCache.get(cacheKey, () -> {
+    return objectFieldsCache.get(env.getConfig()).get(cacheKey, () -> {
       try {
         return sfdcMetadataClient.getObjectFields(object);
       } catch (Exception e) {
@@ -1151,6 +1227,19 @@ public class SfdcCrmService implements CrmService {
     });
   }
 
+  protected String getRecordTypeId(String recordTypeName) throws ExecutionException {
+    // include the apiKey for multitenant arenas, like nucleus-core
+    String cacheKey = env.getConfig().apiKey + "_" + recordTypeName;
+    return recordTypeNameToIdCache.get(env.getConfig()).get(cacheKey, () -> {
+      try {
+        return sfdcClient.getRecordTypeByName(recordTypeName).map(SObject::getId).orElse(null);
+      } catch (Exception e) {
+        env.logJobError("unable to fetch record type {}", recordTypeName, e);
+        return null;
+      }
+    });
+  }
+
   @Override
   public double getDonationsTotal(String filter) throws Exception {
     if (Strings.isNullOrEmpty(filter)) {
@@ -1349,20 +1438,23 @@ public class SfdcCrmService implements CrmService {
 
     Set<String> seenRelationships = new HashSet<>();
     if (env.getConfig().salesforce.npsp) {
-      List<SObject> relationships = sfdcClient.queryListAutoPaged("SELECT npe5__Contact__c, npe5__Organization__c FROM npe5__Affiliation__c WHERE npe5__Contact__c!='' AND npe5__Organization__c!=''");
-      for (SObject relationship : relationships) {
-        String from = (String) relationship.getField("npe5__Contact__c");
-        String to = (String) relationship.getField("npe5__Organization__c");
-        seenRelationships.add(from + "::" + to);
-        seenRelationships.add(to + "::" + from);
+      // can be a massive list, so stream it rather than holding every SObject
+      try (Stream<SObject> relationships = sfdcClient.queryStream("SELECT npe5__Contact__c, npe5__Organization__c FROM npe5__Affiliation__c WHERE npe5__Contact__c!='' AND npe5__Organization__c!=''")) {
+        relationships.forEach(relationship -> {
+          String from = (String) relationship.getField("npe5__Contact__c");
+          String to = (String) relationship.getField("npe5__Organization__c");
+          seenRelationships.add(from + "::" + to);
+          seenRelationships.add(to + "::" + from);
+        });
       }
     } else {
-      List<SObject> relationships = sfdcClient.queryListAutoPaged("SELECT ContactId, AccountId FROM AccountContactRelation WHERE ContactId!='' AND AccountId!=''");
-      for (SObject relationship : relationships) {
-        String from = (String) relationship.getField("ContactId");
-        String to = (String) relationship.getField("AccountId");
-        seenRelationships.add(from + "::" + to);
-        seenRelationships.add(to + "::" + from);
+      try (Stream<SObject> relationships = sfdcClient.queryStream("SELECT ContactId, AccountId FROM AccountContactRelation WHERE ContactId!='' AND AccountId!=''")) {
+        relationships.forEach(relationship -> {
+          String from = (String) relationship.getField("ContactId");
+          String to = (String) relationship.getField("AccountId");
+          seenRelationships.add(from + "::" + to);
+          seenRelationships.add(to + "::" + from);
+        });
       }
     }
 
@@ -1973,7 +2065,7 @@ public class SfdcCrmService implements CrmService {
     if (!Strings.isNullOrEmpty(importEvent.contactRecordTypeId)) {
       contact.setField("RecordTypeId", importEvent.contactRecordTypeId);
     } else if (!Strings.isNullOrEmpty(importEvent.contactRecordTypeName)) {
-      contact.setField("RecordTypeId", recordTypeNameToIdCache.get(importEvent.contactRecordTypeName));
+      contact.setField("RecordTypeId", getRecordTypeId(importEvent.contactRecordTypeName));
     }
 
     setCustomBulkValue(contact, "Salutation", importEvent.contactSalutation);
@@ -2055,6 +2147,8 @@ public class SfdcCrmService implements CrmService {
     setCustomBulkValue(contact, "OwnerId", importEvent.contactOwnerId);
 
     setBulkImportCustomFields(contact, existingContact, "Contact", importEvent.raw);
+
+    setNormalizedPhoneFields(contact);
   }
 
   protected void setBulkImportAccountFields(SObject account, SObject existingAccount, CrmAccount crmAccount, String columnPrefix, CrmImportEvent importEvent)
@@ -2062,7 +2156,7 @@ public class SfdcCrmService implements CrmService {
     if (!Strings.isNullOrEmpty(crmAccount.recordTypeId)) {
       account.setField("RecordTypeId", crmAccount.recordTypeId);
     } else if (!Strings.isNullOrEmpty(crmAccount.recordTypeName)) {
-      account.setField("RecordTypeId", recordTypeNameToIdCache.get(crmAccount.recordTypeName));
+      account.setField("RecordTypeId", getRecordTypeId(crmAccount.recordTypeName));
     }
 
     // IMPORTANT: Only do this if this is an insert, IE existingAccount == null. Setting an explicit name on an
@@ -2228,7 +2322,7 @@ public class SfdcCrmService implements CrmService {
     if (!Strings.isNullOrEmpty(importEvent.opportunityRecordTypeId)) {
       opportunity.setField("RecordTypeId", importEvent.opportunityRecordTypeId);
     } else if (!Strings.isNullOrEmpty(importEvent.opportunityRecordTypeName)) {
-      opportunity.setField("RecordTypeId", recordTypeNameToIdCache.get(importEvent.opportunityRecordTypeName));
+      opportunity.setField("RecordTypeId", getRecordTypeId(importEvent.opportunityRecordTypeName));
     }
     if (!Strings.isNullOrEmpty(importEvent.opportunityName)) {
       // 120 is typically the max length
@@ -2318,7 +2412,7 @@ public class SfdcCrmService implements CrmService {
       if (!Strings.isNullOrEmpty(importEvent.campaignRecordTypeId)) {
         campaign.setField("RecordTypeId", importEvent.campaignRecordTypeId);
       } else if (!Strings.isNullOrEmpty(importEvent.campaignRecordTypeName)) {
-        campaign.setField("RecordTypeId", recordTypeNameToIdCache.get(importEvent.campaignRecordTypeName));
+        campaign.setField("RecordTypeId", getRecordTypeId(importEvent.campaignRecordTypeName));
       }
 
       if (!Strings.isNullOrEmpty(importEvent.campaignId)) {
@@ -2389,19 +2483,25 @@ public class SfdcCrmService implements CrmService {
     else if ("x".equalsIgnoreCase(value.toString())) {
       sObject.setField(key, true);
     } else if ("CLEAR IT".equalsIgnoreCase(value.toString()) || "CLEARIT".equalsIgnoreCase(value.toString())) {
-      String[] fieldsToNull = sObject.getFieldsToNull();
-      if (fieldsToNull == null) {
-        fieldsToNull = new String[1];
-      } else {
-        fieldsToNull = Arrays.copyOf(fieldsToNull, fieldsToNull.length + 1);
-      }
-      fieldsToNull[fieldsToNull.length - 1] = key;
-      sObject.setFieldsToNull(fieldsToNull);
+      addFieldToNull(sObject, key);
     } else {
       sObject.setField(key, value);
     }
   }
 
+  protected void addFieldToNull(SObject sObject, String key) {
+    String[] fieldsToNull = sObject.getFieldsToNull();
+    if (fieldsToNull == null) {
+      fieldsToNull = new String[1];
+    } else if (Arrays.asList(fieldsToNull).contains(key)) {
+      return;
+    } else {
+      fieldsToNull = Arrays.copyOf(fieldsToNull, fieldsToNull.length + 1);
+    }
+    fieldsToNull[fieldsToNull.length - 1] = key;
+    sObject.setFieldsToNull(fieldsToNull);
+  }
+
   protected String getStringField(XmlObject sObject, String name) {
     // Optional field names may not be configured in env.json, so ensure we actually have a name first...
     if (Strings.isNullOrEmpty(name)) {
@@ -5,8 +5,6 @@
 package com.impactupgrade.nucleus.service.segment;
 
 import com.google.common.base.Strings;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.impactupgrade.nucleus.client.MSGraphClient;
 import com.impactupgrade.nucleus.environment.Environment;
@@ -27,6 +25,7 @@ import com.impactupgrade.nucleus.model.CrmRecurringDonation;
 import com.impactupgrade.nucleus.model.CrmUser;
 import com.impactupgrade.nucleus.model.ManageDonationEvent;
 import com.impactupgrade.nucleus.model.PagedResults;
+import com.impactupgrade.nucleus.util.CacheUtil;
 import com.impactupgrade.nucleus.util.Utils;
 import com.microsoft.graph.models.Site;
 import org.apache.commons.collections.CollectionUtils;
@@ -45,8 +44,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -83,14 +80,11 @@ public class SharePointCrmService implements CrmService {
         this.env = env;
         msGraphClient = new MSGraphClient(env);
         if (sharepointCsvCache == null && !DISABLE_SHAREPOINT_CACHE) {
-            sharepointCsvCache = CacheBuilder.newBuilder()
-                .refreshAfterWrite(5, TimeUnit.MINUTES)
-                .build(CacheLoader.asyncReloading(new CacheLoader<>() {
-                    @Override
-                    public Map<String, List<Map<String, String>>> load(String cacheKey) {
-                        return downloadCsvDataMap();
-                    }
-                }, Executors.newSingleThreadExecutor()));
+            // single key (CACHE_KEY)
+            sharepointCsvCache = CacheUtil.builder("sharepoint-csv")
+                .maximumSize(1)
+                .config(env.getConfig())
+                .buildLoading(cacheKey -> downloadCsvDataMap());
             // warm the cache
             if (!DISABLE_SHAREPOINT_CACHE) {
                 getCsvDataMap();
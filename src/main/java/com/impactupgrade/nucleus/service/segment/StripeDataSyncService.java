@@ -1,27 +1,41 @@
 package com.impactupgrade.nucleus.service.segment;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.impactupgrade.nucleus.client.StripeClient;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.model.CrmAccount;
 import com.impactupgrade.nucleus.model.CrmAddress;
 import com.impactupgrade.nucleus.model.CrmContact;
 import com.impactupgrade.nucleus.model.PagedResults;
-import com.stripe.exception.RateLimitException;
+import com.impactupgrade.nucleus.util.ApiThrottle;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Address;
 import com.stripe.model.Customer;
 import com.stripe.param.CustomerUpdateParams;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class StripeDataSyncService implements DataSyncService {
 
+  protected static final int UPDATE_THREADS = 4;
+  protected static final int UPDATE_QUEUE_SIZE = 100;
+
   protected Environment env;
+  protected StripeClient stripeClient;
 
-  protected static final Integer RATE_LIMIT_EXCEPTION_TIMEOUT_SECONDS = 5;
-  protected static final Integer RATE_LIMIT_MAX_RETRIES = 3;
+  // Per sync. See syncContacts(Calendar).
+  protected Map<String, List<Customer>> customerIndex;
+  protected ThreadPoolExecutor updateExecutor;
 
   @Override
   public String name() {
@@ -36,6 +50,8 @@ public class StripeDataSyncService implements DataSyncService {
   @Override
   public void init(Environment env) {
     this.env = env;
+    // rate limits are handled by the client's throttle, shared with everything else using the account
+    this.stripeClient = env.stripeClient();
   }
 
   @Override
@@ -43,7 +59,39 @@ public class StripeDataSyncService implements DataSyncService {
     if (!env.getConfig().stripe.enableContactSync) {
       return;
     }
+    // the client's throttle is shared by the account for the life of the process, so only report this sync's share
+    Map<String, ApiThrottle.Metrics> throttleSnapshot = stripeClient.getThrottle().snapshot();
+
+    // Bulk mode lists every Stripe customer once up front, rather than searching Stripe for each contact. Far fewer
+    // calls for large syncs, but more than a handful of searches when only a few donors changed.
+    if (env.getConfig().stripe.bulkContactSync) {
+      customerIndex = indexCustomers();
+    }
+    // Updates run in the background while the CRM pages through. If they fall behind, the queue fills and the pager
+    // does updates itself until they catch up.
+    updateExecutor = new ThreadPoolExecutor(
+        UPDATE_THREADS,
+        UPDATE_THREADS,
+        0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(UPDATE_QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("stripe-customer-sync-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.CallerRunsPolicy()
+    );
+    try {
+      syncCrmContacts(updatedAfter);
+    } finally {
+      updateExecutor.shutdown();
+      if (!updateExecutor.awaitTermination(1, TimeUnit.HOURS)) {
+        env.logJobWarn("{}/syncContacts gave up waiting on customer updates", this.name());
+      }
+      updateExecutor = null;
+      customerIndex = null;
+    }
+
+    env.logJobInfo("{}/syncContacts Stripe API: {}", this.name(), stripeClient.getThrottle().metricsSince(throttleSnapshot));
+  }
 
+  protected void syncCrmContacts(Calendar updatedAfter) throws Exception {
     PagedResults<CrmContact> contactPagedResults = env.primaryCrmService().getDonorIndividualContacts(updatedAfter);
     for (PagedResults.ResultSet<CrmContact> resultSet : contactPagedResults.getResultSets()) {
       try {
@@ -113,6 +161,10 @@ public class StripeDataSyncService implements DataSyncService {
   protected void updateCustomer(CrmContact crmContact) throws Exception {
     List<Customer> existingCustomers = getCustomers(crmContact);
     for (Customer existingCustomer : existingCustomers) {
+      if (!isChanged(crmContact, existingCustomer)) {
+        continue;
+      }
+
       env.logJobInfo("updating contact {}, customer {}", crmContact.id, existingCustomer.getId());
       CustomerUpdateParams customerUpdateParams = CustomerUpdateParams.builder()
           .setName(crmContact.getFullName())
@@ -120,17 +172,63 @@ public class StripeDataSyncService implements DataSyncService {
           .setAddress(toUpdateAddress(crmContact.account.billingAddress))
           .setPhone(crmContact.mobilePhone)
           .build();
-      callWithRetries(() -> env.stripeClient().updateCustomer(existingCustomer, customerUpdateParams));
+      if (updateExecutor == null) {
+        stripeClient.updateCustomer(existingCustomer, customerUpdateParams);
+      } else {
+        updateExecutor.execute(() -> {
+          try {
+            stripeClient.updateCustomer(existingCustomer, customerUpdateParams);
+          } catch (Exception e) {
+            env.logJobError("{}/syncContacts failed: {}", this.name(), e);
+          }
+        });
+      }
     }
   }
 
   protected List<Customer> getCustomers(CrmContact crmContact) throws Exception {
-    if (!Strings.isNullOrEmpty(crmContact.email)) {
-      return callWithRetries(() -> env.stripeClient().getCustomersByEmail(crmContact.email));
-    } else {
+    if (Strings.isNullOrEmpty(crmContact.email)) {
       env.logJobInfo("Expected contact {} to have an email defined.", crmContact.getFullName());
       return Collections.emptyList();
     }
+
+    if (customerIndex != null) {
+      return customerIndex.getOrDefault(crmContact.email.toLowerCase(Locale.ROOT), Collections.emptyList());
+    }
+    return stripeClient.getCustomersByEmail(crmContact.email);
+  }
+
+  // Email (lowercase) -> customers, since Stripe allows several per email. Note that Stripe's own email search is
+  // case-sensitive, so this also matches customers whose emails were saved in mixed case.
+  protected Map<String, List<Customer>> indexCustomers() throws StripeException {
+    Map<String, List<Customer>> index = new HashMap<>();
+    int count = 0;
+    for (Customer customer : stripeClient.getAllCustomers()) {
+      count++;
+      if (!Strings.isNullOrEmpty(customer.getEmail())) {
+        index.computeIfAbsent(customer.getEmail().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(customer);
+      }
+    }
+    env.logJobInfo("{}/syncContacts indexed {} Stripe customers", this.name(), count);
+    return index;
+  }
+
+  // Whether the update would change anything. Null CRM values are left out of the update, so they never count.
+  protected boolean isChanged(CrmContact crmContact, Customer customer) {
+    CrmAddress crmAddress = crmContact.account.billingAddress;
+    Address address = customer.getAddress() == null ? new Address() : customer.getAddress();
+    return isChanged(crmContact.getFullName(), customer.getName())
+        || isChanged(crmContact.email.toLowerCase(Locale.ROOT), customer.getEmail())
+        || isChanged(crmContact.mobilePhone, customer.getPhone())
+        || isChanged(crmAddress.street, address.getLine1())
+        || isChanged(crmAddress.city, address.getCity())
+        || isChanged(crmAddress.state, address.getState())
+        || isChanged(crmAddress.postalCode, address.getPostalCode())
+        || isChanged(crmAddress.country, address.getCountry());
+  }
+
+  private boolean isChanged(String crmValue, String stripeValue) {
+    return crmValue != null && !crmValue.equals(Strings.nullToEmpty(stripeValue));
   }
 
   protected CustomerUpdateParams.Address toUpdateAddress(CrmAddress crmAddress) {
@@ -142,18 +240,4 @@ public class StripeDataSyncService implements DataSyncService {
         .setCountry(crmAddress.country)
         .build();
   }
-
-  protected <T> T callWithRetries(Callable<T> callable) throws Exception {
-    for (int i = 0; i <= RATE_LIMIT_MAX_RETRIES; i++) {
-      try {
-        return callable.call();
-      } catch (RateLimitException e) {
-        env.logJobWarn("API rate limit exceeded. Trying again after " + RATE_LIMIT_EXCEPTION_TIMEOUT_SECONDS + " seconds...");
-        Thread.sleep(RATE_LIMIT_EXCEPTION_TIMEOUT_SECONDS * 1000);
-      }
-    }
-    // Should be unreachable
-    env.logJobError("Failed to get API response after {} tries!", RATE_LIMIT_MAX_RETRIES);
-    return null;
-  }
 }
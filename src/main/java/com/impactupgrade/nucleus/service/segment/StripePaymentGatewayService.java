@@ -31,16 +31,27 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class StripePaymentGatewayService implements PaymentGatewayService {
 
+  protected static final int REPLAY_BATCH_SIZE = 100;
+  // See forEachOldestFirst. These are only the first window of each walk: charges can number in the thousands per day,
+  // while payouts are typically one per day. Later windows are sized to hold about WINDOW_TARGET_SIZE objects (10 pages).
+  protected static final long CHARGE_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+  protected static final long PAYOUT_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(30);
+  protected static final int WINDOW_TARGET_SIZE = 1000;
+  protected static final int MAX_WINDOW_GROWTH = 4;
+
   protected Environment env;
   protected StripeClient stripeClient;
   protected StripeObjectFilter stripeObjectFilter;
@@ -65,13 +76,19 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
   @Override
   public List<PaymentGatewayTransaction> getTransactions(Date startDate, Date endDate) throws Exception {
     List<PaymentGatewayTransaction> transactions = new ArrayList<>();
-    List<Charge> charges = new ArrayList<>();
-    // convert newest first oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
-    stripeClient.getAllCharges(startDate, endDate).forEach(c -> charges.add(0, c));
-    for (Charge charge : charges) {
+    forEachTransaction(startDate, endDate, transactions::add);
+    return transactions;
+  }
+
+  // Transactions from every gateway are merged and sorted by date for the report, so this isn't part of the
+  // PaymentGatewayService contract, but it still avoids building a second list of the raw charges.
+  public void forEachTransaction(Date startDate, Date endDate, Consumer<PaymentGatewayTransaction> consumer)
+      throws Exception {
+    // oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
+    forEachOldestFirst(startDate, endDate, CHARGE_WINDOW_MILLIS, stripeClient::getAllCharges, charge -> {
       if (Strings.isNullOrEmpty(charge.getBalanceTransaction())) {
         // hasn't been deposited yet, so skip it
-        continue;
+        return;
       }
 
       // avoid chargeToPaymentGatewayEvent since we don't need full details and it will attempt to fill everything
@@ -94,18 +111,21 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
           "https://dashboard.stripe.com/charges/" + charge.getId(),
           e.getAllMetadata()
       );
-      transactions.add(transaction);
-    }
-    return transactions;
+      consumer.accept(transaction);
+    });
   }
 
   @Override
   public List<PaymentGatewayDeposit> getDeposits(Date startDate, Date endDate) throws Exception {
     List<PaymentGatewayDeposit> deposits = new ArrayList<>();
-    List<Payout> payouts = stripeClient.getAllPayouts(startDate, endDate, 100);
-    // convert newest first oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
-    Collections.reverse(payouts);
-    for (Payout payout : payouts) {
+    forEachDeposit(startDate, endDate, deposits::add);
+    return deposits;
+  }
+
+  @Override
+  public void forEachDeposit(Date startDate, Date endDate, Consumer<PaymentGatewayDeposit> consumer) throws Exception {
+    // oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
+    forEachOldestFirst(startDate, endDate, PAYOUT_WINDOW_MILLIS, stripeClient::getAllPayouts, payout -> {
       env.logJobInfo("found payout {}", payout.getId());
       PaymentGatewayDeposit deposit = new PaymentGatewayDeposit();
 
@@ -120,9 +140,8 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
       deposit.setUrl("https://dashboard.stripe.com/payouts/" + payout.getId());
       deposit.setDate(c);
 
-      deposits.add(deposit);
-    }
-    return deposits;
+      consumer.accept(deposit);
+    });
   }
 
   @Override
@@ -131,24 +150,20 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
 
     try {
       SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd");
-      List<Charge> charges = new ArrayList<>();
-      // convert newest first oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
-      stripeClient.getBalanceTransactions(startDate, endDate).forEach(balanceTransaction -> {
+      int[] count = {0};
+      // oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
+      forEachOldestFirst(startDate, endDate, CHARGE_WINDOW_MILLIS, stripeClient::getBalanceTransactions, balanceTransaction -> {
         Charge charge = (Charge) balanceTransaction.getSourceObject();
-        charges.add(0, charge);
-      });
-      int count = 0;
-      for (Charge charge : charges) {
         if (!charge.getStatus().equalsIgnoreCase("succeeded")
             || charge.getPaymentIntentObject() != null && !charge.getPaymentIntentObject().getStatus().equalsIgnoreCase("succeeded")) {
-          continue;
+          return;
         }
         if (filter(charge)) {
           env.logJobInfo("Skipping Stripe object due to filteringExpressions...");
-          continue;
+          return;
         }
 
-        count++;
+        count[0]++;
 
         try {
           String paymentIntentId = charge.getPaymentIntent();
@@ -164,11 +179,11 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
           }
 
           if (donation.isEmpty()) {
-            env.logJobInfo("verify-charges," + count + ",MISSING," + transactionId + "," + SDF.format(charge.getCreated() * 1000));
+            env.logJobInfo("verify-charges," + count[0] + ",MISSING," + transactionId + "," + SDF.format(charge.getCreated() * 1000));
           } else if (donation.get().status != CrmDonation.Status.SUCCESSFUL) {
-            env.logJobInfo("verify-charges," + count + ",WRONG-STATE," + transactionId + "," + SDF.format(charge.getCreated() * 1000) + "," + donation.get().status);
+            env.logJobInfo("verify-charges," + count[0] + ",WRONG-STATE," + transactionId + "," + SDF.format(charge.getCreated() * 1000) + "," + donation.get().status);
           } else {
-            continue;
+            return;
           }
 
           // TODO: For now, avoiding this since it hits the Stripe API to fill in info.
@@ -182,7 +197,7 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
         } catch (Exception e) {
           env.logJobError("charge verify failed", e);
         }
-      }
+      });
     } catch (Exception e) {
       env.logJobError("charge verifies failed", e);
     }
@@ -226,41 +241,27 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
   @Override
   public void verifyAndReplayCharges(Date startDate, Date endDate) {
     try {
-      SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd");
-      List<Charge> charges = new ArrayList<>();
-      // convert newest first oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
-      stripeClient.getBalanceTransactions(startDate, endDate).forEach(balanceTransaction -> {
+      int[] count = {0};
+      // In batches, so that donors and existing donations are looked up (and new donations inserted) in bulk, rather
+      // than a round of CRM calls per charge. Each batch is replayed as soon as it fills.
+      List<PaymentGatewayEvent> paymentGatewayEvents = new ArrayList<>();
+      // oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
+      forEachOldestFirst(startDate, endDate, CHARGE_WINDOW_MILLIS, stripeClient::getBalanceTransactions, balanceTransaction -> {
         Charge charge = (Charge) balanceTransaction.getSourceObject();
-        charges.add(0, charge);
-      });
-      int count = 0;
-      int total = charges.size();
-      for (Charge charge : charges) {
-        count++;
-        env.logJobInfo("{} of {}", count, total);
+        count[0]++;
+        env.logJobInfo("charge {}", count[0]);
 
         if (!charge.getStatus().equalsIgnoreCase("succeeded")
             || charge.getPaymentIntentObject() != null && !charge.getPaymentIntentObject().getStatus().equalsIgnoreCase("succeeded")) {
-          continue;
+          return;
         }
         if (filter(charge)) {
           env.logJobInfo("Skipping Stripe object due to filteringExpressions...");
-          continue;
+          return;
         }
 
         try {
           String paymentIntentId = charge.getPaymentIntent();
-          String chargeId = charge.getId();
-//          Optional<CrmDonation> donation = Optional.empty();
-//          if (!Strings.isNullOrEmpty(paymentIntentId)) {
-//            donation = env.donationsCrmService().getDonationByTransactionId(paymentIntentId);
-//          }
-//          if (donation.isEmpty()) {
-//            donation = env.donationsCrmService().getDonationByTransactionId(chargeId);
-//          }
-//
-//          if (donation.isEmpty()) {
-//            env.logJobInfo("(" + count + ") MISSING: " + chargeId + "/" + paymentIntentId + " " + SDF.format(charge.getCreated() * 1000));
 
           PaymentGatewayEvent paymentGatewayEvent;
           if (Strings.isNullOrEmpty(paymentIntentId)) {
@@ -268,26 +269,41 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
           } else {
             paymentGatewayEvent = paymentIntentToPaymentGatewayEvent(charge.getPaymentIntentObject(), true);
           }
-          env.contactService().processDonor(paymentGatewayEvent);
-          env.donationService().processDonation(paymentGatewayEvent);
-//          }
+          paymentGatewayEvents.add(paymentGatewayEvent);
         } catch (Exception e) {
           env.logJobError("charge replay failed", e);
         }
-      }
+
+        if (paymentGatewayEvents.size() >= REPLAY_BATCH_SIZE) {
+          replayCharges(paymentGatewayEvents);
+          paymentGatewayEvents.clear();
+        }
+      });
+      replayCharges(paymentGatewayEvents);
     } catch (Exception e) {
       env.logJobError("charge replays failed", e);
     }
   }
 
+  protected void replayCharges(List<PaymentGatewayEvent> paymentGatewayEvents) {
+    if (paymentGatewayEvents.isEmpty()) {
+      return;
+    }
+
+    try {
+      env.contactService().processDonors(paymentGatewayEvents);
+      env.donationService().processDonations(paymentGatewayEvents);
+    } catch (Exception e) {
+      env.logJobError("charge replay failed", e);
+    }
+  }
+
   @Override
   public void verifyAndReplayDeposits(Date startDate, Date endDate) {
     try {
       SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd");
-      List<Payout> payouts = stripeClient.getAllPayouts(startDate, endDate, 100);
-      // convert newest first oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
-      Collections.reverse(payouts);
-      for (Payout payout : payouts) {
+      // oldest first -- SUPER important for accounting reconciliation, where sequential processing is needed
+      forEachOldestFirst(startDate, endDate, PAYOUT_WINDOW_MILLIS, stripeClient::getAllPayouts, payout -> {
         try {
           if ("paid".equalsIgnoreCase(payout.getStatus())) {
             env.logJobInfo(SDF.format(new Date(payout.getArrivalDate() * 1000)));
@@ -297,7 +313,7 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
         } catch (Exception e) {
           env.logJobError("deposit replay failed", e);
         }
-      }
+      });
     } catch (Exception e) {
       env.logJobError("deposit replays failed", e);
     }
@@ -458,6 +474,48 @@ public class StripePaymentGatewayService implements PaymentGatewayService {
     return paymentGatewayEvents;
   }
 
+  /**
+   * Stripe lists newest first, but the above need oldest first. Rather than pulling the whole range into memory and
+   * reversing it (or worse, inserting each at the front of a list), walk the range one window at a time, oldest window
+   * first, and reverse only that window. At most one window of objects is held at once.
+   *
+   * Each window costs at least one listing call, so a fixed window would be either too many calls for a quiet account
+   * or too many objects held for a busy one. Instead, each window is resized from the last one's count, aiming for
+   * about WINDOW_TARGET_SIZE objects. It grows at most MAX_WINDOW_GROWTH times per step, and never below one second.
+   */
+  protected <T> void forEachOldestFirst(Date startDate, Date endDate, long initialWindowMillis, StripeListing<T> listing,
+      StripeConsumer<T> consumer) throws Exception {
+    long windowSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(initialWindowMillis));
+    long windowStart = startDate.getTime();
+    while (windowStart <= endDate.getTime()) {
+      long windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+      // Stripe's date filters are inclusive and in seconds, so each window ends the second before the next one starts
+      Date windowEnd = new Date(Math.min(windowStart + windowMillis - 1000, endDate.getTime()));
+      Deque<T> window = new ArrayDeque<>();
+      for (T t : listing.list(new Date(windowStart), windowEnd)) {
+        window.push(t);
+      }
+      int windowSize = window.size();
+      while (!window.isEmpty()) {
+        consumer.accept(window.pop());
+      }
+
+      windowStart += windowMillis;
+      long resizedSeconds = windowSize == 0 ? Long.MAX_VALUE : windowSeconds * WINDOW_TARGET_SIZE / windowSize;
+      windowSeconds = Math.max(1, Math.min(resizedSeconds, windowSeconds * MAX_WINDOW_GROWTH));
+    }
+  }
+
+  @FunctionalInterface
+  protected interface StripeListing<T> {
+    Iterable<T> list(Date startDate, Date endDate) throws StripeException;
+  }
+
+  @FunctionalInterface
+  protected interface StripeConsumer<T> {
+    void accept(T t) throws Exception;
+  }
+
   // TODO: interface method?
   public boolean filter(StripeObject stripeObject) {
     return stripeObjectFilter.filter(stripeObject);
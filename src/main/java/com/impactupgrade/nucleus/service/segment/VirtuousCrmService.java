@@ -5,6 +5,7 @@
 package com.impactupgrade.nucleus.service.segment;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.impactupgrade.nucleus.client.VirtuousClient;
 import com.impactupgrade.nucleus.environment.Environment;
 import com.impactupgrade.nucleus.environment.EnvironmentConfig;
@@ -38,11 +39,17 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -50,6 +57,9 @@ public class VirtuousCrmService implements CrmService {
 
   private static final String DATE_FORMAT = "MM/dd/yyyy";
   private static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+  // number of (source AND id) groups per gift query
+  private static final int TRANSACTION_ID_BATCH_SIZE = 50;
+  private static final int MAX_CONCURRENT_REQUESTS = 5;
 
   private VirtuousClient virtuousClient;
   protected Environment env;
@@ -275,11 +285,25 @@ public class VirtuousCrmService implements CrmService {
   // Donations
   @Override
   public List<CrmDonation> getDonationsByTransactionIds(List<String> transactionIds) throws Exception {
-    // TODO: possible to query for the whole list at once?
     // TODO: For now, safe to assume Stripe here, but might need an interface change...
+    List<String> distinctTransactionIds = transactionIds.stream().distinct().toList();
+
+    Map<String, VirtuousClient.Gift> giftsByTransactionId = new HashMap<>();
+    for (List<String> batch : Lists.partition(distinctTransactionIds, TRANSACTION_ID_BATCH_SIZE)) {
+      List<VirtuousClient.Gift> gifts = virtuousClient.queryGiftsByTransactionSourceAndIds("stripe", batch);
+      if (gifts == null) {
+        env.logJobWarn("Virtuous gift query failed for {} transaction IDs; falling back to individual lookups", batch.size());
+        gifts = getGiftsByTransactionIdsIndividually("stripe", batch);
+      }
+      for (VirtuousClient.Gift gift : gifts) {
+        giftsByTransactionId.put(gift.transactionId, gift);
+      }
+    }
+
+    // Return in the same order as requested, regardless of how Virtuous sorted the query results.
     List<CrmDonation> donations = new ArrayList<>();
-    for (String transactionId : transactionIds) {
-      VirtuousClient.Gift gift = virtuousClient.getGiftByTransactionSourceAndId("stripe", transactionId);
+    for (String transactionId : distinctTransactionIds) {
+      VirtuousClient.Gift gift = giftsByTransactionId.get(transactionId);
       if (gift != null) {
         donations.add(asCrmDonation(gift));
       }
@@ -287,6 +311,37 @@ public class VirtuousCrmService implements CrmService {
     return donations;
   }
 
+  protected List<VirtuousClient.Gift> getGiftsByTransactionIdsIndividually(String transactionSource, List<String> transactionIds) throws Exception {
+    List<Callable<VirtuousClient.Gift>> lookups = transactionIds.stream()
+        .<Callable<VirtuousClient.Gift>>map(transactionId -> () -> virtuousClient.getGiftByTransactionSourceAndId(transactionSource, transactionId))
+        .toList();
+    return invokeAll(lookups).stream().filter(Objects::nonNull).toList();
+  }
+
+  // Virtuous has no bulk gift endpoints, so the per-record calls at least run on a small, bounded pool. Results are
+  // returned in the same order as the given tasks.
+  private <T> List<T> invokeAll(List<Callable<T>> tasks) throws Exception {
+    if (tasks.isEmpty()) {
+      return List.of();
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.min(tasks.size(), MAX_CONCURRENT_REQUESTS));
+    try {
+      List<T> results = new ArrayList<>();
+      for (Future<T> future : executorService.invokeAll(tasks)) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          env.logJobError("Virtuous request failed: {}", e.getCause().getMessage());
+          results.add(null);
+        }
+      }
+      return results;
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
   @Override
   public List<CrmDonation> getDonationsByCustomerId(String customerId) throws Exception {
     // TODO: Might be possible?
@@ -337,6 +392,7 @@ public class VirtuousCrmService implements CrmService {
 
   @Override
   public void insertDonationDeposit(List<CrmDonation> crmDonations) throws Exception {
+    List<Callable<VirtuousClient.Gift>> updates = new ArrayList<>();
     for (CrmDonation crmDonation : crmDonations) {
       VirtuousClient.Gift gift = (VirtuousClient.Gift) crmDonation.crmRawObject;
 
@@ -374,9 +430,10 @@ public class VirtuousCrmService implements CrmService {
           gift.customFields.add(customField);
         }
 
-        virtuousClient.updateGift(gift);
+        updates.add(() -> virtuousClient.updateGift(gift));
       }
     }
+    invokeAll(updates);
   }
 
   @Override
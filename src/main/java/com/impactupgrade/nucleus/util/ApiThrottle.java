@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Client-side rate limiting and retries for a rate limited API. Each call first takes a token from its kind's bucket
+ * (APIs typically limit reads and writes separately), waiting for one if the bucket is empty, so that bulk jobs pace
+ * themselves under the limit rather than repeatedly running into it. If the API rejects a call anyway (ie, other
+ * processes are using the same account), it's retried after the API's Retry-After hint or an exponential backoff with
+ * jitter, until the operation's budget (attempts and total time) runs out. Then the last error is thrown.
+ *
+ * Limits are per account, so one instance should be shared by everything using the same credentials (see
+ * StripeClient.throttle). Per-operation metrics are kept for the job logs.
+ */
+public class ApiThrottle {
+
+  public enum Kind {
+    READ, WRITE
+  }
+
+  public record Budget(int maxAttempts, Duration maxElapsed) {}
+
+  @FunctionalInterface
+  public interface Call<T, E extends Exception> {
+    T call() throws E;
+  }
+
+  @FunctionalInterface
+  public interface Sleeper {
+    void sleep(Duration duration) throws InterruptedException;
+  }
+
+  protected static final Duration BASE_BACKOFF = Duration.ofMillis(500);
+  protected static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+  protected static final Budget DEFAULT_READ_BUDGET = new Budget(6, Duration.ofMinutes(2));
+  // 429s are rejected before the write happens, so retrying them is safe -- but don't hold up the caller for as long
+  protected static final Budget DEFAULT_WRITE_BUDGET = new Budget(4, Duration.ofMinutes(1));
+
+  private final TokenBucket reads;
+  private final TokenBucket writes;
+  private final Predicate<Exception> retryable;
+  private final Function<Exception, Optional<Duration>> retryAfter;
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final Random random;
+  private final Map<String, Budget> budgets = new ConcurrentHashMap<>();
+  private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+  public ApiThrottle(double readsPerSecond, double writesPerSecond, Predicate<Exception> retryable,
+      Function<Exception, Optional<Duration>> retryAfter) {
+    this(readsPerSecond, writesPerSecond, retryable, retryAfter, Clock.systemUTC(),
+        duration -> Thread.sleep(duration.toMillis()), new Random());
+  }
+
+  // Tests can pass a fixed clock and a sleeper that advances it.
+  public ApiThrottle(double readsPerSecond, double writesPerSecond, Predicate<Exception> retryable,
+      Function<Exception, Optional<Duration>> retryAfter, Clock clock, Sleeper sleeper, Random random) {
+    this.reads = new TokenBucket(readsPerSecond, clock.instant());
+    this.writes = new TokenBucket(writesPerSecond, clock.instant());
+    this.retryable = retryable;
+    this.retryAfter = retryAfter;
+    this.clock = clock;
+    this.sleeper = sleeper;
+    this.random = random;
+  }
+
+  // Overrides the default budget for the kind. Ex: a nightly sync can afford to wait longer than a webhook.
+  public void setBudget(String operation, Budget budget) {
+    budgets.put(operation, budget);
+  }
+
+  public <T, E extends Exception> T call(String operation, Kind kind, Call<T, E> call) throws E {
+    Budget budget = budgets.getOrDefault(operation, kind == Kind.WRITE ? DEFAULT_WRITE_BUDGET : DEFAULT_READ_BUDGET);
+    Metrics operationMetrics = metrics.computeIfAbsent(operation, k -> new Metrics());
+    operationMetrics.calls.incrementAndGet();
+
+    Instant start = clock.instant();
+    for (int attempt = 1; ; attempt++) {
+      Duration throttled = (kind == Kind.WRITE ? writes : reads).reserve(clock.instant());
+      if (!throttled.isZero()) {
+        operationMetrics.throttledMillis.addAndGet(throttled.toMillis());
+        // if interrupted, go ahead rather than hang on (the flag is restored, for the caller to deal with)
+        sleep(throttled);
+      }
+
+      try {
+        operationMetrics.attempts.incrementAndGet();
+        return call.call();
+      } catch (Exception e) {
+        if (!retryable.test(e)) {
+          throw e;
+        }
+
+        operationMetrics.rejected.incrementAndGet();
+        Duration backoff = backoff(attempt, e);
+        Duration elapsed = Duration.between(start, clock.instant());
+        if (attempt >= budget.maxAttempts() || elapsed.plus(backoff).compareTo(budget.maxElapsed()) > 0
+            || !sleep(backoff)) {
+          operationMetrics.failures.incrementAndGet();
+          throw e;
+        }
+        operationMetrics.backoffMillis.addAndGet(backoff.toMillis());
+      }
+    }
+  }
+
+  // Exponential, with "equal jitter" (half fixed, half random) so that callers rejected together spread back out. But
+  // never sooner than the API asked for.
+  protected Duration backoff(int attempt, Exception e) {
+    long capMillis = Math.min(MAX_BACKOFF.toMillis(), BASE_BACKOFF.toMillis() << Math.min(attempt - 1, 16));
+    Duration backoff = Duration.ofMillis(capMillis / 2 + (long) (random.nextDouble() * (capMillis / 2)));
+    Optional<Duration> hint = retryAfter.apply(e);
+    if (hint.isPresent() && hint.get().compareTo(backoff) > 0) {
+      return hint.get();
+    }
+    return backoff;
+  }
+
+  private boolean sleep(Duration duration) {
+    try {
+      sleeper.sleep(duration);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  public Metrics metrics(String operation) {
+    return metrics.computeIfAbsent(operation, k -> new Metrics());
+  }
+
+  // operation -> metrics, sorted for the logs
+  public Map<String, Metrics> metrics() {
+    return new TreeMap<>(metrics);
+  }
+
+  // A copy of every operation's metrics as they stand now. The throttle lives as long as the process, so its metrics
+  // are cumulative -- pass this to metricsSince to report on a single run.
+  public Map<String, Metrics> snapshot() {
+    Map<String, Metrics> snapshot = new TreeMap<>();
+    metrics.forEach((operation, operationMetrics) -> snapshot.put(operation, operationMetrics.minus(null)));
+    return snapshot;
+  }
+
+  // Each operation's metrics since the snapshot, leaving out those not called since. Anything else using the same
+  // account at the same time is included, since it shares the throttle.
+  public Map<String, Metrics> metricsSince(Map<String, Metrics> snapshot) {
+    Map<String, Metrics> since = new TreeMap<>();
+    metrics.forEach((operation, operationMetrics) -> {
+      Metrics delta = operationMetrics.minus(snapshot.get(operation));
+      if (delta.getAttempts() > 0) {
+        since.put(operation, delta);
+      }
+    });
+    return since;
+  }
+
+  public static class Metrics {
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    // rejected by the API (ie, 429)
+    private final AtomicLong rejected = new AtomicLong();
+    // gave up, budget exhausted
+    private final AtomicLong failures = new AtomicLong();
+    // waiting on the bucket, before calling
+    private final AtomicLong throttledMillis = new AtomicLong();
+    // waiting after a rejection
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    public long getCalls() { return calls.get(); }
+    public long getAttempts() { return attempts.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getFailures() { return failures.get(); }
+    public long getThrottledMillis() { return throttledMillis.get(); }
+    public long getBackoffMillis() { return backoffMillis.get(); }
+
+    private Metrics minus(Metrics earlier) {
+      Metrics delta = new Metrics();
+      delta.calls.set(getCalls() - (earlier == null ? 0 : earlier.getCalls()));
+      delta.attempts.set(getAttempts() - (earlier == null ? 0 : earlier.getAttempts()));
+      delta.rejected.set(getRejected() - (earlier == null ? 0 : earlier.getRejected()));
+      delta.failures.set(getFailures() - (earlier == null ? 0 : earlier.getFailures()));
+      delta.throttledMillis.set(getThrottledMillis() - (earlier == null ? 0 : earlier.getThrottledMillis()));
+      delta.backoffMillis.set(getBackoffMillis() - (earlier == null ? 0 : earlier.getBackoffMillis()));
+      return delta;
+    }
+
+    @Override
+    public String toString() {
+      return "calls=" + calls + " attempts=" + attempts + " rejected=" + rejected + " failures=" + failures
+          + " throttledMillis=" + throttledMillis + " backoffMillis=" + backoffMillis;
+    }
+  }
+
+  /**
+   * Holds up to a second's worth of tokens, refilled continuously. A reservation always takes a token, even if that
+   * overdraws the bucket, and returns how long the caller must wait before using it. Concurrent callers therefore
+   * queue up in order, rather than all racing for each refill.
+   */
+  protected static class TokenBucket {
+    private final double perSecond;
+    private double tokens;
+    private Instant refilledAt;
+
+    protected TokenBucket(double perSecond, Instant now) {
+      this.perSecond = perSecond;
+      this.tokens = perSecond;
+      this.refilledAt = now;
+    }
+
+    protected synchronized Duration reserve(Instant now) {
+      if (now.isAfter(refilledAt)) {
+        double elapsedSeconds = Duration.between(refilledAt, now).toNanos() / 1_000_000_000.0;
+        tokens = Math.min(perSecond, tokens + elapsedSeconds * perSecond);
+        refilledAt = now;
+      }
+      tokens -= 1;
+      if (tokens >= 0) {
+        return Duration.ZERO;
+      }
+      return Duration.ofNanos((long) Math.ceil(-tokens / perSecond * 1_000_000_000.0));
+    }
+  }
+}
@@ -4,34 +4,273 @@
 
 package com.impactupgrade.nucleus.util;
 
+import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.Executors;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+/**
+ * Builds Guava caches with common defaults: bounded size, stats recording, and async reloads that all share a single,
+ * bounded pool. Every cache is named, and registered by that name, so that its stats can be reported (see stats()) and
+ * its TTL, refresh, and size can be overridden in environment.json:
+ *
+ * "caches": { "sfdc-record-types": { "maximumSize": 100, "expireAfterWriteSeconds": 3600 } }
+ *
+ * Overrides are applied by Builder.config. Static, process-wide caches have no env at class load, so build those with
+ * Builder.buildOnFirstUse, which applies the config of the first env to use the cache.
+ */
 public class CacheUtil {
 
+  private static final Logger log = LogManager.getLogger(CacheUtil.class);
+
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+  protected static final int RELOAD_THREADS = 4;
+  protected static final int RELOAD_QUEUE_SIZE = 1_000;
+  protected static final String RELOAD_THREAD_PREFIX = "cache-reload-";
+
+  // Previously, every loading cache got its own (never shut down) thread. Now, no matter how many caches are built, the
+  // reloads share these threads. If the queue ever fills, the reload simply runs on the calling thread.
+  private static final ThreadPoolExecutor reloadExecutor = new ThreadPoolExecutor(
+      RELOAD_THREADS,
+      RELOAD_THREADS,
+      60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(RELOAD_QUEUE_SIZE),
+      new ThreadFactoryBuilder().setNameFormat(RELOAD_THREAD_PREFIX + "%d").setDaemon(true).build(),
+      new ThreadPoolExecutor.CallerRunsPolicy()
+  );
+  static {
+    reloadExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  private static final Map<String, Cache<?, ?>> registry = new ConcurrentHashMap<>();
+
+  public static <K, V> LoadingCache<K, V> buildLoadingCache(String name, Function<K, V> loader) {
+    return builder(name).buildLoading(loader);
+  }
+
+  public static <K, V> Cache<K, V> buildManualCache(String name) {
+    return builder(name).buildManual();
+  }
+
+  /**
+   * @deprecated Unnamed, so neither reported nor configurable. Use buildLoadingCache(name, loader) instead.
+   */
+  @Deprecated
   public static <K, V> LoadingCache<K, V> buildLoadingCache(Function<K, V> loader) {
-    return CacheBuilder.newBuilder()
-        .refreshAfterWrite(5, TimeUnit.MINUTES)
-        .build(CacheLoader.asyncReloading(
-            new CacheLoader<>() {
-              @Override
-              public V load(K k) throws Exception {
-                return loader.apply(k);
-              }
-            },
-            Executors.newSingleThreadExecutor()
-        ));
+    return new Builder(null).buildLoading(loader);
   }
 
+  /**
+   * @deprecated Unnamed, so neither reported nor configurable. Use buildManualCache(name) instead.
+   */
+  @Deprecated
   public static <K, V> Cache<K, V> buildManualCache() {
-    return CacheBuilder.newBuilder()
-        .expireAfterWrite(5, TimeUnit.MINUTES)
-        .build();
+    return new Builder(null).buildManual();
+  }
+
+  public static Builder builder(String name) {
+    return new Builder(name);
+  }
+
+  // Snapshot of every registered cache's stats, by name.
+  public static Map<String, CacheStats> stats() {
+    Map<String, CacheStats> stats = new TreeMap<>();
+    registry.forEach((name, cache) -> stats.put(name, cache.stats()));
+    return stats;
+  }
+
+  public static Cache<?, ?> getCache(String name) {
+    return registry.get(name);
+  }
+
+  // Loads whichever of the keys aren't already cached, in parallel on the shared reload pool, and waits for them all.
+  // Failed loads are logged and skipped, so one bad key can't block startup.
+  public static <K, V> void warmUp(LoadingCache<K, V> cache, Collection<K> keys) {
+    CompletableFuture<?>[] futures = keys.stream()
+        .filter(key -> cache.getIfPresent(key) == null)
+        .map(key -> CompletableFuture.runAsync(() -> {
+          try {
+            cache.getUnchecked(key);
+          } catch (Exception e) {
+            log.warn("unable to warm cache key {}", key, e);
+          }
+        }, reloadExecutor))
+        .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(futures).join();
+  }
+
+  public static class Builder {
+
+    private final String name;
+    private Long maximumSize;
+    private Long maximumWeight;
+    private Weigher<Object, Object> weigher;
+    private Duration expireAfterWrite;
+    private Duration refreshAfterWrite;
+    private Ticker ticker;
+
+    private Builder(String name) {
+      this.name = name;
+    }
+
+    public Builder maximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    // Bounds by total weight (ie, rows in a cached spreadsheet) rather than entry count.
+    @SuppressWarnings("unchecked")
+    public <K, V> Builder maximumWeight(long maximumWeight, Weigher<K, V> weigher) {
+      this.maximumWeight = maximumWeight;
+      this.weigher = (Weigher<Object, Object>) weigher;
+      return this;
+    }
+
+    public Builder expireAfterWrite(Duration expireAfterWrite) {
+      this.expireAfterWrite = expireAfterWrite;
+      return this;
+    }
+
+    public Builder refreshAfterWrite(Duration refreshAfterWrite) {
+      this.refreshAfterWrite = refreshAfterWrite;
+      return this;
+    }
+
+    // Applies any overrides for this cache's name from the env config.
+    public Builder config(EnvironmentConfig envConfig) {
+      if (envConfig == null || envConfig.caches == null || !envConfig.caches.containsKey(name)) {
+        return this;
+      }
+
+      EnvironmentConfig.CacheSettings settings = envConfig.caches.get(name);
+      if (settings.maximumSize != null) {
+        maximumSize = settings.maximumSize;
+        maximumWeight = null;
+        weigher = null;
+      }
+      if (settings.expireAfterWriteSeconds != null) {
+        expireAfterWrite = Duration.ofSeconds(settings.expireAfterWriteSeconds);
+      }
+      if (settings.refreshAfterWriteSeconds != null) {
+        refreshAfterWrite = Duration.ofSeconds(settings.refreshAfterWriteSeconds);
+      }
+      return this;
+    }
+
+    // For static caches: the cache is built, with the given env config applied, the first time it's requested.
+    public <C> Deferred<C> buildOnFirstUse(Function<Builder, C> build) {
+      return new Deferred<>(this, build);
+    }
+
+    Builder ticker(Ticker ticker) {
+      this.ticker = ticker;
+      return this;
+    }
+
+    // Expires DEFAULT_TTL after write, unless told otherwise.
+    public <K, V> Cache<K, V> buildManual() {
+      if (expireAfterWrite == null) {
+        expireAfterWrite = DEFAULT_TTL;
+      }
+      Cache<K, V> cache = newCacheBuilder().build();
+      register(cache);
+      return cache;
+    }
+
+    // Refreshes DEFAULT_TTL after write, unless told otherwise. Refreshes serve the stale value while reloading on the
+    // shared pool.
+    public <K, V> LoadingCache<K, V> buildLoading(Function<K, V> loader) {
+      if (expireAfterWrite == null && refreshAfterWrite == null) {
+        refreshAfterWrite = DEFAULT_TTL;
+      }
+      LoadingCache<K, V> cache = newCacheBuilder().build(CacheLoader.asyncReloading(
+          new CacheLoader<K, V>() {
+            @Override
+            public V load(K k) throws Exception {
+              return loader.apply(k);
+            }
+          },
+          reloadExecutor
+      ));
+      register(cache);
+      return cache;
+    }
+
+    // Names are expected to be unique. A cache built more than once under the same name (ie, per request) replaces the
+    // last one, so its stats start over -- build those once, statically.
+    private void register(Cache<?, ?> cache) {
+      if (name != null) {
+        registry.put(name, cache);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> CacheBuilder<K, V> newCacheBuilder() {
+      CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().recordStats();
+      if (weigher != null) {
+        cacheBuilder.maximumWeight(maximumWeight).weigher(weigher);
+      } else {
+        cacheBuilder.maximumSize(maximumSize == null ? DEFAULT_MAXIMUM_SIZE : maximumSize);
+      }
+      if (expireAfterWrite != null) {
+        cacheBuilder.expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS);
+      }
+      if (refreshAfterWrite != null) {
+        cacheBuilder.refreshAfterWrite(refreshAfterWrite.toNanos(), TimeUnit.NANOSECONDS);
+      }
+      if (ticker != null) {
+        cacheBuilder.ticker(ticker);
+      }
+      return (CacheBuilder<K, V>) (CacheBuilder<?, ?>) cacheBuilder;
+    }
+  }
+
+  /**
+   * A process-wide cache, built on first use so that its overrides can come from environment.json. The cache is shared
+   * by every env that uses it afterward, so the first env's overrides are the ones that apply.
+   */
+  public static class Deferred<C> {
+
+    private final Builder builder;
+    private final Function<Builder, C> build;
+    private volatile C cache;
+
+    private Deferred(Builder builder, Function<Builder, C> build) {
+      this.builder = builder;
+      this.build = build;
+    }
+
+    public C get(EnvironmentConfig envConfig) {
+      C built = cache;
+      if (built == null) {
+        synchronized (this) {
+          if (cache == null) {
+            cache = build.apply(builder.config(envConfig));
+          }
+          built = cache;
+        }
+      }
+      return built;
+    }
   }
 }
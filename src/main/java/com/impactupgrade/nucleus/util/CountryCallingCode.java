@@ -317,4 +317,50 @@ public enum CountryCallingCode {
   public Integer getCode() {
     return this.code;
   }
+
+  // The NANP members above are really +1 plus an area code, and the area code is part of the local number.
+  public String getDialingPrefix() {
+    String code = this.code.toString();
+    return code.startsWith("1") ? "1" : code;
+  }
+
+  // digit trie over every code, so a lookup walks the number once instead of trying each code in turn
+  private static final class Node {
+    private final Node[] children = new Node[10];
+    private CountryCallingCode countryCallingCode;
+  }
+
+  private static final Node ROOT = new Node();
+  static {
+    for (CountryCallingCode countryCallingCode : values()) {
+      Node node = ROOT;
+      for (char c : countryCallingCode.code.toString().toCharArray()) {
+        int digit = c - '0';
+        if (node.children[digit] == null) {
+          node.children[digit] = new Node();
+        }
+        node = node.children[digit];
+      }
+      node.countryCallingCode = countryCallingCode;
+    }
+  }
+
+  /**
+   * The country whose code is the longest prefix of the given digits (ex: 16715551234 is GUAM, not US), or null.
+   */
+  public static CountryCallingCode fromPhoneNumber(String digits) {
+    CountryCallingCode match = null;
+    Node node = ROOT;
+    for (int i = 0; i < digits.length(); i++) {
+      int digit = digits.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || node.children[digit] == null) {
+        break;
+      }
+      node = node.children[digit];
+      if (node.countryCallingCode != null) {
+        match = node.countryCallingCode;
+      }
+    }
+    return match;
+  }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks after a delay without parking a thread per task. Each task can also name what it's waiting on, and
+ * signal() releases every task waiting on that name early (ie, an order that can proceed as soon as its contact exists).
+ *
+ * Due tasks are handed to the given executor by tick(). start() ticks once a second against the system clock and runs
+ * tasks on a small fixed pool. Tests can instead construct one directly, with a fixed clock and an inline executor, and
+ * call tick() themselves.
+ *
+ * Pending tasks live in memory only -- callers that can't afford to lose them on restart must persist them on their own.
+ */
+public class DelayedTaskScheduler {
+
+  private static final Logger log = LogManager.getLogger(DelayedTaskScheduler.class);
+
+  @FunctionalInterface
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  private static class ScheduledTask {
+    private final String waitingOn;
+    private final Instant dueAt;
+    private final Task task;
+
+    private ScheduledTask(String waitingOn, Instant dueAt, Task task) {
+      this.waitingOn = waitingOn;
+      this.dueAt = dueAt;
+      this.task = task;
+    }
+  }
+
+  // Small (tasks only wait seconds to minutes), so tick() simply scans it.
+  private final Map<String, ScheduledTask> pending = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final Clock clock;
+
+  public DelayedTaskScheduler(Executor executor, Clock clock) {
+    this.executor = executor;
+    this.clock = clock;
+  }
+
+  public static DelayedTaskScheduler start(String name, int threads) {
+    DelayedTaskScheduler scheduler = new DelayedTaskScheduler(
+        Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build()),
+        Clock.systemUTC()
+    );
+    ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat(name + "-tick").setDaemon(true).build());
+    ticker.scheduleWithFixedDelay(scheduler::tick, 1, 1, TimeUnit.SECONDS);
+    return scheduler;
+  }
+
+  // Replaces any task already pending under the same key.
+  public void schedule(String key, String waitingOn, Duration delay, Task task) {
+    pending.put(key, new ScheduledTask(waitingOn, clock.instant().plus(delay), task));
+  }
+
+  // Runs everything waiting on the given name now, rather than at its due time.
+  public void signal(String waitingOn) {
+    pending.forEach((key, scheduledTask) -> {
+      if (Objects.equals(waitingOn, scheduledTask.waitingOn)) {
+        run(key, scheduledTask);
+      }
+    });
+  }
+
+  public void tick() {
+    Instant now = clock.instant();
+    pending.forEach((key, scheduledTask) -> {
+      if (!scheduledTask.dueAt.isAfter(now)) {
+        run(key, scheduledTask);
+      }
+    });
+  }
+
+  public boolean isPending(String key) {
+    return pending.containsKey(key);
+  }
+
+  public int size() {
+    return pending.size();
+  }
+
+  private void run(String key, ScheduledTask scheduledTask) {
+    // only one of tick/signal wins a given task
+    if (!pending.remove(key, scheduledTask)) {
+      return;
+    }
+
+    executor.execute(() -> {
+      try {
+        scheduledTask.task.run();
+      } catch (Exception e) {
+        log.error("delayed task {} failed", key, e);
+      }
+    });
+  }
+}
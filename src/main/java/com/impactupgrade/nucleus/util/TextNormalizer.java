@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The text normalization behind Utils' street/unicode/slug/etc helpers, written as single passes over the chars
+ * rather than chains of String.replace and regexes. Dedup and matching code calls these for every record, so they
+ * need to be cheap. Use the Utils methods, which delegate here.
+ */
+public final class TextNormalizer {
+
+  private TextNormalizer() {}
+
+  // Whole words only, so that "westminster" doesn't become "wminster".
+  private static final Map<String, String> STREET_ABBREVIATIONS = Map.ofEntries(
+      Map.entry("avenue", "ave"),
+      Map.entry("court", "ct"),
+      Map.entry("cove", "cv"),
+      Map.entry("drive", "dr"),
+      Map.entry("lane", "ln"),
+      Map.entry("parkway", "pkwy"),
+      Map.entry("place", "pl"),
+      Map.entry("ridge", "rdg"),
+      Map.entry("road", "rd"),
+      Map.entry("street", "st"),
+      Map.entry("north", "n"),
+      Map.entry("south", "s"),
+      Map.entry("east", "e"),
+      Map.entry("west", "w"),
+      Map.entry("northeast", "ne"),
+      Map.entry("northwest", "nw"),
+      Map.entry("southeast", "se"),
+      Map.entry("southwest", "sw")
+  );
+
+  private static final String QUOT = "&quot;";
+  private static final String APOS = "&#039;";
+
+  /**
+   * Lowercase alphanumerics with common street words abbreviated, for comparing addresses. Ex: "123 North Main
+   * Street, Apt. 4" -> "123nmainstapt4"
+   */
+  public static String normalizeStreet(String street) {
+    if (street == null || street.isEmpty()) {
+      return "";
+    }
+
+    String s = street.toLowerCase(Locale.ROOT);
+    StringBuilder sb = new StringBuilder(s.length());
+    int tokenStart = -1;
+    for (int i = 0; i <= s.length(); i++) {
+      boolean tokenChar = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+      if (tokenChar && tokenStart < 0) {
+        tokenStart = i;
+      } else if (!tokenChar && tokenStart >= 0) {
+        appendStreetToken(sb, s, tokenStart, i);
+        tokenStart = -1;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void appendStreetToken(StringBuilder sb, String s, int start, int end) {
+    String abbreviation = STREET_ABBREVIATIONS.get(s.substring(start, end));
+    if (abbreviation != null) {
+      sb.append(abbreviation);
+      return;
+    }
+    // non-ASCII letters are part of the word, but (as in alphanumericOnly) are dropped from the result
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+        sb.append(c);
+      }
+    }
+  }
+
+  public static String cleanUnicode(String s) {
+    if (s == null || s.isEmpty()) {
+      return s;
+    }
+
+    int i = firstUnclean(s);
+    if (i < 0) {
+      return s;
+    }
+
+    StringBuilder sb = new StringBuilder(s.length() + 8);
+    sb.append(s, 0, i);
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      String replacement = unicodeReplacement(c);
+      if (replacement != null) {
+        sb.append(replacement);
+        i++;
+      } else if (c == '&' && s.startsWith(QUOT, i)) {
+        sb.append('"');
+        i += QUOT.length();
+      } else if (c == '&' && s.startsWith(APOS, i)) {
+        sb.append('\'');
+        i += APOS.length();
+      } else {
+        sb.append(c);
+        i++;
+      }
+    }
+    return sb.toString();
+  }
+
+  // the unicode punctuation that copy/pasting from Word and the like brings along
+  private static String unicodeReplacement(char c) {
+    return switch (c) {
+      case '\u2018', '\u2019' -> "'";
+      case '\u201C', '\u201D' -> "\"";
+      case '\u254C', '\u254D', '\u2013', '\u2014' -> "--";
+      case '\u2026' -> "...";
+      default -> null;
+    };
+  }
+
+  private static int firstUnclean(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (unicodeReplacement(c) != null || (c == '&' && (s.startsWith(QUOT, i) || s.startsWith(APOS, i)))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Runs of anything other than ASCII letters, digits, and underscores become a single underscore, and one leading and
+   * one trailing underscore are dropped. Ex: " Year-End Gala (2024) " -> "year_end_gala_2024"
+   */
+  public static String toSlug(String s, boolean lowercase) {
+    if (s == null) return null;
+    s = s.trim();
+
+    StringBuilder sb = new StringBuilder(s.length());
+    boolean inRun = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (isWordChar(c)) {
+        sb.append(lowercase && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        inRun = false;
+      } else if (!inRun) {
+        sb.append('_');
+        inRun = true;
+      }
+    }
+
+    int start = sb.length() > 0 && sb.charAt(0) == '_' ? 1 : 0;
+    int end = sb.length() > start && sb.charAt(sb.length() - 1) == '_' ? sb.length() - 1 : sb.length();
+    return sb.substring(start, end);
+  }
+
+  public static String alphanumericOnly(String s) {
+    if (s == null) return null;
+    StringBuilder sb = null;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      boolean keep = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+      if (!keep && sb == null) {
+        sb = new StringBuilder(s.length());
+        sb.append(s, 0, i);
+      } else if (keep && sb != null) {
+        sb.append(c);
+      }
+    }
+    return sb == null ? s : sb.toString();
+  }
+
+  public static String numericOnly(String s) {
+    if (s == null) return null;
+    StringBuilder sb = null;
+    for (int i = 0; i < s.length(); i++) {
+      boolean keep = s.charAt(i) >= '0' && s.charAt(i) <= '9';
+      if (!keep && sb == null) {
+        sb = new StringBuilder(s.length());
+        sb.append(s, 0, i);
+      } else if (keep && sb != null) {
+        sb.append(s.charAt(i));
+      }
+    }
+    return sb == null ? s : sb.toString();
+  }
+
+  private static boolean isWordChar(char c) {
+    return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+  }
+}
@@ -67,13 +67,11 @@ public class Utils {
   }
 
   public static String alphanumericOnly(String s) {
-    if (s == null) return null;
-    return s.replaceAll("[^A-Za-z0-9]", "");
+    return TextNormalizer.alphanumericOnly(s);
   }
 
   public static String numericOnly(String s) {
-    if (s == null) return null;
-    return s.replaceAll("\\D", "");
+    return TextNormalizer.numericOnly(s);
   }
 
   public static String[] fullNameToFirstLast(String fullName) {
@@ -178,16 +176,7 @@ public class Utils {
   }
 
   public static String cleanUnicode(String s) {
-    if (Strings.isNullOrEmpty(s)) {
-      return s;
-    }
-
-    return s.replaceAll("[\\u2018\\u2019]", "'")
-        .replaceAll("[\\u201C\\u201D]", "\"")
-        .replaceAll("[\\u254C\\u254D\\u2013\\u2014]", "--")
-        .replaceAll("[\\u2026]", "...")
-        .replaceAll("&quot;", "\"")
-        .replaceAll("&#039;", "'");
+    return TextNormalizer.cleanUnicode(s);
   }
 
   public static String toSlug(String s) {
@@ -195,12 +184,7 @@ public class Utils {
   }
 
   public static String toSlug(String s, boolean lowercase) {
-    if (s == null) return null;
-    s = s.trim().replaceAll("[^A-Za-z0-9_]+", "_");
-    if (s.startsWith("_")) s = s.substring(1);
-    if (s.endsWith("_")) s = s.substring(0, s.length() - 1);
-    if (lowercase) s = s.toLowerCase(Locale.ROOT);
-    return s;
+    return TextNormalizer.toSlug(s, lowercase);
   }
 
   public static List<Map<String, String>> getCsvData(String csv) throws IOException {
@@ -371,31 +355,29 @@ public class Utils {
   }
 
   public static String normalizeStreet(String street) {
-    if (Strings.isNullOrEmpty(street)) {
-      return "";
-    }
-
-    street = street.toLowerCase(Locale.ROOT).trim();
-
-    street = street.replace("avenue", "ave");
-    street = street.replace("court", "ct");
-    street = street.replace("cove", "cv");
-    street = street.replace("drive", "dr");
-    street = street.replace("lane", "ln");
-    street = street.replace("parkway", "pkwy");
-    street = street.replace("place", "pl");
-    street = street.replace("ridge", "rdg");
-    street = street.replace("road", "rd");
-    street = street.replace("street", "st");
-
-    street = street.replace("north", "n");
-    street = street.replace("south", "s");
-    street = street.replace("east", "e");
-    street = street.replace("west", "w");
+    return TextNormalizer.normalizeStreet(street);
+  }
 
-    street = alphanumericOnly(street);
+  /**
+   * Digits-only E.164 (ex: 12605551234), or null if the number is too short or too long to be complete. Like
+   * CrmContact.phoneNumberForSMS, a 10 digit number without a country code is assumed to be US.
+   */
+  public static String normalizePhoneNumber(String phoneNumber) {
+    if (Strings.isNullOrEmpty(phoneNumber)) {
+      return null;
+    }
+    boolean internationalFormat = phoneNumber.trim().startsWith("+");
+    String phone = numericOnly(phoneNumber);
 
-    return street;
+    if (!internationalFormat && phone.length() == 10) {
+      phone = "1" + phone;
+    } else if (!internationalFormat && phone.length() < 11) {
+      return null;
+    }
+    if (phone.length() < 8 || phone.length() > 15) {
+      return null;
+    }
+    return phone;
   }
 
   public static List<String> parsePhoneNumber(String phoneNumber) {
@@ -411,21 +393,12 @@ public class Utils {
         return Collections.emptyList();
       }
 
-      boolean validCode = false;
-      for (CountryCallingCode countryCallingCode: CountryCallingCode.values()) {
-        String code = countryCallingCode.getCode().toString();
-
-        if (phone.startsWith(code)) {
-          validCode = true;
-          phone = phone.substring(code.length());
-          break;
-        }
-      }
-
-      if (!validCode) {
+      CountryCallingCode countryCallingCode = CountryCallingCode.fromPhoneNumber(phone);
+      if (countryCallingCode == null) {
         // invalid international code
         return  Collections.emptyList();
       }
+      phone = phone.substring(countryCallingCode.getDialingPrefix().length());
     }
 
     List<String> phoneParts = new ArrayList<>();
@@ -0,0 +1,27 @@
+-- The core_* schema is owned by nucleus-portal. Apply this through a matching portal migration.
+-- Local snapshots of communication platform audiences (see AudienceSnapshotService), so syncs can diff against them
+-- rather than downloading every member of every list. Safe to truncate: the next sync simply rebuilds.
+
+CREATE TABLE IF NOT EXISTS core_audiencesnapshot (
+  id BIGSERIAL PRIMARY KEY,
+  -- list ids are only unique within a platform account, so scope by org, as with core_job
+  organization_id BIGINT NOT NULL REFERENCES core_organization (id) ON DELETE CASCADE,
+  platform VARCHAR(255) NOT NULL,
+  list_id VARCHAR(255) NOT NULL,
+  refreshed_at TIMESTAMP,
+  rebuilt_at TIMESTAMP
+);
+CREATE UNIQUE INDEX IF NOT EXISTS core_audiencesnapshot_org_platform_list_idx ON core_audiencesnapshot (organization_id, platform, list_id);
+
+-- ids allocated with Hibernate's pooled-lo optimizer, in blocks of 50 (see core_job_pooled_sequences.sql)
+CREATE SEQUENCE IF NOT EXISTS core_audiencemember_id_seq INCREMENT BY 50;
+CREATE TABLE IF NOT EXISTS core_audiencemember (
+  id BIGINT PRIMARY KEY DEFAULT nextval('core_audiencemember_id_seq'),
+  snapshot_id BIGINT NOT NULL REFERENCES core_audiencesnapshot (id) ON DELETE CASCADE,
+  email_hash VARCHAR(32) NOT NULL,
+  email VARCHAR(255) NOT NULL,
+  status VARCHAR(255),
+  tags TEXT,
+  updated_at TIMESTAMP
+);
+CREATE UNIQUE INDEX IF NOT EXISTS core_audiencemember_snapshot_hash_idx ON core_audiencemember (snapshot_id, email_hash);
@@ -0,0 +1,17 @@
+-- The core_* schema is owned by nucleus-portal. Apply this through a matching portal migration.
+-- Per-list hashes of what was last pushed for each contact (see ContactFingerprintService), letting communication
+-- syncs skip contacts that haven't changed. Safe to truncate: the next sync simply pushes everything again.
+
+-- ids allocated with Hibernate's pooled-lo optimizer, in blocks of 50 (see core_job_pooled_sequences.sql)
+CREATE SEQUENCE IF NOT EXISTS core_contactfingerprint_id_seq INCREMENT BY 50;
+CREATE TABLE IF NOT EXISTS core_contactfingerprint (
+  id BIGINT PRIMARY KEY DEFAULT nextval('core_contactfingerprint_id_seq'),
+  -- list ids are only unique within a platform account, so scope by org, as with core_job
+  organization_id BIGINT NOT NULL REFERENCES core_organization (id) ON DELETE CASCADE,
+  platform VARCHAR(255) NOT NULL,
+  list_id VARCHAR(255) NOT NULL,
+  email_hash VARCHAR(32) NOT NULL,
+  fingerprint VARCHAR(64) NOT NULL,
+  updated_at TIMESTAMP
+);
+CREATE UNIQUE INDEX IF NOT EXISTS core_contactfingerprint_org_list_hash_idx ON core_contactfingerprint (organization_id, platform, list_id, email_hash);
@@ -0,0 +1,9 @@
+-- The core_* schema is owned by nucleus-portal. Apply this through a matching portal migration.
+-- Job and JobProgress ids are allocated with Hibernate's pooled-lo optimizer: each nextval is the low end of a block
+-- of 50 ids, used in memory. The sequences must increment by the same 50. Other writers (ie, Django) calling
+-- nextval directly still get unique ids, just with gaps.
+-- Until this has run, HibernateUtil refuses to build its SessionFactory (see verifyPooledSequences), since blocks
+-- allocated against a sequence still incrementing by 1 overlap across instances.
+
+ALTER SEQUENCE core_job_id_seq INCREMENT BY 50;
+ALTER SEQUENCE core_jobprogress_id_seq INCREMENT BY 50;
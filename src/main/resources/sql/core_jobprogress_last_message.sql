@@ -0,0 +1,12 @@
+-- The core_* schema is owned by nucleus-portal. Apply this through a matching portal migration.
+-- Adds the typed last_message column and the (job_id, target_id) index used by JobProgressDao.
+-- HibernateUtil refuses to start while the mapped last_message column is missing, so apply this before deploying.
+
+ALTER TABLE core_jobprogress ADD COLUMN IF NOT EXISTS last_message integer NULL;
+
+-- Backfill from the JSON payload. Rows missed here still work: the executor falls back to payload.lastMessage.
+UPDATE core_jobprogress
+SET last_message = (payload->>'lastMessage')::integer
+WHERE last_message IS NULL AND payload->>'lastMessage' IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS core_jobprogress_job_id_target_id_idx ON core_jobprogress (job_id, target_id);
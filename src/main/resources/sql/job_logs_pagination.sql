@@ -0,0 +1,9 @@
+-- The core_* schema, including job_logs, is owned by nucleus-portal. Apply this through a matching portal migration.
+-- Gives job_logs an ordered id, used as the pagination cursor for /job/{trace-id}/logs, plus the supporting indexes.
+
+-- Existing rows are numbered in their current physical order, which is effectively insert order for this append-only table.
+ALTER TABLE job_logs ADD COLUMN IF NOT EXISTS id BIGSERIAL;
+ALTER TABLE job_logs ADD PRIMARY KEY (id);
+CREATE INDEX IF NOT EXISTS job_logs_job_id_id_idx ON job_logs (job_id, id);
+
+CREATE INDEX IF NOT EXISTS core_job_org_type_started_idx ON core_job (organization_id, job_type, started_at);
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HubSpotBatchClientTest extends AbstractMockTest {
+
+  private HttpServer server;
+  private final List<String> requestPaths = new CopyOnWriteArrayList<>();
+  private final List<JsonNode> requestBodies = new CopyOnWriteArrayList<>();
+
+  private HubSpotBatchClient batchClient;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/crm/v3/objects", this::handle);
+    server.start();
+
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.hubspot.secretKey = "abc123";
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    batchClient = new HubSpotBatchClient(env, "http://localhost:" + server.getAddress().getPort());
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testBatchRead() {
+    List<String> ids = IntStream.range(0, 250).mapToObj(i -> "" + i).toList();
+    List<JsonNode> results = batchClient.batchRead("contacts", ids, List.of("email"), JsonNode.class);
+
+    assertEquals(List.of("/crm/v3/objects/contacts/batch/read", "/crm/v3/objects/contacts/batch/read", "/crm/v3/objects/contacts/batch/read"), requestPaths);
+    assertEquals(100, requestBodies.get(0).get("inputs").size());
+    assertEquals(50, requestBodies.get(2).get("inputs").size());
+    assertEquals(ids, results.stream().map(r -> r.get("id").asText()).toList());
+  }
+
+  @Test
+  public void testBatchUpdate() {
+    for (int i = 0; i < 150; i++) {
+      batchClient.batchUpdate("contacts", "" + i, Map.of("firstname", "Contact " + i));
+    }
+    // the first 100 flush automatically
+    assertEquals(1, requestPaths.size());
+
+    // same record twice: last one wins, no duplicate inputs
+    batchClient.batchUpdate("contacts", "149", Map.of("firstname", "Updated"));
+    batchClient.batchUpdate("companies", "1", Map.of("name", "Company 1"));
+    batchClient.batchFlush();
+
+    assertEquals(List.of("/crm/v3/objects/contacts/batch/update", "/crm/v3/objects/contacts/batch/update", "/crm/v3/objects/companies/batch/update"), requestPaths);
+    assertEquals(50, requestBodies.get(1).get("inputs").size());
+    assertEquals("Updated", requestBodies.get(1).get("inputs").get(49).get("properties").get("firstname").asText());
+
+    // nothing left to flush
+    batchClient.batchFlush();
+    assertEquals(3, requestPaths.size());
+  }
+
+  @Test
+  public void testBatchInsert() {
+    for (int i = 0; i < 120; i++) {
+      batchClient.batchInsert("deals", Map.of("dealname", "Donation " + i),
+          List.of(new HubSpotBatchClient.BatchAssociation("contact_" + i, 3)));
+    }
+    // the first 100 flush automatically
+    assertEquals(List.of("/crm/v3/objects/deals/batch/create"), requestPaths);
+
+    batchClient.batchFlush();
+
+    assertEquals(2, requestPaths.size());
+    assertEquals(20, requestBodies.get(1).get("inputs").size());
+    JsonNode association = requestBodies.get(1).at("/inputs/19/associations/0");
+    assertEquals("contact_119", association.at("/to/id").asText());
+    assertEquals("HUBSPOT_DEFINED", association.at("/types/0/associationCategory").asText());
+    assertEquals(3, association.at("/types/0/associationTypeId").asInt());
+  }
+
+  @Test
+  public void testConcurrentBatchUpdates() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        String id = "" + i;
+        futures.add(executor.submit(() -> batchClient.batchUpdate("contacts", id, Map.of("firstname", "Contact " + id))));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    batchClient.batchFlush();
+
+    // every update sent exactly once, none lost or duplicated between batches
+    List<String> ids = requestBodies.stream().flatMap(body -> StreamSupport.stream(body.get("inputs").spliterator(), false))
+        .map(input -> input.get("id").asText()).sorted().toList();
+    assertEquals(IntStream.range(0, 1000).mapToObj(i -> "" + i).sorted().toList(), ids);
+    assertEquals(10, requestPaths.size());
+  }
+
+  @Test
+  public void testSearchIn() {
+    List<String> transactionIds = IntStream.range(0, 150).mapToObj(i -> "ch_" + i).toList();
+    List<JsonNode> results = batchClient.searchIn("deals", "transaction_id", transactionIds, List.of("amount"), JsonNode.class);
+
+    // chunk 1 (100 IDs) needs two pages, chunk 2 (50 IDs) needs one
+    assertEquals(3, requestPaths.size());
+    assertEquals("IN", requestBodies.get(0).at("/filterGroups/0/filters/0/operator").asText());
+    assertEquals(100, requestBodies.get(0).at("/filterGroups/0/filters/0/values").size());
+    assertEquals("50", requestBodies.get(1).get("after").asText());
+    assertEquals(50, requestBodies.get(2).at("/filterGroups/0/filters/0/values").size());
+    assertEquals(150, results.size());
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    JsonNode body = MAPPER.readTree(exchange.getRequestBody());
+    requestPaths.add(path);
+    requestBodies.add(body);
+
+    ObjectNode response = MAPPER.createObjectNode();
+    ArrayNode results = response.putArray("results");
+    if (path.endsWith("/search")) {
+      // page through the IN values 50 at a time
+      JsonNode values = body.at("/filterGroups/0/filters/0/values");
+      int after = body.has("after") ? body.get("after").asInt() : 0;
+      int end = Math.min(after + 50, values.size());
+      for (int i = after; i < end; i++) {
+        results.addObject().put("id", values.get(i).asText());
+      }
+      if (end < values.size()) {
+        response.putObject("paging").putObject("next").put("after", "" + end);
+      }
+    } else {
+      int i = 0;
+      for (JsonNode input : body.get("inputs")) {
+        // creates get new IDs
+        results.addObject().put("id", input.has("id") ? input.get("id").asText() : "new_" + i++);
+      }
+    }
+
+    byte[] bytes = MAPPER.writeValueAsString(response).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.ContactSearch;
+import com.impactupgrade.nucleus.model.PagedResults;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SfdcClientTest extends AbstractMockTest {
+
+  @Test
+  public void testFieldsListEquivalence() {
+    for (boolean npsp : List.of(true, false)) {
+      for (boolean recordTypes : List.of(true, false)) {
+        SfdcClient sfdcClient = sfdcClient(npsp, recordTypes);
+
+        List<String> fieldConstants = Arrays.asList(sfdcClient.ACCOUNT_FIELDS, sfdcClient.CAMPAIGN_FIELDS,
+            sfdcClient.CONTACT_FIELDS, sfdcClient.LEAD_FIELDS, sfdcClient.DONATION_FIELDS, sfdcClient.RECURRINGDONATION_FIELDS,
+            sfdcClient.USER_FIELDS, sfdcClient.REPORT_FIELDS, sfdcClient.TASK_FIELDS);
+        List<Collection<String>> customFieldSets = List.of(Set.of(), Set.of("Custom__c", "id", "Other_Custom__c"));
+        List<String[]> extraFieldArrays = List.of(new String[0], new String[]{"Extra__c", "NAME", "Custom__c"});
+
+        for (String fields : fieldConstants) {
+          if (fields == null) {
+            // RECURRINGDONATION_FIELDS is only defined for NPSP
+            continue;
+          }
+          for (Collection<String> customFields : customFieldSets) {
+            for (String[] extraFields : extraFieldArrays) {
+              for (String prefix : List.of("", "Account", "npe03__Contact__r.")) {
+                String expected = legacyFieldsList(prefix, fields, customFields, extraFields);
+                // first call builds, second comes from the cache
+                assertEquals(expected, sfdcClient.getFieldsList(prefix, fields, customFields, extraFields));
+                assertEquals(expected, sfdcClient.getFieldsList(prefix, fields, customFields, extraFields));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFieldsListCached() {
+    SfdcClient sfdcClient = sfdcClient(true, false);
+
+    String first = sfdcClient.getFieldsList(sfdcClient.CONTACT_FIELDS, Set.of("Custom__c"), new String[]{"Extra__c"});
+    // equal, but distinct, inputs must hit the same entry
+    String second = sfdcClient.getFieldsList(sfdcClient.CONTACT_FIELDS, Set.of(new String("Custom__c")), new String[]{new String("Extra__c")});
+    assertSame(first, second);
+
+    String other = sfdcClient.getFieldsList(sfdcClient.CONTACT_FIELDS, Set.of("Custom__c"), new String[]{"Extra2__c"});
+    assertEquals(first.replace("Extra__c", "Extra2__c"), other);
+  }
+
+  @Test
+  public void testFieldsListSharedAcrossClients() {
+    // env.sfdcClient() hands out a new client per call, so the cache has to outlive any one of them
+    String first = sfdcClient(true, false).getFieldsList(SHARED_TEST_FIELDS, Set.of("Custom__c"), new String[0]);
+    String second = sfdcClient(true, false).getFieldsList(new String(SHARED_TEST_FIELDS), new HashSet<>(Set.of("Custom__c")), new String[0]);
+    assertSame(first, second);
+  }
+
+  // Timing-sensitive, so only run on request: mvn test -Dbenchmarks=true
+  @Test
+  @Tag("benchmark")
+  @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+  public void testFieldsListBenchmark() {
+    // one client per lookup, the same way env.sfdcClient() is used
+    List<SfdcClient> sfdcClients = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      sfdcClients.add(sfdcClient(i % 2 == 0, i % 3 == 0));
+    }
+    Set<String> customFields = new HashSet<>(Set.of("Custom__c", "Other_Custom__c"));
+    String[] extraFields = new String[0];
+
+    // warm up both, so neither pays for JIT compilation in the timed runs
+    for (SfdcClient sfdcClient : sfdcClients) {
+      legacyFieldsList("", sfdcClient.CONTACT_FIELDS, customFields, extraFields);
+      sfdcClient.getFieldsList(sfdcClient.CONTACT_FIELDS, customFields, extraFields);
+    }
+
+    long start = System.nanoTime();
+    int legacyLength = 0;
+    for (int i = 0; i < 100_000; i++) {
+      SfdcClient sfdcClient = sfdcClients.get(i % sfdcClients.size());
+      legacyLength += legacyFieldsList("", sfdcClient.CONTACT_FIELDS, customFields, extraFields).length();
+    }
+    long legacyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    start = System.nanoTime();
+    int cachedLength = 0;
+    for (int i = 0; i < 100_000; i++) {
+      SfdcClient sfdcClient = sfdcClients.get(i % sfdcClients.size());
+      cachedLength += sfdcClient.getFieldsList(sfdcClient.CONTACT_FIELDS, customFields, extraFields).length();
+    }
+    long cachedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(legacyLength, cachedLength);
+    assertTrue(cachedMillis < legacyMillis, "100k field lists: cached " + cachedMillis + "ms, legacy " + legacyMillis + "ms");
+  }
+
+  @Test
+  public void testSoqlTemplate() {
+    SoqlTemplate template = SoqlTemplate.compile("SELECT {fields} FROM Contact WHERE AccountId = ? AND Name IN (?) ORDER BY Name");
+    assertEquals(
+        "SELECT Id, Name FROM Contact WHERE AccountId = '001abc' AND Name IN ('O\\'Brien','Back\\\\slash') ORDER BY Name",
+        template.bind("Id, Name", "001abc", List.of("O'Brien", "Back\\slash"))
+    );
+
+    // matches the previous hand-built query byte for byte
+    String accountId = "001abc";
+    assertEquals(
+        "select " + "Id, Name" + " from account where id = '" + accountId + "'",
+        SfdcClient.ACCOUNT_BY_ID.bind("Id, Name", accountId)
+    );
+
+    assertEquals("select id from recordtype where name = 'Household'", SfdcClient.RECORD_TYPE_BY_NAME.bind(null, "Household"));
+    assertThrows(IllegalArgumentException.class, () -> template.bind("Id", "001abc"));
+  }
+
+  @Test
+  public void testSoqlEscaping() {
+    assertEquals("it\\'s", SoqlTemplate.escape("it's"));
+    // a trailing backslash must not be able to swallow the closing quote
+    assertEquals("'x\\\\'", SoqlTemplate.literal("x\\"));
+    assertEquals("'a\\nb\\tc\\\"d'", SoqlTemplate.literal("a\nb\tc\"d"));
+    assertEquals("10", SoqlTemplate.literal(10));
+    assertEquals("true", SoqlTemplate.literal(true));
+    assertEquals("null", SoqlTemplate.literal(null));
+    assertEquals("'a','b'", SoqlTemplate.literals(List.of("a", "b")));
+  }
+
+  @Test
+  public void testPhoneClause() {
+    SfdcClient legacy = sfdcClient(true, false, false);
+    assertEquals("Phone LIKE '%260%349%5732%' OR MobilePhone LIKE '%260%349%5732%' OR npe01__WorkPhone__c LIKE '%260%349%5732%'",
+        legacy.getPhoneClause("(260) 349-5732"));
+
+    SfdcClient npsp = sfdcClient(true, false, true);
+    assertEquals("(Nucleus_Phone_Normalized__c = '12603495732' OR Nucleus_Mobile_Phone_Normalized__c = '12603495732' OR Nucleus_Work_Phone_Normalized__c = '12603495732')",
+        npsp.getPhoneClause("(260) 349-5732"));
+    assertEquals("(Nucleus_Phone_Normalized__c = '380977471695' OR Nucleus_Mobile_Phone_Normalized__c = '380977471695' OR Nucleus_Work_Phone_Normalized__c = '380977471695')",
+        npsp.getPhoneClause("+380 97 747 1695"));
+
+    SfdcClient nonNpsp = sfdcClient(false, false, true);
+    assertEquals("(Nucleus_Phone_Normalized__c = '12603495732' OR Nucleus_Mobile_Phone_Normalized__c = '12603495732')",
+        nonNpsp.getPhoneClause("260-349-5732"));
+
+    // partial numbers can't be normalized, so they keep the LIKE search
+    assertEquals("Phone LIKE '%977%471%695%' OR MobilePhone LIKE '%977%471%695%'", nonNpsp.getPhoneClause("977471695"));
+  }
+
+  @Test
+  public void testContactsByPhones() throws Exception {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.salesforce.npsp = true;
+    envConfig.salesforce.normalizedPhoneSearch = true;
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    List<List<String>> values = new ArrayList<>();
+    List<List<String>> conditionFieldNames = new ArrayList<>();
+    SfdcClient sfdcClient = new SfdcClient(env, "username", "password", true) {
+      @Override
+      protected List<SObject> getBulkResults(List<String> _values, List<String> _conditionFieldNames, boolean useLike,
+          String objectType, String fields, Set<String> customFields, String[] extraFields) {
+        values.add(_values);
+        conditionFieldNames.add(_conditionFieldNames);
+        // the same contact comes back from both searches
+        SObject contact = new SObject("Contact");
+        contact.setId("003abc");
+        return _values.isEmpty() ? List.of() : List.of(contact);
+      }
+    };
+
+    List<SObject> contacts = sfdcClient.getContactsByPhones(List.of("260-349-5732", "+1 (260) 349-5732", "977471695"));
+
+    assertEquals(List.of(List.of("12603495732"), List.of("977%471%695")), values);
+    assertEquals(List.of(
+        List.of("Nucleus_Phone_Normalized__c", "Nucleus_Mobile_Phone_Normalized__c", "Nucleus_Work_Phone_Normalized__c"),
+        List.of("Phone", "MobilePhone", "npe01__WorkPhone__c")
+    ), conditionFieldNames);
+    assertEquals(1, contacts.size());
+  }
+
+  @Test
+  public void testPageToken() {
+    SfdcPageToken pageToken = SfdcPageToken.decode(SfdcPageToken.keyset("O'Brien", null, "").encode());
+    assertFalse(pageToken.isQueryLocator());
+    assertEquals(Arrays.asList("O'Brien", null, ""), pageToken.getKeys());
+    pageToken = SfdcPageToken.decode(SfdcPageToken.keyset("1:2~3", "Caf\u00e9", "003abc").encode());
+    assertEquals(List.of("1:2~3", "Caf\u00e9", "003abc"), pageToken.getKeys());
+
+    pageToken = SfdcPageToken.decode(SfdcPageToken.queryLocator("01gxx-2000").encode());
+    assertTrue(pageToken.isQueryLocator());
+    assertEquals("01gxx-2000", pageToken.getQueryLocator());
+
+    // legacy offsets
+    assertTrue(SfdcPageToken.isOffset("200"));
+    assertNull(SfdcPageToken.decode("200"));
+    assertNull(SfdcPageToken.decode(null));
+    assertThrows(IllegalArgumentException.class, () -> SfdcPageToken.decode("not a token!"));
+  }
+
+  @Test
+  public void testContactSearchPagedQuery() {
+    SfdcClient sfdcClient = sfdcClient(false, false);
+    ContactSearch contactSearch = new ContactSearch();
+    contactSearch.basicSearch = true;
+    contactSearch.hasEmail = false;
+    contactSearch.pageSize = 100;
+
+    assertEquals(
+        "select Id, FirstName, LastName from contact where (Email = NULL OR Email = '') ORDER BY LastName ASC NULLS FIRST, FirstName ASC NULLS FIRST, Id ASC LIMIT 101",
+        sfdcClient.getContactSearchPagedQuery(contactSearch, null)
+    );
+    assertEquals(
+        "select Id, FirstName, LastName from contact where (Email = NULL OR Email = '') AND (LastName > 'O\\'Brien' OR (LastName = 'O\\'Brien' AND (FirstName > 'Jo' OR (FirstName = 'Jo' AND Id > '003abc')))) ORDER BY LastName ASC NULLS FIRST, FirstName ASC NULLS FIRST, Id ASC LIMIT 101",
+        sfdcClient.getContactSearchPagedQuery(contactSearch, SfdcPageToken.keyset("O'Brien", "Jo", "003abc"))
+    );
+
+    contactSearch.hasEmail = null;
+    contactSearch.pageSize = null;
+    assertEquals(
+        "select Id, FirstName, LastName from contact where (LastName > 'Smith' OR (LastName = 'Smith' AND (FirstName != null OR (FirstName = null AND Id > '003abc')))) ORDER BY LastName ASC NULLS FIRST, FirstName ASC NULLS FIRST, Id ASC",
+        sfdcClient.getContactSearchPagedQuery(contactSearch, SfdcPageToken.keyset("Smith", null, "003abc"))
+    );
+  }
+
+  @Test
+  public void testSearchContactsKeysetPaging() throws Exception {
+    FakeContactsSfdcClient sfdcClient = fakeContactsSfdcClient(50_000);
+    ContactSearch contactSearch = new ContactSearch();
+    contactSearch.basicSearch = true;
+    // larger than a Salesforce batch, so each page also needs a queryMore
+    contactSearch.pageSize = 2_500;
+
+    List<String> ids = new ArrayList<>();
+    int pages = 0;
+    do {
+      PagedResults.ResultSet<SObject> resultSet = sfdcClient.searchContactsPaged(contactSearch);
+      resultSet.getRecords().forEach(contact -> ids.add(contact.getId()));
+      contactSearch.pageToken = resultSet.getNextPageToken();
+      pages++;
+    } while (contactSearch.pageToken != null);
+
+    assertEquals(20, pages);
+    assertEquals(sfdcClient.sortedIds(), ids);
+    assertFalse(sfdcClient.queries.stream().anyMatch(query -> query.contains("OFFSET")));
+  }
+
+  @Test
+  public void testSearchContactsLocatorPaging() throws Exception {
+    FakeContactsSfdcClient sfdcClient = fakeContactsSfdcClient(50_000);
+    ContactSearch contactSearch = new ContactSearch();
+    contactSearch.basicSearch = true;
+
+    List<String> ids = new ArrayList<>();
+    int pages = 0;
+    do {
+      PagedResults.ResultSet<SObject> resultSet = sfdcClient.searchContactsPaged(contactSearch);
+      resultSet.getRecords().forEach(contact -> ids.add(contact.getId()));
+      contactSearch.pageToken = resultSet.getNextPageToken();
+      pages++;
+    } while (contactSearch.pageToken != null);
+
+    // one query, then a queryMore per Salesforce batch
+    assertEquals(25, pages);
+    assertEquals(1, sfdcClient.queries.size());
+    assertEquals(sfdcClient.sortedIds(), ids);
+  }
+
+  private FakeContactsSfdcClient fakeContactsSfdcClient(int count) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    return new FakeContactsSfdcClient(env, count);
+  }
+
+  // Stands in for Salesforce: evaluates the keyset condition and LIMIT of searchContactsPaged's queries, and returns
+  // results in batches of 2000, like the real API.
+  private static class FakeContactsSfdcClient extends SfdcClient {
+
+    private static final int BATCH_SIZE = 2_000;
+    private static final Comparator<SObject> ORDER = Comparator
+        .comparing((SObject contact) -> (String) contact.getField("LastName"))
+        .thenComparing(contact -> (String) contact.getField("FirstName"), Comparator.nullsFirst(Comparator.naturalOrder()))
+        .thenComparing(SObject::getId);
+
+    private final List<SObject> contacts;
+    private final Map<String, List<SObject>> locators = new HashMap<>();
+    private final List<String> queries = new ArrayList<>();
+    private int nextQueryLocator = 0;
+
+    private FakeContactsSfdcClient(Environment env, int count) {
+      super(env, "username", "password", true);
+      // lots of duplicate names (and missing first names), so the Id tiebreaker matters
+      contacts = IntStream.range(0, count).mapToObj(i -> {
+        SObject contact = new SObject("Contact");
+        contact.setId(String.format("003%015d", (i * 7919) % count));
+        contact.setField("LastName", "Last" + (i % 300));
+        contact.setField("FirstName", i % 11 == 0 ? null : "First" + (i % 17));
+        return contact;
+      }).toList();
+    }
+
+    private List<String> sortedIds() {
+      return contacts.stream().sorted(ORDER).map(SObject::getId).toList();
+    }
+
+    @Override
+    public QueryResult query(String query) {
+      queries.add(query);
+
+      SObject after = null;
+      Matcher lastName = Pattern.compile("LastName > '([^']*)'").matcher(query);
+      if (lastName.find()) {
+        after = new SObject("Contact");
+        after.setField("LastName", lastName.group(1));
+        Matcher firstName = Pattern.compile("FirstName > '([^']*)'").matcher(query);
+        after.setField("FirstName", firstName.find() ? firstName.group(1) : null);
+        Matcher id = Pattern.compile("Id > '([^']*)'").matcher(query);
+        assertTrue(id.find());
+        after.setId(id.group(1));
+      }
+      SObject finalAfter = after;
+
+      Matcher limit = Pattern.compile("LIMIT (\\d+)$").matcher(query);
+      List<SObject> results = contacts.stream()
+          .filter(contact -> finalAfter == null || ORDER.compare(contact, finalAfter) > 0)
+          .sorted(ORDER)
+          .limit(limit.find() ? Long.parseLong(limit.group(1)) : Long.MAX_VALUE)
+          .toList();
+      return batch(results);
+    }
+
+    @Override
+    public QueryResult queryMore(String queryLocator) {
+      return batch(locators.remove(queryLocator));
+    }
+
+    private QueryResult batch(List<SObject> results) {
+      QueryResult queryResult = new QueryResult();
+      queryResult.setRecords(results.subList(0, Math.min(BATCH_SIZE, results.size())).toArray(new SObject[0]));
+      queryResult.setDone(results.size() <= BATCH_SIZE);
+      if (!queryResult.isDone()) {
+        String queryLocator = "01g-" + nextQueryLocator++;
+        locators.put(queryLocator, results.subList(BATCH_SIZE, results.size()));
+        queryResult.setQueryLocator(queryLocator);
+      }
+      return queryResult;
+    }
+  }
+
+  private static final String SHARED_TEST_FIELDS = "Id, Shared_Test__c";
+
+  private SfdcClient sfdcClient(boolean npsp, boolean recordTypes) {
+    return sfdcClient(npsp, recordTypes, false);
+  }
+
+  private SfdcClient sfdcClient(boolean npsp, boolean recordTypes, boolean normalizedPhoneSearch) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.salesforce.npsp = npsp;
+    envConfig.salesforce.normalizedPhoneSearch = normalizedPhoneSearch;
+    envConfig.salesforce.accountHasRecordTypes = recordTypes;
+    envConfig.salesforce.campaignHasRecordTypes = recordTypes;
+    envConfig.salesforce.donationHasRecordTypes = recordTypes;
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    return new SfdcClient(env, "username", "password", true);
+  }
+
+  // the original, uncached implementation
+  private static String legacyFieldsList(String prefix, String fields, Collection<String> customFields, String[] extraFields) {
+    Set<String> fieldsDeduped = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    fieldsDeduped.addAll(Arrays.stream(fields.split("[,\\s]+")).toList());
+    fieldsDeduped.addAll(customFields);
+    fieldsDeduped.addAll(Arrays.stream(extraFields).toList());
+
+    final String finalPrefix = (!Strings.isNullOrEmpty(prefix) && !prefix.endsWith(".")) ? prefix + "." : prefix;
+
+    return Joiner.on(", ").join(fieldsDeduped.stream().map(field -> finalPrefix + field).toList());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.client;
+
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SfdcQueryCursorTest {
+
+  private static final int PAGE_SIZE = 200;
+
+  @Test
+  public void testAllPagesInOrder() {
+    FakeConnection connection = new FakeConnection(10);
+    try (Stream<SObject> stream = new SfdcQueryCursor(connection.page(0), connection::queryMore).stream()) {
+      List<String> ids = stream.map(SObject::getId).toList();
+      assertEquals(10 * PAGE_SIZE, ids.size());
+      for (int i = 0; i < ids.size(); i++) {
+        assertEquals("id" + i, ids.get(i));
+      }
+    }
+    assertEquals(10, connection.fetchedPages.get());
+  }
+
+  @Test
+  public void testBoundedPrefetch() throws Exception {
+    FakeConnection connection = new FakeConnection(50);
+    int prefetchDepth = 2;
+    try (SfdcQueryCursor cursor = new SfdcQueryCursor(connection.page(0), connection::queryMore, prefetchDepth)) {
+      int consumed = 0;
+      int maxAhead = 0;
+      while (cursor.hasNext()) {
+        cursor.next();
+        consumed++;
+        if (consumed % PAGE_SIZE == 0) {
+          // give the fetch thread every opportunity to run ahead
+          Thread.sleep(5);
+          int consumedPages = consumed / PAGE_SIZE;
+          maxAhead = Math.max(maxAhead, connection.fetchedPages.get() - consumedPages);
+        }
+      }
+      assertEquals(50 * PAGE_SIZE, consumed);
+      // buffered pages, plus the one the fetch thread is holding while it waits for room
+      assertTrue(maxAhead <= prefetchDepth + 1, "fetched " + maxAhead + " pages ahead");
+    }
+  }
+
+  @Test
+  public void testFetchOverlapsConsumption() throws Exception {
+    CountDownLatch secondPageFetched = new CountDownLatch(1);
+    FakeConnection connection = new FakeConnection(3) {
+      @Override
+      public QueryResult queryMore(String queryLocator) {
+        QueryResult queryResult = super.queryMore(queryLocator);
+        secondPageFetched.countDown();
+        return queryResult;
+      }
+    };
+
+    try (SfdcQueryCursor cursor = new SfdcQueryCursor(connection.page(0), connection::queryMore)) {
+      cursor.next();
+      // still working on page 1, but page 2 must already be on its way
+      assertTrue(secondPageFetched.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testEarlyTermination() throws Exception {
+    FakeConnection connection = new FakeConnection(1000);
+    try (Stream<SObject> stream = new SfdcQueryCursor(connection.page(0), connection::queryMore).stream()) {
+      assertEquals(5, stream.limit(5).count());
+    }
+
+    int fetchedAtClose = connection.fetchedPages.get();
+    Thread.sleep(100);
+    assertEquals(fetchedAtClose, connection.fetchedPages.get());
+    assertTrue(fetchedAtClose < 10);
+  }
+
+  @Test
+  public void testFetchFailure() {
+    FakeConnection connection = new FakeConnection(5) {
+      @Override
+      public QueryResult queryMore(String queryLocator) {
+        if (queryLocator.equals("locator3")) {
+          throw new RuntimeException("INVALID_QUERY_LOCATOR");
+        }
+        return super.queryMore(queryLocator);
+      }
+    };
+
+    try (Stream<SObject> stream = new SfdcQueryCursor(connection.page(0), connection::queryMore).stream()) {
+      assertThrows(RuntimeException.class, stream::count);
+    }
+  }
+
+  // Stands in for the Partner connection's query/queryMore, generating synthetic pages.
+  private static class FakeConnection {
+
+    private final int pageCount;
+    private final AtomicInteger fetchedPages = new AtomicInteger();
+
+    private FakeConnection(int pageCount) {
+      this.pageCount = pageCount;
+    }
+
+    public QueryResult queryMore(String queryLocator) {
+      int page = Integer.parseInt(queryLocator.replace("locator", ""));
+      return page(page);
+    }
+
+    private QueryResult page(int page) {
+      fetchedPages.incrementAndGet();
+      SObject[] records = new SObject[PAGE_SIZE];
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        SObject sObject = new SObject("Contact");
+        sObject.setId("id" + (page * PAGE_SIZE + i));
+        records[i] = sObject;
+      }
+
+      QueryResult queryResult = new QueryResult();
+      queryResult.setRecords(records);
+      queryResult.setSize(pageCount * PAGE_SIZE);
+      queryResult.setDone(page == pageCount - 1);
+      queryResult.setQueryLocator(page == pageCount - 1 ? null : "locator" + (page + 1));
+      return queryResult;
+    }
+  }
+}
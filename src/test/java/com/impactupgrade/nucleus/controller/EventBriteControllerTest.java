@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.controller;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.EventBriteClient;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.environment.EnvironmentFactory;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.service.logic.EventBriteService;
+import com.impactupgrade.nucleus.service.segment.CrmService;
+import com.impactupgrade.nucleus.util.DelayedTaskScheduler;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+public class EventBriteControllerTest extends AbstractMockTest {
+
+  private static final String ORDER_URL = "https://www.eventbriteapi.com/v3/orders/1/";
+
+  private final TestClock clock = new TestClock();
+  // inline executor + manual ticks: no threads, no sleeping
+  private final DelayedTaskScheduler scheduler = new DelayedTaskScheduler(Runnable::run, clock);
+  private final FakeEventBriteClient eventBriteClient = new FakeEventBriteClient();
+  private final List<String> processedOrders = new ArrayList<>();
+
+  @Test
+  public void testContactAlreadyExists() throws Exception {
+    Environment env = new EventBriteEnvironment();
+    EventBriteController controller = controller(env);
+    lenient().when(crmServiceMock.getContactsByEmails(any())).thenReturn(List.of(new CrmContact()));
+
+    controller.processEvent("order.placed", webhookPayload(ORDER_URL), env);
+
+    // no waiting at all
+    assertEquals(List.of("order_1"), processedOrders);
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void testReleasedByAttendeeUpdated() throws Exception {
+    Environment env = new EventBriteEnvironment();
+    EventBriteController controller = controller(env);
+    lenient().when(crmServiceMock.getContactsByEmails(any())).thenReturn(List.of());
+
+    controller.processEvent("order.placed", webhookPayload(ORDER_URL), env);
+    assertTrue(processedOrders.isEmpty());
+    assertEquals(1, scheduler.size());
+
+    // not yet due
+    clock.advance(Duration.ofSeconds(5));
+    scheduler.tick();
+    assertTrue(processedOrders.isEmpty());
+
+    // the contact is created well before the delay is up, releasing the order immediately (case-insensitive)
+    lenient().when(crmServiceMock.getContactsByEmails(any())).thenReturn(List.of(new CrmContact()));
+    scheduler.signal(controller.orderWaitingOn("BUYER@example.com", env));
+    assertEquals(List.of("order_1"), processedOrders);
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void testRetriesUntilGivingUp() throws Exception {
+    Environment env = new EventBriteEnvironment();
+    EventBriteController controller = controller(env);
+    lenient().when(crmServiceMock.getContactsByEmails(any())).thenReturn(List.of());
+
+    controller.processEvent("order.placed", webhookPayload(ORDER_URL), env);
+    int ordersFetched = eventBriteClient.ordersFetched;
+
+    for (int attempt = 1; attempt < EventBriteController.MAX_ORDER_ATTEMPTS; attempt++) {
+      clock.advance(EventBriteController.ORDER_DELAY);
+      scheduler.tick();
+      // still waiting on the contact, so rescheduled without refetching the order
+      assertTrue(processedOrders.isEmpty());
+      assertEquals(1, scheduler.size());
+      assertEquals(ordersFetched, eventBriteClient.ordersFetched);
+    }
+
+    // last attempt runs regardless, same as the old fixed sleep
+    clock.advance(EventBriteController.ORDER_DELAY);
+    scheduler.tick();
+    assertEquals(List.of("order_1"), processedOrders);
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void testRecoverPersistedOrder() throws Exception {
+    EnvironmentConfig envConfig = new EnvironmentConfig() {
+      @Override
+      public boolean isDatabaseConnected() {
+        return true;
+      }
+    };
+    envConfig.apiKey = "eventbrite-recovery";
+    Environment env = new EventBriteEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    lenient().when(crmServiceMock.getContactsByEmails(any())).thenReturn(List.of());
+    lenient().when(crmServiceMock.getDonationByTransactionId(any())).thenReturn(Optional.empty());
+
+    Organization org = new Organization();
+    org.setId(1);
+    org.setNucleusApiKey(envConfig.apiKey);
+    new HibernateDao<Long, Organization>(Organization.class).insert(org);
+
+    // an order that was pending when the previous process went away
+    Long jobId = env.eventBriteService().savePendingOrder(ORDER_URL, "buyer@example.com", EventBriteController.ORDER_DELAY);
+    HibernateDao<Long, Job> jobDao = new HibernateDao<>(Job.class);
+    Job job = jobDao.getById(jobId).get();
+    assertEquals(JobStatus.ACTIVE, job.status);
+
+    // still waiting in memory, as far as the scheduled run can tell
+    env.scheduledJobService().processJobSchedules(Instant.now().plus(EventBriteController.ORDER_DELAY));
+    assertTrue(processedOrders.isEmpty());
+
+    // picked up by the next scheduled run, without waiting on another webhook
+    job.scheduleStart = Instant.now().minus(Duration.ofHours(1));
+    jobDao.update(job);
+    env.scheduledJobService().processJobSchedules(Instant.now());
+    assertEquals(List.of("order_1"), processedOrders);
+    assertEquals(JobStatus.DONE, jobDao.getById(jobId).get().status);
+
+    // only once
+    env.scheduledJobService().processJobSchedules(Instant.now());
+    assertEquals(List.of("order_1"), processedOrders);
+    assertEquals(0, scheduler.size());
+  }
+
+  private EventBriteController controller(Environment env) {
+    EnvironmentFactory envFactory = new EnvironmentFactory() {
+      @Override
+      public Environment newEnv() {
+        return env;
+      }
+    };
+    return new EventBriteController(envFactory, scheduler);
+  }
+
+  private EventBriteController.WebhookPayload webhookPayload(String apiUrl) {
+    EventBriteController.WebhookPayload webhookPayload = new EventBriteController.WebhookPayload();
+    webhookPayload.apiUrl = apiUrl;
+    return webhookPayload;
+  }
+
+  private class EventBriteEnvironment extends DefaultEnvironment {
+    @Override
+    public EventBriteClient eventBriteClient() {
+      return eventBriteClient;
+    }
+
+    @Override
+    public EventBriteService eventBriteService() {
+      return new EventBriteService(this) {
+        @Override
+        public void processNewOrder(EventBriteClient.Order order, CrmService crmService) {
+          processedOrders.add(order.id);
+        }
+      };
+    }
+  }
+
+  private class FakeEventBriteClient extends EventBriteClient {
+
+    private int ordersFetched = 0;
+
+    public FakeEventBriteClient() {
+      super(new DefaultEnvironment());
+    }
+
+    @Override
+    public Order getOrder(String eventUrl, String... expansions) {
+      ordersFetched++;
+
+      Profile profile = new Profile();
+      profile.email = "buyer@example.com";
+      Attendee attendee = new Attendee();
+      attendee.profile = profile;
+      Order order = new Order();
+      order.id = "order_1";
+      order.attendees = List.of(attendee);
+      return order;
+    }
+  }
+
+  private static class TestClock extends Clock {
+
+    private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+    public void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
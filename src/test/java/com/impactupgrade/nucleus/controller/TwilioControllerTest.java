@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.controller;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.environment.EnvironmentFactory;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.service.logic.InboundSmsRouter;
+import com.impactupgrade.nucleus.service.logic.MessagingService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.Response;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TwilioControllerTest extends AbstractMockTest {
+
+  private static final int BURST_SIZE = 100;
+  // how long each relay's CRM/Twilio work takes -- previously, every webhook response waited on this
+  private static final long SIDE_EFFECT_MILLIS = 300;
+
+  @Test
+  public void testRouting() {
+    InboundSmsRouter.Route route = InboundSmsRouter.route(" stop ", true, "Thanks!");
+    assertEquals(InboundSmsRouter.Action.IGNORE, route.action);
+    assertEquals(InboundSmsRouter.Action.IGNORE, InboundSmsRouter.route(null, true, "Thanks!").action);
+
+    route = InboundSmsRouter.route("Reply 260-123-4567 Thanks, I got your MESSAGE!", true, "Thanks!");
+    assertEquals(InboundSmsRouter.Action.RELAY, route.action);
+    assertEquals("260-123-4567", route.phoneNumber);
+    assertEquals("Thanks, I got your MESSAGE!", route.message);
+
+    route = InboundSmsRouter.route("I'd like to reply later", true, "Thanks!");
+    assertEquals(InboundSmsRouter.Action.NOTIFY, route.action);
+    assertEquals("I'd like to reply later", route.message);
+
+    route = InboundSmsRouter.route("Hello", false, "Thanks!");
+    assertEquals(InboundSmsRouter.Action.DEFAULT_RESPONSE, route.action);
+    assertEquals("Thanks!", route.message);
+
+    route = InboundSmsRouter.route("Hello", false, "");
+    assertEquals(InboundSmsRouter.Action.NONE, route.action);
+    assertNull(route.message);
+  }
+
+  @Test
+  public void testDefaultResponse() throws Exception {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.twilio.defaultResponse = "Thanks for your message!";
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    TwilioController twilioController = new TwilioController(envFactory(env));
+
+    Form form = new Form().param("From", "+12601234567").param("To", "+12600000000").param("Body", "Hello");
+    Response response = twilioController.inboundWebhook(form, null);
+    assertTrue(response.getEntity().toString().contains("Thanks for your message!"));
+
+    form = new Form().param("From", "+12601234567").param("To", "+12600000000").param("Body", "STOP");
+    response = twilioController.inboundWebhook(form, null);
+    assertFalse(response.getEntity().toString().contains("Thanks for your message!"));
+  }
+
+  @Test
+  public void testBurstLatency() throws Exception {
+    CountDownLatch relayed = new CountDownLatch(BURST_SIZE + 1);
+    List<String> relayedMessages = Collections.synchronizedList(new ArrayList<>());
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public MessagingService messagingService() {
+        return new MessagingService(this) {
+          @Override
+          public void sendMessage(String message, String attachmentUrl, CrmContact crmContact, String sender) {
+            try {
+              Thread.sleep(SIDE_EFFECT_MILLIS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            relayedMessages.add(message);
+            relayed.countDown();
+          }
+        };
+      }
+    };
+    TwilioController twilioController = new TwilioController(envFactory(env));
+
+    // local HTTP harness, standing in for the servlet container
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newFixedThreadPool(16));
+    server.createContext("/api/twilio/inbound/sms/webhook", exchange -> {
+      Form form = new Form();
+      String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      for (String param : requestBody.split("&")) {
+        String[] split = param.split("=", 2);
+        form.param(URLDecoder.decode(split[0], StandardCharsets.UTF_8), URLDecoder.decode(split[1], StandardCharsets.UTF_8));
+      }
+      try {
+        byte[] responseBody = twilioController.inboundWebhook(form, null).getEntity().toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, responseBody.length);
+        exchange.getResponseBody().write(responseBody);
+      } catch (Exception e) {
+        exchange.sendResponseHeaders(500, -1);
+      } finally {
+        exchange.close();
+      }
+    });
+    server.start();
+
+    try {
+      URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/api/twilio/inbound/sms/webhook");
+      HttpClient httpClient = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(16)).build();
+
+      // warm up (class loading, TwiML serialization, etc.)
+      assertEquals(200, send(httpClient, uri, -1).join().statusCode());
+
+      List<CompletableFuture<Long>> latencies = new ArrayList<>();
+      for (int i = 0; i < BURST_SIZE; i++) {
+        long start = System.nanoTime();
+        latencies.add(send(httpClient, uri, i).thenApply(response -> {
+          assertEquals(200, response.statusCode());
+          return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }));
+      }
+      List<Long> sorted = latencies.stream().map(CompletableFuture::join).sorted().toList();
+      long p99 = sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+
+      // acknowledged without waiting on the relay
+      assertTrue(p99 < SIDE_EFFECT_MILLIS, "p99 webhook latency: " + p99 + "ms");
+
+      // and the relays all still happen, in the background
+      assertTrue(relayed.await(30, TimeUnit.SECONDS));
+      assertEquals(BURST_SIZE + 1, relayedMessages.size());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private CompletableFuture<HttpResponse<String>> send(HttpClient httpClient, URI uri, int i) {
+    String form = "From=" + URLEncoder.encode("+12601234567", StandardCharsets.UTF_8)
+        + "&To=" + URLEncoder.encode("+12600000000", StandardCharsets.UTF_8)
+        + "&Body=" + URLEncoder.encode("reply 260-555-0100 message " + i, StandardCharsets.UTF_8);
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        .header("Content-Type", "application/x-www-form-urlencoded")
+        .POST(HttpRequest.BodyPublishers.ofString(form))
+        .build();
+    return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private EnvironmentFactory envFactory(Environment env) {
+    return new EnvironmentFactory() {
+      @Override
+      public Environment newEnv() {
+        return env;
+      }
+    };
+  }
+}
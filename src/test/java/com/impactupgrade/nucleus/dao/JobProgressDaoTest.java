@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.dao;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobProgress;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.entity.Organization;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobProgressDaoTest extends AbstractMockTest {
+
+  private static final int TARGET_COUNT = 100_000;
+
+  @Test
+  public void testLargeJob() {
+    JobProgressDao jobProgressDao = new JobProgressDao();
+    Job job = job(1);
+    Job otherJob = job(2);
+
+    // every 4th target has received nothing, the rest are spread across messages 1-3
+    List<JobProgress> jobProgresses = new ArrayList<>();
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      jobProgresses.add(jobProgress(job, "+1" + (5550000000L + i), i % 4 == 0 ? null : i % 4));
+    }
+    jobProgressDao.upsert(jobProgresses);
+    // same targets, different job -- must never bleed into the first job's results
+    jobProgressDao.upsert(List.of(jobProgress(otherJob, "+15550000000", null), jobProgress(otherJob, "+15550000001", null)));
+
+    assertTrue(jobProgresses.stream().allMatch(jp -> jp.id != null));
+
+    // due for message 3: nothing received (25k) + last received 1 or 2 (50k)
+    List<JobProgress> due = jobProgressDao.getDueForMessage(job.id, 3);
+    assertEquals(TARGET_COUNT * 3 / 4, due.size());
+    assertTrue(due.stream().allMatch(jp -> jp.lastMessage == null || jp.lastMessage < 3));
+    assertEquals(TARGET_COUNT / 4, jobProgressDao.getDueForMessage(job.id, 1).size());
+    assertEquals(2, jobProgressDao.getDueForMessage(otherJob.id, 1).size());
+
+    // finished recipients come back as ids only: last received 3
+    List<String> completed = jobProgressDao.getCompletedTargetIds(job.id, 3);
+    assertEquals(TARGET_COUNT / 4, completed.size());
+    assertTrue(completed.contains("+15550000003"));
+    assertEquals(0, jobProgressDao.getCompletedTargetIds(otherJob.id, 1).size());
+  }
+
+  @Test
+  public void testUpsert() {
+    JobProgressDao jobProgressDao = new JobProgressDao();
+    Job job = job(1);
+
+    JobProgress existing = jobProgress(job, "+15550000000", 1);
+    jobProgressDao.upsert(List.of(existing));
+
+    existing.lastMessage = 2;
+    JobProgress added = jobProgress(job, "+15550000001", 1);
+    jobProgressDao.upsert(List.of(existing, added));
+
+    List<JobProgress> all = jobProgressDao.getAll();
+    assertEquals(2, all.size());
+    assertEquals(2, all.get(0).lastMessage);
+    assertEquals(1, all.get(1).lastMessage);
+    assertEquals(1, jobProgressDao.getDueForMessage(job.id, 2).size());
+  }
+
+  @Test
+  public void testBatchedInsertStatements() {
+    JobProgressDao jobProgressDao = new JobProgressDao();
+    Job job = job(1);
+    Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+    statistics.setStatisticsEnabled(true);
+
+    // before: one insert at a time, each in its own session, the way progress used to be written
+    statistics.clear();
+    Long previousId = null;
+    int nextvals = 0;
+    for (int i = 0; i < 10_000; i++) {
+      long id = jobProgressDao.insert(jobProgress(job, "+1" + (5550000000L + i), 1)).id;
+      // pooled-lo: each id is exactly one more than the last, including across blocks
+      if (previousId != null) {
+        assertEquals(previousId + 1, id);
+      }
+      // and a nextval only happens at the start of a block (1, 51, 101, ...)
+      if ((id - 1) % HibernateUtil.ID_BLOCK_SIZE == 0) {
+        nextvals++;
+      }
+      previousId = id;
+    }
+    long perRowStatements = statistics.getPrepareStatementCount();
+
+    // after: one upsert, batched
+    List<JobProgress> jobProgresses = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      jobProgresses.add(jobProgress(job, "+1" + (5560000000L + i), 1));
+    }
+    statistics.clear();
+    jobProgressDao.upsert(jobProgresses);
+    long batchedStatements = statistics.getPrepareStatementCount();
+
+    // pooled ids: one nextval per 50 rows either way, instead of one per row
+    assertTrue(nextvals <= 10_000 / HibernateUtil.ID_BLOCK_SIZE + 1, "nextvals: " + nextvals);
+    assertTrue(perRowStatements <= 10_000 + nextvals, "per-row: " + perRowStatements);
+    // batching collapses the inserts themselves (~200 nextvals + ~200 batches, with headroom)
+    assertTrue(batchedStatements <= 2 * (10_000 / 50 + 10_000 / HibernateUtil.JDBC_BATCH_SIZE), "batched: " + batchedStatements);
+    assertEquals(20_000, jobProgressDao.getDueForMessage(job.id, 2).size());
+  }
+
+  private Job job(int orgId) {
+    Organization org = new Organization();
+    org.setId(orgId);
+    org.setNucleusApiKey("key" + orgId);
+    new HibernateDao<>(Organization.class).insert(org);
+
+    Job job = new Job();
+    job.org = org;
+    job.jobType = JobType.SMS_CAMPAIGN;
+    job.status = JobStatus.ACTIVE;
+    job.jobProgresses = List.of();
+    job.startedAt = Instant.now();
+    return new HibernateDao<Long, Job>(Job.class).insert(job);
+  }
+
+  private JobProgress jobProgress(Job job, String targetId, Integer lastMessage) {
+    JobProgress jobProgress = new JobProgress();
+    jobProgress.job = job;
+    jobProgress.targetId = targetId;
+    jobProgress.lastMessage = lastMessage;
+    jobProgress.payload = MAPPER.createObjectNode();
+    return jobProgress;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.model.CrmActivity;
+import com.impactupgrade.nucleus.model.CrmContact;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ActivityServiceTest extends AbstractMockTest {
+
+  @Test
+  public void testRepeatedMessageAppended() throws Exception {
+    Environment env = new DefaultEnvironment();
+    when(crmServiceMock.getContactsByPhones(any())).thenReturn(List.of(new CrmContact("contact_1")));
+    CrmActivity conversation = new CrmActivity("activity_1");
+    conversation.externalReference = "contact_1::conversation_1";
+    conversation.description = "Are you coming Saturday?\n\nYes";
+    when(crmServiceMock.getActivitiesByExternalRefs(any())).thenReturn(List.of(conversation));
+
+    // the same text as the last message is still a new message in the conversation
+    env.activityService().upsertActivityFromPhoneNumbers(List.of("+12605551234"), CrmActivity.Type.CALL,
+        "conversation_1", Calendar.getInstance(), "SMS", "Yes");
+
+    ArgumentCaptor<CrmActivity> updated = ArgumentCaptor.forClass(CrmActivity.class);
+    verify(crmServiceMock).batchUpdateActivity(updated.capture());
+    assertEquals("Are you coming Saturday?\n\nYes\n\nYes", updated.getValue().description);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AntiFraudServiceTest extends AbstractMockTest {
+
+  private static final long VERIFY_MILLIS = 200;
+
+  @Test
+  public void testReplayedTokenVerifiedAgain() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Set<String> verified = ConcurrentHashMap.newKeySet();
+    // like Google, a token only verifies once
+    AntiFraudService antiFraudService = new AntiFraudService(env(), (recaptchaToken, siteSecret) -> {
+      calls.incrementAndGet();
+      return new JSONObject().put("success", verified.add(recaptchaToken)).put("score", 0.9);
+    });
+    String token = UUID.randomUUID().toString();
+
+    assertTrue(antiFraudService.isRecaptchaTokenV3Valid(token));
+    // once the first verification is done, a replay isn't served from a past success
+    assertFalse(antiFraudService.isRecaptchaTokenV3Valid(token));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testConcurrentVerificationsCoalesced() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    String token = UUID.randomUUID().toString();
+    Environment env = env();
+
+    ExecutorService executor = Executors.newFixedThreadPool(20);
+    CountDownLatch go = new CountDownLatch(1);
+    List<Future<Boolean>> results = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      // separate service instances (ie, separate requests) share the cache
+      AntiFraudService antiFraudService = new AntiFraudService(env, stubVerifier(calls, 0.9));
+      results.add(executor.submit(() -> {
+        go.await();
+        return antiFraudService.isRecaptchaTokenV3Valid(token);
+      }));
+    }
+    go.countDown();
+    for (Future<Boolean> result : results) {
+      assertTrue(result.get());
+    }
+    executor.shutdown();
+
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testFailuresNotCached() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    AntiFraudService antiFraudService = new AntiFraudService(env(), (recaptchaToken, siteSecret) -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new IOException("timed out");
+      }
+      return new JSONObject().put("success", true).put("score", 0.9);
+    });
+    String token = UUID.randomUUID().toString();
+
+    // a network failure is invalid, but the next attempt tries again
+    assertFalse(antiFraudService.isRecaptchaTokenV3Valid(token));
+    assertTrue(antiFraudService.isRecaptchaTokenV3Valid(token));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testHttpVerifier() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Set<String> verified = ConcurrentHashMap.newKeySet();
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/recaptcha/api/siteverify", exchange -> {
+      calls.incrementAndGet();
+      String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      boolean valid = requestBody.contains("secret=secret") && requestBody.contains("response=good")
+          && verified.add(requestBody);
+      byte[] responseBody = new JSONObject().put("success", valid).put("score", 0.9).toString().getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, responseBody.length);
+      exchange.getResponseBody().write(responseBody);
+      exchange.close();
+    });
+    server.start();
+
+    try {
+      AntiFraudService antiFraudService = new AntiFraudService(env(), new AntiFraudService.HttpRecaptchaVerifier(
+          "http://localhost:" + server.getAddress().getPort() + "/recaptcha/api/siteverify"));
+
+      String goodToken = "good" + UUID.randomUUID();
+      assertTrue(antiFraudService.isRecaptchaTokenV3Valid(goodToken));
+      // already used
+      assertFalse(antiFraudService.isRecaptchaTokenV3Valid(goodToken));
+      assertFalse(antiFraudService.isRecaptchaTokenV3Valid("bad" + UUID.randomUUID()));
+      assertEquals(3, calls.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private AntiFraudService.RecaptchaVerifier stubVerifier(AtomicInteger calls, double score) {
+    return (recaptchaToken, siteSecret) -> {
+      calls.incrementAndGet();
+      try {
+        Thread.sleep(VERIFY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new JSONObject().put("success", true).put("score", score).put("hostname", "localhost");
+    };
+  }
+
+  private Environment env() {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.recaptcha.v3SiteSecret = "secret";
+    return new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+  }
+}
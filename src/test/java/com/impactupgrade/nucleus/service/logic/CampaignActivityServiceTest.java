@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.ecwid.maleorang.MailchimpException;
+import com.ecwid.maleorang.method.v3_0.campaigns.content.ContentInfo;
+import com.ecwid.maleorang.method.v3_0.reports.sent_to.SentToInfo;
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.MailchimpClient;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmActivity;
+import com.impactupgrade.nucleus.model.CrmContact;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CampaignActivityServiceTest extends AbstractMockTest {
+
+  @Test
+  public void testWindows() throws Exception {
+    Environment env = new DefaultEnvironment();
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient(env, 2500, -1);
+    when(crmServiceMock.getContactsByEmails(any())).thenAnswer(invocation -> {
+      Set<String> emails = invocation.getArgument(0);
+      return emails.stream().map(CrmContact::new).toList();
+    });
+
+    new CampaignActivityService(env).upsertMailchimpCampaignActivities(mailchimpClient, "list1", "campaign_windows", Calendar.getInstance(), "Subject");
+
+    assertEquals(List.of(0, 1000, 2000), mailchimpClient.requestedOffsets);
+    verify(crmServiceMock, times(3)).getContactsByEmails(any());
+    verify(crmServiceMock, times(3)).batchFlush();
+    // every 10th recipient wasn't sent
+    verify(crmServiceMock, times(2250)).batchInsertActivity(any(CrmActivity.class));
+  }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    Environment env = databaseEnvironment();
+
+    // fail on the third window
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient(env, 2500, 2000);
+    CampaignActivityService campaignActivityService = new CampaignActivityService(env);
+    assertThrows(IOException.class, () -> campaignActivityService.upsertMailchimpCampaignActivities(
+        mailchimpClient, "list1", "campaign_resume", Calendar.getInstance(), "Subject"));
+    assertEquals(List.of(0, 1000, 2000), mailchimpClient.requestedOffsets);
+
+    // the retry must only pick up the unfinished window, even from another instance
+    FakeMailchimpClient retryMailchimpClient = new FakeMailchimpClient(env, 2500, -1);
+    new CampaignActivityService(env).upsertMailchimpCampaignActivities(
+        retryMailchimpClient, "list1", "campaign_resume", Calendar.getInstance(), "Subject");
+    assertEquals(List.of(2000), retryMailchimpClient.requestedOffsets);
+    verify(crmServiceMock, times(3)).getContactsByEmails(any());
+    assertEquals(JobStatus.DONE, job("campaign_resume").status);
+
+    // and any later delivery is a no-op
+    FakeMailchimpClient lateMailchimpClient = new FakeMailchimpClient(env, 2500, -1);
+    new CampaignActivityService(env).upsertMailchimpCampaignActivities(
+        lateMailchimpClient, "list1", "campaign_resume", Calendar.getInstance(), "Subject");
+    assertTrue(lateMailchimpClient.requestedOffsets.isEmpty());
+  }
+
+  @Test
+  public void testResumeFromScheduledRun() throws Exception {
+    Environment env = databaseEnvironment();
+
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient(env, 2500, 1000);
+    assertThrows(IOException.class, () -> new CampaignActivityService(env).upsertMailchimpCampaignActivities(
+        mailchimpClient, "list1", "campaign_scheduled", Calendar.getInstance(), "Subject"));
+
+    // no webhook retry, but the next scheduled run picks it up
+    resumeMailchimpClient = new FakeMailchimpClient(env, 2500, -1);
+    env.scheduledJobService().processJobSchedules(Instant.now());
+    assertEquals(List.of(1000, 2000), resumeMailchimpClient.requestedOffsets);
+    assertEquals(JobStatus.DONE, job("campaign_scheduled").status);
+
+    // only once
+    env.scheduledJobService().processJobSchedules(Instant.now());
+    assertEquals(List.of(1000, 2000), resumeMailchimpClient.requestedOffsets);
+  }
+
+  @Test
+  public void testReplayedWindowIsIdempotent() throws Exception {
+    Environment env = new DefaultEnvironment();
+    when(crmServiceMock.getContactsByEmails(any())).thenAnswer(invocation -> {
+      Set<String> emails = invocation.getArgument(0);
+      return emails.stream().map(CrmContact::new).toList();
+    });
+    // the first 500 were already recorded
+    when(crmServiceMock.getActivitiesByExternalRefs(any())).thenAnswer(invocation -> {
+      List<String> extRefs = invocation.getArgument(0);
+      return extRefs.stream()
+          .filter(extRef -> Integer.parseInt(extRef.substring("recipient".length(), extRef.indexOf('@'))) < 500)
+          .map(extRef -> {
+            CrmActivity crmActivity = new CrmActivity("activity_" + extRef);
+            crmActivity.externalReference = extRef;
+            crmActivity.description = "campaign body";
+            return crmActivity;
+          }).toList();
+    });
+
+    new CampaignActivityService(env).upsertMailchimpCampaignActivities(
+        new FakeMailchimpClient(env, 1000, -1), "list1", "campaign_replay", Calendar.getInstance(), "Subject");
+
+    // every 10th recipient wasn't sent
+    verify(crmServiceMock, times(450)).batchInsertActivity(any(CrmActivity.class));
+    verify(crmServiceMock, never()).batchUpdateActivity(any(CrmActivity.class));
+  }
+
+  private FakeMailchimpClient resumeMailchimpClient;
+
+  private Environment databaseEnvironment() {
+    EnvironmentConfig envConfig = new EnvironmentConfig() {
+      @Override
+      public boolean isDatabaseConnected() {
+        return true;
+      }
+    };
+    envConfig.apiKey = "campaign-activities";
+    EnvironmentConfig.CommunicationList communicationList = new EnvironmentConfig.CommunicationList();
+    communicationList.id = "list1";
+    EnvironmentConfig.CommunicationPlatform mailchimpConfig = new EnvironmentConfig.CommunicationPlatform();
+    mailchimpConfig.lists.add(communicationList);
+    envConfig.mailchimp.add(mailchimpConfig);
+
+    Organization org = new Organization();
+    org.setId(1);
+    org.setNucleusApiKey(envConfig.apiKey);
+    new HibernateDao<Long, Organization>(Organization.class).insert(org);
+
+    return new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+
+      @Override
+      public MailchimpClient mailchimpClient(EnvironmentConfig.CommunicationPlatform mailchimpConfig) {
+        return resumeMailchimpClient;
+      }
+    };
+  }
+
+  private Job job(String campaignId) {
+    return new HibernateDao<Long, Job>(Job.class).getQueryResult(
+        "FROM Job WHERE traceId = :traceId",
+        query -> query.setParameter("traceId", "mailchimp-campaign::list1::" + campaignId)
+    ).get();
+  }
+
+  private static class FakeMailchimpClient extends MailchimpClient {
+
+    private final int recipientCount;
+    private final int failAtOffset;
+    private final List<Integer> requestedOffsets = new ArrayList<>();
+
+    public FakeMailchimpClient(Environment env, int recipientCount, int failAtOffset) {
+      super(mailchimpConfig(), env);
+      this.recipientCount = recipientCount;
+      this.failAtOffset = failAtOffset;
+    }
+
+    private static EnvironmentConfig.CommunicationPlatform mailchimpConfig() {
+      EnvironmentConfig.CommunicationPlatform mailchimpConfig = new EnvironmentConfig.CommunicationPlatform();
+      mailchimpConfig.secretKey = "abc123-us1";
+      return mailchimpConfig;
+    }
+
+    @Override
+    public List<SentToInfo> getCampaignRecipients(String campaignId, int offset, int count) throws IOException, MailchimpException {
+      requestedOffsets.add(offset);
+      if (offset == failAtOffset) {
+        throw new IOException("timeout");
+      }
+
+      List<SentToInfo> sentTos = new ArrayList<>();
+      for (int i = offset; i < Math.min(offset + count, recipientCount); i++) {
+        SentToInfo sentTo = new SentToInfo();
+        sentTo.email_address = "recipient" + i + "@test.com";
+        sentTo.status = i % 10 == 0 ? null : SentToInfo.Status.SEND;
+        sentTos.add(sentTo);
+      }
+      return sentTos;
+    }
+
+    @Override
+    public ContentInfo getCampaignContent(String campaignId) {
+      ContentInfo contentInfo = new ContentInfo();
+      contentInfo.plain_text = "campaign body";
+      return contentInfo;
+    }
+  }
+}
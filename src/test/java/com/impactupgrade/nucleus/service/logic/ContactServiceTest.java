@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmAccount;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.CrmDonation;
+import com.impactupgrade.nucleus.model.PagedResults;
+import com.impactupgrade.nucleus.model.PaymentGatewayEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContactServiceTest extends AbstractMockTest {
+
+  private static final int EVENTS = 8;
+
+  @Test
+  public void testConcurrentDuplicateEvents() throws Exception {
+    // unique per test, since in-flight lookups are shared across the process
+    String apiKey = UUID.randomUUID().toString();
+    CrmAccount crmAccount = new CrmAccount();
+    crmAccount.id = "account_1";
+    crmAccount.billingAddress.street = "123 Main St";
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.account = crmAccount;
+    crmContact.firstName = "Jane";
+    crmContact.lastName = "Doe";
+    crmContact.mailingAddress.street = "123 Main St";
+
+    // every event is in flight before the CRM answers
+    CountDownLatch arrived = new CountDownLatch(EVENTS);
+    when(crmServiceMock.getAccountById("account_1")).thenAnswer(slowly(arrived, Optional.of(crmAccount)));
+    when(crmServiceMock.getContactById("contact_1")).thenAnswer(slowly(arrived, Optional.of(crmContact)));
+
+    // ie, charge.succeeded, payment_intent.succeeded, invoice.paid, etc, all for the same donation
+    ExecutorService executor = Executors.newFixedThreadPool(EVENTS);
+    try {
+      List<Future<PaymentGatewayEvent>> events = new ArrayList<>();
+      for (int i = 0; i < EVENTS; i++) {
+        events.add(executor.submit(() -> {
+          Environment env = env(apiKey);
+          PaymentGatewayEvent event = new PaymentGatewayEvent(env);
+          event.setCrmAccountId("account_1");
+          event.setCrmContactId("contact_1");
+          arrived.countDown();
+          new ContactService(env).processDonor(event, false);
+          return event;
+        }));
+      }
+      for (Future<PaymentGatewayEvent> event : events) {
+        assertEquals("account_1", event.get(30, TimeUnit.SECONDS).getCrmAccount().id);
+        assertEquals("contact_1", event.get().getCrmContact().id);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verify(crmServiceMock, times(1)).getAccountById("account_1");
+    verify(crmServiceMock, times(1)).getContactById("contact_1");
+  }
+
+  @Test
+  public void testJoinedLookupsGetTheirOwnCopies() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.account.id = "account_1";
+    crmContact.mailingAddress.street = "123 Main St";
+
+    CountDownLatch arrived = new CountDownLatch(EVENTS);
+    when(crmServiceMock.getContactById("contact_1")).thenAnswer(slowly(arrived, Optional.of(crmContact)));
+
+    ExecutorService executor = Executors.newFixedThreadPool(EVENTS);
+    List<String> streetsFound = new CopyOnWriteArrayList<>();
+    try {
+      List<Future<CrmContact>> lookups = new ArrayList<>();
+      for (int i = 0; i < EVENTS; i++) {
+        lookups.add(executor.submit(() -> {
+          Environment env = env(apiKey);
+          arrived.countDown();
+          CrmContact found = env.crmLookupCache().getContactById("contact_1", crmServiceMock).get();
+          streetsFound.add(found.mailingAddress.street);
+          // each request goes on to modify its record, which must never leak into one still being handed out
+          found.mailingAddress.street = "changed by " + Thread.currentThread().getName();
+          return found;
+        }));
+      }
+      // one lookup, but a separate record (down to its account and address) for every request, so that a request that
+      // modifies its record can't affect another's
+      Set<Object> records = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (Future<CrmContact> lookup : lookups) {
+        CrmContact found = lookup.get(30, TimeUnit.SECONDS);
+        assertEquals("contact_1", found.id);
+        assertEquals("account_1", found.account.id);
+        records.add(found);
+        records.add(found.account);
+        records.add(found.mailingAddress);
+      }
+      assertEquals(3 * EVENTS, records.size());
+      assertEquals(Collections.nCopies(EVENTS, "123 Main St"), streetsFound);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verify(crmServiceMock, times(1)).getContactById("contact_1");
+  }
+
+  @Test
+  public void testFoundRecordsCachedPerTrace() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.firstName = "Jane";
+    crmContact.lastName = "Doe";
+    crmContact.mailingAddress.street = "123 Main St";
+    when(crmServiceMock.getContactById("contact_1")).thenReturn(Optional.of(crmContact));
+    when(crmServiceMock.getContactById("contact_2")).thenReturn(Optional.empty());
+
+    // one request, processing the donor twice (ie, the donation and then its recurring donation)
+    Environment env = env(apiKey);
+    for (int i = 0; i < 2; i++) {
+      PaymentGatewayEvent event = new PaymentGatewayEvent(env);
+      event.setCrmContactId("contact_1");
+      new ContactService(env).processDonor(event, false);
+      assertEquals("contact_1", event.getCrmContact().id);
+    }
+    verify(crmServiceMock, times(1)).getContactById("contact_1");
+
+    // the next request looks it up again
+    Environment nextEnv = env(apiKey);
+    PaymentGatewayEvent event = new PaymentGatewayEvent(nextEnv);
+    event.setCrmContactId("contact_1");
+    new ContactService(nextEnv).processDonor(event, false);
+    verify(crmServiceMock, times(2)).getContactById("contact_1");
+
+    // misses are never kept, since the donor is typically created next (each pass tries the ID, then falls back to
+    // findExistingContacts, which tries it again)
+    for (int i = 0; i < 2; i++) {
+      PaymentGatewayEvent missing = new PaymentGatewayEvent(env);
+      missing.setCrmContactId("contact_2");
+      new ContactService(env).processDonor(missing, false);
+      assertNull(missing.getCrmAccount().id);
+    }
+    verify(crmServiceMock, times(4)).getContactById("contact_2");
+  }
+
+  @Test
+  public void testDonationHistoryFallback() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.firstName = "Jane";
+    crmContact.lastName = "Doe";
+    crmContact.mailingAddress.street = "123 Main St";
+    CrmDonation crmDonation = new CrmDonation();
+    crmDonation.contact = crmContact;
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(Collections.emptyList()));
+    when(crmServiceMock.getDonationsByCustomerId("cus_1")).thenReturn(List.of(crmDonation));
+    when(crmServiceMock.getContactById("contact_1")).thenReturn(Optional.of(crmContact));
+
+    // no CRM IDs and no match by email, but the customer has given before
+    Environment env = env(apiKey);
+    PaymentGatewayEvent event = new PaymentGatewayEvent(env);
+    event.getCrmContact().email = "jane@example.com";
+    event.getCrmDonation().customerId = "cus_1";
+    new ContactService(env).processDonor(event, false);
+
+    assertEquals("contact_1", event.getCrmContact().id);
+    verify(crmServiceMock, times(1)).getDonationsByCustomerId("cus_1");
+    verify(crmServiceMock, never()).getRecurringDonationBySubscriptionId(any());
+  }
+
+  private <T> Answer<T> slowly(CountDownLatch arrived, T result) {
+    return invocation -> {
+      arrived.await(10, TimeUnit.SECONDS);
+      // give the events that arrived last a moment to reach the lookup
+      Thread.sleep(200);
+      return result;
+    };
+  }
+
+  private Environment env(String apiKey) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.apiKey = apiKey;
+    return new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+  }
+}
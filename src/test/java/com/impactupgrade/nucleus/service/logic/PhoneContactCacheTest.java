@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.logic;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.PagedResults;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PhoneContactCacheTest extends AbstractMockTest {
+
+  @Test
+  public void testOneSearchPerMessage() throws Exception {
+    // unique per test, since the process-wide layer outlives any one test
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.mobilePhone = "+12605550101";
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of(crmContact)));
+
+    // a single inbound message, touching the number in several formats and through several services
+    Environment env = env(apiKey);
+    assertEquals("contact_1", env.phoneContactCache().getContactByPhone("+1 (260) 555-0101", crmServiceMock).get().id);
+    assertEquals("contact_1", env.phoneContactCache().getContactByPhone("260.555.0101", crmServiceMock).get().id);
+    CrmContact inbound = new CrmContact();
+    inbound.mobilePhone = "2605550101";
+    assertEquals("contact_1", env.contactService().findExistingContacts(inbound).get(0).id);
+    verify(crmServiceMock, times(1)).searchContacts(argThat(search -> search.phone != null));
+
+    // the next message from the same number, moments later, hits the process-wide layer
+    Environment nextEnv = env(apiKey);
+    assertEquals("contact_1", nextEnv.phoneContactCache().getContactByPhone("+12605550101", crmServiceMock).get().id);
+    verify(crmServiceMock, times(1)).searchContacts(argThat(search -> search.phone != null));
+
+    // another org with the same number must never see this org's contact
+    env(UUID.randomUUID().toString()).phoneContactCache().getContactByPhone("+12605550101", crmServiceMock);
+    verify(crmServiceMock, times(2)).searchContacts(argThat(search -> search.phone != null));
+  }
+
+  @Test
+  public void testInvalidatedByWrites() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.mobilePhone = "+12605550102";
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of(crmContact)));
+
+    // opting in looks the contact up once, then updates it, which drops it from both layers
+    Environment env = env(apiKey);
+    env.messagingService().optIn("+1 260-555-0102");
+    verify(crmServiceMock, times(1)).searchContacts(argThat(search -> search.phone != null));
+    verify(crmServiceMock).updateContact(argThat(updated -> "contact_1".equals(updated.id) && Boolean.TRUE.equals(updated.smsOptIn)));
+
+    env.phoneContactCache().getContactByPhone("+12605550102", crmServiceMock);
+    env(apiKey).phoneContactCache().getContactByPhone("+12605550102", crmServiceMock);
+    verify(crmServiceMock, times(2)).searchContacts(argThat(search -> search.phone != null));
+  }
+
+  @Test
+  public void testOldNumberInvalidatedOnChange() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.mobilePhone = "+12605550105";
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of(crmContact)));
+
+    // the contact's number is replaced in place, then written back...
+    Environment env = env(apiKey);
+    CrmContact cached = env.phoneContactCache().getContactByPhone("+12605550105", crmServiceMock).get();
+    cached.mobilePhone = "+12605550106";
+    env.phoneContactCache().invalidate(cached, crmServiceMock);
+
+    // ... so the old number must not still resolve to it, in either layer
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(Collections.emptyList()));
+    assertTrue(env.phoneContactCache().getContactByPhone("+12605550105", crmServiceMock).isEmpty());
+    assertTrue(env(apiKey).phoneContactCache().getContactByPhone("+12605550105", crmServiceMock).isEmpty());
+    verify(crmServiceMock, times(3)).searchContacts(argThat(search -> search.phone != null));
+  }
+
+  @Test
+  public void testRequestsGetTheirOwnCopies() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_1";
+    crmContact.mobilePhone = "+12605550104";
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of(crmContact)));
+
+    // one request modifies its contact without writing it back...
+    CrmContact first = env(apiKey).phoneContactCache().getContactByPhone("+12605550104", crmServiceMock).get();
+    first.smsOptIn = true;
+    first.account.billingAddress.city = "Fort Wayne";
+
+    // ... which a concurrent request must not see
+    CrmContact second = env(apiKey).phoneContactCache().getContactByPhone("+12605550104", crmServiceMock).get();
+    verify(crmServiceMock, times(1)).searchContacts(argThat(search -> search.phone != null));
+    assertNotSame(first, second);
+    assertNull(second.smsOptIn);
+    assertNull(second.account.billingAddress.city);
+  }
+
+  @Test
+  public void testMissingContactNotStale() throws Exception {
+    String apiKey = UUID.randomUUID().toString();
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(Collections.emptyList()));
+    when(crmServiceMock.insertContact(any())).thenReturn("contact_2");
+
+    // a signup from an unknown number inserts the contact...
+    Environment env = env(apiKey);
+    CrmContact inserted = env.messagingService().processSignup("+12605550103", "Jane", "Doe", null, null, null, null, null, null, Collections.emptyMap());
+    assertEquals("contact_2", inserted.id);
+
+    // ... so the cached "no match" must not survive it
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of(inserted)));
+    assertEquals("contact_2", env.phoneContactCache().getContactByPhone("2605550103", crmServiceMock).get().id);
+    verify(crmServiceMock, times(2)).searchContacts(argThat(search -> search.phone != null));
+  }
+
+  @Test
+  public void testUnparseableNumbersSkipCache() throws Exception {
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(Collections.emptyList()));
+
+    Environment env = env(UUID.randomUUID().toString());
+    assertTrue(env.phoneContactCache().getContactByPhone("12", crmServiceMock).isEmpty());
+    assertTrue(env.phoneContactCache().getContactByPhone("12", crmServiceMock).isEmpty());
+    verify(crmServiceMock, times(2)).searchContacts(argThat(search -> search.phone != null));
+  }
+
+  private Environment env(String apiKey) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.apiKey = apiKey;
+    return new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.util.Utils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommunicationRulesTest {
+
+  private static final String[] FIELD_VALUES = {null, "", "Donor", "DONOR", "donor", "Volunteer", "Board Member"};
+  private static final String[] MAPPING_VALUES = {null, "", "Donor", "volunteer", "Staff"};
+  private static final String[] NAMES = {"Spring Gala 2024", "  Year-End Appeal!", "Jane O'Neil", "__Board__", "Caf\u00e9 Night", "5K Run/Walk"};
+
+  @Test
+  public void testOperators() {
+    assertTrue(CommunicationRules.matches("Donor", EnvironmentConfig.Operator.NOT_EMPTY, null));
+    assertFalse(CommunicationRules.matches("", EnvironmentConfig.Operator.NOT_EMPTY, null));
+    assertFalse(CommunicationRules.matches(null, EnvironmentConfig.Operator.NOT_EMPTY, null));
+
+    assertTrue(CommunicationRules.matches("DONOR", EnvironmentConfig.Operator.EQUAL_TO, "donor"));
+    assertFalse(CommunicationRules.matches("Volunteer", EnvironmentConfig.Operator.EQUAL_TO, "donor"));
+    assertFalse(CommunicationRules.matches("", EnvironmentConfig.Operator.EQUAL_TO, ""));
+
+    assertTrue(CommunicationRules.matches("Volunteer", EnvironmentConfig.Operator.NOT_EQUAL_TO, "donor"));
+    assertFalse(CommunicationRules.matches("Donor", EnvironmentConfig.Operator.NOT_EQUAL_TO, "DONOR"));
+    assertFalse(CommunicationRules.matches("", EnvironmentConfig.Operator.NOT_EQUAL_TO, "donor"));
+
+    assertFalse(CommunicationRules.matches("Donor", null, "Donor"));
+  }
+
+  @Test
+  public void testNotEmptyTag() throws Exception {
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    platform.crmFieldToCommunicationTags.add(tagMapping("Major_Donor__c", EnvironmentConfig.Operator.NOT_EMPTY, null, "major_donor"));
+    RulesCommunicationService communicationService = new RulesCommunicationService();
+
+    CrmContact majorDonor = crmContact(Map.of("Major_Donor__c", "Yes"));
+    CrmContact other = crmContact(new HashMap<>());
+    assertTrue(communicationService.buildContactTags(majorDonor, null, platform, null).contains("major_donor"));
+    assertFalse(communicationService.buildContactTags(other, null, platform, null).contains("major_donor"));
+  }
+
+  // The compiled rules give the same tags and fields as walking the mappings one at a time, for random configs and contacts.
+  @Test
+  public void testEquivalentToPerMappingEvaluation() throws Exception {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      EnvironmentConfig.CommunicationPlatform platform = randomPlatform(random, 1 + random.nextInt(15), 1 + random.nextInt(5));
+      RulesCommunicationService communicationService = new RulesCommunicationService();
+      for (int i = 0; i < 50; i++) {
+        CrmContact crmContact = randomContact(random);
+        List<String> campaignNames = randomCampaignNames(random);
+
+        assertEquals(referenceTags(communicationService, crmContact, campaignNames, platform),
+            communicationService.buildContactTags(crmContact, campaignNames, platform, null));
+        assertEquals(referenceFields(communicationService, crmContact, platform),
+            fields(communicationService.buildContactCustomFields(crmContact, platform, null)));
+      }
+    }
+  }
+
+  @Test
+  public void testSharedFieldsFetchedOnce() {
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    platform.crmFieldToCommunicationTags.add(tagMapping("Type", EnvironmentConfig.Operator.EQUAL_TO, "Donor", "type_donor"));
+    platform.crmFieldToCommunicationTags.add(tagMapping("Type", EnvironmentConfig.Operator.EQUAL_TO, "Volunteer", "type_volunteer"));
+    platform.crmFieldToCommunicationTags.add(tagMapping("Type", EnvironmentConfig.Operator.NOT_EMPTY, null, "has_type"));
+    CommunicationRules rules = CommunicationRules.compile(platform);
+
+    List<String> fetched = new ArrayList<>();
+    CrmContact crmContact = new CrmContact();
+    crmContact.fieldFetcher = name -> {
+      fetched.add(name);
+      return "donor";
+    };
+    Set<String> tags = new HashSet<>();
+    rules.addTags(crmContact, tags);
+
+    assertEquals(Set.of("type_donor", "has_type"), tags);
+    assertEquals(List.of("Type"), fetched);
+  }
+
+  // An org's service that customizes a single-mapping hook still gets its way.
+  @Test
+  public void testOverriddenHooksHonored() throws Exception {
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    platform.crmFieldToCommunicationTags.add(tagMapping("Type", EnvironmentConfig.Operator.EQUAL_TO, "Donor", "type_donor"));
+    EnvironmentConfig.CrmFieldToCommunicationField fieldMapping = new EnvironmentConfig.CrmFieldToCommunicationField();
+    fieldMapping.crmFieldName = "Type";
+    fieldMapping.communicationFieldName = "type";
+    platform.crmFieldToCommunicationFields.add(fieldMapping);
+    RulesCommunicationService communicationService = new RulesCommunicationService() {
+      @Override
+      protected boolean evaluate(String crmFieldValueString, EnvironmentConfig.Operator operator, String value) {
+        // ie, an org whose CRM prefixes its picklist values
+        return super.evaluate(crmFieldValueString.replace("Type: ", ""), operator, value);
+      }
+
+      @Override
+      protected CustomField getCustomField(CrmContact crmContact, EnvironmentConfig.CrmFieldToCommunicationField mapping) {
+        CustomField customField = super.getCustomField(crmContact, mapping);
+        customField.value = customField.value.toString().toUpperCase();
+        return customField;
+      }
+    };
+
+    CrmContact crmContact = crmContact(Map.of("Type", "Type: Donor"));
+    assertTrue(communicationService.buildContactTags(crmContact, null, platform, null).contains("type_donor"));
+    assertTrue(fields(communicationService.buildContactCustomFields(crmContact, platform, null)).contains("type|STRING|TYPE: DONOR"));
+  }
+
+  // Timing-sensitive, so only run on request: mvn test -Dbenchmarks=true
+  @Test
+  @Tag("benchmark")
+  @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+  public void testBenchmark() throws Exception {
+    Random random = new Random(7);
+    EnvironmentConfig.CommunicationPlatform platform = randomPlatform(random, 20, 5);
+    List<CrmContact> crmContacts = new ArrayList<>();
+    List<List<String>> campaignNames = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      crmContacts.add(randomContact(random));
+      campaignNames.add(randomCampaignNames(random));
+    }
+    RulesCommunicationService communicationService = new RulesCommunicationService();
+
+    // warm up both paths
+    for (int i = 0; i < 10_000; i++) {
+      referenceTags(communicationService, crmContacts.get(i), campaignNames.get(i), platform);
+      communicationService.buildContactTags(crmContacts.get(i), campaignNames.get(i), platform, null);
+    }
+
+    List<Set<String>> referenceTags = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < crmContacts.size(); i++) {
+      referenceTags.add(referenceTags(communicationService, crmContacts.get(i), campaignNames.get(i), platform));
+    }
+    long referenceMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    List<Set<String>> compiledTags = new ArrayList<>();
+    start = System.nanoTime();
+    for (int i = 0; i < crmContacts.size(); i++) {
+      compiledTags.add(communicationService.buildContactTags(crmContacts.get(i), campaignNames.get(i), platform, null));
+    }
+    long compiledMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(referenceTags, compiledTags);
+    assertTrue(compiledMillis < referenceMillis, "100k contacts: compiled " + compiledMillis + "ms, per-mapping " + referenceMillis + "ms");
+  }
+
+  // How buildContactTags worked before the mappings were compiled: every mapping walked, and every name slugged.
+  private Set<String> referenceTags(RulesCommunicationService communicationService, CrmContact crmContact,
+      List<String> campaignNames, EnvironmentConfig.CommunicationPlatform platform) {
+    Set<String> tags = new HashSet<>();
+    if (crmContact.lastDonationDate != null) {
+      tags.add("donor");
+    }
+    if (crmContact.ownerName != null) {
+      tags.add("owner_" + Utils.toSlug(crmContact.ownerName));
+    }
+    if (campaignNames != null) {
+      for (String c : campaignNames) {
+        tags.add("campaign_" + Utils.toSlug(c));
+      }
+    }
+    if (crmContact.account.recordTypeName != null && !crmContact.account.recordTypeName.isEmpty()) {
+      tags.add("account_type_" + Utils.toSlug(crmContact.account.recordTypeName));
+    }
+    for (EnvironmentConfig.CrmFieldToCommunicationTag mapping : platform.crmFieldToCommunicationTags) {
+      String tagName = communicationService.getTagName(crmContact, mapping);
+      if (tagName != null) {
+        tags.add(tagName);
+      }
+    }
+    return tags;
+  }
+
+  private Set<String> referenceFields(RulesCommunicationService communicationService, CrmContact crmContact,
+      EnvironmentConfig.CommunicationPlatform platform) throws Exception {
+    EnvironmentConfig.CommunicationPlatform unmapped = new EnvironmentConfig.CommunicationPlatform();
+    List<AbstractCommunicationService.CustomField> customFields = communicationService.buildContactCustomFields(crmContact, unmapped, null);
+    for (EnvironmentConfig.CrmFieldToCommunicationField mapping : platform.crmFieldToCommunicationFields) {
+      AbstractCommunicationService.CustomField customField = communicationService.getCustomField(crmContact, mapping);
+      if (customField != null) {
+        customFields.add(customField);
+      }
+    }
+    return fields(customFields);
+  }
+
+  private Set<String> fields(List<AbstractCommunicationService.CustomField> customFields) {
+    return customFields.stream()
+        .map(customField -> customField.name + "|" + customField.type + "|" + customField.value)
+        .collect(Collectors.toSet());
+  }
+
+  private EnvironmentConfig.CommunicationPlatform randomPlatform(Random random, int tagMappings, int fieldMappings) {
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    EnvironmentConfig.Operator[] operators = EnvironmentConfig.Operator.values();
+    for (int i = 0; i < tagMappings; i++) {
+      // occasionally no operator, which never matches
+      EnvironmentConfig.Operator operator = random.nextInt(10) == 0 ? null : operators[random.nextInt(operators.length)];
+      platform.crmFieldToCommunicationTags.add(tagMapping("Field_" + random.nextInt(8) + "__c", operator,
+          MAPPING_VALUES[random.nextInt(MAPPING_VALUES.length)], "tag_" + i));
+    }
+    for (int i = 0; i < fieldMappings; i++) {
+      EnvironmentConfig.CrmFieldToCommunicationField mapping = new EnvironmentConfig.CrmFieldToCommunicationField();
+      mapping.crmFieldName = "Field_" + random.nextInt(8) + "__c";
+      mapping.communicationFieldName = "field_" + i;
+      platform.crmFieldToCommunicationFields.add(mapping);
+    }
+    return platform;
+  }
+
+  private CrmContact randomContact(Random random) {
+    Map<String, Object> fields = new HashMap<>();
+    for (int i = 0; i < 8; i++) {
+      fields.put("Field_" + i + "__c", switch (random.nextInt(10)) {
+        case 0 -> 42;
+        case 1 -> true;
+        default -> FIELD_VALUES[random.nextInt(FIELD_VALUES.length)];
+      });
+    }
+    CrmContact crmContact = crmContact(fields);
+    crmContact.id = "contact_" + random.nextInt();
+    if (random.nextBoolean()) {
+      crmContact.lastDonationDate = Calendar.getInstance();
+    }
+    if (random.nextBoolean()) {
+      crmContact.ownerName = NAMES[random.nextInt(NAMES.length)];
+    }
+    if (random.nextBoolean()) {
+      crmContact.account.recordTypeName = random.nextInt(5) == 0 ? "" : NAMES[random.nextInt(NAMES.length)];
+    }
+    return crmContact;
+  }
+
+  private List<String> randomCampaignNames(Random random) {
+    if (random.nextInt(5) == 0) {
+      return null;
+    }
+    List<String> campaignNames = new ArrayList<>();
+    for (int i = random.nextInt(4); i > 0; i--) {
+      campaignNames.add(NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(10));
+    }
+    return campaignNames;
+  }
+
+  private CrmContact crmContact(Map<String, Object> fields) {
+    CrmContact crmContact = new CrmContact();
+    crmContact.fieldFetcher = fields::get;
+    return crmContact;
+  }
+
+  private EnvironmentConfig.CrmFieldToCommunicationTag tagMapping(String crmFieldName, EnvironmentConfig.Operator operator,
+      String value, String communicationTagName) {
+    EnvironmentConfig.CrmFieldToCommunicationTag mapping = new EnvironmentConfig.CrmFieldToCommunicationTag();
+    mapping.crmFieldName = crmFieldName;
+    mapping.operator = operator;
+    mapping.value = value;
+    mapping.communicationTagName = communicationTagName;
+    return mapping;
+  }
+
+  // Only the tag and field building is exercised.
+  private static class RulesCommunicationService extends AbstractCommunicationService {
+
+    @Override
+    public String name() {
+      return "rules";
+    }
+
+    @Override
+    public boolean isConfigured(Environment env) {
+      return true;
+    }
+
+    @Override
+    protected List<EnvironmentConfig.CommunicationPlatform> getPlatformConfigs() {
+      return List.of();
+    }
+
+    @Override
+    protected ExistingContacts getExistingContacts(EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      return new ExistingContacts();
+    }
+
+    @Override
+    protected void executeBatchUpsert(List<CrmContact> contacts, Map<String, Map<String, Object>> customFields,
+        Map<String, Set<String>> tags, ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+    }
+
+    @Override
+    protected void executeBatchArchive(Set<String> emails, ExistingContacts existingContacts,
+        EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+    }
+
+    @Override
+    protected Set<String> getUnsubscribedEmails(Calendar lastSync, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      return Set.of();
+    }
+
+    @Override
+    protected Set<String> getBouncedEmails(Calendar lastSync, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      return Set.of();
+    }
+
+    @Override
+    protected Map<String, Object> buildPlatformCustomFields(CrmContact crmContact,
+        EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+      return Map.of();
+    }
+  }
+}
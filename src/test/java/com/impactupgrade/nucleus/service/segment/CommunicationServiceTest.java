@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.PagedResults;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CommunicationServiceTest extends AbstractMockTest {
+
+  // how long each list's upsert takes on the (fake) platform
+  private static final long UPSERT_MILLIS = 300;
+
+  @Test
+  public void testListsSyncInParallel() throws Exception {
+    stubCrm();
+    List<String> jobLogs = Collections.synchronizedList(new ArrayList<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(true, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"), list("a2", "Type = 'Donor'"), list("a3", "Type = 'Volunteer'")),
+        platform("account_b", list("b1", "Type = 'Donor'"))
+    ));
+    communicationService.init(env(jobLogs));
+
+    long start = System.nanoTime();
+    communicationService.syncContacts(null);
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // 4 lists, but account_a is capped at 2 at a time -> 2 rounds, rather than 4
+    assertTrue(millis < UPSERT_MILLIS * 4, "syncContacts: " + millis + "ms");
+    assertEquals(2, communicationService.maxConcurrent("account_a"));
+    assertEquals(1, communicationService.maxConcurrent("account_b"));
+    assertEquals(List.of("a1", "a2", "a3", "b1"), communicationService.upsertedLists.stream().sorted().toList());
+
+    // the 3 lists sharing a filter query the CRM once between them, and none of them filter accounts
+    verify(crmServiceMock, times(2)).getEmailContacts(any(), any());
+    verify(crmServiceMock, times(1)).getEmailAccounts(any(), any());
+  }
+
+  @Test
+  public void testJobLogsInListOrder() throws Exception {
+    stubCrm();
+    List<String> jobLogs = Collections.synchronizedList(new ArrayList<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(true, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"), list("a2", "Type = 'Volunteer'")),
+        platform("account_b", list("b1", "Type = 'Staff'"))
+    ));
+    // the first list finishes last
+    communicationService.slowLists.add("a1");
+    communicationService.init(env(jobLogs));
+
+    communicationService.syncContacts(null);
+
+    assertEquals(List.of("upserted 1 into a1", "upserted 1 into a2", "upserted 1 into b1"), jobLogs);
+  }
+
+  @Test
+  public void testFirstFailureSurfacedAfterAllLists() throws Exception {
+    stubCrm();
+    List<String> jobLogs = Collections.synchronizedList(new ArrayList<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(true, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"), list("a2", "Type = 'Volunteer'")),
+        platform("account_b", list("b1", "Type = 'Staff'"), list("b2", "Type = 'Board'"))
+    ));
+    communicationService.failingLists.addAll(Set.of("a2", "b2"));
+    communicationService.init(env(jobLogs));
+
+    Exception e = assertThrows(Exception.class, () -> communicationService.syncContacts(null));
+
+    assertEquals("a2 unavailable", e.getMessage());
+    // one list failing doesn't stop the others
+    assertEquals(List.of("a1", "b1"), communicationService.upsertedLists.stream().sorted().toList());
+    assertEquals(List.of("upserted 1 into a1", "upserted 1 into b1"), jobLogs);
+  }
+
+  @Test
+  public void testSequentialUnlessThreadSafe() throws Exception {
+    stubCrm();
+    List<String> jobLogs = Collections.synchronizedList(new ArrayList<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(false, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"), list("a2", "Type = 'Donor'")),
+        platform("account_b", list("b1", "Type = 'Staff'"))
+    ));
+    communicationService.init(env(jobLogs));
+
+    communicationService.syncContacts(null);
+
+    assertEquals(1, communicationService.maxConcurrent("account_a"));
+    assertEquals(List.of("a1", "a2", "b1"), communicationService.upsertedLists);
+    assertEquals(List.of("upserted 1 into a1", "upserted 1 into a2", "upserted 1 into b1"), jobLogs);
+    // still shares the CRM query between a1 and a2
+    verify(crmServiceMock, times(2)).getEmailContacts(any(), any());
+  }
+
+  @Test
+  public void testSharedPagesReleasedAfterLastList() throws Exception {
+    stubCrm();
+    FakeCommunicationService communicationService = new FakeCommunicationService(false, List.of());
+    communicationService.init(env(new ArrayList<>()));
+    EnvironmentConfig.CommunicationList a1 = list("a1", "Type = 'Donor'");
+    EnvironmentConfig.CommunicationList a2 = list("a2", "Type = 'Donor'");
+    AbstractCommunicationService.CrmPageCache crmPageCache = communicationService.new CrmPageCache(null, List.of(a1, a2));
+
+    List<String> emails = new ArrayList<>();
+    crmPageCache.forEachContactPage(a1, resultSet -> resultSet.getRecords().forEach(c -> emails.add(c.email)));
+    crmPageCache.forEachContactPage(a2, resultSet -> resultSet.getRecords().forEach(c -> emails.add(c.email)));
+    assertEquals(List.of("TypeDonor@test.com", "TypeDonor@test.com"), emails);
+    verify(crmServiceMock, times(1)).getEmailContacts(any(), any());
+
+    // both lists are done, so the pages are gone -- reading them again has to go back to the CRM
+    crmPageCache.forEachContactPage(a1, resultSet -> {});
+    verify(crmServiceMock, times(2)).getEmailContacts(any(), any());
+  }
+
+  @Test
+  public void testOnlyChangedContactsSent() throws Exception {
+    CrmContact a = crmContact("a@test.com", "Alice");
+    CrmContact b = crmContact("b@test.com", "Bob");
+    CrmContact c = crmContact("c@test.com", "Carol");
+    when(crmServiceMock.getEmailContacts(any(), any())).thenAnswer(invocation -> PagedResults.unpagedResults(List.of(a, b, c)));
+    when(crmServiceMock.getEmailAccounts(any(), any())).thenReturn(new PagedResults<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(false, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"))
+    ));
+    communicationService.upsertMillis = 0;
+    communicationService.init(databaseEnv());
+
+    // new to the platform, so everything is sent
+    communicationService.syncContacts(null);
+    assertEquals(List.of("a@test.com", "b@test.com", "c@test.com"), communicationService.sentEmails);
+
+    // nothing changed
+    communicationService.sentEmails.clear();
+    communicationService.syncContacts(null);
+    assertEquals(List.of(), communicationService.sentEmails);
+
+    // only b changed
+    b.firstName = "Robert";
+    communicationService.syncContacts(null);
+    assertEquals(List.of("b@test.com"), communicationService.sentEmails);
+  }
+
+  @Test
+  public void testUnconfirmedContactsResent() throws Exception {
+    CrmContact a = crmContact("a@test.com", "Alice");
+    CrmContact b = crmContact("b@test.com", "Bob");
+    when(crmServiceMock.getEmailContacts(any(), any())).thenAnswer(invocation -> PagedResults.unpagedResults(List.of(a, b)));
+    when(crmServiceMock.getEmailAccounts(any(), any())).thenReturn(new PagedResults<>());
+    FakeCommunicationService communicationService = new FakeCommunicationService(false, List.of(
+        platform("account_a", list("a1", "Type = 'Donor'"))
+    ));
+    communicationService.upsertMillis = 0;
+    // the platform rejects b
+    communicationService.unconfirmedEmails.add("b@test.com");
+    communicationService.init(databaseEnv());
+
+    communicationService.syncContacts(null);
+    assertEquals(List.of("a@test.com", "b@test.com"), communicationService.sentEmails);
+
+    communicationService.sentEmails.clear();
+    communicationService.unconfirmedEmails.clear();
+    communicationService.syncContacts(null);
+    assertEquals(List.of("b@test.com"), communicationService.sentEmails);
+
+    communicationService.sentEmails.clear();
+    communicationService.syncContacts(null);
+    assertEquals(List.of(), communicationService.sentEmails);
+  }
+
+  private CrmContact crmContact(String email, String firstName) {
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_" + email;
+    crmContact.email = email;
+    crmContact.firstName = firstName;
+    return crmContact;
+  }
+
+  private void stubCrm() throws Exception {
+    when(crmServiceMock.getEmailContacts(any(), any())).thenAnswer(invocation -> {
+      EnvironmentConfig.CommunicationList communicationList = invocation.getArgument(1);
+      CrmContact crmContact = new CrmContact();
+      crmContact.id = "contact_" + communicationList.crmFilter;
+      crmContact.email = communicationList.crmFilter.replaceAll("\\W", "") + "@test.com";
+      return PagedResults.unpagedResults(List.of(crmContact));
+    });
+    when(crmServiceMock.getEmailAccounts(any(), any())).thenReturn(new PagedResults<>());
+  }
+
+  private EnvironmentConfig.CommunicationPlatform platform(String secretKey, EnvironmentConfig.CommunicationList... lists) {
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    platform.secretKey = secretKey;
+    platform.lists = List.of(lists);
+    return platform;
+  }
+
+  private EnvironmentConfig.CommunicationList list(String id, String crmFilter) {
+    EnvironmentConfig.CommunicationList communicationList = new EnvironmentConfig.CommunicationList();
+    communicationList.id = id;
+    communicationList.type = EnvironmentConfig.CommunicationListType.TRANSACTIONAL;
+    communicationList.crmFilter = crmFilter;
+    return communicationList;
+  }
+
+  private Environment env(List<String> jobLogs) {
+    JobLoggingService jobLoggingService = new JobLoggingService() {
+      @Override public void startLog(JobType jobType, String username, String jobName, String originatingPlatform) {}
+      @Override public void endLog(JobStatus jobStatus) {}
+      @Override public void info(String message, Object... params) { jobLogs.add(format(message, params)); }
+      @Override public void warn(String message, Object... params) { jobLogs.add(format(message, params)); }
+      @Override public void error(String message, Object... params) { jobLogs.add(format(message, params)); }
+      @Override public String name() { return "test"; }
+      @Override public boolean isConfigured(Environment env) { return true; }
+      @Override public void init(Environment env) {}
+    };
+    return new DefaultEnvironment() {
+      @Override
+      public Set<JobLoggingService> jobLoggingServices() {
+        return Set.of(jobLoggingService);
+      }
+    };
+  }
+
+  private Environment databaseEnv() {
+    EnvironmentConfig envConfig = new EnvironmentConfig() {
+      @Override
+      public boolean isDatabaseConnected() {
+        return true;
+      }
+    };
+    envConfig.loggers = Set.of("console");
+    return new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+  }
+
+  private static class FakeCommunicationService extends AbstractCommunicationService {
+
+    private final boolean threadSafe;
+    private final List<EnvironmentConfig.CommunicationPlatform> platforms;
+    private final Set<String> slowLists = ConcurrentHashMap.newKeySet();
+    private final Set<String> failingLists = ConcurrentHashMap.newKeySet();
+    private final List<String> upsertedLists = Collections.synchronizedList(new ArrayList<>());
+    // the (fake) platform's audience, what each upsert sent, and the emails it won't confirm
+    private final Set<String> platformEmails = ConcurrentHashMap.newKeySet();
+    private final List<String> sentEmails = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> unconfirmedEmails = ConcurrentHashMap.newKeySet();
+    private long upsertMillis = UPSERT_MILLIS;
+    // account -> lists in flight, and the most ever seen at once
+    private final Map<String, AtomicInteger> concurrent = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> maxConcurrent = new ConcurrentHashMap<>();
+
+    private FakeCommunicationService(boolean threadSafe, List<EnvironmentConfig.CommunicationPlatform> platforms) {
+      this.threadSafe = threadSafe;
+      this.platforms = platforms;
+    }
+
+    private int maxConcurrent(String account) {
+      return maxConcurrent.getOrDefault(account, new AtomicInteger()).get();
+    }
+
+    @Override
+    public String name() {
+      return "fake";
+    }
+
+    @Override
+    public boolean isConfigured(Environment env) {
+      return true;
+    }
+
+    @Override
+    protected boolean isListSyncThreadSafe() {
+      return threadSafe;
+    }
+
+    @Override
+    protected List<EnvironmentConfig.CommunicationPlatform> getPlatformConfigs() {
+      return platforms;
+    }
+
+    @Override
+    protected ExistingContacts getExistingContacts(EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      if (failingLists.contains(list.id)) {
+        throw new IllegalStateException(list.id + " unavailable");
+      }
+      ExistingContacts existingContacts = new ExistingContacts();
+      platformEmails.forEach(email -> existingContacts.emailsToIds.put(email, email));
+      return existingContacts;
+    }
+
+    @Override
+    protected void executeBatchUpsert(List<CrmContact> contacts, Map<String, Map<String, Object>> customFields,
+        Map<String, Set<String>> tags, ExistingContacts existingContacts, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) throws Exception {
+      int inFlight = concurrent.computeIfAbsent(config.secretKey, k -> new AtomicInteger()).incrementAndGet();
+      maxConcurrent.computeIfAbsent(config.secretKey, k -> new AtomicInteger()).accumulateAndGet(inFlight, Math::max);
+      try {
+        Thread.sleep(slowLists.contains(list.id) ? upsertMillis * 2 : upsertMillis);
+      } finally {
+        concurrent.get(config.secretKey).decrementAndGet();
+      }
+      upsertedLists.add(list.id);
+      contacts.forEach(crmContact -> {
+        sentEmails.add(crmContact.email);
+        platformEmails.add(crmContact.email);
+      });
+      env.logJobInfo("upserted {} into {}", contacts.size(), list.id);
+    }
+
+    @Override
+    protected Set<String> executeConfirmedBatchUpsert(List<CrmContact> contacts,
+        Map<String, Map<String, Object>> customFields, Map<String, Set<String>> tags, ExistingContacts existingContacts,
+        EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) throws Exception {
+      Set<String> confirmedEmails = new HashSet<>(super.executeConfirmedBatchUpsert(contacts, customFields, tags,
+          existingContacts, config, list));
+      confirmedEmails.removeAll(unconfirmedEmails);
+      return confirmedEmails;
+    }
+
+    @Override
+    protected void executeBatchArchive(Set<String> emails, ExistingContacts existingContacts,
+        EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+    }
+
+    @Override
+    protected Set<String> getUnsubscribedEmails(Calendar lastSync, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      return Set.of();
+    }
+
+    @Override
+    protected Set<String> getBouncedEmails(Calendar lastSync, EnvironmentConfig.CommunicationPlatform config,
+        EnvironmentConfig.CommunicationList list) {
+      return Set.of();
+    }
+
+    @Override
+    protected Map<String, Object> buildPlatformCustomFields(CrmContact crmContact,
+        EnvironmentConfig.CommunicationPlatform config, EnvironmentConfig.CommunicationList list) {
+      return Map.of();
+    }
+  }
+}
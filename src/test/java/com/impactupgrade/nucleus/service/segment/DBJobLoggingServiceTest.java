@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.dao.HibernateUtil;
+import com.impactupgrade.nucleus.entity.Job;
+import com.impactupgrade.nucleus.entity.JobLog;
+import com.impactupgrade.nucleus.entity.JobStatus;
+import com.impactupgrade.nucleus.entity.JobType;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.service.logic.EventBriteService;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DBJobLoggingServiceTest extends AbstractMockTest {
+
+  private static final int LOG_COUNT = 500_000;
+
+  @Test
+  public void testLogPagination() {
+    Environment env = new DefaultEnvironment();
+    DBJobLoggingService jobLoggingService = jobLoggingService(env);
+    jobLoggingService.startLog(JobType.PORTAL_TASK, "test", "Bulk Import", "test");
+    jobLoggingService.info("line {}", 0);
+    Job job = jobLoggingService.getJob(env.getJobTraceId());
+
+    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session.createNativeQuery("INSERT INTO job_logs(job_id, log) SELECT :jobId, CONCAT('line ', X) FROM SYSTEM_RANGE(1, " + LOG_COUNT + ")")
+          .setParameter("jobId", job.id)
+          .executeUpdate();
+      transaction.commit();
+    }
+
+    // first page
+    List<JobLog> page = jobLoggingService.getJobLogs(env.getJobTraceId(), null, 1000);
+    assertEquals(1000, page.size());
+    assertEquals("line 0", page.get(0).log);
+    assertEquals("line 999", page.get(999).log);
+
+    // continue from the cursor, deep into the log
+    for (int i = 0; i < 250; i++) {
+      page = jobLoggingService.getJobLogs(env.getJobTraceId(), page.get(page.size() - 1).id, 1000);
+    }
+    assertEquals("line 250000", page.get(0).log);
+    assertEquals("line 250999", page.get(999).log);
+
+    // tail, oldest to newest
+    List<JobLog> tail = jobLoggingService.getJobLogsTail(env.getJobTraceId(), 10);
+    assertEquals(10, tail.size());
+    assertEquals("line " + (LOG_COUNT - 9), tail.get(0).log);
+    assertEquals("line " + LOG_COUNT, tail.get(9).log);
+
+    // polling past the end
+    jobLoggingService.info("line {}", "new");
+    List<JobLog> polled = jobLoggingService.getJobLogs(env.getJobTraceId(), tail.get(9).id, 1000);
+    assertEquals(1, polled.size());
+    assertEquals("line new", polled.get(0).log);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testLegacyLogsAccessor() {
+    Environment env = new DefaultEnvironment();
+    DBJobLoggingService jobLoggingService = jobLoggingService(env);
+    jobLoggingService.startLog(JobType.PORTAL_TASK, "test", "Bulk Import", "test");
+    for (int i = 0; i < 3; i++) {
+      jobLoggingService.info("line {}", i);
+    }
+
+    assertEquals(List.of("line 0", "line 1", "line 2"), jobLoggingService.getAllJobLogs(env.getJobTraceId()));
+  }
+
+  @Test
+  public void testJobPagination() {
+    Environment env = new DefaultEnvironment();
+    DBJobLoggingService jobLoggingService = jobLoggingService(env);
+
+    HibernateDao<Long, Job> jobDao = new HibernateDao<>(Job.class);
+    Organization org = new HibernateDao<Long, Organization>(Organization.class).getAll().get(0);
+    Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    for (int i = 0; i < 25; i++) {
+      Job job = new Job();
+      job.org = org;
+      job.traceId = UUID.randomUUID().toString();
+      job.jobType = JobType.PORTAL_TASK;
+      job.status = JobStatus.DONE;
+      // pairs of jobs share a startedAt, so the id tiebreaker matters, and the last few never recorded one
+      job.startedAt = i < 21 ? now.minusSeconds(i / 2) : null;
+      jobDao.insert(job);
+    }
+    // bookkeeping only, never listed
+    Job pendingOrder = new Job();
+    pendingOrder.org = org;
+    pendingOrder.traceId = UUID.randomUUID().toString();
+    pendingOrder.jobType = JobType.EVENT;
+    pendingOrder.jobName = EventBriteService.PENDING_ORDER_JOB_NAME;
+    pendingOrder.status = JobStatus.ACTIVE;
+    pendingOrder.startedAt = now;
+    jobDao.insert(pendingOrder);
+    assertTrue(jobLoggingService.getJobs(JobType.EVENT, null, null, 10).isEmpty());
+
+    List<Job> all = new ArrayList<>();
+    // 4 per page, so pages end both right before and inside the jobs without a startedAt
+    List<Job> page = jobLoggingService.getJobs(JobType.PORTAL_TASK, null, null, 4);
+    while (!page.isEmpty()) {
+      all.addAll(page);
+      Job last = page.get(page.size() - 1);
+      page = jobLoggingService.getJobs(JobType.PORTAL_TASK, last.startedAt, last.id, 4);
+    }
+
+    assertEquals(25, all.size());
+    assertEquals(25, new HashSet<>(all.stream().map(j -> j.id).toList()).size());
+    for (int i = 1; i < all.size(); i++) {
+      Job previous = all.get(i - 1);
+      Job current = all.get(i);
+      if (current.startedAt == null) {
+        assertTrue(previous.startedAt != null || previous.id > current.id);
+      } else {
+        assertTrue(previous.startedAt.isAfter(current.startedAt)
+            || (previous.startedAt.equals(current.startedAt) && previous.id > current.id));
+      }
+    }
+    assertEquals(all.stream().map(j -> j.id).toList(), jobLoggingService.getJobs(JobType.PORTAL_TASK).stream().map(j -> j.id).toList());
+  }
+
+  private DBJobLoggingService jobLoggingService(Environment env) {
+    Organization org = new Organization();
+    org.setId(1);
+    org.setNucleusApiKey(env.getConfig().apiKey);
+    new HibernateDao<Long, Organization>(Organization.class).insert(org);
+
+    DBJobLoggingService jobLoggingService = new DBJobLoggingService();
+    jobLoggingService.init(env);
+    return jobLoggingService;
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.ecwid.maleorang.MailchimpObject;
+import com.ecwid.maleorang.method.v3_0.lists.members.MemberInfo;
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.MailchimpClient;
+import com.impactupgrade.nucleus.dao.HibernateDao;
+import com.impactupgrade.nucleus.entity.Organization;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.service.logic.ContactFingerprintService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MailchimpCommunicationServiceTest extends AbstractMockTest {
+
+  @Test
+  public void testIncrementalRefresh() throws Exception {
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient();
+    mailchimpClient.put("a@test.com", "subscribed", Set.of("donor"), yesterday());
+    mailchimpClient.put("b@test.com", "unsubscribed", Set.of(), yesterday());
+    mailchimpClient.put("c@test.com", "subscribed", Set.of(), yesterday());
+    MailchimpCommunicationService mailchimpCommunicationService = mailchimpCommunicationService(mailchimpClient, true);
+
+    // first sync downloads the whole audience
+    AbstractCommunicationService.ExistingContacts existingContacts = getExistingContacts(mailchimpCommunicationService);
+    assertEquals(Set.of("a@test.com", "b@test.com", "c@test.com"), existingContacts.emailsToIds.keySet());
+    assertEquals(Set.of("donor"), existingContacts.emailsToTags.get("a@test.com"));
+    assertEquals(List.of(3), mailchimpClient.fetchedCounts);
+    assertNull(mailchimpClient.sinceLastChanged.get(0));
+
+    // then, only what changed
+    mailchimpClient.put("a@test.com", "subscribed", Set.of("donor", "volunteer"), Instant.now());
+    mailchimpClient.put("d@test.com", "subscribed", Set.of(), Instant.now());
+    existingContacts = getExistingContacts(mailchimpCommunicationService);
+    assertEquals(Set.of("a@test.com", "b@test.com", "c@test.com", "d@test.com"), existingContacts.emailsToIds.keySet());
+    assertEquals(Set.of("donor", "volunteer"), existingContacts.emailsToTags.get("a@test.com"));
+    assertEquals(List.of(3, 2), mailchimpClient.fetchedCounts);
+    assertNotNull(mailchimpClient.sinceLastChanged.get(1));
+  }
+
+  @Test
+  public void testRebuildOnDemand() throws Exception {
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient();
+    mailchimpClient.put("a@test.com", "subscribed", Set.of(), yesterday());
+    mailchimpClient.put("b@test.com", "subscribed", Set.of(), yesterday());
+    MailchimpCommunicationService mailchimpCommunicationService = mailchimpCommunicationService(mailchimpClient, true);
+    getExistingContacts(mailchimpCommunicationService);
+
+    // permanently deleted within Mailchimp, which an incremental refresh can't see
+    mailchimpClient.members.remove("b@test.com");
+    assertEquals(Set.of("a@test.com", "b@test.com"), getExistingContacts(mailchimpCommunicationService).emailsToIds.keySet());
+
+    mailchimpCommunicationService.rebuildAudienceSnapshots();
+    assertEquals(Set.of("a@test.com"), getExistingContacts(mailchimpCommunicationService).emailsToIds.keySet());
+    assertEquals(List.of(2, 0, 1), mailchimpClient.fetchedCounts);
+    assertNull(mailchimpClient.sinceLastChanged.get(2));
+  }
+
+  @Test
+  public void testOwnWritesRecorded() throws Exception {
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient();
+    mailchimpClient.put("a@test.com", "subscribed", Set.of("donor", "manual"), yesterday());
+    mailchimpClient.put("b@test.com", "subscribed", Set.of(), yesterday());
+    MailchimpCommunicationService mailchimpCommunicationService = mailchimpCommunicationService(mailchimpClient, true);
+    EnvironmentConfig.CommunicationPlatform config = mailchimpCommunicationService.getPlatformConfigs().get(0);
+    EnvironmentConfig.CommunicationList list = config.lists.get(0);
+    AbstractCommunicationService.ExistingContacts existingContacts = getExistingContacts(mailchimpCommunicationService);
+
+    // a is no longer a donor (a controlled tag) but keeps its manual tag, e is new, and b is archived
+    CrmContact a = crmContact("a@test.com");
+    CrmContact e = crmContact("e@test.com");
+    mailchimpCommunicationService.executeBatchUpsert(List.of(a, e),
+        Map.of("a@test.com", Map.of(), "e@test.com", Map.of()),
+        Map.of("a@test.com", Set.of("campaign_gala"), "e@test.com", Set.of("donor")),
+        existingContacts, config, list);
+    mailchimpCommunicationService.executeBatchArchive(Set.of("b@test.com"), existingContacts, config, list);
+
+    // reflected in the snapshot, without Mailchimp reporting any of it as changed
+    existingContacts = getExistingContacts(mailchimpCommunicationService);
+    assertEquals(Set.of("a@test.com", "e@test.com"), existingContacts.emailsToIds.keySet());
+    assertEquals(Set.of("campaign_gala", "manual"), existingContacts.emailsToTags.get("a@test.com"));
+    assertEquals(Set.of("donor"), existingContacts.emailsToTags.get("e@test.com"));
+    assertEquals(List.of(2, 0), mailchimpClient.fetchedCounts);
+  }
+
+  @Test
+  public void testSnapshotsScopedByOrg() throws Exception {
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient();
+    mailchimpClient.put("a@test.com", "subscribed", Set.of(), yesterday());
+    mailchimpClient.put("b@test.com", "subscribed", Set.of(), yesterday());
+    getExistingContacts(mailchimpCommunicationService(mailchimpClient, true, 1));
+
+    // another org's Mailchimp account, with the same list id
+    FakeMailchimpClient otherMailchimpClient = new FakeMailchimpClient();
+    otherMailchimpClient.put("z@test.com", "subscribed", Set.of(), yesterday());
+    AbstractCommunicationService.ExistingContacts existingContacts =
+        getExistingContacts(mailchimpCommunicationService(otherMailchimpClient, true, 2));
+
+    // its own snapshot, built from a full download, rather than the first org's
+    assertEquals(Set.of("z@test.com"), existingContacts.emailsToIds.keySet());
+    assertNull(otherMailchimpClient.sinceLastChanged.get(0));
+  }
+
+  @Test
+  public void testFingerprintsScopedByOrg() throws Exception {
+    ContactFingerprintService fingerprints = contactFingerprintService(1);
+    ContactFingerprintService otherFingerprints = contactFingerprintService(2);
+    fingerprints.saveFingerprints("mailchimp", "list_1", Map.of("a@test.com", "fingerprint_1"));
+    otherFingerprints.saveFingerprints("mailchimp", "list_1", Map.of("a@test.com", "fingerprint_2"));
+
+    assertEquals(Map.of("a@test.com", "fingerprint_1"), fingerprints.getFingerprints("mailchimp", "list_1", List.of("a@test.com")));
+    assertEquals(Map.of("a@test.com", "fingerprint_2"), otherFingerprints.getFingerprints("mailchimp", "list_1", List.of("a@test.com")));
+
+    // clearing one org's list leaves the other's alone
+    otherFingerprints.clearFingerprints("mailchimp", "list_1");
+    assertEquals(Map.of("a@test.com", "fingerprint_1"), fingerprints.getFingerprints("mailchimp", "list_1", List.of("a@test.com")));
+    assertEquals(Map.of(), otherFingerprints.getFingerprints("mailchimp", "list_1", List.of("a@test.com")));
+  }
+
+  @Test
+  public void testFullDownloadWithoutDatabase() throws Exception {
+    FakeMailchimpClient mailchimpClient = new FakeMailchimpClient();
+    mailchimpClient.put("a@test.com", "subscribed", Set.of("donor"), yesterday());
+    MailchimpCommunicationService mailchimpCommunicationService = mailchimpCommunicationService(mailchimpClient, false);
+
+    getExistingContacts(mailchimpCommunicationService);
+    AbstractCommunicationService.ExistingContacts existingContacts = getExistingContacts(mailchimpCommunicationService);
+
+    assertEquals(Set.of("donor"), existingContacts.emailsToTags.get("a@test.com"));
+    assertEquals(List.of(1, 1), mailchimpClient.fetchedCounts);
+    assertFalse(mailchimpClient.sinceLastChanged.stream().anyMatch(since -> since != null));
+  }
+
+  private AbstractCommunicationService.ExistingContacts getExistingContacts(MailchimpCommunicationService mailchimpCommunicationService) {
+    EnvironmentConfig.CommunicationPlatform config = mailchimpCommunicationService.getPlatformConfigs().get(0);
+    return mailchimpCommunicationService.getExistingContacts(config, config.lists.get(0));
+  }
+
+  private MailchimpCommunicationService mailchimpCommunicationService(FakeMailchimpClient mailchimpClient,
+      boolean databaseConnected) {
+    return mailchimpCommunicationService(mailchimpClient, databaseConnected, 1);
+  }
+
+  private MailchimpCommunicationService mailchimpCommunicationService(FakeMailchimpClient mailchimpClient,
+      boolean databaseConnected, long orgId) {
+    EnvironmentConfig.CommunicationList list = new EnvironmentConfig.CommunicationList();
+    list.id = "list_1";
+    EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+    platform.secretKey = "fake-us1";
+    platform.lists = List.of(list);
+
+    EnvironmentConfig envConfig = new EnvironmentConfig() {
+      @Override
+      public boolean isDatabaseConnected() {
+        return databaseConnected;
+      }
+    };
+    envConfig.apiKey = "mailchimp-org-" + orgId;
+    envConfig.loggers = Set.of("console");
+    envConfig.mailchimp = List.of(platform);
+    if (databaseConnected) {
+      Organization org = new Organization();
+      org.setId(orgId);
+      org.setNucleusApiKey(envConfig.apiKey);
+      new HibernateDao<Long, Organization>(Organization.class).insert(org);
+    }
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+
+      @Override
+      public MailchimpClient mailchimpClient(EnvironmentConfig.CommunicationPlatform mailchimpConfig) {
+        return mailchimpClient;
+      }
+    };
+
+    MailchimpCommunicationService mailchimpCommunicationService = new MailchimpCommunicationService();
+    mailchimpCommunicationService.init(env);
+    return mailchimpCommunicationService;
+  }
+
+  private ContactFingerprintService contactFingerprintService(long orgId) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.apiKey = "fingerprint-org-" + orgId;
+    Organization org = new Organization();
+    org.setId(orgId);
+    org.setNucleusApiKey(envConfig.apiKey);
+    new HibernateDao<Long, Organization>(Organization.class).insert(org);
+
+    return new ContactFingerprintService(new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    });
+  }
+
+  private CrmContact crmContact(String email) {
+    CrmContact crmContact = new CrmContact();
+    crmContact.email = email;
+    return crmContact;
+  }
+
+  private Instant yesterday() {
+    return Instant.now().minus(Duration.ofDays(1));
+  }
+
+  // Stands in for the Mailchimp API: an in-memory audience that honors since_last_changed, and batches that apply instantly.
+  private static class FakeMailchimpClient extends MailchimpClient {
+
+    private final Map<String, MemberInfo> members = new ConcurrentHashMap<>();
+    private final Map<String, Instant> lastChanged = new ConcurrentHashMap<>();
+    private final List<Integer> fetchedCounts = new ArrayList<>();
+    private final List<Calendar> sinceLastChanged = new ArrayList<>();
+
+    private FakeMailchimpClient() {
+      super(platform(), null);
+    }
+
+    private static EnvironmentConfig.CommunicationPlatform platform() {
+      EnvironmentConfig.CommunicationPlatform platform = new EnvironmentConfig.CommunicationPlatform();
+      platform.secretKey = "fake-us1";
+      return platform;
+    }
+
+    private void put(String email, String status, Set<String> tags, Instant changed) {
+      MemberInfo memberInfo = new MemberInfo();
+      memberInfo.email_address = email;
+      memberInfo.status = status;
+      List<MailchimpObject> mcTags = new ArrayList<>();
+      for (String tag : tags) {
+        MailchimpObject mcTag = new MailchimpObject();
+        mcTag.mapping.put(TAG_NAME, tag);
+        mcTags.add(mcTag);
+      }
+      memberInfo.mapping.put(TAGS, mcTags);
+      members.put(email, memberInfo);
+      lastChanged.put(email, changed);
+    }
+
+    @Override
+    public List<MemberInfo> getListMembers(String listId, String status, String fields, Calendar sinceLastChanged) {
+      List<MemberInfo> result = members.values().stream()
+          .filter(memberInfo -> sinceLastChanged == null
+              || lastChanged.get(memberInfo.email_address).isAfter(sinceLastChanged.toInstant()))
+          .toList();
+      this.fetchedCounts.add(result.size());
+      this.sinceLastChanged.add(sinceLastChanged);
+      return result;
+    }
+
+    @Override
+    public String upsertContactsBatch(String listId, List<MemberInfo> contacts) {
+      return "upsert";
+    }
+
+    @Override
+    public String updateContactTagsBatch(String listId, List<TaggedContact> emailContacts) {
+      return "tags";
+    }
+
+    @Override
+    public String archiveContactsBatch(String listId, Collection<String> emails) {
+      return "archive";
+    }
+
+    @Override
+    public BatchResult runBatchOperations(EnvironmentConfig.CommunicationPlatform mailchimpConfig, String batchStatusId,
+        int attemptCount) {
+      return new BatchResult(true, 0, List.of());
+    }
+  }
+}
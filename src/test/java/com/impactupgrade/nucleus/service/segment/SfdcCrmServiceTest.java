@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.SfdcBulkClient;
+import com.impactupgrade.nucleus.client.SfdcClient;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.sforce.soap.partner.sobject.SObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SfdcCrmServiceTest extends AbstractMockTest {
+
+  @Test
+  public void testBackfillNormalizedPhones() throws Exception {
+    List<SObject> contacts = List.of(
+        // never normalized
+        contact("003a", "(260) 349-5732", null, null, null),
+        // already up to date, so skipped
+        contact("003b", "260-349-5732", null, "12603495732", null),
+        // mobile changed outside of Nucleus, and the stale normalized phone no longer has a source
+        contact("003c", null, "+380 97 747 1695", "12603495732", "12605550000")
+    );
+    SfdcCrmService sfdcCrmService = sfdcCrmService(contacts);
+
+    assertEquals(2, sfdcCrmService.backfillNormalizedPhones());
+
+    assertTrue(sfdcClient.query.startsWith("SELECT Id, Phone, MobilePhone, Nucleus_Phone_Normalized__c, Nucleus_Mobile_Phone_Normalized__c FROM Contact WHERE "));
+    assertFalse(sfdcClient.query.contains("npe01__WorkPhone__c"));
+    assertEquals("Contact", sfdcBulkClient.sObjectType);
+    assertEquals(List.of("Nucleus_Phone_Normalized__c", "Nucleus_Mobile_Phone_Normalized__c"), sfdcBulkClient.fields);
+    assertEquals(List.of(
+        Map.of("Id", "003a", "Nucleus_Phone_Normalized__c", "12603495732"),
+        Map.of("Id", "003c", "Nucleus_Phone_Normalized__c", "#N/A", "Nucleus_Mobile_Phone_Normalized__c", "380977471695")
+    ), sfdcBulkClient.rows);
+  }
+
+  @Test
+  public void testNormalizedPhonesSetOnWrite() {
+    SfdcCrmService sfdcCrmService = sfdcCrmService(List.of());
+
+    SObject contact = new SObject("Contact");
+    contact.setField("MobilePhone", "260.349.5732");
+    sfdcCrmService.setNormalizedPhoneFields(contact);
+
+    assertEquals("12603495732", contact.getField("Nucleus_Mobile_Phone_Normalized__c"));
+    assertNull(contact.getField("Nucleus_Phone_Normalized__c"));
+    assertNull(contact.getFieldsToNull());
+
+    // a phone that can't be normalized, or one being cleared, clears the stale shadow copy
+    contact = new SObject("Contact");
+    contact.setField("MobilePhone", "call the office");
+    contact.setFieldsToNull(new String[] {"Phone"});
+    sfdcCrmService.setNormalizedPhoneFields(contact);
+
+    assertNull(contact.getField("Nucleus_Mobile_Phone_Normalized__c"));
+    assertEquals(Set.of("Phone", "Nucleus_Phone_Normalized__c", "Nucleus_Mobile_Phone_Normalized__c"),
+        Set.of(contact.getFieldsToNull()));
+  }
+
+  private FakeSfdcClient sfdcClient;
+  private FakeSfdcBulkClient sfdcBulkClient;
+
+  private SfdcCrmService sfdcCrmService(List<SObject> contacts) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.loggers = Set.of("console");
+    envConfig.salesforce.npsp = false;
+    envConfig.salesforce.normalizedPhoneSearch = true;
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+
+      @Override
+      public SfdcClient sfdcClient() {
+        return sfdcClient;
+      }
+
+      @Override
+      public SfdcBulkClient sfdcBulkClient() {
+        return sfdcBulkClient;
+      }
+    };
+    sfdcClient = new FakeSfdcClient(env, contacts);
+    sfdcBulkClient = new FakeSfdcBulkClient(env);
+
+    SfdcCrmService sfdcCrmService = new SfdcCrmService();
+    sfdcCrmService.init(env);
+    return sfdcCrmService;
+  }
+
+  private SObject contact(String id, String phone, String mobilePhone, String normalizedPhone,
+      String normalizedMobilePhone) {
+    SObject contact = new SObject("Contact");
+    contact.setId(id);
+    contact.setField("Phone", phone);
+    contact.setField("MobilePhone", mobilePhone);
+    contact.setField("Nucleus_Phone_Normalized__c", normalizedPhone);
+    contact.setField("Nucleus_Mobile_Phone_Normalized__c", normalizedMobilePhone);
+    return contact;
+  }
+
+  private static class FakeSfdcClient extends SfdcClient {
+
+    private final List<SObject> contacts;
+    private String query;
+
+    private FakeSfdcClient(Environment env, List<SObject> contacts) {
+      super(env, "username", "password", true);
+      this.contacts = contacts;
+    }
+
+    @Override
+    public Stream<SObject> queryStream(String query) {
+      this.query = query;
+      return contacts.stream();
+    }
+  }
+
+  private static class FakeSfdcBulkClient extends SfdcBulkClient {
+
+    private String sObjectType;
+    private List<String> fields;
+    private final List<Map<String, String>> rows = new ArrayList<>();
+
+    private FakeSfdcBulkClient(Environment env) {
+      super(env);
+    }
+
+    @Override
+    public void updateRecords(String sObjectType, List<String> fields, List<Map<String, String>> rows) {
+      this.sObjectType = sObjectType;
+      this.fields = fields;
+      this.rows.addAll(rows);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.StripeClient;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.PagedResults;
+import com.stripe.model.Address;
+import com.stripe.model.Customer;
+import com.stripe.param.CustomerUpdateParams;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StripeDataSyncServiceTest extends AbstractMockTest {
+
+  private static final int CONTACTS = 500;
+  private static final int PAGE_SIZE = 200;
+  // every 25th contact has changed in the CRM since the last sync, and the last 10 have no Stripe customer at all
+  private static final int CHANGED_EVERY = 25;
+  private static final int WITHOUT_CUSTOMERS = 10;
+
+  @Test
+  public void testBulkSyncUpdatesChangedCustomersOnly() throws Exception {
+    List<Customer> customers = new ArrayList<>();
+    for (int i = 0; i < CONTACTS - WITHOUT_CUSTOMERS; i++) {
+      customers.add(customer(i));
+    }
+    when(stripeClientMock.getAllCustomers()).thenReturn(customers);
+    givenCrmContacts();
+
+    stripeDataSyncService(true).syncContacts(null);
+
+    verify(stripeClientMock, times(1)).getAllCustomers();
+    verify(stripeClientMock, never()).getCustomersByEmail(anyString());
+    assertEquals(expectedUpdates(), updatedCustomerIds());
+  }
+
+  @Test
+  public void testSyncSkipsUnchangedCustomers() throws Exception {
+    when(stripeClientMock.getCustomersByEmail(anyString())).thenAnswer(invocation -> {
+      String email = invocation.getArgument(0);
+      int i = Integer.parseInt(email.substring("donor".length(), email.indexOf('@')));
+      return i < CONTACTS - WITHOUT_CUSTOMERS ? List.of(customer(i)) : List.of();
+    });
+    givenCrmContacts();
+
+    stripeDataSyncService(false).syncContacts(null);
+
+    // one search per contact, but still only the changed ones are updated
+    verify(stripeClientMock, never()).getAllCustomers();
+    verify(stripeClientMock, times(CONTACTS)).getCustomersByEmail(anyString());
+    assertEquals(expectedUpdates(), updatedCustomerIds());
+  }
+
+  private void givenCrmContacts() throws Exception {
+    List<CrmContact> crmContacts = new ArrayList<>();
+    for (int i = 0; i < CONTACTS; i++) {
+      CrmContact crmContact = new CrmContact();
+      crmContact.id = "contact_" + i;
+      crmContact.firstName = "Donor";
+      crmContact.lastName = String.valueOf(i);
+      // Stripe's copy is lowercase
+      crmContact.email = "Donor" + i + "@example.com";
+      crmContact.mobilePhone = i % CHANGED_EVERY == 0 ? "260-555-9999" : "260-555-" + (1000 + i);
+      crmContact.account.billingAddress.street = i + " Main St";
+      crmContact.account.billingAddress.city = "Fort Wayne";
+      // not in the CRM, so left alone in Stripe
+      crmContact.account.billingAddress.postalCode = null;
+      crmContacts.add(crmContact);
+    }
+
+    PagedResults<CrmContact> contactPagedResults = new PagedResults<>(
+        new PagedResults.ResultSet<>(crmContacts.subList(0, PAGE_SIZE), "page_2"));
+    when(crmServiceMock.getDonorIndividualContacts(any())).thenReturn(contactPagedResults);
+    when(crmServiceMock.queryMoreContacts("page_2")).thenReturn(
+        new PagedResults.ResultSet<>(crmContacts.subList(PAGE_SIZE, 2 * PAGE_SIZE), "page_3"));
+    when(crmServiceMock.queryMoreContacts("page_3")).thenReturn(
+        new PagedResults.ResultSet<>(crmContacts.subList(2 * PAGE_SIZE, CONTACTS), null));
+    when(crmServiceMock.getDonorOrganizationAccounts(any())).thenReturn(new PagedResults<>());
+  }
+
+  private Set<String> expectedUpdates() {
+    Set<String> customerIds = new TreeSet<>();
+    for (int i = 0; i < CONTACTS - WITHOUT_CUSTOMERS; i += CHANGED_EVERY) {
+      customerIds.add("cus_" + i);
+    }
+    return customerIds;
+  }
+
+  private Set<String> updatedCustomerIds() throws Exception {
+    ArgumentCaptor<Customer> updated = ArgumentCaptor.forClass(Customer.class);
+    verify(stripeClientMock, times(expectedUpdates().size())).updateCustomer(updated.capture(),
+        any(CustomerUpdateParams.class));
+    return updated.getAllValues().stream().map(Customer::getId).collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private Customer customer(int i) {
+    Customer customer = new Customer();
+    customer.setId("cus_" + i);
+    customer.setName("Donor " + i);
+    customer.setEmail("donor" + i + "@example.com");
+    customer.setPhone("260-555-" + (1000 + i));
+    Address address = new Address();
+    address.setLine1(i + " Main St");
+    address.setCity("Fort Wayne");
+    address.setPostalCode("46802");
+    customer.setAddress(address);
+    return customer;
+  }
+
+  private StripeDataSyncService stripeDataSyncService(boolean bulk) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.stripe.enableContactSync = true;
+    envConfig.stripe.bulkContactSync = bulk;
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+    };
+    when(stripeClientMock.getThrottle()).thenReturn(StripeClient.throttle("sk_test_sync"));
+
+    StripeDataSyncService stripeDataSyncService = new StripeDataSyncService();
+    stripeDataSyncService.init(env);
+    return stripeDataSyncService;
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmAccount;
+import com.impactupgrade.nucleus.model.CrmContact;
+import com.impactupgrade.nucleus.model.CrmDonation;
+import com.impactupgrade.nucleus.model.PagedResults;
+import com.impactupgrade.nucleus.service.logic.ContactService;
+import com.impactupgrade.nucleus.service.logic.DonationService;
+import com.stripe.model.BalanceTransaction;
+import com.stripe.model.Charge;
+import com.stripe.model.Payout;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StripePaymentGatewayServiceTest extends AbstractMockTest {
+
+  private static final int KNOWN_DONORS = 40;
+  private static final int STREAMED_CHARGES = 200_000;
+  // ie, 10,800 charges a day, over ~19 days
+  private static final long CHARGE_INTERVAL_SECONDS = 8;
+
+  @Test
+  public void testReplayChargesInBatches() throws Exception {
+    // 240 charges from 40 known donors, half of which are already in the CRM, plus 10 charges from new donors
+    List<BalanceTransaction> balanceTransactions = new ArrayList<>();
+    for (int i = 0; i < 250; i++) {
+      String email = i < 240 ? "donor" + (i % KNOWN_DONORS) + "@example.com" : "new" + i + "@example.com";
+      balanceTransactions.add(balanceTransaction(charge("ch_" + i, email)));
+    }
+    when(stripeClientMock.getBalanceTransactions(any(Date.class), any(Date.class))).thenReturn(balanceTransactions);
+
+    when(crmServiceMock.isDonationLookupBatchable()).thenReturn(true);
+    when(crmServiceMock.getContactsByEmails(anySet())).thenAnswer(invocation -> {
+      Collection<String> emails = invocation.getArgument(0);
+      return emails.stream().filter(email -> email.startsWith("donor")).map(this::contact).toList();
+    });
+    when(crmServiceMock.getAccountsByIds(anyList())).thenAnswer(invocation -> {
+      List<String> ids = invocation.getArgument(0);
+      return ids.stream().map(this::account).toList();
+    });
+    when(crmServiceMock.getDonationsByTransactionIds(anyList())).thenAnswer(invocation -> {
+      List<String> transactionIds = invocation.getArgument(0);
+      return transactionIds.stream()
+          .filter(id -> Integer.parseInt(id.substring(3)) < 240 && Integer.parseInt(id.substring(3)) % 2 == 0)
+          .map(this::donation).toList();
+    });
+    when(crmServiceMock.searchContacts(any())).thenReturn(PagedResults.unpagedResults(List.of()));
+    when(crmServiceMock.insertAccount(any())).thenReturn("account_new");
+    when(crmServiceMock.insertContact(any())).thenReturn("contact_new");
+
+    stripePaymentGatewayService().verifyAndReplayCharges(new Date(), new Date());
+
+    // 3 batches of (at most) 100
+    verify(crmServiceMock, times(3)).getContactsByEmails(anySet());
+    verify(crmServiceMock, times(3)).getAccountsByIds(anyList());
+    verify(crmServiceMock, times(3)).getDonationsByTransactionIds(anyList());
+    verify(crmServiceMock, times(3)).batchFlush();
+    verify(crmServiceMock, never()).getContactById(any());
+    verify(crmServiceMock, never()).getAccountById(any());
+    verify(crmServiceMock, never()).getDonationByTransactionIds(any(), any(), any());
+    // only the new donors need their own search and inserts
+    verify(crmServiceMock, times(10)).searchContacts(any());
+    verify(crmServiceMock, times(10)).insertAccount(any());
+    verify(crmServiceMock, times(10)).insertContact(any());
+    verify(crmServiceMock, times(130)).batchInsertDonation(any());
+    verify(crmServiceMock, never()).insertDonation(any());
+  }
+
+  @Test
+  public void testReplayDepositsPerPayout() throws Exception {
+    // newest first, as Stripe lists them
+    List<Payout> payouts = new ArrayList<>();
+    for (int p = 1; p >= 0; p--) {
+      Payout payout = new Payout();
+      payout.setId("po_" + p);
+      payout.setStatus("paid");
+      payout.setArrivalDate(1_700_000_000L + p * 86_400L);
+      payouts.add(payout);
+
+      List<BalanceTransaction> balanceTransactions = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        balanceTransactions.add(balanceTransaction(charge("ch_" + p + i, "donor" + i + "@example.com")));
+      }
+      when(stripeClientMock.getBalanceTransactions(payout)).thenReturn(balanceTransactions);
+    }
+    when(stripeClientMock.getAllPayouts(any(Date.class), any(Date.class))).thenReturn(payouts);
+
+    when(crmServiceMock.isDonationLookupBatchable()).thenReturn(true);
+    when(crmServiceMock.getDonationsByTransactionIds(anyList())).thenAnswer(invocation -> {
+      List<String> transactionIds = invocation.getArgument(0);
+      return transactionIds.stream().map(this::donation).toList();
+    });
+
+    stripePaymentGatewayService().verifyAndReplayDeposits(new Date(), new Date());
+
+    verify(crmServiceMock, times(2)).getDonationsByTransactionIds(anyList());
+    verify(crmServiceMock, never()).getDonationByTransactionIds(any(), any(), any());
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<CrmDonation>> deposits = ArgumentCaptor.forClass(List.class);
+    verify(crmServiceMock, times(2)).insertDonationDeposit(deposits.capture());
+    assertEquals(List.of(5, 5), deposits.getAllValues().stream().map(List::size).toList());
+    assertEquals("po_0", deposits.getAllValues().get(0).get(0).depositId);
+  }
+
+  @Test
+  public void testTransactionsStreamOldestFirst() throws Exception {
+    // 200k charges, generated lazily per listing call (and newest first, as Stripe lists them)
+    long start = 1_700_000_000L;
+    long end = start + STREAMED_CHARGES * CHARGE_INTERVAL_SECONDS - 1;
+    AtomicInteger produced = new AtomicInteger();
+    mockCharges(start, CHARGE_INTERVAL_SECONDS, produced);
+
+    int[] consumed = {0};
+    int[] maxBuffered = {0};
+    long startNanos = System.nanoTime();
+    stripePaymentGatewayService().forEachTransaction(new Date(start * 1000), new Date(end * 1000), transaction -> {
+      // oldest first, and nothing skipped or repeated at the window boundaries
+      assertEquals("ch_" + consumed[0], transaction.id());
+      consumed[0]++;
+      maxBuffered[0] = Math.max(maxBuffered[0], produced.get() - consumed[0]);
+    });
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+    assertEquals(STREAMED_CHARGES, consumed[0]);
+    assertEquals(STREAMED_CHARGES, produced.get());
+    // the first window is a day (10,800 charges), then each shrinks to 8,000 seconds (1,000 charges) for the
+    // remaining ~18 days
+    verify(stripeClientMock, times(191)).getAllCharges(any(Date.class), any(Date.class));
+    // at most the first day's worth of charges held at once, rather than the whole range
+    long chargesPerDay = TimeUnit.DAYS.toSeconds(1) / CHARGE_INTERVAL_SECONDS;
+    assertTrue(maxBuffered[0] <= chargesPerDay, "buffered " + maxBuffered[0] + " charges");
+    assertTrue(elapsedMillis < 30_000, "200k charges took " + elapsedMillis + "ms");
+  }
+
+  @Test
+  public void testQuietRangeWidensWindows() throws Exception {
+    // one charge a day, for a year
+    long start = 1_700_000_000L;
+    long interval = TimeUnit.DAYS.toSeconds(1);
+    long end = start + 365 * interval - 1;
+    AtomicInteger produced = new AtomicInteger();
+    mockCharges(start, interval, produced);
+
+    int[] consumed = {0};
+    stripePaymentGatewayService().forEachTransaction(new Date(start * 1000), new Date(end * 1000), transaction -> {
+      assertEquals("ch_" + consumed[0], transaction.id());
+      consumed[0]++;
+    });
+
+    assertEquals(365, consumed[0]);
+    // windows of 1, 4, 16, 64, and 256 days, then the rest, rather than one listing per day
+    verify(stripeClientMock, times(6)).getAllCharges(any(Date.class), any(Date.class));
+  }
+
+  // Charge i is created at start + i * intervalSeconds. Each listing generates its window's charges lazily, newest first.
+  private void mockCharges(long start, long intervalSeconds, AtomicInteger produced) throws Exception {
+    when(stripeClientMock.getAllCharges(any(Date.class), any(Date.class))).thenAnswer(invocation -> {
+      long windowStart = ((Date) invocation.getArgument(0)).getTime() / 1000;
+      long windowEnd = ((Date) invocation.getArgument(1)).getTime() / 1000;
+      return (Iterable<Charge>) () -> new Iterator<>() {
+        private int i = (int) ((windowEnd - start) / intervalSeconds);
+        private final int first = (int) ((windowStart - start + intervalSeconds - 1) / intervalSeconds);
+
+        @Override
+        public boolean hasNext() {
+          return i >= first;
+        }
+
+        @Override
+        public Charge next() {
+          produced.incrementAndGet();
+          Charge charge = charge("ch_" + i, "donor@example.com");
+          charge.setCreated(start + i-- * intervalSeconds);
+          charge.setBalanceTransactionObject(balanceTransaction(charge));
+          return charge;
+        }
+      };
+    });
+  }
+
+  private StripePaymentGatewayService stripePaymentGatewayService() {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    // unique per test, since donor lookups in flight are shared across the process
+    envConfig.apiKey = UUID.randomUUID().toString();
+    envConfig.currency = "USD";
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+
+      @Override
+      public ContactService contactService() {
+        return new ContactService(this);
+      }
+
+      @Override
+      public DonationService donationService() {
+        return new DonationService(this);
+      }
+    };
+
+    StripePaymentGatewayService stripePaymentGatewayService = new StripePaymentGatewayService();
+    stripePaymentGatewayService.init(env);
+    return stripePaymentGatewayService;
+  }
+
+  private Charge charge(String id, String email) {
+    Charge charge = new Charge();
+    charge.setId(id);
+    charge.setStatus("succeeded");
+    charge.setAmount(2000L);
+    charge.setCurrency("usd");
+    charge.setCreated(1_700_000_000L);
+    charge.setReceiptEmail(email);
+    charge.setMetadata(Map.of());
+    charge.setPaymentMethodDetails(new Charge.PaymentMethodDetails());
+    charge.getPaymentMethodDetails().setType("card");
+    return charge;
+  }
+
+  private BalanceTransaction balanceTransaction(Charge charge) {
+    BalanceTransaction balanceTransaction = new BalanceTransaction();
+    balanceTransaction.setId("txn_" + charge.getId());
+    balanceTransaction.setCreated(charge.getCreated());
+    balanceTransaction.setAmount(charge.getAmount());
+    balanceTransaction.setNet(charge.getAmount() - 88L);
+    balanceTransaction.setFee(88L);
+    balanceTransaction.setSourceObject(charge);
+    return balanceTransaction;
+  }
+
+  private CrmContact contact(String email) {
+    String n = email.substring("donor".length(), email.indexOf('@'));
+    CrmContact crmContact = new CrmContact();
+    crmContact.id = "contact_" + n;
+    crmContact.account.id = "account_" + n;
+    crmContact.email = email;
+    crmContact.firstName = "Donor";
+    crmContact.lastName = n;
+    crmContact.mailingAddress.street = n + " Main St";
+    return crmContact;
+  }
+
+  private CrmAccount account(String id) {
+    CrmAccount crmAccount = new CrmAccount();
+    crmAccount.id = id;
+    crmAccount.billingAddress.street = "Main St";
+    return crmAccount;
+  }
+
+  private CrmDonation donation(String transactionId) {
+    CrmDonation crmDonation = new CrmDonation();
+    crmDonation.id = "donation_" + transactionId;
+    crmDonation.transactionId = transactionId;
+    crmDonation.status = CrmDonation.Status.SUCCESSFUL;
+    return crmDonation;
+  }
+}
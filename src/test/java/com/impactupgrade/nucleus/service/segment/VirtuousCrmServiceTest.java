@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.service.segment;
+
+import com.impactupgrade.nucleus.AbstractMockTest;
+import com.impactupgrade.nucleus.client.VirtuousClient;
+import com.impactupgrade.nucleus.environment.Environment;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import com.impactupgrade.nucleus.model.CrmDonation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class VirtuousCrmServiceTest extends AbstractMockTest {
+
+  @Test
+  public void testGetDonationsByTransactionIdsBatched() throws Exception {
+    VirtuousCrmService virtuousCrmService = virtuousCrmService(false);
+
+    // 120 IDs -> 3 queries of 50/50/20, where every 10th ID has no gift
+    List<String> transactionIds = IntStream.range(0, 120).mapToObj(i -> "ch_" + i).toList();
+    List<CrmDonation> donations = virtuousCrmService.getDonationsByTransactionIds(transactionIds);
+
+    assertEquals(3, virtuousClient.queryCount.get());
+    assertEquals(0, virtuousClient.lookupCount.get());
+    List<String> expected = transactionIds.stream().filter(id -> !id.endsWith("0")).map(id -> "stripe/" + id).toList();
+    assertEquals(expected, donations.stream().map(d -> d.name).toList());
+  }
+
+  @Test
+  public void testGetDonationsByTransactionIdsFallback() throws Exception {
+    VirtuousCrmService virtuousCrmService = virtuousCrmService(true);
+
+    List<String> transactionIds = IntStream.range(0, 60).mapToObj(i -> "ch_" + i).toList();
+    List<CrmDonation> donations = virtuousCrmService.getDonationsByTransactionIds(transactionIds);
+
+    assertEquals(2, virtuousClient.queryCount.get());
+    assertEquals(60, virtuousClient.lookupCount.get());
+    // the concurrent lookups must not shuffle the results
+    List<String> expected = transactionIds.stream().filter(id -> !id.endsWith("0")).map(id -> "stripe/" + id).toList();
+    assertEquals(expected, donations.stream().map(d -> d.name).toList());
+  }
+
+  private FakeVirtuousClient virtuousClient;
+
+  private VirtuousCrmService virtuousCrmService(boolean rejectQueries) {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    envConfig.timezoneId = "America/New_York";
+    Environment env = new DefaultEnvironment() {
+      @Override
+      public EnvironmentConfig getConfig() {
+        return envConfig;
+      }
+
+      @Override
+      public VirtuousClient virtuousClient() {
+        return virtuousClient;
+      }
+    };
+    virtuousClient = new FakeVirtuousClient(env, rejectQueries);
+
+    VirtuousCrmService virtuousCrmService = new VirtuousCrmService();
+    virtuousCrmService.init(env);
+    return virtuousCrmService;
+  }
+
+  private static class FakeVirtuousClient extends VirtuousClient {
+
+    private final boolean rejectQueries;
+    private final AtomicInteger queryCount = new AtomicInteger();
+    private final AtomicInteger lookupCount = new AtomicInteger();
+
+    public FakeVirtuousClient(Environment env, boolean rejectQueries) {
+      super(env);
+      this.rejectQueries = rejectQueries;
+    }
+
+    @Override
+    public List<Gift> queryGiftsByTransactionSourceAndIds(String transactionSource, List<String> transactionIds) {
+      queryCount.incrementAndGet();
+      if (rejectQueries) {
+        return null;
+      }
+
+      List<Gift> gifts = new ArrayList<>();
+      for (String transactionId : transactionIds) {
+        Gift gift = gift(transactionSource, transactionId);
+        if (gift != null) {
+          gifts.add(gift);
+        }
+      }
+      // Virtuous sorts by its own criteria, so make sure the service doesn't rely on the query order.
+      Collections.reverse(gifts);
+      return gifts;
+    }
+
+    @Override
+    public Gift getGiftByTransactionSourceAndId(String transactionSource, String transactionId) {
+      lookupCount.incrementAndGet();
+      return gift(transactionSource, transactionId);
+    }
+
+    private Gift gift(String transactionSource, String transactionId) {
+      if (transactionId.endsWith("0")) {
+        return null;
+      }
+      Gift gift = new Gift();
+      gift.id = Integer.parseInt(transactionId.replace("ch_", ""));
+      gift.transactionSource = transactionSource;
+      gift.transactionId = transactionId;
+      gift.amount = "$10.00";
+      gift.giftDate = "2024-01-01T00:00:00";
+      return gift;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ApiThrottleTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final List<Duration> sleeps = new ArrayList<>();
+
+  @Test
+  public void testPacesCallsToTheLimit() throws Exception {
+    ApiThrottle throttle = throttle(10, 5);
+
+    // a second's worth goes right away, then one every 100ms
+    for (int i = 0; i < 30; i++) {
+      throttle.call("getCharge", ApiThrottle.Kind.READ, () -> "ok");
+    }
+    assertEquals(2_000, Duration.between(FakeClock.START, clock.instant()).toMillis());
+    assertEquals(20, sleeps.size());
+    assertEquals(2_000, throttle.metrics("getCharge").getThrottledMillis());
+
+    // writes have their own bucket, so they don't wait on the reads
+    sleeps.clear();
+    for (int i = 0; i < 5; i++) {
+      throttle.call("updateCustomer", ApiThrottle.Kind.WRITE, () -> "ok");
+    }
+    assertTrue(sleeps.isEmpty());
+    throttle.call("updateCustomer", ApiThrottle.Kind.WRITE, () -> "ok");
+    assertEquals(1, sleeps.size());
+    assertEquals(200, sleeps.get(0).toMillis());
+  }
+
+  @Test
+  public void testBacksOffExponentiallyWithJitter() throws Exception {
+    ApiThrottle throttle = throttle(100, 100);
+    int[] calls = {0};
+
+    String result = throttle.call("getCharge", ApiThrottle.Kind.READ, () -> {
+      if (++calls[0] <= 4) {
+        throw new TooManyRequests(null);
+      }
+      return "ok";
+    });
+
+    assertEquals("ok", result);
+    assertEquals(4, sleeps.size());
+    // half fixed, half random: [250, 500), [500, 1000), [1000, 2000), [2000, 4000)
+    for (int i = 0; i < sleeps.size(); i++) {
+      long cap = 500L << i;
+      long millis = sleeps.get(i).toMillis();
+      assertTrue(millis >= cap / 2 && millis < cap, "retry " + i + " waited " + millis + "ms");
+    }
+    ApiThrottle.Metrics metrics = throttle.metrics("getCharge");
+    assertEquals(1, metrics.getCalls());
+    assertEquals(5, metrics.getAttempts());
+    assertEquals(4, metrics.getRejected());
+    assertEquals(0, metrics.getFailures());
+    assertEquals(sleeps.stream().mapToLong(Duration::toMillis).sum(), metrics.getBackoffMillis());
+  }
+
+  @Test
+  public void testHonorsRetryAfter() throws Exception {
+    ApiThrottle throttle = throttle(100, 100);
+    int[] calls = {0};
+
+    throttle.call("updateCustomer", ApiThrottle.Kind.WRITE, () -> {
+      if (++calls[0] == 1) {
+        throw new TooManyRequests(Duration.ofSeconds(7));
+      }
+      return "ok";
+    });
+
+    assertEquals(List.of(Duration.ofSeconds(7)), sleeps);
+  }
+
+  @Test
+  public void testGivesUpWhenTheBudgetRunsOut() {
+    ApiThrottle throttle = throttle(100, 100);
+    TooManyRequests tooManyRequests = new TooManyRequests(null);
+
+    // writes default to 4 attempts
+    TooManyRequests thrown = assertThrows(TooManyRequests.class,
+        () -> throttle.call("updateCustomer", ApiThrottle.Kind.WRITE, () -> { throw tooManyRequests; }));
+    assertSame(tooManyRequests, thrown);
+    assertEquals(3, sleeps.size());
+    assertEquals(4, throttle.metrics("updateCustomer").getAttempts());
+    assertEquals(1, throttle.metrics("updateCustomer").getFailures());
+
+    // or by time, even with attempts to spare
+    sleeps.clear();
+    throttle.setBudget("getCharge", new ApiThrottle.Budget(100, Duration.ofSeconds(30)));
+    assertThrows(TooManyRequests.class,
+        () -> throttle.call("getCharge", ApiThrottle.Kind.READ, () -> { throw new TooManyRequests(Duration.ofSeconds(20)); }));
+    assertEquals(List.of(Duration.ofSeconds(20)), sleeps);
+  }
+
+  @Test
+  public void testOtherErrorsAreNotRetried() {
+    ApiThrottle throttle = throttle(100, 100);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> throttle.call("getCharge", ApiThrottle.Kind.READ, () -> { throw new IllegalArgumentException("no such charge"); }));
+    assertTrue(sleeps.isEmpty());
+    assertEquals(1, throttle.metrics("getCharge").getAttempts());
+    assertEquals(0, throttle.metrics("getCharge").getRejected());
+  }
+
+  @Test
+  public void testMetricsSinceSnapshot() throws Exception {
+    ApiThrottle throttle = throttle(100, 100);
+    throttle.call("getCharge", ApiThrottle.Kind.READ, () -> "ok");
+    throttle.call("getCharge", ApiThrottle.Kind.READ, () -> "ok");
+
+    Map<String, ApiThrottle.Metrics> snapshot = throttle.snapshot();
+    throttle.call("getCharge", ApiThrottle.Kind.READ, () -> "ok");
+    throttle.call("updateCustomer", ApiThrottle.Kind.WRITE, () -> "ok");
+
+    Map<String, ApiThrottle.Metrics> since = throttle.metricsSince(snapshot);
+    assertEquals(1, since.get("getCharge").getCalls());
+    assertEquals(1, since.get("updateCustomer").getCalls());
+    // the live metrics are still cumulative, and the snapshot didn't move
+    assertEquals(3, throttle.metrics("getCharge").getCalls());
+    assertEquals(2, snapshot.get("getCharge").getCalls());
+    assertTrue(throttle.metricsSince(throttle.snapshot()).isEmpty());
+  }
+
+  private ApiThrottle throttle(double readsPerSecond, double writesPerSecond) {
+    return new ApiThrottle(
+        readsPerSecond,
+        writesPerSecond,
+        e -> e instanceof TooManyRequests,
+        e -> Optional.ofNullable(((TooManyRequests) e).retryAfter),
+        clock,
+        duration -> {
+          sleeps.add(duration);
+          clock.advance(duration);
+        },
+        new Random(42)
+    );
+  }
+
+  // ie, a 429
+  private static class TooManyRequests extends Exception {
+    private final Duration retryAfter;
+
+    private TooManyRequests(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+    }
+  }
+
+  private static class FakeClock extends Clock {
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    private Instant now = START;
+
+    private void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
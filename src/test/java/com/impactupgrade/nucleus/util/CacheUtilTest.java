@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.impactupgrade.nucleus.environment.EnvironmentConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheUtilTest {
+
+  @Test
+  public void testSharedReloadThreads() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    AtomicInteger loads = new AtomicInteger();
+
+    // previously, each of these would have started (and leaked) its own thread
+    List<LoadingCache<String, Integer>> caches = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      caches.add(CacheUtil.builder("reload-test-" + i).ticker(ticker).buildLoading(key -> loads.incrementAndGet()));
+    }
+    for (LoadingCache<String, Integer> cache : caches) {
+      cache.getUnchecked("key");
+    }
+
+    // every cache refreshes at once
+    ticker.advance(CacheUtil.DEFAULT_TTL.plusSeconds(1));
+    for (LoadingCache<String, Integer> cache : caches) {
+      cache.getUnchecked("key");
+    }
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (loads.get() < 100 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(100, loads.get());
+
+    long reloadThreads = Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().startsWith(CacheUtil.RELOAD_THREAD_PREFIX))
+        .count();
+    assertTrue(reloadThreads > 0 && reloadThreads <= CacheUtil.RELOAD_THREADS, "reload threads: " + reloadThreads);
+  }
+
+  @Test
+  public void testSizeEviction() {
+    Cache<Integer, String> cache = CacheUtil.builder("size-test").maximumSize(100).buildManual();
+    IntStream.range(0, 1_000).forEach(i -> cache.put(i, "value" + i));
+
+    cache.cleanUp();
+    assertTrue(cache.size() <= 100, "size: " + cache.size());
+    assertTrue(cache.stats().evictionCount() >= 900);
+  }
+
+  @Test
+  public void testWeightEviction() {
+    // weighted by list size, ie rows in a spreadsheet
+    Cache<String, List<Integer>> cache = CacheUtil.builder("weight-test")
+        .maximumWeight(1_000, (String key, List<Integer> rows) -> rows.size())
+        .buildManual();
+    for (int i = 0; i < 20; i++) {
+      cache.put("file" + i, IntStream.range(0, 100).boxed().toList());
+    }
+
+    cache.cleanUp();
+    long totalRows = cache.asMap().values().stream().mapToLong(List::size).sum();
+    assertTrue(totalRows <= 1_000, "rows: " + totalRows);
+  }
+
+  @Test
+  public void testExpiry() {
+    FakeTicker ticker = new FakeTicker();
+    Cache<String, String> cache = CacheUtil.builder("expiry-test").ticker(ticker).buildManual();
+    cache.put("key", "value");
+
+    ticker.advance(CacheUtil.DEFAULT_TTL.minusSeconds(1));
+    assertEquals("value", cache.getIfPresent("key"));
+    ticker.advance(Duration.ofSeconds(2));
+    assertNull(cache.getIfPresent("key"));
+  }
+
+  @Test
+  public void testEnvConfigOverrides() {
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    EnvironmentConfig.CacheSettings settings = new EnvironmentConfig.CacheSettings();
+    settings.maximumSize = 10L;
+    settings.expireAfterWriteSeconds = 60L;
+    envConfig.caches.put("override-test", settings);
+
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = CacheUtil.builder("override-test")
+        .maximumSize(1_000)
+        .expireAfterWrite(Duration.ofHours(1))
+        .config(envConfig)
+        .ticker(ticker)
+        .buildManual();
+
+    IntStream.range(0, 100).forEach(i -> cache.put(i, i));
+    cache.cleanUp();
+    assertTrue(cache.size() <= 10, "size: " + cache.size());
+
+    ticker.advance(Duration.ofSeconds(61));
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDeferredCacheTakesEnvConfig() {
+    CacheUtil.Deferred<Cache<Integer, Integer>> deferred = CacheUtil.builder("deferred-test")
+        .maximumSize(1_000)
+        .buildOnFirstUse(CacheUtil.Builder::buildManual);
+    // nothing is built (or registered) until first use
+    assertNull(CacheUtil.getCache("deferred-test"));
+
+    EnvironmentConfig envConfig = new EnvironmentConfig();
+    EnvironmentConfig.CacheSettings settings = new EnvironmentConfig.CacheSettings();
+    settings.maximumSize = 10L;
+    envConfig.caches.put("deferred-test", settings);
+    Cache<Integer, Integer> cache = deferred.get(envConfig);
+
+    IntStream.range(0, 100).forEach(i -> cache.put(i, i));
+    cache.cleanUp();
+    assertTrue(cache.size() <= 10, "size: " + cache.size());
+    // later envs share the same cache
+    assertSame(cache, deferred.get(new EnvironmentConfig()));
+    assertSame(cache, CacheUtil.getCache("deferred-test"));
+  }
+
+  @Test
+  public void testStatsAndWarmUp() {
+    LoadingCache<Integer, String> cache = CacheUtil.buildLoadingCache("stats-test", i -> {
+      if (i == 13) {
+        throw new IllegalStateException("unlucky");
+      }
+      return "value" + i;
+    });
+    assertSame(cache, CacheUtil.getCache("stats-test"));
+
+    // a failing key is skipped rather than failing the whole warm-up
+    CacheUtil.warmUp(cache, IntStream.range(0, 20).boxed().toList());
+    assertEquals(19, cache.size());
+
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+
+    Map<String, CacheStats> stats = CacheUtil.stats();
+    assertEquals(19, stats.get("stats-test").loadSuccessCount());
+    assertEquals(1, stats.get("stats-test").loadExceptionCount());
+    assertEquals(2, stats.get("stats-test").hitCount());
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    public void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  }
+}
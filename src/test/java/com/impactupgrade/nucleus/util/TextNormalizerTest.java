@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2024 3River Development LLC, DBA Impact Upgrade. All rights reserved.
+ */
+
+package com.impactupgrade.nucleus.util;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TextNormalizerTest {
+
+  // ASCII, the punctuation cleanUnicode handles, entity fragments, and some other non-ASCII
+  private static final String[] FRAGMENTS = {
+      "a", "Z", "0", "9", "_", "-", " ", "  ", "\t", ".", "'", "\"", "&", "&quot;", "&#039;", "&quot", "&#03", "#039;",
+      "\u2018", "\u2019", "\u201c", "\u201d", "\u254c", "\u254d", "\u2013", "\u2014", "\u2026", "\u00e9", "\u00df",
+      "\u0130", "\u0663", "Gala", "2024", "O'Brien"
+  };
+
+  @Test
+  public void testNormalizeStreet() {
+    assertEquals("123nmainstapt4", TextNormalizer.normalizeStreet("123 North Main Street, Apt. 4"));
+    assertEquals("", TextNormalizer.normalizeStreet(null));
+    assertEquals("", TextNormalizer.normalizeStreet(""));
+
+    // whole words only
+    assertEquals("1westminsterdr", TextNormalizer.normalizeStreet("1 Westminster Drive"));
+    assertEquals("9easternave", TextNormalizer.normalizeStreet("9 Eastern Avenue"));
+    assertEquals("5sorchardrd", TextNormalizer.normalizeStreet("5 S. Orchard Road"));
+    assertEquals("77neparkwayspl", TextNormalizer.normalizeStreet("77 North-East Parkways Place"));
+    assertEquals("77neparkwayspl", TextNormalizer.normalizeStreet("77 Northeast  parkways PL"));
+    // non-ASCII letters are dropped, without splitting the word they're in
+    assertEquals("1rueglise", TextNormalizer.normalizeStreet("1 Rue \u00c9glise"));
+  }
+
+  @Test
+  public void testNormalizeStreetEquivalence() {
+    // where no street word hides inside a longer one, the result must match the old substring replacements
+    String[] words = {"North", "south", "EAST", "West", "Northeast", "avenue", "Court", "cove", "Drive", "lane",
+        "Parkway", "place", "Ridge", "road", "Street", "main", "Oak", "elm", "Maple", "123", "4B", "apt", "#12"};
+    String[] separators = {" ", "  ", ", ", ". ", "-", "/"};
+    Random random = new Random(42);
+    for (int round = 0; round < 10_000; round++) {
+      StringBuilder street = new StringBuilder();
+      int wordCount = 1 + random.nextInt(6);
+      for (int i = 0; i < wordCount; i++) {
+        if (i > 0) {
+          street.append(separators[random.nextInt(separators.length)]);
+        }
+        street.append(words[random.nextInt(words.length)]);
+      }
+      assertEquals(legacyNormalizeStreet(street.toString()), TextNormalizer.normalizeStreet(street.toString()), street.toString());
+    }
+  }
+
+  @Test
+  public void testCleanUnicode() {
+    assertEquals("\"It's a -- test...\"", TextNormalizer.cleanUnicode("\u201cIt\u2019s a \u2014 test\u2026&quot;"));
+    assertEquals("O'Brien &amp; Co", TextNormalizer.cleanUnicode("O&#039;Brien &amp; Co"));
+    String clean = "Nothing to clean";
+    assertSame(clean, TextNormalizer.cleanUnicode(clean));
+    assertNull(TextNormalizer.cleanUnicode(null));
+    assertEquals("", TextNormalizer.cleanUnicode(""));
+  }
+
+  @Test
+  public void testToSlug() {
+    assertEquals("year_end_gala_2024", TextNormalizer.toSlug(" Year-End Gala (2024) ", true));
+    assertEquals("Year_End_Gala_2024", TextNormalizer.toSlug(" Year-End Gala (2024) ", false));
+    assertEquals("_a_", TextNormalizer.toSlug("__a__", true));
+    assertEquals("", TextNormalizer.toSlug(" - ", true));
+    assertNull(TextNormalizer.toSlug(null, true));
+  }
+
+  @Test
+  public void testFuzzEquivalence() {
+    Random random = new Random(7);
+    for (int round = 0; round < 50_000; round++) {
+      String s = randomText(random);
+      assertEquals(legacyCleanUnicode(s), TextNormalizer.cleanUnicode(s), s);
+      assertEquals(legacyToSlug(s, true), TextNormalizer.toSlug(s, true), s);
+      assertEquals(legacyToSlug(s, false), TextNormalizer.toSlug(s, false), s);
+      assertEquals(s.replaceAll("[^A-Za-z0-9]", ""), TextNormalizer.alphanumericOnly(s), s);
+      assertEquals(s.replaceAll("\\D", ""), TextNormalizer.numericOnly(s), s);
+    }
+  }
+
+  @Test
+  public void testCallingCodes() {
+    assertEquals(CountryCallingCode.US, CountryCallingCode.fromPhoneNumber("12605551234"));
+    assertEquals(CountryCallingCode.GUAM, CountryCallingCode.fromPhoneNumber("16715551234"));
+    assertEquals(CountryCallingCode.JAMAICA_2, CountryCallingCode.fromPhoneNumber("18765551234"));
+    assertEquals(CountryCallingCode.UKRAINE, CountryCallingCode.fromPhoneNumber("380977471695"));
+    assertEquals(CountryCallingCode.RUSSIA, CountryCallingCode.fromPhoneNumber("74951234567"));
+    assertNull(CountryCallingCode.fromPhoneNumber("42212345"));
+    assertNull(CountryCallingCode.fromPhoneNumber(""));
+
+    // NANP area codes stay part of the local number
+    assertEquals(List.of("671", "555", "1234"), Utils.parsePhoneNumber("+16715551234"));
+  }
+
+  @Test
+  public void testParsePhoneNumberEquivalence() {
+    Random random = new Random(11);
+    for (int round = 0; round < 50_000; round++) {
+      StringBuilder phone = new StringBuilder();
+      boolean international = random.nextBoolean();
+      if (international) {
+        phone.append('+');
+      }
+      int digits = (international ? 6 : 7) + random.nextInt(9);
+      for (int i = 0; i < digits; i++) {
+        phone.append((char) ('0' + random.nextInt(10)));
+        if (random.nextInt(5) == 0) {
+          phone.append(random.nextBoolean() ? '-' : ' ');
+        }
+      }
+      assertEquals(legacyParsePhoneNumber(phone.toString()), Utils.parsePhoneNumber(phone.toString()), phone.toString());
+    }
+  }
+
+  // Timing-sensitive, so only run on request: mvn test -Dbenchmarks=true
+  @Test
+  @Tag("benchmark")
+  @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+  public void testBenchmark() {
+    Random random = new Random(3);
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      texts.add(randomText(random));
+    }
+    List<String> streets = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      streets.add(random.nextInt(9999) + " " + (random.nextBoolean() ? "North " : "") + "Westminster "
+          + (random.nextBoolean() ? "Street" : "Avenue") + ", Apt. " + random.nextInt(99));
+    }
+
+    // warm up both, so neither pays for JIT compilation in the timed runs
+    for (int i = 0; i < 10_000; i++) {
+      legacy(texts.get(i), streets.get(i));
+      normalized(texts.get(i), streets.get(i));
+    }
+
+    long start = System.nanoTime();
+    int legacyLength = 0;
+    for (int i = 0; i < texts.size(); i++) {
+      legacyLength += legacy(texts.get(i), streets.get(i));
+    }
+    long legacyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    start = System.nanoTime();
+    int normalizedLength = 0;
+    for (int i = 0; i < texts.size(); i++) {
+      normalizedLength += normalized(texts.get(i), streets.get(i));
+    }
+    long normalizedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue(legacyLength > 0 && normalizedLength > 0);
+    assertTrue(normalizedMillis < legacyMillis, "100k texts: single pass " + normalizedMillis + "ms, legacy " + legacyMillis + "ms");
+  }
+
+  private int legacy(String text, String street) {
+    return legacyCleanUnicode(text).length() + legacyToSlug(text, true).length()
+        + legacyNormalizeStreet(street).length();
+  }
+
+  private int normalized(String text, String street) {
+    return TextNormalizer.cleanUnicode(text).length() + TextNormalizer.toSlug(text, true).length()
+        + TextNormalizer.normalizeStreet(street).length();
+  }
+
+  private String randomText(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int fragments = 1 + random.nextInt(12);
+    for (int i = 0; i < fragments; i++) {
+      sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+    }
+    return sb.toString();
+  }
+
+  // the original implementations
+
+  private static String legacyNormalizeStreet(String street) {
+    street = street.toLowerCase(Locale.ROOT).trim();
+    street = street.replace("avenue", "ave");
+    street = street.replace("court", "ct");
+    street = street.replace("cove", "cv");
+    street = street.replace("drive", "dr");
+    street = street.replace("lane", "ln");
+    street = street.replace("parkway", "pkwy");
+    street = street.replace("place", "pl");
+    street = street.replace("ridge", "rdg");
+    street = street.replace("road", "rd");
+    street = street.replace("street", "st");
+    street = street.replace("north", "n");
+    street = street.replace("south", "s");
+    street = street.replace("east", "e");
+    street = street.replace("west", "w");
+    return street.replaceAll("[^A-Za-z0-9]", "");
+  }
+
+  private static String legacyCleanUnicode(String s) {
+    if (s == null || s.isEmpty()) {
+      return s;
+    }
+    return s.replaceAll("[\\u2018\\u2019]", "'")
+        .replaceAll("[\\u201C\\u201D]", "\"")
+        .replaceAll("[\\u254C\\u254D\\u2013\\u2014]", "--")
+        .replaceAll("[\\u2026]", "...")
+        .replaceAll("&quot;", "\"")
+        .replaceAll("&#039;", "'");
+  }
+
+  private static String legacyToSlug(String s, boolean lowercase) {
+    s = s.trim().replaceAll("[^A-Za-z0-9_]+", "_");
+    if (s.startsWith("_")) s = s.substring(1);
+    if (s.endsWith("_")) s = s.substring(0, s.length() - 1);
+    if (lowercase) s = s.toLowerCase(Locale.ROOT);
+    return s;
+  }
+
+  private static List<String> legacyParsePhoneNumber(String phoneNumber) {
+    boolean internationalFormat = phoneNumber.startsWith("+");
+    String phone = phoneNumber.replaceAll("[\\D.]", "");
+    if (internationalFormat) {
+      if (phone.length() < 8) {
+        return Collections.emptyList();
+      }
+      boolean validCode = false;
+      for (CountryCallingCode countryCallingCode : CountryCallingCode.values()) {
+        String code = countryCallingCode.getCode().toString();
+        if (phone.startsWith(code)) {
+          validCode = true;
+          phone = phone.substring(code.length());
+          break;
+        }
+      }
+      if (!validCode) {
+        return Collections.emptyList();
+      }
+    }
+    List<String> phoneParts = new ArrayList<>();
+    phoneParts.add(phone.substring(0, 3));
+    phoneParts.add(phone.substring(3, Math.min(6, phone.length())));
+    if (phone.length() > 6) {
+      phoneParts.add(phone.substring(6));
+    }
+    return phoneParts;
+  }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class UtilsTest {
 
@@ -36,4 +37,20 @@ public class UtilsTest {
   public void parsePhoneNumber_internationalCodeNotValid() {
     assertEquals(List.of(), Utils.parsePhoneNumber("+42212345"));
   }
+
+  @Test
+  public void normalizePhoneNumber() {
+    assertEquals("12603495732", Utils.normalizePhoneNumber("+12603495732"));
+    assertEquals("12603495732", Utils.normalizePhoneNumber("260-349-5732"));
+    assertEquals("12603495732", Utils.normalizePhoneNumber("(260) 349-5732"));
+    assertEquals("12603495732", Utils.normalizePhoneNumber("1 260.349.5732"));
+    assertEquals("380977471695", Utils.normalizePhoneNumber("+380 97 747 1695"));
+
+    // partial or bogus
+    assertNull(Utils.normalizePhoneNumber("977471695"));
+    assertNull(Utils.normalizePhoneNumber("+3809"));
+    assertNull(Utils.normalizePhoneNumber("+1234567890123456"));
+    assertNull(Utils.normalizePhoneNumber(""));
+    assertNull(Utils.normalizePhoneNumber(null));
+  }
 }